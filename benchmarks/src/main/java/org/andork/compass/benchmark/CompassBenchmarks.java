@@ -0,0 +1,24 @@
+package org.andork.compass.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled, so that allocation rates
+ * are reported along with throughput. Accepts the same arguments as the JMH
+ * command line, for instance
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar SurveyParser -p megabytes=64
+ * </pre>
+ */
+public class CompassBenchmarks {
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		new Runner(new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class).build()).run();
+	}
+}
@@ -0,0 +1,545 @@
+package org.andork.compass.benchmark;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.andork.compass.CompassFiles;
+
+/**
+ * Generates random but realistic Compass data for benchmarking and load
+ * testing: .DAT files with varied <code>FORMAT:</code> strings, backsights,
+ * flags and comments, the matching .PLT files, and .MAK projects with link
+ * stations between the files.<br>
+ * <br>
+ * Output is written a trip at a time, so files of any size (KB to GB) can be
+ * generated without holding them in memory. The same seed always generates the
+ * same output.
+ */
+public class CompassCorpusGenerator {
+	private static final String CAVE_NAME = "Synthetic Cave";
+	private static final char[] AZIMUTH_UNITS = { 'D', 'Q', 'R' };
+	private static final char[] LENGTH_UNITS = { 'D', 'I', 'M' };
+	private static final char[] INCLINATION_UNITS = { 'D', 'G', 'M', 'R', 'W' };
+	private static final String[] COMMENTS = {
+		"Entrance Passage", "Main Drag", "crawl", "breakdown", "lead continues", "sump",
+		"tight squeeze", "big room", "pit", "formations", "stream passage", "dig",
+	};
+	/**
+	 * How many recently surveyed stations new trips can tie in to.
+	 */
+	private static final int TIE_IN_STATIONS = 1024;
+	/**
+	 * Northing, easting, and vertical of the first station, in feet.
+	 */
+	private static final double[] ORIGIN = { 14346580, 1173608, 10000 };
+
+	private final Random random;
+	private int tripCount = 0;
+
+	private final String[] tieInNames = new String[TIE_IN_STATIONS];
+	private final double[] tieInNorthing = new double[TIE_IN_STATIONS];
+	private final double[] tieInEasting = new double[TIE_IN_STATIONS];
+	private final double[] tieInVertical = new double[TIE_IN_STATIONS];
+	private final double[] tieInDistance = new double[TIE_IN_STATIONS];
+	private int tieInCount = 0;
+
+	private final StringBuilder dat = new StringBuilder();
+	private final StringBuilder plot = new StringBuilder();
+
+	public CompassCorpusGenerator(long seed) {
+		random = new Random(seed);
+		addTieIn("A0", ORIGIN[0], ORIGIN[1], ORIGIN[2], 0);
+	}
+
+	/**
+	 * Usage: <code>&lt;directory&gt; &lt;name&gt; &lt;file count&gt; &lt;size per
+	 * file&gt; [&lt;seed&gt;]</code>, where the size is in bytes with an optional
+	 * KB, MB, or GB suffix.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.out
+				.println(
+					"Usage: java " + CompassCorpusGenerator.class.getName()
+						+ " <directory> <name> <file count> <size per file, e.g. 10MB> [<seed>]");
+			return;
+		}
+		long seed = args.length > 4 ? Long.parseLong(args[4]) : 0;
+		Path project = new CompassCorpusGenerator(seed)
+			.writeProject(Paths.get(args[0]), args[1], Integer.parseInt(args[2]), parseSize(args[3]));
+		System.out.println("Wrote " + project);
+	}
+
+	static long parseSize(String size) {
+		String upper = size.trim().toUpperCase(Locale.ROOT);
+		long multiplier = 1;
+		if (upper.endsWith("KB")) {
+			multiplier = 1L << 10;
+		}
+		else if (upper.endsWith("MB")) {
+			multiplier = 1L << 20;
+		}
+		else if (upper.endsWith("GB")) {
+			multiplier = 1L << 30;
+		}
+		if (multiplier != 1) {
+			upper = upper.substring(0, upper.length() - 2).trim();
+		}
+		return Long.parseLong(upper) * multiplier;
+	}
+
+	/**
+	 * @return .DAT text at least {@code minLength} characters long.
+	 */
+	public String survey(int minLength) {
+		StringBuilder out = new StringBuilder(minLength + 4096);
+		try {
+			writeSurvey(out, null, minLength, false);
+		}
+		catch (IOException ex) {
+			throw new AssertionError(ex);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @return .PLT text at least {@code minLength} characters long.
+	 */
+	public String plot(int minLength) {
+		StringBuilder out = new StringBuilder(minLength + 4096);
+		try {
+			writeSurvey(null, out, minLength, true);
+		}
+		catch (IOException ex) {
+			throw new AssertionError(ex);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @return the .MAK text that {@link #writeProject(Path, String, int, long)}
+	 *         would write for {@code fileCount} .DAT files of one trip each,
+	 *         without keeping the .DAT and .PLT text. The link stations are
+	 *         stations of those trips.
+	 */
+	public String project(int fileCount) {
+		StringWriter mak = new StringWriter();
+		try {
+			writeProject("SYN", fileCount, 1, file -> file.endsWith(".MAK") ? mak : new NullWriter());
+		}
+		catch (IOException ex) {
+			throw new AssertionError(ex);
+		}
+		return mak.toString();
+	}
+
+	/**
+	 * Writes a .MAK project named {@code name} with {@code fileCount} .DAT files
+	 * of about {@code bytesPerFile} each, and a matching .PLT file for each .DAT
+	 * file. Each .DAT file ties in to the last station of the previous one, which
+	 * is listed as a link station in the .MAK file along with a few stations of
+	 * the file itself.
+	 *
+	 * @return the path of the .MAK file
+	 */
+	public Path writeProject(Path directory, String name, int fileCount, long bytesPerFile) throws IOException {
+		Files.createDirectories(directory);
+		writeProject(
+			name,
+			fileCount,
+			bytesPerFile,
+			file -> Files.newBufferedWriter(directory.resolve(file), CompassFiles.CHARSET));
+		return directory.resolve(name + ".MAK");
+	}
+
+	@FunctionalInterface
+	private interface Output {
+		Writer newWriter(String file) throws IOException;
+	}
+
+	private void writeProject(String name, int fileCount, long bytesPerFile, Output output) throws IOException {
+		int last = (tieInCount - 1) % TIE_IN_STATIONS;
+		double[] firstLocation = { tieInNorthing[last], tieInEasting[last], tieInVertical[last] };
+		List<String> files = new ArrayList<>();
+		List<List<String>> linkStations = new ArrayList<>();
+		for (int i = 0; i < fileCount; i++) {
+			String file = fileName(name, i);
+			List<String> links = new ArrayList<>();
+			links.add(tieInNames[(tieInCount - 1) % TIE_IN_STATIONS]);
+			try (
+				Writer dat = output.newWriter(file);
+				Writer plot = output.newWriter(file.replaceFirst("\\.DAT$", ".PLT"))) {
+				// only tie in to stations in this file and the link station
+				tieInNames[0] = links.get(0);
+				tieInNorthing[0] = tieInNorthing[(tieInCount - 1) % TIE_IN_STATIONS];
+				tieInEasting[0] = tieInEasting[(tieInCount - 1) % TIE_IN_STATIONS];
+				tieInVertical[0] = tieInVertical[(tieInCount - 1) % TIE_IN_STATIONS];
+				tieInDistance[0] = tieInDistance[(tieInCount - 1) % TIE_IN_STATIONS];
+				tieInCount = 1;
+				writeSurvey(dat, plot, bytesPerFile, false);
+			}
+			// also link a few stations this file defines
+			int extraLinks = random.nextInt(4);
+			for (int s = 0; s < extraLinks; s++) {
+				String station = tieInNames[1 + random.nextInt(Math.min(tieInCount, TIE_IN_STATIONS) - 1)];
+				if (!links.contains(station)) {
+					links.add(station);
+				}
+			}
+			files.add(file);
+			linkStations.add(links);
+		}
+		try (Writer out = output.newWriter(name + ".MAK")) {
+			writeMak(out, files, linkStations, firstLocation);
+		}
+	}
+
+	private static String fileName(String name, int index) {
+		return name + (index + 1) + ".DAT";
+	}
+
+	/**
+	 * @param firstLocation the northing, easting, and vertical of the first link
+	 *                      station of the first file
+	 */
+	private void writeMak(Appendable out, List<String> files, List<List<String>> linkStations, double[] firstLocation)
+		throws IOException {
+		out.append("@357715.717,4372837.574,3048.000,13,-1.050;\r\n");
+		out.append("&North American 1983;\r\n");
+		out.append("$13;\r\n");
+		out.append("!OtT;\r\n");
+		out.append("/ generated by ").append(getClass().getSimpleName()).append("\r\n");
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < files.size(); i++) {
+			out.append('#').append(files.get(i));
+			List<String> links = linkStations.get(i);
+			for (int s = 0; s < links.size(); s++) {
+				out.append(",\r\n ").append(links.get(s));
+				// give the first link station of the first file a fixed location
+				if (i == 0 && s == 0) {
+					line.setLength(0);
+					line.append("[f,");
+					appendFixed(line, firstLocation[1], 3, 0);
+					line.append(',');
+					appendFixed(line, firstLocation[0], 3, 0);
+					line.append(',');
+					appendFixed(line, firstLocation[2], 3, 0);
+					line.append(']');
+					out.append(line);
+				}
+			}
+			out.append(";\r\n");
+		}
+		out.append('\u001a');
+	}
+
+	/**
+	 * Writes trips to {@code dat} and/or {@code plot} (either may be
+	 * <code>null</code>) until the one chosen by {@code sizeByPlot} has at least
+	 * {@code minLength} characters.
+	 */
+	private void writeSurvey(Appendable datOut, Appendable plotOut, long minLength, boolean sizeByPlot)
+		throws IOException {
+		long length = 0;
+		double[] bounds = { Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE,
+			Double.MAX_VALUE, -Double.MAX_VALUE };
+		if (plotOut != null) {
+			plotOut.append("G13\r\n");
+			plotOut.append("ONorth American 1983\r\n");
+			plotOut.append('S').append(CAVE_NAME.toUpperCase(Locale.ROOT)).append("\r\n");
+		}
+		do {
+			dat.setLength(0);
+			plot.setLength(0);
+			writeTrip(bounds);
+			if (datOut != null) {
+				datOut.append(dat);
+			}
+			if (plotOut != null) {
+				plotOut.append(plot);
+			}
+			length += sizeByPlot ? plot.length() : dat.length();
+		} while (length < minLength);
+		if (datOut != null) {
+			datOut.append('\u001a');
+		}
+		if (plotOut != null) {
+			// Compass writes the cave bounds first, but they aren't known until the
+			// end when streaming
+			plot.setLength(0);
+			plot.append('Z');
+			appendBounds(plot, bounds);
+			plot.append(" I ");
+			appendFixed(plot, tieInDistance[(tieInCount - 1) % TIE_IN_STATIONS], 1, 9);
+			plot.append("\r\n\u001a");
+			plotOut.append(plot);
+		}
+	}
+
+	private void writeTrip(double[] caveBounds) {
+		String surveyName = Integer.toString(tripCount++, 36).toUpperCase(Locale.ROOT);
+		int month = 1 + random.nextInt(12);
+		int day = 1 + random.nextInt(28);
+		int year = 1970 + random.nextInt(50);
+		String comment = COMMENTS[random.nextInt(COMMENTS.length)];
+		boolean hasBacksights = random.nextInt(3) == 0;
+
+		dat.append(CAVE_NAME).append("\r\n");
+		dat.append("SURVEY NAME: ").append(surveyName).append("\r\n");
+		dat.append("SURVEY DATE: ").append(month).append(' ').append(day).append(' ').append(year);
+		dat.append("  COMMENT:").append(comment).append("\r\n");
+		dat.append("SURVEY TEAM:\r\n");
+		dat.append("Synthetic Surveyor, Random Number\r\n");
+		dat.append("DECLINATION: ");
+		appendFixed(dat, random.nextDouble() * 40 - 20, 2, 7);
+		dat.append("  FORMAT: ").append(randomFormat(hasBacksights));
+		dat.append("  CORRECTIONS:  ");
+		appendCorrection(dat);
+		dat.append(' ');
+		appendCorrection(dat);
+		dat.append(' ');
+		appendCorrection(dat);
+		if (hasBacksights) {
+			dat.append("  CORRECTIONS2:  ");
+			appendCorrection(dat);
+			dat.append(' ');
+			appendCorrection(dat);
+		}
+		dat.append("\r\n\r\n");
+		dat.append("        FROM           TO   LENGTH  BEARING      INC     LEFT       UP     DOWN    RIGHT");
+		if (hasBacksights) {
+			dat.append("   AZM2   INC2");
+		}
+		dat.append("   FLAGS  COMMENTS\r\n\r\n");
+
+		plot.append('N').append(surveyName).append(" D ");
+		plot.append(month).append(' ').append(day).append(' ').append(year);
+		plot.append(" C").append(comment).append("\r\n");
+
+		double[] surveyBounds = { Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE,
+			Double.MAX_VALUE, -Double.MAX_VALUE };
+
+		int tieIn = random.nextInt(Math.min(tieInCount, TIE_IN_STATIONS));
+		String from = tieInNames[tieIn];
+		double northing = tieInNorthing[tieIn];
+		double easting = tieInEasting[tieIn];
+		double vertical = tieInVertical[tieIn];
+		double distance = tieInDistance[tieIn];
+		double[] lruds = randomLruds();
+		appendPlotLine('M', northing, easting, vertical, from, lruds, distance, surveyBounds);
+
+		int shotCount = 5 + random.nextInt(40);
+		for (int i = 1; i <= shotCount; i++) {
+			String to = surveyName + "." + i;
+			double length = 1 + random.nextDouble() * 60;
+			double azimuth = random.nextDouble() * 360;
+			double inclination = random.nextInt(20) == 0 ? random.nextDouble() * 180 - 90 : random.nextGaussian() * 15;
+			inclination = Math.max(-90, Math.min(90, inclination));
+			lruds = randomLruds();
+
+			dat.append(' ');
+			appendPadded(dat, from, 11);
+			dat.append(' ');
+			appendPadded(dat, to, 12);
+			appendFixed(dat, length, 2, 9);
+			appendFixed(dat, azimuth >= 359.995 ? 0 : azimuth, 2, 9);
+			appendFixed(dat, inclination, 2, 9);
+			for (double lrud : lruds) {
+				appendFixed(dat, Double.isNaN(lrud) ? -9999 : lrud, 2, 9);
+			}
+			if (hasBacksights) {
+				double backsightAzimuth = (azimuth + 180 + random.nextGaussian()) % 360;
+				appendFixed(dat, backsightAzimuth < 0 || backsightAzimuth >= 359.995 ? 0 : backsightAzimuth, 2, 7);
+				appendFixed(dat, Math.max(-90, Math.min(90, -inclination + random.nextGaussian())), 2, 7);
+			}
+			if (random.nextInt(10) == 0) {
+				dat.append(" #|");
+				if (random.nextBoolean()) {
+					dat.append('L');
+				}
+				if (random.nextBoolean()) {
+					dat.append('P');
+				}
+				if (random.nextInt(4) == 0) {
+					dat.append('X');
+				}
+				if (random.nextBoolean()) {
+					dat.append('C');
+				}
+				dat.append('#');
+			}
+			if (random.nextInt(8) == 0) {
+				dat.append(' ').append(COMMENTS[random.nextInt(COMMENTS.length)]);
+			}
+			dat.append("\r\n");
+
+			double horizontal = length * Math.cos(Math.toRadians(inclination));
+			northing += horizontal * Math.cos(Math.toRadians(azimuth));
+			easting += horizontal * Math.sin(Math.toRadians(azimuth));
+			vertical += length * Math.sin(Math.toRadians(inclination));
+			distance += length;
+			appendPlotLine('D', northing, easting, vertical, to, lruds, distance, surveyBounds);
+			addTieIn(to, northing, easting, vertical, distance);
+			from = to;
+		}
+		dat.append("\f\r\n");
+
+		plot.append('X');
+		appendBounds(plot, surveyBounds);
+		plot.append("\r\n");
+		for (int i = 0; i < 6; i += 2) {
+			caveBounds[i] = Math.min(caveBounds[i], surveyBounds[i]);
+			caveBounds[i + 1] = Math.max(caveBounds[i + 1], surveyBounds[i + 1]);
+		}
+	}
+
+	private String randomFormat(boolean hasBacksights) {
+		StringBuilder format = new StringBuilder(15);
+		format.append(AZIMUTH_UNITS[random.nextInt(AZIMUTH_UNITS.length)]);
+		format.append(LENGTH_UNITS[random.nextInt(LENGTH_UNITS.length)]);
+		format.append(LENGTH_UNITS[random.nextInt(LENGTH_UNITS.length)]);
+		format.append(INCLINATION_UNITS[random.nextInt(INCLINATION_UNITS.length)]);
+		format.append(shuffle("LRUD"));
+		format.append(shuffle(hasBacksights && random.nextBoolean() ? "LADad" : "LAD"));
+		format.append(hasBacksights ? 'B' : 'N');
+		format.append(random.nextInt(4) == 0 ? 'T' : 'F');
+		return format.toString();
+	}
+
+	private String shuffle(String items) {
+		char[] chars = items.toCharArray();
+		for (int i = chars.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			char temp = chars[i];
+			chars[i] = chars[j];
+			chars[j] = temp;
+		}
+		return new String(chars);
+	}
+
+	private void appendCorrection(StringBuilder out) {
+		appendFixed(out, random.nextInt(5) == 0 ? random.nextGaussian() : 0, 2, 0);
+	}
+
+	/**
+	 * @return left, up, down, right, with <code>NaN</code> for passage.
+	 */
+	private double[] randomLruds() {
+		double[] lruds = new double[4];
+		for (int i = 0; i < 4; i++) {
+			lruds[i] = random.nextInt(15) == 0 ? Double.NaN : Math.abs(random.nextGaussian() * 8);
+		}
+		return lruds;
+	}
+
+	private void appendPlotLine(
+		char command,
+		double northing,
+		double easting,
+		double vertical,
+		String station,
+		double[] lruds,
+		double distance,
+		double[] bounds) {
+		plot.append(command).append(' ');
+		appendFixed(plot, northing, 2, 11);
+		plot.append(' ');
+		appendFixed(plot, easting, 2, 11);
+		plot.append(' ');
+		appendFixed(plot, vertical, 2, 8);
+		plot.append("  S").append(station).append("  P");
+		for (double lrud : lruds) {
+			plot.append(' ');
+			appendFixed(plot, Double.isNaN(lrud) ? -9999 : lrud, 1, 6);
+		}
+		plot.append(" I ");
+		appendFixed(plot, distance, 1, 8);
+		plot.append("\r\n");
+		bounds[0] = Math.min(bounds[0], northing);
+		bounds[1] = Math.max(bounds[1], northing);
+		bounds[2] = Math.min(bounds[2], easting);
+		bounds[3] = Math.max(bounds[3], easting);
+		bounds[4] = Math.min(bounds[4], vertical);
+		bounds[5] = Math.max(bounds[5], vertical);
+	}
+
+	private static void appendBounds(StringBuilder out, double[] bounds) {
+		for (double bound : bounds) {
+			out.append(' ');
+			appendFixed(out, bound, 2, 11);
+		}
+	}
+
+	private void addTieIn(String name, double northing, double easting, double vertical, double distance) {
+		int i = tieInCount++ % TIE_IN_STATIONS;
+		tieInNames[i] = name;
+		tieInNorthing[i] = northing;
+		tieInEasting[i] = easting;
+		tieInVertical[i] = vertical;
+		tieInDistance[i] = distance;
+	}
+
+	private static void appendPadded(StringBuilder out, String text, int width) {
+		for (int i = text.length(); i < width; i++) {
+			out.append(' ');
+		}
+		out.append(text);
+	}
+
+	/**
+	 * Appends {@code value} rounded to {@code decimals} places, right-aligned in
+	 * {@code width} characters, without the overhead of {@link String#format}.
+	 */
+	static void appendFixed(StringBuilder out, double value, int decimals, int width) {
+		long scale = 1;
+		for (int i = 0; i < decimals; i++) {
+			scale *= 10;
+		}
+		long scaled = Math.round(Math.abs(value) * scale);
+		boolean negative = value < 0 && scaled != 0;
+		long integer = scaled / scale;
+		long fraction = scaled % scale;
+
+		int start = out.length();
+		if (negative) {
+			out.append('-');
+		}
+		out.append(integer);
+		if (decimals > 0) {
+			out.append('.');
+			int fractionStart = out.length();
+			out.append(fraction);
+			while (out.length() - fractionStart < decimals) {
+				out.insert(fractionStart, '0');
+			}
+		}
+		while (out.length() - start < width) {
+			out.insert(start, ' ');
+		}
+	}
+
+	/**
+	 * Discards everything written to it.
+	 */
+	private static class NullWriter extends Writer {
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package org.andork.compass.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts what each benchmark invocation parsed, so that JMH reports bytes/s
+ * and items/s (shots, plot commands, or project directives) alongside ops/s.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ParseCounters {
+	public long bytes;
+	public long items;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		bytes = 0;
+		items = 0;
+	}
+}
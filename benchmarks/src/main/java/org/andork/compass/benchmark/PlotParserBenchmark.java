@@ -0,0 +1,101 @@
+package org.andork.compass.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.andork.compass.plot.CompassPlotCommand;
+import org.andork.compass.plot.CompassPlotParser;
+import org.andork.compass.plot.PlotVertexBuffers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link CompassPlotParser} throughput on a .PLT corpus of
+ * {@link #megabytes} size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlotParserBenchmark {
+	@Param("4")
+	public int megabytes;
+
+	@Param("0")
+	public long seed;
+
+	private String text;
+	private FloatBuffer positions;
+	private FloatBuffer lruds;
+	private ByteBuffer operations;
+	private IntBuffer stationIds;
+
+	@Setup
+	public void setup() {
+		text = new CompassCorpusGenerator(seed).plot(megabytes << 20);
+		int lines = 1;
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == '\n') {
+				lines++;
+			}
+		}
+		positions = directFloats(lines * 3);
+		lruds = directFloats(lines * 4);
+		operations = ByteBuffer.allocateDirect(lines);
+		stationIds = ByteBuffer.allocateDirect(lines * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	private static FloatBuffer directFloats(int count) {
+		return ByteBuffer.allocateDirect(count * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	@Benchmark
+	public List<CompassPlotCommand> parsePlot(ParseCounters counters) throws IOException {
+		CompassPlotParser parser = new CompassPlotParser();
+		List<CompassPlotCommand> commands = parser.parsePlot(new StringReader(text), "benchmark");
+		counters.bytes += text.length();
+		counters.items += commands.size();
+		return commands;
+	}
+
+	@Benchmark
+	public void parseStreaming(ParseCounters counters, Blackhole blackhole) throws IOException {
+		CompassPlotParser parser = new CompassPlotParser();
+		parser.parsePlot(new StringReader(text), "benchmark", command -> {
+			counters.items++;
+			blackhole.consume(command);
+		});
+		counters.bytes += text.length();
+	}
+
+	@Benchmark
+	public int parseVertices(ParseCounters counters) throws IOException {
+		positions.clear();
+		lruds.clear();
+		operations.clear();
+		stationIds.clear();
+		PlotVertexBuffers buffers = PlotVertexBuffers.ofFloats(positions, lruds, operations, stationIds, 0, 0, 0);
+		new CompassPlotParser().parseVertices(new StringReader(text), "benchmark", buffers);
+		counters.bytes += text.length();
+		counters.items += buffers.getVertexCount();
+		return buffers.getVertexCount();
+	}
+}
@@ -0,0 +1,57 @@
+package org.andork.compass.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.andork.compass.project.CompassProjectCollector;
+import org.andork.compass.project.CompassProjectDirective;
+import org.andork.compass.project.CompassProjectParser;
+import org.andork.segment.Segment;
+import org.andork.segment.SegmentParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CompassProjectParser} throughput on a .MAK file referencing
+ * {@link #files} survey files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectParserBenchmark {
+	@Param("10000")
+	public int files;
+
+	@Param("0")
+	public long seed;
+
+	private String text;
+
+	@Setup
+	public void setup() {
+		text = new CompassCorpusGenerator(seed).project(files);
+	}
+
+	@Benchmark
+	public List<CompassProjectDirective> parseProject(ParseCounters counters)
+		throws IOException, SegmentParseException {
+		CompassProjectCollector collector = new CompassProjectCollector();
+		new CompassProjectParser(collector).parse(new Segment(text, "benchmark", 0, 0));
+		counters.bytes += text.length();
+		counters.items += collector.getDirectives().size();
+		return collector.getDirectives();
+	}
+}
@@ -0,0 +1,82 @@
+package org.andork.compass.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.andork.compass.survey.CompassShot;
+import org.andork.compass.survey.CompassSurveyParser;
+import org.andork.compass.survey.CompassSurveyVisitor;
+import org.andork.compass.survey.CompassTrip;
+import org.andork.compass.survey.CompassTripHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link CompassSurveyParser} throughput on a .DAT corpus of
+ * {@link #megabytes} size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SurveyParserBenchmark {
+	@Param("4")
+	public int megabytes;
+
+	@Param("0")
+	public long seed;
+
+	private String text;
+
+	@Setup
+	public void setup() {
+		text = new CompassCorpusGenerator(seed).survey(megabytes << 20);
+	}
+
+	@Benchmark
+	public List<CompassTrip> parseTrips(ParseCounters counters) {
+		CompassSurveyParser parser = new CompassSurveyParser();
+		List<CompassTrip> trips = parser.parseCompassSurveyData(text, "benchmark");
+		counters.bytes += text.length();
+		for (CompassTrip trip : trips) {
+			counters.items += trip.getShots().size();
+		}
+		return trips;
+	}
+
+	@Benchmark
+	public void parseStreaming(ParseCounters counters, Blackhole blackhole) throws IOException {
+		CompassSurveyParser parser = new CompassSurveyParser();
+		parser.parseCompassSurveyData(new StringReader(text), "benchmark", new CompassSurveyVisitor() {
+			@Override
+			public void tripHeader(CompassTripHeader header) {
+				blackhole.consume(header);
+			}
+
+			@Override
+			public void shot(CompassShot shot) {
+				counters.items++;
+				blackhole.consume(shot);
+			}
+
+			@Override
+			public void endTrip() {
+			}
+		});
+		counters.bytes += text.length();
+	}
+}
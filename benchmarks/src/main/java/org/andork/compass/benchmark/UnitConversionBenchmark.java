@@ -0,0 +1,113 @@
+package org.andork.compass.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.andork.compass.UnitArrays;
+import org.andork.compass.survey.CompassShotColumns;
+import org.andork.compass.survey.CompassSurveyParser;
+import org.andork.unit.Angle;
+import org.andork.unit.Length;
+import org.andork.unit.UnitizedDouble;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares converting the lengths and azimuths of a {@link CompassShotColumns}
+ * to meters and radians one {@link UnitizedDouble} at a time with converting
+ * whole columns through {@link UnitArrays}. The shots come from a .DAT corpus
+ * of {@link #megabytes} size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UnitConversionBenchmark {
+	@Param("4")
+	public int megabytes;
+
+	@Param("0")
+	public long seed;
+
+	private CompassShotColumns columns;
+	private double[] feet;
+	private double[] degrees;
+	private double[] meters;
+	private double[] radians;
+
+	@Setup
+	public void setup() throws IOException {
+		columns = new CompassShotColumns();
+		new CompassSurveyParser()
+			.parseCompassSurveyData(
+				new StringReader(new CompassCorpusGenerator(seed).survey(megabytes << 20)),
+				"benchmark",
+				columns);
+		int size = columns.size();
+		feet = new double[size];
+		degrees = new double[size];
+		meters = new double[size];
+		radians = new double[size];
+		columns.getColumn(CompassShotColumns.LENGTH, 0, feet, 0, size);
+		columns.getColumn(CompassShotColumns.FRONTSIGHT_AZIMUTH, 0, degrees, 0, size);
+	}
+
+	/**
+	 * Converts through the {@link org.andork.compass.survey.CompassShot} model,
+	 * the way consumers of parsed trips do.
+	 */
+	@Benchmark
+	public double[] shotViews(ParseCounters counters) {
+		CompassShotColumns.View view = columns.view(0);
+		for (int i = 0; i < meters.length; i++) {
+			view.moveTo(i);
+			UnitizedDouble<Length> length = view.getLength();
+			meters[i] = length == null ? Double.NaN : length.get(Length.meters);
+			UnitizedDouble<Angle> azimuth = view.getFrontsightAzimuth();
+			radians[i] = azimuth == null ? Double.NaN : azimuth.get(Angle.radians);
+		}
+		counters.items += meters.length;
+		return meters;
+	}
+
+	@Benchmark
+	public double[] unitizedDoubles(ParseCounters counters) {
+		for (int i = 0; i < meters.length; i++) {
+			meters[i] = Length.feet(feet[i]).get(Length.meters);
+			radians[i] = Angle.degrees(degrees[i]).get(Angle.radians);
+		}
+		counters.items += meters.length;
+		return meters;
+	}
+
+	@Benchmark
+	public double[] unitArrays(ParseCounters counters) {
+		UnitArrays.feetToMeters(feet, 0, meters, 0, meters.length);
+		UnitArrays.degreesToRadians(degrees, 0, radians, 0, radians.length);
+		counters.items += meters.length;
+		return meters;
+	}
+
+	/**
+	 * Copies and converts straight out of the columns.
+	 */
+	@Benchmark
+	public double[] columnsInMetersOrRadians(ParseCounters counters) {
+		columns.getColumnInMetersOrRadians(CompassShotColumns.LENGTH, 0, meters, 0, meters.length);
+		columns.getColumnInMetersOrRadians(CompassShotColumns.FRONTSIGHT_AZIMUTH, 0, radians, 0, radians.length);
+		counters.items += meters.length;
+		return meters;
+	}
+}
@@ -0,0 +1,89 @@
+package org.andork.compass.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.andork.compass.plot.CompassPlotParser;
+import org.andork.compass.project.CompassProject;
+import org.andork.compass.project.CompassProjectDirective;
+import org.andork.compass.project.CompassProjectFile;
+import org.andork.compass.project.CompassProjectLoader;
+import org.andork.compass.project.FileDirective;
+import org.andork.compass.project.LinkStation;
+import org.andork.compass.survey.CompassShot;
+import org.andork.compass.survey.CompassTrip;
+import org.andork.segment.SegmentParseException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompassCorpusGeneratorTests {
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("compass-corpus");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testProjectParsesWithoutErrors() throws IOException, SegmentParseException {
+		Path mak = new CompassCorpusGenerator(0).writeProject(directory, "SYN", 3, 20000);
+		CompassProject project = new CompassProjectLoader(2).load(mak);
+
+		Assert.assertEquals(3, project.files.size());
+		for (CompassProjectFile file : project.files) {
+			Assert.assertNull(file.path.toString(), file.exception);
+			Assert.assertEquals(file.path.toString(), 0, file.errors.size());
+			Assert.assertFalse(file.trips.isEmpty());
+
+			Path plot = file.path.resolveSibling(file.path.getFileName().toString().replaceFirst("\\.DAT$", ".PLT"));
+			CompassPlotParser plotParser = new CompassPlotParser();
+			Assert.assertFalse(plotParser.parsePlot(plot).isEmpty());
+			Assert.assertEquals(plot.toString(), 0, plotParser.getErrors().size());
+		}
+		Assert.assertFalse(project.hasErrors());
+
+		for (CompassProjectDirective directive : project.directives) {
+			if (directive instanceof FileDirective) {
+				for (LinkStation link : ((FileDirective) directive).linkStations) {
+					Assert.assertTrue(link.name, isSurveyed(project, link.name));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testProjectMatchesWrittenProject() throws IOException {
+		Path mak = new CompassCorpusGenerator(1).writeProject(directory, "SYN", 5, 1);
+		Assert.assertEquals(
+			new String(Files.readAllBytes(mak), "ASCII"),
+			new CompassCorpusGenerator(1).project(5));
+	}
+
+	private static boolean isSurveyed(CompassProject project, String station) {
+		for (CompassProjectFile file : project.files) {
+			if (file.trips == null) {
+				continue;
+			}
+			for (CompassTrip trip : file.trips) {
+				for (CompassShot shot : trip.getShots()) {
+					if (station.equals(shot.getFromStationName()) || station.equals(shot.getToStationName())) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+}
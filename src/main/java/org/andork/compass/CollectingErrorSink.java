@@ -0,0 +1,84 @@
+package org.andork.compass;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link ErrorSink} that keeps the errors and warnings it receives in a
+ * list. If constructed with a maximum, it only keeps that many and counts the
+ * rest, so that parsing garbage doesn't use unbounded memory.
+ */
+public class CollectingErrorSink implements ErrorSink {
+	private final int maxErrors;
+	private final List<CompassParseError> errors = new ArrayList<>();
+	private int droppedCount;
+
+	public CollectingErrorSink() {
+		this(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param maxErrors the maximum number of errors and warnings to keep
+	 */
+	public CollectingErrorSink(int maxErrors) {
+		if (maxErrors < 0) {
+			throw new IllegalArgumentException("maxErrors must be >= 0");
+		}
+		this.maxErrors = maxErrors;
+	}
+
+	@Override
+	public void accept(CompassParseError error) {
+		if (errors.size() < maxErrors) {
+			errors.add(error);
+		}
+		else {
+			drop(error);
+		}
+	}
+
+	/**
+	 * Counts the given error or warning without keeping it.
+	 */
+	protected void drop(CompassParseError error) {
+		droppedCount++;
+	}
+
+	/**
+	 * Adds the errors and dropped count of the given sink to this one, as if
+	 * this sink had received everything the other did.
+	 */
+	public void addAll(CollectingErrorSink other) {
+		for (CompassParseError error : other.errors) {
+			accept(error);
+		}
+		droppedCount += other.droppedCount;
+	}
+
+	public int getMaxErrors() {
+		return maxErrors;
+	}
+
+	/**
+	 * @return the errors and warnings kept so far, in the order they were
+	 *         received.
+	 */
+	public List<CompassParseError> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @return the number of errors and warnings that weren't kept because the
+	 *         maximum had been reached.
+	 */
+	public int getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * @return whether any errors or warnings weren't kept.
+	 */
+	public boolean isTruncated() {
+		return droppedCount > 0;
+	}
+}
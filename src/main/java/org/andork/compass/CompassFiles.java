@@ -0,0 +1,106 @@
+package org.andork.compass;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The input and output layer shared by all of the parsers and writers. Compass
+ * writes its files in the Windows ANSI code page, so they are decoded and
+ * encoded as windows-1252 (a superset of ASCII), and files on disk are
+ * memory-mapped rather than copied into intermediate byte arrays.<br>
+ * <br>
+ * Decoded text still gets copied: the parsers work on
+ * {@link org.andork.segment.Segment}s, which are backed by {@link String}s, so
+ * characters are copied from the decode buffer into a {@link String} once (per
+ * trip for .DAT files, per file for {@link #readString(Path)}).
+ */
+public class CompassFiles {
+	public static final Charset CHARSET = Charset.forName("windows-1252");
+
+	private CompassFiles() {
+
+	}
+
+	/**
+	 * @return a memory-mapped reader for the file at the given {@code path}.
+	 */
+	public static Reader newReader(Path path) throws IOException {
+		return new MappedFileReader(path, CHARSET);
+	}
+
+	public static Reader newReader(InputStream in) {
+		return new InputStreamReader(in, CHARSET);
+	}
+
+	public static Reader newReader(ReadableByteChannel channel) {
+		return Channels.newReader(channel, CHARSET
+			.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE), -1);
+	}
+
+	/**
+	 * @return a writer that encodes to the file at the given {@code path}, which
+	 *         is created or truncated. Characters that windows-1252 can't
+	 *         represent are written as {@code ?}.
+	 */
+	public static Writer newWriter(Path path) throws IOException {
+		return newWriter(Files.newOutputStream(path));
+	}
+
+	public static Writer newWriter(OutputStream out) {
+		return new OutputStreamWriter(out, CHARSET);
+	}
+
+	public static Writer newWriter(WritableByteChannel channel) {
+		return Channels.newWriter(channel, CHARSET
+			.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE), -1);
+	}
+
+	/**
+	 * Reads the whole file at the given {@code path}, decoding the mapped bytes
+	 * into a {@code char[]} of the file's size, which {@link String} then copies.
+	 */
+	public static String readString(Path path) throws IOException {
+		try (MappedFileReader reader = new MappedFileReader(path, CHARSET)) {
+			if (reader.size() > Integer.MAX_VALUE) {
+				throw new IOException("file is too large: " + path);
+			}
+			char[] chars = new char[(int) reader.size()];
+			int length = 0;
+			int read;
+			while (length < chars.length && (read = reader.read(chars, length, chars.length - length)) > 0) {
+				length += read;
+			}
+			return new String(chars, 0, length);
+		}
+	}
+
+	/**
+	 * Reads everything remaining in the given {@code in}.
+	 */
+	public static String readString(InputStream in) throws IOException {
+		Reader reader = newReader(in);
+		StringBuilder builder = new StringBuilder();
+		char[] buffer = new char[8192];
+		int read;
+		while ((read = reader.read(buffer)) >= 0) {
+			builder.append(buffer, 0, read);
+		}
+		return builder.toString();
+	}
+}
@@ -1,26 +1,207 @@
 package org.andork.compass;
 
+import java.util.Arrays;
+import java.util.Objects;
+
 import org.andork.segment.Segment;
 import org.andork.segment.SegmentParseException;
 
+/**
+ * An error or warning found while parsing.<br>
+ * <br>
+ * Errors are stored as an {@link ErrorCode} and its arguments along with the
+ * position and text of the invalid input, rather than the {@link Segment} it
+ * was found in (which would keep the whole input in memory). Only the first
+ * line of the invalid input, up to {@link #MAX_TEXT_LENGTH} characters, is
+ * kept, and when the parser passes the line the input is on, up to
+ * {@link #CONTEXT_RADIUS} characters of the line on either side of it, so that
+ * {@link #toString()} can underline the input in context. The message and
+ * {@link #toString()} are only formatted when they are first called.
+ */
 public class CompassParseError {
 	public static enum Severity {
 		ERROR, WARNING
 	}
 
+	/**
+	 * The kinds of errors the parsers report, with the format of their messages
+	 * (see {@link String#format(String, Object...)}).
+	 */
+	public static enum ErrorCode {
+		/**
+		 * An error reported by a {@link SegmentParseException} or with a message
+		 * that's already formatted. Its one argument is the message.
+		 */
+		OTHER("%s"),
+		MISSING("missing %s"),
+		INVALID("invalid %s"),
+		/**
+		 * Arguments: the field name, the minimum and the maximum.
+		 */
+		NOT_BETWEEN("%s must be between %s and %s"),
+		/**
+		 * Arguments: the field name and the minimum.
+		 */
+		LESS_THAN_MINIMUM("%s must be >= %s"),
+		NOT_AN_AZIMUTH("%s must be >= 0 and < 360"),
+		NEGATIVE("%s is negative"),
+		UNRECOGNIZED_AZIMUTH_UNIT("unrecognized azimuth unit: %s"),
+		UNRECOGNIZED_INCLINATION_UNIT("unrecognized inclination unit: %s"),
+		UNRECOGNIZED_LENGTH_UNIT("unrecognized length unit: %s"),
+		UNRECOGNIZED_LRUD_ASSOCIATION("unrecognized LRUD association: %s"),
+		UNRECOGNIZED_LRUD_ITEM("unrecognized LRUD item: %s"),
+		UNRECOGNIZED_SHOT_ITEM("unrecognized shot item: %s"),
+		UNRECOGNIZED_FLAG("unrecognized flag: %s"),
+		MISSING_FLAGS_END("missing # after flags"),
+		FORMAT_TOO_SHORT("format must be at least 11 characters long");
+
+		private final String format;
+
+		private ErrorCode(String format) {
+			this.format = format;
+		}
+
+		public String format(Object... args) {
+			return String.format(format, args);
+		}
+	}
+
+	/**
+	 * The maximum number of characters of the invalid input that are kept.
+	 */
+	public static final int MAX_TEXT_LENGTH = 256;
+	/**
+	 * The maximum number of characters of the line around the invalid input that
+	 * are kept on either side of it.
+	 */
+	public static final int CONTEXT_RADIUS = 80;
+
+	private static final Object[] NO_ARGS = {};
+
 	private final Severity severity;
-	private final String message;
-	private final Segment segment;
+	private final ErrorCode code;
+	private final Object[] args;
+	private final Object source;
+	private final int line;
+	private final int column;
+	/**
+	 * The invalid input
+	 */
+	private final String text;
+	/**
+	 * Part of the line the invalid input is on, or <code>null</code> if unknown
+	 */
+	private String context;
+	/**
+	 * Where the invalid input starts in {@link #context}
+	 */
+	private int contextColumn;
+	private String message;
+	private String string;
 
 	public CompassParseError(SegmentParseException e) {
-		this(Severity.ERROR, e.getMessage(), e.getSegment());
+		this(e, null);
+	}
+
+	/**
+	 * @param line the line (or lines) the invalid input is on, to show the input
+	 *             in context, or <code>null</code>
+	 */
+	public CompassParseError(SegmentParseException e, Segment line) {
+		this(Severity.ERROR, ErrorCode.OTHER, e.getSegment(), line, new Object[] { e.getMessage() });
+		this.message = e.getMessage();
 	}
 
 	public CompassParseError(Severity severity, String message, Segment segment) {
-		super();
-		this.severity = severity;
+		this(severity, ErrorCode.OTHER, segment, message);
 		this.message = message;
-		this.segment = segment;
+	}
+
+	public CompassParseError(Severity severity, ErrorCode code, Segment segment, Object... args) {
+		this(severity, code, segment, null, args);
+	}
+
+	/**
+	 * @param line the line (or lines) the invalid input is on, to show the input
+	 *             in context, or <code>null</code>
+	 */
+	public CompassParseError(Severity severity, ErrorCode code, Segment segment, Segment line, Object[] args) {
+		this(severity, code, segment.source, segment.startLine, segment.startCol, firstLine(segment), args);
+		if (line != null) {
+			setContext(segment, line);
+		}
+	}
+
+	/**
+	 * @param line   the zero-based line the invalid input starts on
+	 * @param column the zero-based column the invalid input starts at
+	 * @param text   the invalid input (or its first line)
+	 */
+	public CompassParseError(
+		Severity severity,
+		ErrorCode code,
+		Object source,
+		int line,
+		int column,
+		String text,
+		Object... args) {
+		this.severity = Objects.requireNonNull(severity);
+		this.code = Objects.requireNonNull(code);
+		this.args = args != null && args.length > 0 ? args : NO_ARGS;
+		this.source = source;
+		this.line = line;
+		this.column = column;
+		this.text = Objects.requireNonNull(text);
+	}
+
+	/**
+	 * @return the first line of the given segment, up to {@link #MAX_TEXT_LENGTH}
+	 *         characters.
+	 */
+	private static String firstLine(Segment segment) {
+		int end = Math.min(segment.length(), MAX_TEXT_LENGTH);
+		for (int i = 0; i < end; i++) {
+			char c = segment.charAt(i);
+			if (c == '\r' || c == '\n') {
+				end = i;
+			}
+		}
+		return segment.substring(0, end).toString();
+	}
+
+	/**
+	 * Keeps up to {@link #CONTEXT_RADIUS} characters of {@code line} on either
+	 * side of where {@code segment} starts in it, if it does.
+	 */
+	private void setContext(Segment segment, Segment line) {
+		int length = line.length();
+		int index = 0;
+		int lineStart = 0;
+		int lineNumber = line.startLine;
+		int column = line.startCol;
+		while (index < length && (lineNumber < segment.startLine
+			|| lineNumber == segment.startLine && column < segment.startCol)) {
+			char c = line.charAt(index++);
+			if (c == '\n' || c == '\r' && (index == length || line.charAt(index) != '\n')) {
+				lineNumber++;
+				column = 0;
+				lineStart = index;
+			}
+			else {
+				column++;
+			}
+		}
+		if (lineNumber != segment.startLine || column != segment.startCol) {
+			return;
+		}
+		int lineEnd = index;
+		while (lineEnd < length && line.charAt(lineEnd) != '\r' && line.charAt(lineEnd) != '\n') {
+			lineEnd++;
+		}
+		int start = Math.max(lineStart, index - CONTEXT_RADIUS);
+		int end = Math.min(lineEnd, index + text.length() + CONTEXT_RADIUS);
+		context = line.substring(start, end).toString();
+		contextColumn = index - start;
 	}
 
 	@Override
@@ -35,53 +216,125 @@ public class CompassParseError {
 			return false;
 		}
 		CompassParseError other = (CompassParseError) obj;
-		if (message == null) {
-			if (other.message != null) {
-				return false;
-			}
-		} else if (!message.equals(other.message)) {
-			return false;
-		}
-		if (segment == null) {
-			if (other.segment != null) {
-				return false;
-			}
-		} else if (!segment.equals(other.segment)) {
+		if (severity != other.severity
+			|| line != other.line
+			|| column != other.column
+			|| !text.equals(other.text)
+			|| !Objects.equals(source, other.source)) {
 			return false;
 		}
-		if (severity != other.severity) {
-			return false;
+		if (code == other.code && Arrays.equals(args, other.args)) {
+			return true;
 		}
-		return true;
+		// an OTHER error may have the same message as a coded one
+		return getMessage().equals(other.getMessage());
+	}
+
+	public ErrorCode getCode() {
+		return code;
+	}
+
+	/**
+	 * @return the arguments of the {@link #getCode() code}.
+	 */
+	public Object[] getArgs() {
+		return args.clone();
 	}
 
+	/**
+	 * @return the message, which is formatted the first time this is called.
+	 */
 	public String getMessage() {
+		if (message == null) {
+			message = code.format(args);
+		}
 		return message;
 	}
 
+	/**
+	 * @return a new {@link Segment} of the invalid input at its original
+	 *         position (but without the input around it).
+	 */
 	public Segment getSegment() {
-		return segment;
+		return new Segment(text, source, line, column);
 	}
 
 	public Severity getSeverity() {
 		return severity;
 	}
 
+	/**
+	 * @return the {@code File}, {@code Path}, {@code URL} or other object passed
+	 *         to the parser to identify the input.
+	 */
+	public Object getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the zero-based line the invalid input starts on.
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * @return the zero-based column the invalid input starts at.
+	 */
+	public int getColumn() {
+		return column;
+	}
+
+	/**
+	 * @return the first line of the invalid input, up to
+	 *         {@link #MAX_TEXT_LENGTH} characters.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Doesn't depend on the message, which would have to be formatted, since an
+	 * {@link ErrorCode#OTHER} error can equal a coded one.
+	 */
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + (message == null ? 0 : message.hashCode());
-		result = prime * result + (segment == null ? 0 : segment.hashCode());
-		result = prime * result + (severity == null ? 0 : severity.hashCode());
+		result = prime * result + severity.hashCode();
+		result = prime * result + (source == null ? 0 : source.hashCode());
+		result = prime * result + line;
+		result = prime * result + column;
+		result = prime * result + text.hashCode();
 		return result;
 	}
 
+	/**
+	 * @return the severity, message and position, followed by the line the
+	 *         invalid input is on (or the input itself if the line isn't known)
+	 *         with the input underlined. Formatted the first time this is
+	 *         called.
+	 */
 	@Override
 	public String toString() {
-		return severity.toString().toLowerCase() + ": " + message +
-				" (in " + segment.source + ", line " + (segment.startLine + 1) +
-				", column " + (segment.startCol + 1) + "):\n" +
-				segment.underlineInContext();
+		if (string != null) {
+			return string;
+		}
+		String context = this.context != null ? this.context : text;
+		int contextColumn = this.context != null ? this.contextColumn : 0;
+		StringBuilder builder = new StringBuilder();
+		builder.append(severity.toString().toLowerCase()).append(": ").append(getMessage())
+			.append(" (in ").append(source).append(", line ").append(line + 1)
+			.append(", column ").append(column + 1).append("):\n");
+		builder.append(context).append('\n');
+		for (int i = 0; i < contextColumn; i++) {
+			// keep tabs so that the carets line up
+			builder.append(context.charAt(i) == '\t' ? '\t' : ' ');
+		}
+		int carets = Math.max(1, Math.min(text.length(), context.length() - contextColumn));
+		for (int i = 0; i < carets; i++) {
+			builder.append('^');
+		}
+		return string = builder.toString();
 	}
 }
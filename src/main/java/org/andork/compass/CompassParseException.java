@@ -0,0 +1,19 @@
+package org.andork.compass;
+
+/**
+ * Thrown by {@link FailFastErrorSink} to stop a parser at the first error.
+ */
+public class CompassParseException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	private final CompassParseError error;
+
+	public CompassParseException(CompassParseError error) {
+		super(error.toString());
+		this.error = error;
+	}
+
+	public CompassParseError getError() {
+		return error;
+	}
+}
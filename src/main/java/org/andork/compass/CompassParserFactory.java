@@ -0,0 +1,220 @@
+package org.andork.compass;
+
+import org.andork.compass.plot.CompassPlotParser;
+import org.andork.compass.project.CompassProjectParser;
+import org.andork.compass.project.CompassProjectVisitor;
+import org.andork.compass.survey.CompassSurveyParser;
+
+/**
+ * An immutable parser configuration that any number of threads can share, for
+ * instance in a service that parses many uploads at once. Instead of creating
+ * new parsers for each request, each thread reuses its own survey and plot
+ * parsers (along with their scanners and buffers), leased for one parse at a
+ * time:
+ *
+ * <pre>
+ * static final CompassParserFactory PARSERS = new CompassParserFactory(100);
+ * ...
+ * try (CompassParserFactory.Lease&lt;CompassSurveyParser&gt; lease = PARSERS.surveyParser()) {
+ * 	CompassSurveyParser parser = lease.get();
+ * 	List&lt;CompassTrip&gt; trips = parser.parseCompassSurveyData(upload, name);
+ * 	List&lt;CompassParseError&gt; errors = parser.getErrors();
+ * 	...
+ * }
+ * </pre>
+ *
+ * A leased parser may only be used on the thread that leased it, until the
+ * lease is closed. Closing the lease clears the parser's errors, commands and
+ * dictionary, so that nothing from the parse stays reachable from the thread,
+ * but results and error lists already obtained from it aren't affected. A
+ * thread can only lease one parser of each kind at a time; leasing another
+ * before closing the first throws an {@link IllegalStateException} instead of
+ * resetting a parser that is still in use.<br>
+ * <br>
+ * Each thread's parsers are held in {@link ThreadLocal}s, so they stay
+ * reachable from the thread for as long as it lives, even after the factory is
+ * discarded. Threads that outlive the factory, such as pooled threads, should
+ * call {@link #release()} when they are done with it.
+ */
+public class CompassParserFactory {
+	private final int maxErrors;
+	private final StationDictionary stationDictionary;
+
+	private final ThreadLocal<Slot<CompassSurveyParser>> surveyParsers = ThreadLocal.withInitial(() -> {
+		CompassSurveyParser parser = new CompassSurveyParser();
+		StationDictionary idle = new StationDictionary();
+		return new Slot<>(parser, () -> {
+			parser.reset();
+			parser.setStationDictionary(idle);
+		});
+	});
+	private final ThreadLocal<Slot<CompassPlotParser>> plotParsers = ThreadLocal.withInitial(() -> {
+		CompassPlotParser parser = new CompassPlotParser();
+		StationDictionary idle = new StationDictionary();
+		return new Slot<>(parser, () -> {
+			parser.reset();
+			parser.setStationDictionary(idle);
+		});
+	});
+
+	/**
+	 * A thread's parser of one kind, and whether it's leased.
+	 */
+	private static class Slot<P> {
+		final P parser;
+		/**
+		 * Drops everything the parser refers to from its last parse
+		 */
+		final Runnable clear;
+		boolean leased;
+
+		Slot(P parser, Runnable clear) {
+			this.parser = parser;
+			this.clear = clear;
+		}
+	}
+
+	/**
+	 * A parser leased to the current thread until {@link #close()} is called.
+	 */
+	public static final class Lease<P> implements AutoCloseable {
+		private final Slot<P> slot;
+		private boolean closed;
+
+		private Lease(Slot<P> slot) {
+			this.slot = slot;
+		}
+
+		/**
+		 * @return the leased parser.
+		 * @throws IllegalStateException if this lease has been closed.
+		 */
+		public P get() {
+			if (closed) {
+				throw new IllegalStateException("lease is closed");
+			}
+			return slot.parser;
+		}
+
+		/**
+		 * Clears the parser and returns it to the thread, so that it can be
+		 * leased again. Does nothing if this lease is already closed.
+		 */
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				slot.clear.run();
+				slot.leased = false;
+			}
+		}
+	}
+
+	/**
+	 * Creates a factory whose parsers keep every error and intern station names
+	 * in a new {@link StationDictionary} for each parse.
+	 */
+	public CompassParserFactory() {
+		this(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a factory whose parsers keep up to {@code maxErrors} errors (see
+	 * {@link CollectingErrorSink#CollectingErrorSink(int)}) and intern station
+	 * names in a new {@link StationDictionary} for each parse.
+	 */
+	public CompassParserFactory(int maxErrors) {
+		this(maxErrors, null);
+	}
+
+	/**
+	 * Creates a factory whose parsers keep up to {@code maxErrors} errors (see
+	 * {@link CollectingErrorSink#CollectingErrorSink(int)}) and intern station
+	 * names in the given dictionary, or a new dictionary for each parse if it is
+	 * <code>null</code>.
+	 */
+	public CompassParserFactory(int maxErrors, StationDictionary stationDictionary) {
+		if (maxErrors < 0) {
+			throw new IllegalArgumentException("maxErrors must be >= 0");
+		}
+		this.maxErrors = maxErrors;
+		this.stationDictionary = stationDictionary;
+	}
+
+	public int getMaxErrors() {
+		return maxErrors;
+	}
+
+	/**
+	 * @return the dictionary shared by all parsers, or <code>null</code> if each
+	 *         parse gets its own.
+	 */
+	public StationDictionary getStationDictionary() {
+		return stationDictionary;
+	}
+
+	private StationDictionary stationDictionary() {
+		return stationDictionary != null ? stationDictionary : new StationDictionary();
+	}
+
+	private static <P> Slot<P> lease(ThreadLocal<Slot<P>> slots, String kind) {
+		Slot<P> slot = slots.get();
+		if (slot.leased) {
+			throw new IllegalStateException(
+				"this thread already has a " + kind + " parser from this factory; close that lease first");
+		}
+		slot.leased = true;
+		return slot;
+	}
+
+	/**
+	 * @return a lease on this thread's survey parser, set up for a new parse.
+	 * @throws IllegalStateException if this thread already has a survey parser
+	 *                               from this factory that hasn't been closed.
+	 */
+	public Lease<CompassSurveyParser> surveyParser() {
+		Slot<CompassSurveyParser> slot = lease(surveyParsers, "survey");
+		slot.parser.setErrorSink(new CollectingErrorSink(maxErrors));
+		slot.parser.setStationDictionary(stationDictionary());
+		return new Lease<>(slot);
+	}
+
+	/**
+	 * @return a lease on this thread's plot parser, set up for a new parse.
+	 * @throws IllegalStateException if this thread already has a plot parser
+	 *                               from this factory that hasn't been closed.
+	 */
+	public Lease<CompassPlotParser> plotParser() {
+		Slot<CompassPlotParser> slot = lease(plotParsers, "plot");
+		slot.parser.setErrorSink(new CollectingErrorSink(maxErrors));
+		slot.parser.setStationDictionary(stationDictionary());
+		return new Lease<>(slot);
+	}
+
+	/**
+	 * Drops the current thread's parsers from this factory, so that they can be
+	 * garbage collected. They are created again if the thread leases another
+	 * parser.
+	 *
+	 * @throws IllegalStateException if this thread has a parser from this factory
+	 *                               that hasn't been closed.
+	 */
+	public void release() {
+		if (surveyParsers.get().leased || plotParsers.get().leased) {
+			throw new IllegalStateException("this thread has a parser from this factory; close that lease first");
+		}
+		surveyParsers.remove();
+		plotParsers.remove();
+	}
+
+	/**
+	 * @return a new project parser that passes directives to the given
+	 *         {@code visitor}. Project parsers don't allocate anything up front,
+	 *         so they aren't reused.
+	 */
+	public CompassProjectParser projectParser(CompassProjectVisitor visitor) {
+		CompassProjectParser parser = new CompassProjectParser(visitor);
+		parser.setStationDictionary(stationDictionary());
+		return parser;
+	}
+}
@@ -0,0 +1,51 @@
+package org.andork.compass;
+
+/**
+ * An {@link ErrorSink} that only counts the errors and warnings it receives,
+ * optionally passing them on to another sink.
+ */
+public class CountingErrorSink implements ErrorSink {
+	private final ErrorSink delegate;
+	private int errorCount;
+	private int warningCount;
+
+	public CountingErrorSink() {
+		this(null);
+	}
+
+	/**
+	 * @param delegate the sink to pass each error and warning on to, or
+	 *                 <code>null</code> to drop them.
+	 */
+	public CountingErrorSink(ErrorSink delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void accept(CompassParseError error) {
+		if (error.getSeverity() == CompassParseError.Severity.WARNING) {
+			warningCount++;
+		}
+		else {
+			errorCount++;
+		}
+		if (delegate != null) {
+			delegate.accept(error);
+		}
+	}
+
+	public int getErrorCount() {
+		return errorCount;
+	}
+
+	public int getWarningCount() {
+		return warningCount;
+	}
+
+	/**
+	 * @return the number of errors and warnings received.
+	 */
+	public int getCount() {
+		return errorCount + warningCount;
+	}
+}
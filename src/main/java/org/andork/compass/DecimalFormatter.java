@@ -0,0 +1,93 @@
+package org.andork.compass;
+
+/**
+ * Formats numbers with a fixed number of decimal places straight into a
+ * {@code char} array without allocating; the counterpart of
+ * {@link DecimalScanner} for the writers.<br>
+ * <br>
+ * Values are rounded half up (away from zero) and a value that rounds to zero
+ * is written without a minus sign. Formatters are immutable, so they can be
+ * shared between threads. Subclasses may override
+ * {@link #format(double, int, char[], int)} to write numbers differently, as
+ * long as they write no more than {@code max(width, MAX_LENGTH)} characters.
+ */
+public class DecimalFormatter {
+	/**
+	 * The most characters any number is formatted to, not counting padding
+	 */
+	public static final int MAX_LENGTH = 40;
+	private static final int MAX_DECIMALS = 18;
+	private static final double MAX_SCALED = 9e18;
+
+	private final int decimals;
+	private final long scale;
+
+	/**
+	 * @param decimals the number of decimal places to write, from 0 to 18.
+	 */
+	public DecimalFormatter(int decimals) {
+		if (decimals < 0 || decimals > MAX_DECIMALS) {
+			throw new IllegalArgumentException("decimals must be between 0 and " + MAX_DECIMALS);
+		}
+		this.decimals = decimals;
+		long scale = 1;
+		for (int i = 0; i < decimals; i++) {
+			scale *= 10;
+		}
+		this.scale = scale;
+	}
+
+	public int getDecimals() {
+		return decimals;
+	}
+
+	/**
+	 * Writes {@code value} rounded to {@link #getDecimals()} places into
+	 * {@code out} at {@code offset}, right-aligned with spaces in {@code width}
+	 * characters (or without padding, if it is longer than that).
+	 *
+	 * @return the number of characters written.
+	 * @throws IllegalArgumentException if {@code value} isn't finite, or is too
+	 *                                  large to format at this precision.
+	 */
+	public int format(double value, int width, char[] out, int offset) {
+		double scaledValue = Math.abs(value) * scale;
+		if (!(scaledValue < MAX_SCALED)) {
+			throw new IllegalArgumentException("can't format " + value + " with " + decimals + " decimals");
+		}
+		long scaled = Math.round(scaledValue);
+		boolean negative = value < 0 && scaled != 0;
+
+		int length = decimals > 0 ? decimals + 2 : 1;
+		for (long integer = scaled / scale; integer >= 10; integer /= 10) {
+			length++;
+		}
+		if (negative) {
+			length++;
+		}
+
+		int start = offset;
+		while (width > length) {
+			out[offset++] = ' ';
+			width--;
+		}
+		int end = offset + length;
+		int i = end;
+		for (int d = 0; d < decimals; d++) {
+			out[--i] = (char) ('0' + scaled % 10);
+			scaled /= 10;
+		}
+		if (decimals > 0) {
+			out[--i] = '.';
+		}
+		do {
+			out[--i] = (char) ('0' + scaled % 10);
+			scaled /= 10;
+		}
+		while (scaled > 0);
+		if (negative) {
+			out[--i] = '-';
+		}
+		return end - start;
+	}
+}
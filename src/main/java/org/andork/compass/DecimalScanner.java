@@ -0,0 +1,194 @@
+package org.andork.compass;
+
+import java.math.BigDecimal;
+
+import org.andork.segment.Segment;
+
+/**
+ * Parses decimal numbers straight from the characters of a {@link Segment} (or
+ * other character source) without allocating, accepting the same syntax as
+ * {@link BigDecimal#BigDecimal(String)} and producing the same result as
+ * {@link BigDecimal#doubleValue()}.<br>
+ * <br>
+ * Numbers whose digits fit in 53 bits with at most 22 fraction digits (which
+ * is everything that appears in Compass files) are converted exactly with a
+ * single division; anything longer, or with an exponent, falls back to
+ * {@link Double#parseDouble(String)}.<br>
+ * <br>
+ * Instances are reusable but not thread-safe.
+ */
+public class DecimalScanner {
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+	};
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	private static final long MAX_MANTISSA = (Long.MAX_VALUE - 9) / 10;
+
+	private static final int START = 0;
+	private static final int AFTER_SIGN = 1;
+	private static final int INTEGER_DIGITS = 2;
+	private static final int LEADING_POINT = 3;
+	private static final int FRACTION_DIGITS = 4;
+	private static final int EXPONENT_START = 5;
+	private static final int EXPONENT_SIGN = 6;
+	private static final int EXPONENT_DIGITS = 7;
+	private static final int INVALID = 8;
+
+	private final StringBuilder text = new StringBuilder();
+	private int state;
+	private boolean negative;
+	private long mantissa;
+	private boolean mantissaOverflow;
+	private int fractionDigits;
+	private long exponent;
+
+	/**
+	 * @return the value of {@code segment.substring(start, end)}, or
+	 *         <code>NaN</code> if it isn't a valid decimal number.
+	 */
+	public double parse(Segment segment, int start, int end) {
+		reset();
+		for (int i = start; i < end && state != INVALID; i++) {
+			accept(segment.charAt(i));
+		}
+		return finish();
+	}
+
+	/**
+	 * @return the value of {@code chars.subSequence(start, end)}, or
+	 *         <code>NaN</code> if it isn't a valid decimal number.
+	 */
+	public double parse(CharSequence chars, int start, int end) {
+		reset();
+		for (int i = start; i < end && state != INVALID; i++) {
+			accept(chars.charAt(i));
+		}
+		return finish();
+	}
+
+	/**
+	 * @return the value of the characters from {@code start} to {@code end}, or
+	 *         <code>NaN</code> if they aren't a valid decimal number.
+	 */
+	public double parse(char[] chars, int start, int end) {
+		reset();
+		for (int i = start; i < end && state != INVALID; i++) {
+			accept(chars[i]);
+		}
+		return finish();
+	}
+
+	private void reset() {
+		text.setLength(0);
+		state = START;
+		negative = false;
+		mantissa = 0;
+		mantissaOverflow = false;
+		fractionDigits = 0;
+		exponent = 0;
+	}
+
+	private void accept(char c) {
+		text.append(c);
+		switch (state) {
+		case START:
+			if (c == '-' || c == '+') {
+				negative = c == '-';
+				state = AFTER_SIGN;
+				return;
+			}
+			// fall through
+		case AFTER_SIGN:
+			if (c == '.') {
+				state = LEADING_POINT;
+			}
+			else if (isDigit(c)) {
+				digit(c);
+				state = INTEGER_DIGITS;
+			}
+			else {
+				state = INVALID;
+			}
+			return;
+		case INTEGER_DIGITS:
+			if (isDigit(c)) {
+				digit(c);
+			}
+			else if (c == '.') {
+				state = FRACTION_DIGITS;
+			}
+			else if (c == 'e' || c == 'E') {
+				state = EXPONENT_START;
+			}
+			else {
+				state = INVALID;
+			}
+			return;
+		case LEADING_POINT:
+		case FRACTION_DIGITS:
+			if (isDigit(c)) {
+				digit(c);
+				fractionDigits++;
+				state = FRACTION_DIGITS;
+			}
+			else if (state == FRACTION_DIGITS && (c == 'e' || c == 'E')) {
+				state = EXPONENT_START;
+			}
+			else {
+				state = INVALID;
+			}
+			return;
+		case EXPONENT_START:
+			if (c == '-' || c == '+') {
+				state = EXPONENT_SIGN;
+				return;
+			}
+			// fall through
+		case EXPONENT_SIGN:
+		case EXPONENT_DIGITS:
+			if (isDigit(c)) {
+				exponent = exponent * 10 + c - '0';
+				state = exponent > Integer.MAX_VALUE ? INVALID : EXPONENT_DIGITS;
+			}
+			else {
+				state = INVALID;
+			}
+			return;
+		default:
+			state = INVALID;
+		}
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private void digit(char c) {
+		if (mantissa > MAX_MANTISSA) {
+			mantissaOverflow = true;
+		}
+		else {
+			mantissa = mantissa * 10 + c - '0';
+		}
+	}
+
+	private double finish() {
+		if (state != INTEGER_DIGITS && state != FRACTION_DIGITS && state != EXPONENT_DIGITS) {
+			return Double.NaN;
+		}
+		double value;
+		if (exponent != 0 || mantissaOverflow || mantissa > MAX_EXACT_MANTISSA
+			|| fractionDigits >= POWERS_OF_TEN.length) {
+			value = Double.parseDouble(text.toString());
+		}
+		else {
+			value = mantissa / POWERS_OF_TEN[fractionDigits];
+			if (negative) {
+				value = -value;
+			}
+		}
+		// BigDecimal has no negative zero
+		return value == 0 ? 0.0 : value;
+	}
+}
@@ -0,0 +1,20 @@
+package org.andork.compass;
+
+/**
+ * Receives the errors and warnings found by a parser as it finds them. Pass
+ * one to a parser's <code>setErrorSink</code> method to choose what happens to
+ * them:
+ * <ul>
+ * <li>{@link CollectingErrorSink} (the default) keeps them in a list, optionally
+ * only up to a maximum number,</li>
+ * <li>{@link CountingErrorSink} only counts them,</li>
+ * <li>{@link FailFastErrorSink} throws a {@link CompassParseException} at the
+ * first error,</li>
+ * <li>a lambda can log or report each one as it comes, without keeping any of
+ * them in memory.</li>
+ * </ul>
+ */
+@FunctionalInterface
+public interface ErrorSink {
+	void accept(CompassParseError error);
+}
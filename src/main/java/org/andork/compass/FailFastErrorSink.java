@@ -0,0 +1,32 @@
+package org.andork.compass;
+
+/**
+ * An {@link ErrorSink} that throws a {@link CompassParseException} at the first
+ * error, which stops the parser. Warnings don't stop the parser; they are
+ * passed on to another sink if one is given, otherwise ignored.
+ */
+public class FailFastErrorSink implements ErrorSink {
+	private final ErrorSink warnings;
+
+	public FailFastErrorSink() {
+		this(null);
+	}
+
+	/**
+	 * @param warnings the sink to pass warnings on to, or <code>null</code> to
+	 *                 ignore them.
+	 */
+	public FailFastErrorSink(ErrorSink warnings) {
+		this.warnings = warnings;
+	}
+
+	@Override
+	public void accept(CompassParseError error) {
+		if (error.getSeverity() != CompassParseError.Severity.WARNING) {
+			throw new CompassParseException(error);
+		}
+		if (warnings != null) {
+			warnings.accept(error);
+		}
+	}
+}
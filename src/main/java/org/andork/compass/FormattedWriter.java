@@ -0,0 +1,181 @@
+package org.andork.compass;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Buffers the lines of the Compass file writers: characters, strings and
+ * numbers are formatted into a reusable {@code char} array with
+ * {@link DecimalFormatter}s, without creating any strings, and written to the
+ * underlying {@link Writer} a buffer at a time.<br>
+ * <br>
+ * What is appended within {@link #appendAtomically(IOAction)} is written
+ * entirely or not at all, so a value that can't be formatted doesn't leave
+ * half a line in the output.<br>
+ * <br>
+ * Instances are not thread-safe.
+ */
+public final class FormattedWriter implements Closeable, Flushable {
+	private static final DecimalFormatter INTEGER = new DecimalFormatter(0);
+
+	private final Writer out;
+	private char[] buffer;
+	private int length;
+	/**
+	 * The start of what {@link #appendAtomically(IOAction)} has appended so far,
+	 * or -1 outside of it
+	 */
+	private int mark = -1;
+
+	public FormattedWriter(Writer out, int bufferSize) {
+		if (bufferSize < DecimalFormatter.MAX_LENGTH) {
+			throw new IllegalArgumentException("bufferSize must be at least " + DecimalFormatter.MAX_LENGTH);
+		}
+		this.out = out;
+		this.buffer = new char[bufferSize];
+	}
+
+	public FormattedWriter append(char c) throws IOException {
+		ensureCapacity(1);
+		buffer[length++] = c;
+		return this;
+	}
+
+	/**
+	 * Appends {@code s}, or nothing if it is <code>null</code>.
+	 */
+	public FormattedWriter append(String s) throws IOException {
+		if (s == null) {
+			return this;
+		}
+		int start = 0;
+		while (start < s.length()) {
+			ensureCapacity(1);
+			int end = Math.min(s.length(), start + buffer.length - length);
+			s.getChars(start, end, buffer, length);
+			length += end - start;
+			start = end;
+		}
+		return this;
+	}
+
+	/**
+	 * Appends {@code s} (or nothing if it is <code>null</code>) with any line
+	 * breaks or form feeds replaced by spaces, so that it can't end the line,
+	 * or a trip of a .DAT file, early.
+	 */
+	public FormattedWriter appendLine(String s) throws IOException {
+		if (s == null) {
+			return this;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			append(c == '\r' || c == '\n' || c == '\f' ? ' ' : c);
+		}
+		return this;
+	}
+
+	public FormattedWriter appendInt(int value) throws IOException {
+		return append(INTEGER, value, 0);
+	}
+
+	/**
+	 * Appends {@code value} formatted by {@code formatter}, right-aligned in
+	 * {@code width} characters.
+	 *
+	 * @throws IllegalArgumentException if {@code formatter} can't format
+	 *                                  {@code value}.
+	 */
+	public FormattedWriter append(DecimalFormatter formatter, double value, int width) throws IOException {
+		ensureCapacity(Math.max(width, DecimalFormatter.MAX_LENGTH));
+		length += formatter.format(value, width, buffer, length);
+		return this;
+	}
+
+	/**
+	 * Runs {@code action}, which appends to this writer. If it throws a
+	 * {@link RuntimeException}, everything it appended is discarded before the
+	 * exception is rethrown. Until it returns, its output stays in the buffer,
+	 * which grows if necessary. Nested calls are part of the outermost one.
+	 */
+	public void appendAtomically(IOAction action) throws IOException {
+		if (mark >= 0) {
+			action.run();
+			return;
+		}
+		mark = length;
+		try {
+			action.run();
+		}
+		catch (RuntimeException ex) {
+			length = mark;
+			throw ex;
+		}
+		finally {
+			mark = -1;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		drain();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			drain();
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private void drain() throws IOException {
+		out.write(buffer, 0, length);
+		length = 0;
+	}
+
+	private void ensureCapacity(int count) throws IOException {
+		if (length + count <= buffer.length) {
+			return;
+		}
+		if (mark < 0) {
+			drain();
+			return;
+		}
+		// write what came before the atomic part and keep the rest
+		out.write(buffer, 0, mark);
+		System.arraycopy(buffer, mark, buffer, 0, length - mark);
+		length -= mark;
+		mark = 0;
+		if (length + count > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+		}
+	}
+
+	/**
+	 * Something a writer does that may throw an {@link IOException}.
+	 */
+	public interface IOAction {
+		void run() throws IOException;
+	}
+
+	/**
+	 * Runs {@code action}, wrapping any {@link IOException} in an
+	 * {@link UncheckedIOException}, for writers that are also visitors.
+	 */
+	public static void unchecked(IOAction action) {
+		try {
+			action.run();
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package org.andork.compass;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file in a single-byte charset by memory-mapping it and decoding bytes
+ * straight into the caller's buffer with a lookup table, so there are no
+ * intermediate byte arrays or strings. Files larger than 2 GB are mapped a
+ * window at a time.
+ */
+public class MappedFileReader extends Reader {
+	private static final long WINDOW_SIZE = 1L << 28;
+
+	private final FileChannel channel;
+	private final long size;
+	private final char[] decodeTable;
+	private long position = 0;
+	private MappedByteBuffer window;
+
+	/**
+	 * @param charset a charset that encodes every character as a single byte,
+	 *                like US-ASCII or windows-1252
+	 * @throws IllegalArgumentException if {@code charset} is not a single-byte
+	 *                                  charset
+	 */
+	public MappedFileReader(Path path, Charset charset) throws IOException {
+		decodeTable = decodeTable(charset);
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		size = channel.size();
+	}
+
+	/**
+	 * @return the character each byte value decodes to in the given
+	 *         {@code charset}, indexed by unsigned byte value.
+	 */
+	static char[] decodeTable(Charset charset) {
+		if (charset.newEncoder().maxBytesPerChar() != 1) {
+			throw new IllegalArgumentException("not a single-byte charset: " + charset);
+		}
+		byte[] bytes = new byte[256];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) i;
+		}
+		CharsetDecoder decoder = charset
+			.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer chars;
+		try {
+			chars = decoder.decode(ByteBuffer.wrap(bytes));
+		}
+		catch (CharacterCodingException ex) {
+			throw new IllegalArgumentException("failed to decode bytes in " + charset, ex);
+		}
+		if (chars.remaining() != bytes.length) {
+			throw new IllegalArgumentException("not a single-byte charset: " + charset);
+		}
+		char[] table = new char[bytes.length];
+		chars.get(table);
+		return table;
+	}
+
+	/**
+	 * @return the number of bytes (and therefore characters) in the file.
+	 */
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (window == null || !window.hasRemaining()) {
+			if (position >= size) {
+				return -1;
+			}
+			long windowSize = Math.min(WINDOW_SIZE, size - position);
+			window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+			position += windowSize;
+		}
+		int count = Math.min(len, window.remaining());
+		for (int i = 0; i < count; i++) {
+			cbuf[off + i] = decodeTable[window.get() & 0xff];
+		}
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+}
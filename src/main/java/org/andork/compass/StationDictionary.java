@@ -0,0 +1,309 @@
+package org.andork.compass;
+
+import java.util.Arrays;
+
+import org.andork.segment.Segment;
+
+/**
+ * Interns station names and assigns each distinct name a dense <code>int</code>
+ * id, starting at 0 in the order names are first seen.<br>
+ * <br>
+ * The parsers look names up straight from the characters of the file, so a
+ * {@link String} is only created the first time a station is seen; every later
+ * occurrence gets the same {@link String} instance and id. Share one dictionary
+ * between parsers (for instance for all files in a project) to get ids that are
+ * consistent across files.<br>
+ * <br>
+ * Instances are thread-safe, and looking up names that are already in the
+ * dictionary doesn't lock. However, ids depend on the order names are added, so
+ * code that parses concurrently should give each task its own dictionary and
+ * merge them into the shared one in file order with
+ * {@link #internAll(StationDictionary)}, as
+ * {@link org.andork.compass.survey.CompassSurveyParser} and
+ * {@link org.andork.compass.project.CompassProjectLoader} do.
+ */
+public class StationDictionary {
+	private static final int INITIAL_CAPACITY = 256;
+
+	/*
+	 * Writes happen while holding the lock, and publish a new name by writing
+	 * size last. Lookups without the lock read size first, and only trust ids
+	 * below it whose name they can see; anything else (a concurrent add or
+	 * rehash) falls back to looking up again with the lock.
+	 */
+	private String[] names = new String[INITIAL_CAPACITY];
+	private int[] hashes = new int[INITIAL_CAPACITY];
+	private volatile int size = 0;
+	/**
+	 * Open-addressed hash table of id + 1, with 0 marking empty slots. Its length
+	 * is always a power of two at least twice {@link #size}.
+	 */
+	private int[] table = new int[INITIAL_CAPACITY * 2];
+
+	/**
+	 * @return the number of distinct names in this dictionary.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the name with the given id.
+	 * @throws IndexOutOfBoundsException if there is no such id.
+	 */
+	public String getName(int id) {
+		if (id >= 0 && id < size) {
+			String[] names = this.names;
+			String name = id < names.length ? names[id] : null;
+			if (name != null) {
+				return name;
+			}
+		}
+		synchronized (this) {
+			if (id < 0 || id >= size) {
+				throw new IndexOutOfBoundsException("id: " + id + ", size: " + size);
+			}
+			return names[id];
+		}
+	}
+
+	/**
+	 * @return the id of the given name, or -1 if it isn't in this dictionary.
+	 */
+	public int getId(String name) {
+		int hash = hash(name, 0, name.length());
+		int id = find(hash, name, 0, name.length());
+		if (id >= 0) {
+			return id;
+		}
+		synchronized (this) {
+			return find(hash, name, 0, name.length());
+		}
+	}
+
+	/**
+	 * @return the id of the given name, adding it if necessary.
+	 */
+	public int intern(String name) {
+		return intern(name, 0, name.length());
+	}
+
+	/**
+	 * @return the id of the name consisting of the characters from {@code start}
+	 *         to {@code end} of {@code chars}, adding it if necessary.
+	 */
+	public int intern(CharSequence chars, int start, int end) {
+		int hash = hash(chars, start, end);
+		int id = find(hash, chars, start, end);
+		return id >= 0 ? id : add(chars.subSequence(start, end).toString(), hash);
+	}
+
+	/**
+	 * @return the id of the name consisting of the characters from {@code start}
+	 *         to {@code end} of {@code segment}, adding it if necessary.
+	 */
+	public int intern(Segment segment, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + segment.charAt(i);
+		}
+		int size = this.size;
+		int[] table = this.table;
+		for (int slot = spread(hash) & (table.length - 1);; slot = (slot + 1) & (table.length - 1)) {
+			int id = table[slot] - 1;
+			if (id < 0) {
+				break;
+			}
+			String name = visibleName(id, hash, size);
+			if (name != null && matches(name, segment, start, end)) {
+				return id;
+			}
+		}
+		return add(segment.substring(start, end).toString(), hash);
+	}
+
+	/**
+	 * @return the id of the name consisting of {@code chars[start]} to
+	 *         {@code chars[end - 1]}, adding it if necessary.
+	 */
+	public int intern(char[] chars, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + chars[i];
+		}
+		int size = this.size;
+		int[] table = this.table;
+		for (int slot = spread(hash) & (table.length - 1);; slot = (slot + 1) & (table.length - 1)) {
+			int id = table[slot] - 1;
+			if (id < 0) {
+				break;
+			}
+			String name = visibleName(id, hash, size);
+			if (name != null && matches(name, chars, start, end)) {
+				return id;
+			}
+		}
+		return add(new String(chars, start, end - start), hash);
+	}
+
+	/**
+	 * @return the id of the given segment's text, adding it if necessary.
+	 */
+	public int intern(Segment segment) {
+		return intern(segment, 0, segment.length());
+	}
+
+	/**
+	 * Interns all names of {@code other} in order of their ids, for merging a
+	 * dictionary that a single task parsed into.
+	 *
+	 * @return the ids in this dictionary, indexed by the ids in {@code other}.
+	 */
+	public int[] internAll(StationDictionary other) {
+		String[] otherNames = other.getNames();
+		int[] ids = new int[otherNames.length];
+		for (int i = 0; i < otherNames.length; i++) {
+			ids[i] = intern(otherNames[i]);
+		}
+		return ids;
+	}
+
+	/**
+	 * @return all names, in order of id.
+	 */
+	public synchronized String[] getNames() {
+		return Arrays.copyOf(names, size);
+	}
+
+	private static int hash(CharSequence chars, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + chars.charAt(i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Mixes the high bits of a {@link String#hashCode()} into the low bits used to
+	 * pick a slot, since station names often differ only in their last character.
+	 */
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Looks up a name without locking, unless this thread holds the lock.
+	 *
+	 * @return the id of the name, or -1 if it wasn't found.
+	 */
+	private int find(int hash, CharSequence chars, int start, int end) {
+		int size = this.size;
+		int[] table = this.table;
+		for (int slot = spread(hash) & (table.length - 1);; slot = (slot + 1) & (table.length - 1)) {
+			int id = table[slot] - 1;
+			if (id < 0) {
+				return -1;
+			}
+			String name = visibleName(id, hash, size);
+			if (name != null && matches(name, chars, start, end)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * @return the name with the given id if it has the given hash and is visible
+	 *         to this thread, otherwise <code>null</code>.
+	 */
+	private String visibleName(int id, int hash, int size) {
+		if (id >= size) {
+			return null;
+		}
+		int[] hashes = this.hashes;
+		String[] names = this.names;
+		if (id >= hashes.length || id >= names.length || hashes[id] != hash) {
+			return null;
+		}
+		return names[id];
+	}
+
+	private static boolean matches(String name, CharSequence chars, int start, int end) {
+		if (name.length() != end - start) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (name.charAt(i - start) != chars.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean matches(String name, Segment segment, int start, int end) {
+		if (name.length() != end - start) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (name.charAt(i - start) != segment.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean matches(String name, char[] chars, int start, int end) {
+		if (name.length() != end - start) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (name.charAt(i - start) != chars[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the given name unless another thread added it since it was looked up.
+	 *
+	 * @return the id of the name.
+	 */
+	private synchronized int add(String name, int hash) {
+		int slot = spread(hash) & (table.length - 1);
+		for (;; slot = (slot + 1) & (table.length - 1)) {
+			int id = table[slot] - 1;
+			if (id < 0) {
+				break;
+			}
+			if (hashes[id] == hash && names[id].equals(name)) {
+				return id;
+			}
+		}
+		int id = size;
+		if (id == names.length) {
+			names = Arrays.copyOf(names, id * 2);
+			hashes = Arrays.copyOf(hashes, id * 2);
+		}
+		names[id] = name;
+		hashes[id] = hash;
+		table[slot] = id + 1;
+		if ((id + 1) * 2 > table.length) {
+			rehash(id + 1);
+		}
+		// publishes the name to lookups without the lock
+		size = id + 1;
+		return id;
+	}
+
+	private void rehash(int size) {
+		int[] table = new int[this.table.length * 2];
+		for (int id = 0; id < size; id++) {
+			int slot = spread(hashes[id]) & (table.length - 1);
+			while (table[slot] != 0) {
+				slot = (slot + 1) & (table.length - 1);
+			}
+			table[slot] = id + 1;
+		}
+		this.table = table;
+	}
+}
@@ -0,0 +1,216 @@
+package org.andork.compass;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Converts whole arrays of measurements at once, for the primitive columns of
+ * {@link org.andork.compass.survey.CompassShotColumns} and the buffers filled by
+ * {@link org.andork.compass.plot.PlotVertexBuffers}, instead of creating and
+ * converting a {@link org.andork.unit.UnitizedDouble} per value.<br>
+ * <br>
+ * Each method converts {@code length} values from {@code src} starting at
+ * {@code srcPos} into {@code dest} starting at {@code destPos}. {@code src}
+ * and {@code dest} may be the same array, to convert in place, as long as the
+ * ranges are identical or don't overlap. <code>NaN</code> (a missing
+ * measurement) stays <code>NaN</code>.<br>
+ * <br>
+ * The linear conversions are plain multiplication loops over arrays with no
+ * branches. {@code UnitConversionBenchmark} in the benchmarks module compares
+ * them with converting one value at a time.
+ */
+public final class UnitArrays {
+	public static final double METERS_PER_FOOT = 0.3048;
+	public static final double FEET_PER_METER = 1 / METERS_PER_FOOT;
+	public static final double RADIANS_PER_DEGREE = Math.PI / 180;
+	public static final double DEGREES_PER_RADIAN = 180 / Math.PI;
+	public static final double GRADS_PER_DEGREE = 200.0 / 180;
+	public static final double DEGREES_PER_GRAD = 180 / 200.0;
+
+	private UnitArrays() {
+
+	}
+
+	/**
+	 * Multiplies each value by {@code factor}.
+	 */
+	public static void scale(double[] src, int srcPos, double[] dest, int destPos, int length, double factor) {
+		checkRange(src, srcPos, length);
+		checkRange(dest, destPos, length);
+		for (int i = 0; i < length; i++) {
+			dest[destPos + i] = src[srcPos + i] * factor;
+		}
+	}
+
+	public static void feetToMeters(double[] src, int srcPos, double[] dest, int destPos, int length) {
+		scale(src, srcPos, dest, destPos, length, METERS_PER_FOOT);
+	}
+
+	public static void metersToFeet(double[] src, int srcPos, double[] dest, int destPos, int length) {
+		scale(src, srcPos, dest, destPos, length, FEET_PER_METER);
+	}
+
+	public static void degreesToRadians(double[] src, int srcPos, double[] dest, int destPos, int length) {
+		scale(src, srcPos, dest, destPos, length, RADIANS_PER_DEGREE);
+	}
+
+	public static void radiansToDegrees(double[] src, int srcPos, double[] dest, int destPos, int length) {
+		scale(src, srcPos, dest, destPos, length, DEGREES_PER_RADIAN);
+	}
+
+	public static void degreesToGrads(double[] src, int srcPos, double[] dest, int destPos, int length) {
+		scale(src, srcPos, dest, destPos, length, GRADS_PER_DEGREE);
+	}
+
+	public static void gradsToDegrees(double[] src, int srcPos, double[] dest, int destPos, int length) {
+		scale(src, srcPos, dest, destPos, length, DEGREES_PER_GRAD);
+	}
+
+	/**
+	 * Converts degrees of inclination to percent grade (100 times the tangent).
+	 */
+	public static void degreesToPercentGrade(double[] src, int srcPos, double[] dest, int destPos, int length) {
+		checkRange(src, srcPos, length);
+		checkRange(dest, destPos, length);
+		for (int i = 0; i < length; i++) {
+			dest[destPos + i] = Math.tan(src[srcPos + i] * RADIANS_PER_DEGREE) * 100;
+		}
+	}
+
+	public static void percentGradeToDegrees(double[] src, int srcPos, double[] dest, int destPos, int length) {
+		checkRange(src, srcPos, length);
+		checkRange(dest, destPos, length);
+		for (int i = 0; i < length; i++) {
+			dest[destPos + i] = Math.atan(src[srcPos + i] / 100) * DEGREES_PER_RADIAN;
+		}
+	}
+
+	/**
+	 * The array version of {@link LengthUnit#convert(java.math.BigDecimal, LengthUnit)}:
+	 * converts lengths in feet to the given unit.
+	 */
+	public static void convertLengths(
+		double[] feet,
+		int srcPos,
+		double[] dest,
+		int destPos,
+		int length,
+		LengthUnit to) {
+		scale(feet, srcPos, dest, destPos, length, to == LengthUnit.METERS ? METERS_PER_FOOT : 1);
+	}
+
+	/**
+	 * The array version of
+	 * {@link AzimuthUnit#convert(java.math.BigDecimal, AzimuthUnit)}: converts
+	 * azimuths in degrees to the given unit. Quadrant bearings are just another
+	 * way of writing degrees, so {@link AzimuthUnit#QUADS} leaves them as they
+	 * are.
+	 */
+	public static void convertAzimuths(
+		double[] degrees,
+		int srcPos,
+		double[] dest,
+		int destPos,
+		int length,
+		AzimuthUnit to) {
+		scale(degrees, srcPos, dest, destPos, length, to == AzimuthUnit.GRADS ? GRADS_PER_DEGREE : 1);
+	}
+
+	/**
+	 * The array version of
+	 * {@link InclinationUnit#convert(java.math.BigDecimal, InclinationUnit)}:
+	 * converts inclinations in degrees to the given unit. Compass stores depth
+	 * gauge readings in degrees too, so {@link InclinationUnit#DEPTH_GAUGE}
+	 * leaves them as they are.
+	 */
+	public static void convertInclinations(
+		double[] degrees,
+		int srcPos,
+		double[] dest,
+		int destPos,
+		int length,
+		InclinationUnit to) {
+		switch (to) {
+		case PERCENT_GRADE:
+			degreesToPercentGrade(degrees, srcPos, dest, destPos, length);
+			break;
+		case GRADS:
+			degreesToGrads(degrees, srcPos, dest, destPos, length);
+			break;
+		default:
+			scale(degrees, srcPos, dest, destPos, length, 1);
+			break;
+		}
+	}
+
+	/**
+	 * The inverse of
+	 * {@link #convertInclinations(double[], int, double[], int, int, InclinationUnit)}.
+	 */
+	public static void inclinationsToDegrees(
+		double[] src,
+		int srcPos,
+		double[] degrees,
+		int destPos,
+		int length,
+		InclinationUnit from) {
+		switch (from) {
+		case PERCENT_GRADE:
+			percentGradeToDegrees(src, srcPos, degrees, destPos, length);
+			break;
+		case GRADS:
+			gradsToDegrees(src, srcPos, degrees, destPos, length);
+			break;
+		default:
+			scale(src, srcPos, degrees, destPos, length, 1);
+			break;
+		}
+	}
+
+	/**
+	 * Converts {@code length} values of {@code buffer} from feet to meters in
+	 * place, starting at absolute index {@code start}. The position and limit of
+	 * the buffer aren't changed.
+	 */
+	public static void feetToMeters(DoubleBuffer buffer, int start, int length) {
+		checkRange(start, length, buffer.limit());
+		if (buffer.hasArray()) {
+			int offset = buffer.arrayOffset() + start;
+			feetToMeters(buffer.array(), offset, buffer.array(), offset, length);
+			return;
+		}
+		for (int i = start; i < start + length; i++) {
+			buffer.put(i, buffer.get(i) * METERS_PER_FOOT);
+		}
+	}
+
+	/**
+	 * Converts {@code length} values of {@code buffer} from feet to meters in
+	 * place, starting at absolute index {@code start}. The position and limit of
+	 * the buffer aren't changed.
+	 */
+	public static void feetToMeters(FloatBuffer buffer, int start, int length) {
+		checkRange(start, length, buffer.limit());
+		if (buffer.hasArray()) {
+			float[] array = buffer.array();
+			int offset = buffer.arrayOffset() + start;
+			for (int i = 0; i < length; i++) {
+				array[offset + i] = (float) (array[offset + i] * METERS_PER_FOOT);
+			}
+			return;
+		}
+		for (int i = start; i < start + length; i++) {
+			buffer.put(i, (float) (buffer.get(i) * METERS_PER_FOOT));
+		}
+	}
+
+	private static void checkRange(double[] array, int start, int length) {
+		checkRange(start, length, array.length);
+	}
+
+	private static void checkRange(int start, int length, int size) {
+		if (start < 0 || length < 0 || start > size - length) {
+			throw new IndexOutOfBoundsException("start: " + start + ", length: " + length + ", size: " + size);
+		}
+	}
+}
@@ -0,0 +1,391 @@
+package org.andork.compass.cache;
+
+import static org.andork.compass.cache.CompassBinaryWriter.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import org.andork.compass.AzimuthUnit;
+import org.andork.compass.InclinationUnit;
+import org.andork.compass.LengthUnit;
+import org.andork.compass.LrudAssociation;
+import org.andork.compass.LrudItem;
+import org.andork.compass.NEVLocation;
+import org.andork.compass.StationDictionary;
+import org.andork.compass.plot.BeginFeatureCommand;
+import org.andork.compass.plot.BeginSectionCommand;
+import org.andork.compass.plot.BeginSurveyCommand;
+import org.andork.compass.plot.CaveBoundsCommand;
+import org.andork.compass.plot.CompassPlotCommand;
+import org.andork.compass.plot.DatumCommand;
+import org.andork.compass.plot.DrawOperation;
+import org.andork.compass.plot.DrawSurveyCommand;
+import org.andork.compass.plot.FeatureCommand;
+import org.andork.compass.plot.Location;
+import org.andork.compass.plot.LocationCommand;
+import org.andork.compass.plot.SurveyBoundsCommand;
+import org.andork.compass.plot.UtmZoneCommand;
+import org.andork.compass.project.CommentDirective;
+import org.andork.compass.project.CompassProjectDirective;
+import org.andork.compass.project.DatumDirective;
+import org.andork.compass.project.FileDirective;
+import org.andork.compass.project.FlagsDirective;
+import org.andork.compass.project.LinkStation;
+import org.andork.compass.project.LocationDirective;
+import org.andork.compass.project.UTMConvergenceDirective;
+import org.andork.compass.project.UTMZoneDirective;
+import org.andork.compass.survey.CompassShot;
+import org.andork.compass.survey.CompassTrip;
+import org.andork.compass.survey.CompassTripHeader;
+import org.andork.compass.survey.ShotItem;
+import org.andork.unit.Angle;
+import org.andork.unit.Length;
+import org.andork.unit.UnitizedDouble;
+
+/**
+ * Reads what {@link CompassBinaryWriter} wrote. Station names are interned in
+ * a {@link StationDictionary}, and station ids set, just like the parsers do.
+ */
+public class CompassBinaryReader {
+	private static final LengthUnit[] LENGTH_UNITS = LengthUnit.values();
+	private static final AzimuthUnit[] AZIMUTH_UNITS = AzimuthUnit.values();
+	private static final InclinationUnit[] INCLINATION_UNITS = InclinationUnit.values();
+	private static final LrudItem[] LRUD_ITEMS = LrudItem.values();
+	private static final ShotItem[] SHOT_ITEMS = ShotItem.values();
+	private static final LrudAssociation[] LRUD_ASSOCIATIONS = LrudAssociation.values();
+	private static final DrawOperation[] DRAW_OPERATIONS = DrawOperation.values();
+
+	private final DataInputStream in;
+	private StationDictionary stationDictionary = new StationDictionary();
+	/**
+	 * The dictionary id of each station number in this stream.
+	 */
+	private int[] stationIds = new int[256];
+	private int stationCount = 0;
+	private byte[] stringBytes = new byte[256];
+
+	public CompassBinaryReader(InputStream in) {
+		this.in = in instanceof DataInputStream ? (DataInputStream) in : new DataInputStream(in);
+	}
+
+	public StationDictionary getStationDictionary() {
+		return stationDictionary;
+	}
+
+	/**
+	 * Sets the dictionary station names are interned in. Share one dictionary
+	 * between readers and parsers to get station ids that are consistent across
+	 * files.
+	 */
+	public void setStationDictionary(StationDictionary stationDictionary) {
+		this.stationDictionary = Objects.requireNonNull(stationDictionary);
+	}
+
+	public List<CompassTrip> readTrips() throws IOException {
+		int tripCount = readCount();
+		List<CompassTrip> trips = new ArrayList<>(tripCount);
+		for (int i = 0; i < tripCount; i++) {
+			CompassTrip trip = new CompassTrip();
+			trip.setHeader(readTripHeader());
+			int shotCount = readCount();
+			List<CompassShot> shots = new ArrayList<>(shotCount);
+			for (int j = 0; j < shotCount; j++) {
+				shots.add(readShot(trip.getHeader()));
+			}
+			trip.setShots(shots);
+			trips.add(trip);
+		}
+		return trips;
+	}
+
+	public List<CompassPlotCommand> readPlotCommands() throws IOException {
+		int count = readCount();
+		List<CompassPlotCommand> commands = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			commands.add(readPlotCommand());
+		}
+		return commands;
+	}
+
+	public List<CompassProjectDirective> readProjectDirectives() throws IOException {
+		int count = readCount();
+		List<CompassProjectDirective> directives = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			directives.add(readProjectDirective());
+		}
+		return directives;
+	}
+
+	private CompassTripHeader readTripHeader() throws IOException {
+		CompassTripHeader header = new CompassTripHeader();
+		header.setCaveName(readString());
+		header.setSurveyName(readString());
+		header.setDate(in.readBoolean() ? new Date(in.readLong()) : null);
+		header.setComment(readString());
+		header.setTeam(readString());
+		header.setDeclination(readAngle());
+		header.setLengthUnit(LENGTH_UNITS[in.readUnsignedByte()]);
+		header.setLrudUnit(LENGTH_UNITS[in.readUnsignedByte()]);
+		header.setAzimuthUnit(AZIMUTH_UNITS[in.readUnsignedByte()]);
+		header.setInclinationUnit(INCLINATION_UNITS[in.readUnsignedByte()]);
+		LrudItem[] lrudOrder = header.getLrudOrder();
+		for (int i = 0; i < lrudOrder.length; i++) {
+			lrudOrder[i] = LRUD_ITEMS[in.readUnsignedByte()];
+		}
+		ShotItem[] shotMeasurementOrder = new ShotItem[in.readUnsignedByte()];
+		for (int i = 0; i < shotMeasurementOrder.length; i++) {
+			shotMeasurementOrder[i] = SHOT_ITEMS[in.readUnsignedByte()];
+		}
+		header.setShotMeasurementOrder(shotMeasurementOrder);
+		header.setHasBacksights(in.readBoolean());
+		header.setLrudAssociation(LRUD_ASSOCIATIONS[in.readUnsignedByte()]);
+		header.setLengthCorrection(readLength());
+		header.setFrontsightAzimuthCorrection(readAngle());
+		header.setFrontsightInclinationCorrection(readAngle());
+		header.setBacksightAzimuthCorrection(readAngle());
+		header.setBacksightInclinationCorrection(readAngle());
+		return header;
+	}
+
+	private CompassShot readShot(CompassTripHeader header) throws IOException {
+		CompassShot shot = new CompassShot();
+		shot.setTripHeader(header);
+		int fromStationId = readStation();
+		shot.setFromStationId(fromStationId);
+		shot.setFromStationName(stationName(fromStationId));
+		int toStationId = readStation();
+		shot.setToStationId(toStationId);
+		shot.setToStationName(stationName(toStationId));
+		shot.setLength(readLength());
+		shot.setFrontsightAzimuth(readAngle());
+		shot.setFrontsightInclination(readAngle());
+		shot.setBacksightAzimuth(readAngle());
+		shot.setBacksightInclination(readAngle());
+		shot.setLeft(readLength());
+		shot.setRight(readLength());
+		shot.setUp(readLength());
+		shot.setDown(readLength());
+		shot.setComment(readString());
+		int flags = in.readUnsignedByte();
+		shot.setExcludedFromLength((flags & EXCLUDED_FROM_LENGTH) != 0);
+		shot.setExcludedFromPlotting((flags & EXCLUDED_FROM_PLOTTING) != 0);
+		shot.setExcludedFromAllProcessing((flags & EXCLUDED_FROM_ALL_PROCESSING) != 0);
+		shot.setDoNotAdjust((flags & DO_NOT_ADJUST) != 0);
+		return shot;
+	}
+
+	private CompassPlotCommand readPlotCommand() throws IOException {
+		int type = in.readUnsignedByte();
+		switch (type) {
+		case DRAW_SURVEY:
+			DrawSurveyCommand draw = new DrawSurveyCommand(DRAW_OPERATIONS[in.readUnsignedByte()]);
+			readLocation(draw.getLocation());
+			readStation(draw);
+			draw.setLeft(readLength());
+			draw.setRight(readLength());
+			draw.setUp(readLength());
+			draw.setDown(readLength());
+			draw.setDistanceFromEntrance(readLength());
+			return draw;
+		case BEGIN_SURVEY:
+			BeginSurveyCommand beginSurvey = new BeginSurveyCommand();
+			beginSurvey.setSurveyName(readString());
+			beginSurvey.setDate(in.readBoolean() ? new Date(in.readLong()) : null);
+			beginSurvey.setComment(readString());
+			return beginSurvey;
+		case BEGIN_SECTION:
+			return new BeginSectionCommand(readString());
+		case BEGIN_FEATURE:
+			BeginFeatureCommand beginFeature = new BeginFeatureCommand();
+			beginFeature.setFeatureName(readString());
+			beginFeature.setMinValue(readDecimal());
+			beginFeature.setMaxValue(readDecimal());
+			return beginFeature;
+		case FEATURE:
+			FeatureCommand feature = new FeatureCommand();
+			readLocation(feature.getLocation());
+			readStation(feature);
+			feature.setLeft(readLength());
+			feature.setRight(readLength());
+			feature.setUp(readLength());
+			feature.setDown(readLength());
+			feature.setValue(readDecimal());
+			return feature;
+		case SURVEY_BOUNDS:
+			SurveyBoundsCommand surveyBounds = new SurveyBoundsCommand();
+			readLocation(surveyBounds.getLowerBound());
+			readLocation(surveyBounds.getUpperBound());
+			return surveyBounds;
+		case CAVE_BOUNDS:
+			CaveBoundsCommand caveBounds = new CaveBoundsCommand();
+			readLocation(caveBounds.getLowerBound());
+			readLocation(caveBounds.getUpperBound());
+			caveBounds.setDistanceToFarthestStation(readLength());
+			return caveBounds;
+		case DATUM:
+			DatumCommand datum = new DatumCommand();
+			datum.setDatum(readString());
+			return datum;
+		case UTM_ZONE:
+			UtmZoneCommand utmZone = new UtmZoneCommand();
+			utmZone.setUtmZone(readString());
+			return utmZone;
+		default:
+			throw new IOException("invalid plot command type: " + type);
+		}
+	}
+
+	private CompassProjectDirective readProjectDirective() throws IOException {
+		int type = in.readUnsignedByte();
+		switch (type) {
+		case FILE_DIRECTIVE:
+			String file = readString();
+			int linkStationCount = readCount();
+			List<LinkStation> linkStations = new ArrayList<>(linkStationCount);
+			for (int i = 0; i < linkStationCount; i++) {
+				int id = readStation();
+				linkStations.add(new LinkStation(stationName(id), id, readNEVLocation()));
+			}
+			return new FileDirective(file, linkStations);
+		case LOCATION_DIRECTIVE:
+			NEVLocation location = readNEVLocation();
+			int utmZone = in.readInt();
+			return new LocationDirective(
+				location.easting,
+				location.northing,
+				location.elevation,
+				utmZone,
+				readAngle());
+		case DATUM_DIRECTIVE:
+			return new DatumDirective(readString());
+		case UTM_CONVERGENCE_DIRECTIVE:
+			return new UTMConvergenceDirective(readAngle());
+		case UTM_ZONE_DIRECTIVE:
+			return new UTMZoneDirective(in.readInt());
+		case FLAGS_DIRECTIVE:
+			return new FlagsDirective(in.readInt());
+		case COMMENT_DIRECTIVE:
+			return new CommentDirective(readString());
+		default:
+			throw new IOException("invalid project directive type: " + type);
+		}
+	}
+
+	private void readLocation(Location location) throws IOException {
+		location.setNorthing(readLength());
+		location.setEasting(readLength());
+		location.setVertical(readLength());
+	}
+
+	private NEVLocation readNEVLocation() throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+		UnitizedDouble<Length> easting = readLength();
+		UnitizedDouble<Length> northing = readLength();
+		return new NEVLocation(easting, northing, readLength());
+	}
+
+	private void readStation(LocationCommand command) throws IOException {
+		int id = readStation();
+		if (id >= 0) {
+			command.setStationId(id);
+			command.setStationName(stationDictionary.getName(id));
+		}
+	}
+
+	/**
+	 * @return the dictionary id of the station, or -1 if there is none.
+	 */
+	private int readStation() throws IOException {
+		int number = readCount();
+		if (number == 0) {
+			return -1;
+		}
+		if (number <= stationCount) {
+			return stationIds[number - 1];
+		}
+		if (number != stationCount + 1) {
+			throw new IOException("invalid station number: " + number);
+		}
+		if (stationCount == stationIds.length) {
+			stationIds = Arrays.copyOf(stationIds, stationCount * 2);
+		}
+		int id = stationDictionary.intern(readUTF8());
+		stationIds[stationCount++] = id;
+		return id;
+	}
+
+	private String stationName(int id) {
+		return id < 0 ? null : stationDictionary.getName(id);
+	}
+
+	private String readString() throws IOException {
+		return in.readBoolean() ? readUTF8() : null;
+	}
+
+	private String readUTF8() throws IOException {
+		int length = readCount();
+		if (length < 0) {
+			throw new IOException("invalid string length: " + length);
+		}
+		if (length > stringBytes.length) {
+			stringBytes = new byte[Math.max(length, stringBytes.length * 2)];
+		}
+		in.readFully(stringBytes, 0, length);
+		return new String(stringBytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	private BigDecimal readDecimal() throws IOException {
+		String value = readString();
+		return value == null ? null : new BigDecimal(value);
+	}
+
+	private UnitizedDouble<Length> readLength() throws IOException {
+		int unit = in.readUnsignedByte();
+		switch (unit) {
+		case NULL:
+			return null;
+		case FEET:
+			return Length.feet(in.readDouble());
+		case METERS:
+			return Length.meters(in.readDouble());
+		default:
+			throw new IOException("invalid length unit: " + unit);
+		}
+	}
+
+	private UnitizedDouble<Angle> readAngle() throws IOException {
+		int unit = in.readUnsignedByte();
+		switch (unit) {
+		case NULL:
+			return null;
+		case DEGREES:
+			return Angle.degrees(in.readDouble());
+		case RADIANS:
+			return Angle.radians(in.readDouble());
+		default:
+			throw new IOException("invalid angle unit: " + unit);
+		}
+	}
+
+	private int readCount() throws IOException {
+		int count = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			count |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return count;
+			}
+		}
+		throw new IOException("invalid count");
+	}
+}
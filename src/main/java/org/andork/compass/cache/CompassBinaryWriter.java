@@ -0,0 +1,377 @@
+package org.andork.compass.cache;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.andork.compass.LrudItem;
+import org.andork.compass.NEVLocation;
+import org.andork.compass.plot.BeginFeatureCommand;
+import org.andork.compass.plot.BeginSectionCommand;
+import org.andork.compass.plot.BeginSurveyCommand;
+import org.andork.compass.plot.CaveBoundsCommand;
+import org.andork.compass.plot.CompassPlotCommand;
+import org.andork.compass.plot.DatumCommand;
+import org.andork.compass.plot.DrawSurveyCommand;
+import org.andork.compass.plot.FeatureCommand;
+import org.andork.compass.plot.Location;
+import org.andork.compass.plot.SurveyBoundsCommand;
+import org.andork.compass.plot.UtmZoneCommand;
+import org.andork.compass.project.CommentDirective;
+import org.andork.compass.project.CompassProjectDirective;
+import org.andork.compass.project.DatumDirective;
+import org.andork.compass.project.FileDirective;
+import org.andork.compass.project.FlagsDirective;
+import org.andork.compass.project.LinkStation;
+import org.andork.compass.project.LocationDirective;
+import org.andork.compass.project.UTMConvergenceDirective;
+import org.andork.compass.project.UTMZoneDirective;
+import org.andork.compass.survey.CompassShot;
+import org.andork.compass.survey.CompassTrip;
+import org.andork.compass.survey.CompassTripHeader;
+import org.andork.compass.survey.ShotItem;
+import org.andork.unit.Angle;
+import org.andork.unit.Length;
+import org.andork.unit.UnitizedDouble;
+
+/**
+ * Writes parsed trips, plot commands and project directives in a compact binary
+ * form that {@link CompassBinaryReader} reads back without any parsing.<br>
+ * <br>
+ * Each station name is written once per stream and referred to by a small
+ * number after that, so streams don't depend on the ids of any
+ * {@link org.andork.compass.StationDictionary}. Measurements keep their units,
+ * so they read back exactly equal. Strings are written as their UTF-8 length
+ * followed by their UTF-8 bytes, so there's no limit on their length.
+ */
+public class CompassBinaryWriter {
+	static final int NULL = 0;
+	static final int FEET = 1;
+	static final int METERS = 2;
+	static final int DEGREES = 1;
+	static final int RADIANS = 2;
+
+	static final int DRAW_SURVEY = 1;
+	static final int BEGIN_SURVEY = 2;
+	static final int BEGIN_SECTION = 3;
+	static final int BEGIN_FEATURE = 4;
+	static final int FEATURE = 5;
+	static final int SURVEY_BOUNDS = 6;
+	static final int CAVE_BOUNDS = 7;
+	static final int DATUM = 8;
+	static final int UTM_ZONE = 9;
+
+	static final int FILE_DIRECTIVE = 1;
+	static final int LOCATION_DIRECTIVE = 2;
+	static final int DATUM_DIRECTIVE = 3;
+	static final int UTM_CONVERGENCE_DIRECTIVE = 4;
+	static final int UTM_ZONE_DIRECTIVE = 5;
+	static final int FLAGS_DIRECTIVE = 6;
+	static final int COMMENT_DIRECTIVE = 7;
+
+	static final int EXCLUDED_FROM_LENGTH = 1;
+	static final int EXCLUDED_FROM_PLOTTING = 2;
+	static final int EXCLUDED_FROM_ALL_PROCESSING = 4;
+	static final int DO_NOT_ADJUST = 8;
+
+	private final DataOutputStream out;
+	private final Map<String, Integer> stationNumbers = new HashMap<>();
+
+	public CompassBinaryWriter(OutputStream out) {
+		this.out = out instanceof DataOutputStream ? (DataOutputStream) out : new DataOutputStream(out);
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	public void writeTrips(List<CompassTrip> trips) throws IOException {
+		writeCount(trips.size());
+		for (CompassTrip trip : trips) {
+			writeTripHeader(trip.getHeader());
+			writeCount(trip.getShots().size());
+			for (CompassShot shot : trip.getShots()) {
+				writeShot(shot);
+			}
+		}
+	}
+
+	public void writePlotCommands(List<CompassPlotCommand> commands) throws IOException {
+		writeCount(commands.size());
+		for (CompassPlotCommand command : commands) {
+			writePlotCommand(command);
+		}
+	}
+
+	public void writeProjectDirectives(List<CompassProjectDirective> directives) throws IOException {
+		writeCount(directives.size());
+		for (CompassProjectDirective directive : directives) {
+			writeProjectDirective(directive);
+		}
+	}
+
+	private void writeTripHeader(CompassTripHeader header) throws IOException {
+		writeString(header.getCaveName());
+		writeString(header.getSurveyName());
+		out.writeBoolean(header.getDate() != null);
+		if (header.getDate() != null) {
+			out.writeLong(header.getDate().getTime());
+		}
+		writeString(header.getComment());
+		writeString(header.getTeam());
+		writeAngle(header.getDeclination());
+		out.writeByte(header.getLengthUnit().ordinal());
+		out.writeByte(header.getLrudUnit().ordinal());
+		out.writeByte(header.getAzimuthUnit().ordinal());
+		out.writeByte(header.getInclinationUnit().ordinal());
+		for (LrudItem item : header.getLrudOrder()) {
+			out.writeByte(item.ordinal());
+		}
+		ShotItem[] order = header.getShotMeasurementOrder();
+		out.writeByte(order.length);
+		for (ShotItem item : order) {
+			out.writeByte(item.ordinal());
+		}
+		out.writeBoolean(header.hasBacksights());
+		out.writeByte(header.getLrudAssociation().ordinal());
+		writeLength(header.getLengthCorrection());
+		writeAngle(header.getFrontsightAzimuthCorrection());
+		writeAngle(header.getFrontsightInclinationCorrection());
+		writeAngle(header.getBacksightAzimuthCorrection());
+		writeAngle(header.getBacksightInclinationCorrection());
+	}
+
+	private void writeShot(CompassShot shot) throws IOException {
+		writeStation(shot.getFromStationName());
+		writeStation(shot.getToStationName());
+		writeLength(shot.getLength());
+		writeAngle(shot.getFrontsightAzimuth());
+		writeAngle(shot.getFrontsightInclination());
+		writeAngle(shot.getBacksightAzimuth());
+		writeAngle(shot.getBacksightInclination());
+		writeLength(shot.getLeft());
+		writeLength(shot.getRight());
+		writeLength(shot.getUp());
+		writeLength(shot.getDown());
+		writeString(shot.getComment());
+		out.writeByte(
+			(shot.isExcludedFromLength() ? EXCLUDED_FROM_LENGTH : 0)
+				| (shot.isExcludedFromPlotting() ? EXCLUDED_FROM_PLOTTING : 0)
+				| (shot.isExcludedFromAllProcessing() ? EXCLUDED_FROM_ALL_PROCESSING : 0)
+				| (shot.isDoNotAdjust() ? DO_NOT_ADJUST : 0));
+	}
+
+	private void writePlotCommand(CompassPlotCommand command) throws IOException {
+		if (command instanceof DrawSurveyCommand) {
+			DrawSurveyCommand draw = (DrawSurveyCommand) command;
+			out.writeByte(DRAW_SURVEY);
+			out.writeByte(draw.getOperation().ordinal());
+			writeLocation(draw.getLocation());
+			writeStation(draw.getStationName());
+			writeLength(draw.getLeft());
+			writeLength(draw.getRight());
+			writeLength(draw.getUp());
+			writeLength(draw.getDown());
+			writeLength(draw.getDistanceFromEntrance());
+		}
+		else if (command instanceof BeginSurveyCommand) {
+			BeginSurveyCommand begin = (BeginSurveyCommand) command;
+			out.writeByte(BEGIN_SURVEY);
+			writeString(begin.getSurveyName());
+			out.writeBoolean(begin.getDate() != null);
+			if (begin.getDate() != null) {
+				out.writeLong(begin.getDate().getTime());
+			}
+			writeString(begin.getComment());
+		}
+		else if (command instanceof BeginSectionCommand) {
+			out.writeByte(BEGIN_SECTION);
+			writeString(((BeginSectionCommand) command).getSectionName());
+		}
+		else if (command instanceof BeginFeatureCommand) {
+			BeginFeatureCommand begin = (BeginFeatureCommand) command;
+			out.writeByte(BEGIN_FEATURE);
+			writeString(begin.getFeatureName());
+			writeDecimal(begin.getMinValue());
+			writeDecimal(begin.getMaxValue());
+		}
+		else if (command instanceof FeatureCommand) {
+			FeatureCommand feature = (FeatureCommand) command;
+			out.writeByte(FEATURE);
+			writeLocation(feature.getLocation());
+			writeStation(feature.getStationName());
+			writeLength(feature.getLeft());
+			writeLength(feature.getRight());
+			writeLength(feature.getUp());
+			writeLength(feature.getDown());
+			writeDecimal(feature.getValue());
+		}
+		else if (command instanceof SurveyBoundsCommand) {
+			SurveyBoundsCommand bounds = (SurveyBoundsCommand) command;
+			out.writeByte(SURVEY_BOUNDS);
+			writeLocation(bounds.getLowerBound());
+			writeLocation(bounds.getUpperBound());
+		}
+		else if (command instanceof CaveBoundsCommand) {
+			CaveBoundsCommand bounds = (CaveBoundsCommand) command;
+			out.writeByte(CAVE_BOUNDS);
+			writeLocation(bounds.getLowerBound());
+			writeLocation(bounds.getUpperBound());
+			writeLength(bounds.getDistanceToFarthestStation());
+		}
+		else if (command instanceof DatumCommand) {
+			out.writeByte(DATUM);
+			writeString(((DatumCommand) command).getDatum());
+		}
+		else if (command instanceof UtmZoneCommand) {
+			out.writeByte(UTM_ZONE);
+			writeString(((UtmZoneCommand) command).getUtmZone());
+		}
+		else {
+			throw new IllegalArgumentException("unsupported command type: " + command.getClass());
+		}
+	}
+
+	private void writeProjectDirective(CompassProjectDirective directive) throws IOException {
+		if (directive instanceof FileDirective) {
+			FileDirective file = (FileDirective) directive;
+			out.writeByte(FILE_DIRECTIVE);
+			writeString(file.file);
+			writeCount(file.linkStations.size());
+			for (LinkStation station : file.linkStations) {
+				writeStation(station.name);
+				writeNEVLocation(station.location);
+			}
+		}
+		else if (directive instanceof LocationDirective) {
+			LocationDirective location = (LocationDirective) directive;
+			out.writeByte(LOCATION_DIRECTIVE);
+			writeNEVLocation(location);
+			out.writeInt(location.utmZone);
+			writeAngle(location.utmConvergence);
+		}
+		else if (directive instanceof DatumDirective) {
+			out.writeByte(DATUM_DIRECTIVE);
+			writeString(((DatumDirective) directive).datum);
+		}
+		else if (directive instanceof UTMConvergenceDirective) {
+			out.writeByte(UTM_CONVERGENCE_DIRECTIVE);
+			writeAngle(((UTMConvergenceDirective) directive).utmConvergence);
+		}
+		else if (directive instanceof UTMZoneDirective) {
+			out.writeByte(UTM_ZONE_DIRECTIVE);
+			out.writeInt(((UTMZoneDirective) directive).utmZone);
+		}
+		else if (directive instanceof FlagsDirective) {
+			out.writeByte(FLAGS_DIRECTIVE);
+			out.writeInt(((FlagsDirective) directive).flags);
+		}
+		else if (directive instanceof CommentDirective) {
+			out.writeByte(COMMENT_DIRECTIVE);
+			writeString(((CommentDirective) directive).comment);
+		}
+		else {
+			throw new IllegalArgumentException("unsupported directive type: " + directive.getClass());
+		}
+	}
+
+	private void writeLocation(Location location) throws IOException {
+		writeLength(location.getNorthing());
+		writeLength(location.getEasting());
+		writeLength(location.getVertical());
+	}
+
+	private void writeNEVLocation(NEVLocation location) throws IOException {
+		out.writeBoolean(location != null);
+		if (location != null) {
+			writeLength(location.easting);
+			writeLength(location.northing);
+			writeLength(location.elevation);
+		}
+	}
+
+	/**
+	 * Writes a station name as its number in this stream, followed by the name
+	 * itself the first time it's written.
+	 */
+	private void writeStation(String name) throws IOException {
+		if (name == null) {
+			writeCount(0);
+			return;
+		}
+		Integer number = stationNumbers.get(name);
+		if (number != null) {
+			writeCount(number);
+			return;
+		}
+		number = stationNumbers.size() + 1;
+		stationNumbers.put(name, number);
+		writeCount(number);
+		writeUTF8(name);
+	}
+
+	private void writeString(String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null) {
+			writeUTF8(s);
+		}
+	}
+
+	/**
+	 * Unlike {@link DataOutputStream#writeUTF(String)}, works for strings of any
+	 * length.
+	 */
+	private void writeUTF8(String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeCount(bytes.length);
+		out.write(bytes);
+	}
+
+	private void writeDecimal(BigDecimal value) throws IOException {
+		writeString(value == null ? null : value.toString());
+	}
+
+	private void writeLength(UnitizedDouble<Length> value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+		}
+		else if (value.equals(Length.feet(value.get(Length.feet)))) {
+			out.writeByte(FEET);
+			out.writeDouble(value.get(Length.feet));
+		}
+		else {
+			out.writeByte(METERS);
+			out.writeDouble(value.get(Length.meters));
+		}
+	}
+
+	private void writeAngle(UnitizedDouble<Angle> value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+		}
+		else if (value.equals(Angle.degrees(value.get(Angle.degrees)))) {
+			out.writeByte(DEGREES);
+			out.writeDouble(value.get(Angle.degrees));
+		}
+		else {
+			out.writeByte(RADIANS);
+			out.writeDouble(value.get(Angle.radians));
+		}
+	}
+
+	/**
+	 * Writes a non-negative number in as few bytes as possible (7 bits per byte).
+	 */
+	private void writeCount(int count) throws IOException {
+		while ((count & ~0x7f) != 0) {
+			out.writeByte((count & 0x7f) | 0x80);
+			count >>>= 7;
+		}
+		out.writeByte(count);
+	}
+}
@@ -0,0 +1,338 @@
+package org.andork.compass.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32;
+
+import org.andork.compass.CompassFiles;
+import org.andork.compass.CountingErrorSink;
+import org.andork.compass.ErrorSink;
+import org.andork.compass.StationDictionary;
+import org.andork.compass.plot.CompassPlotCommand;
+import org.andork.compass.plot.CompassPlotParser;
+import org.andork.compass.project.CompassProjectCollector;
+import org.andork.compass.project.CompassProjectDirective;
+import org.andork.compass.project.CompassProjectParser;
+import org.andork.compass.survey.CompassSurveyParser;
+import org.andork.compass.survey.CompassTrip;
+import org.andork.segment.Segment;
+import org.andork.segment.SegmentParseException;
+
+/**
+ * A directory of parsed .DAT, .PLT and .MAK files in the binary form of
+ * {@link CompassBinaryWriter}, so that unchanged files don't have to be parsed
+ * again.<br>
+ * <br>
+ * Each entry records the path, size, modification time and a CRC-32 of the
+ * contents of the file it was made from. When a file's size and modification
+ * time match its entry, the entry is read instead of the file. When only the
+ * modification time differs, the file is read and its CRC checked before
+ * falling back to parsing it. Files with errors or warnings are never cached,
+ * so that their errors are reported every time they are loaded.<br>
+ * <br>
+ * Any problem with the cache itself (a corrupt entry, an entry from another
+ * version, a full disk) just makes the file get parsed, and is reported to the
+ * {@link #setFailureListener(FailureListener) failure listener}, if any.
+ * Entries store station names rather than ids, so loading an entry interns the
+ * names in the caller's {@link StationDictionary} just like parsing would.
+ * Instances are thread-safe, and entries are replaced atomically so that
+ * several processes can share the same directory.
+ */
+public class CompassParseCache {
+	private static final int MAGIC = 0x43504331; // "CPC1"
+	private static final int VERSION = 2;
+
+	private static final int SURVEY = 1;
+	private static final int PLOT = 2;
+	private static final int PROJECT = 3;
+
+	private final Path directory;
+	private volatile boolean verifyContents = false;
+	private volatile FailureListener failureListener;
+
+	/**
+	 * Is told about problems reading or writing cache entries. These never fail
+	 * a load, but shouldn't go unnoticed either (for instance a full disk or an
+	 * unwritable cache directory).
+	 */
+	@FunctionalInterface
+	public interface FailureListener {
+		/**
+		 * @param file      the .DAT, .PLT or .MAK file whose entry couldn't be read
+		 *                  or written
+		 * @param entry     the entry file
+		 * @param exception what went wrong
+		 */
+		void cacheFailed(Path file, Path entry, Exception exception);
+	}
+
+	public CompassParseCache(Path directory) throws IOException {
+		this.directory = Files.createDirectories(directory);
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public boolean isVerifyContents() {
+		return verifyContents;
+	}
+
+	public FailureListener getFailureListener() {
+		return failureListener;
+	}
+
+	/**
+	 * Sets the listener to tell about problems reading or writing cache entries,
+	 * or <code>null</code> to ignore them.
+	 */
+	public void setFailureListener(FailureListener failureListener) {
+		this.failureListener = failureListener;
+	}
+
+	/**
+	 * If true, the contents of each file are read and checked against the CRC of
+	 * its entry even when its size and modification time haven't changed.
+	 */
+	public void setVerifyContents(boolean verifyContents) {
+		this.verifyContents = verifyContents;
+	}
+
+	private interface Parse<T> {
+		T parse(String text) throws IOException, SegmentParseException;
+	}
+
+	private interface Read<T> {
+		T read(CompassBinaryReader reader) throws IOException;
+	}
+
+	private interface Write<T> {
+		void write(CompassBinaryWriter writer, T value) throws IOException;
+	}
+
+	/**
+	 * Loads the trips of the given .DAT file from the cache, or parses them with
+	 * the given {@code parser} if the file has changed. Station names are
+	 * interned in the parser's {@link StationDictionary} either way.
+	 */
+	public List<CompassTrip> loadSurvey(Path file, CompassSurveyParser parser) throws IOException {
+		ErrorSink errorSink = parser.getErrorSink();
+		CountingErrorSink counter = new CountingErrorSink(errorSink);
+		parser.setErrorSink(counter);
+		try {
+			return load(
+				file,
+				SURVEY,
+				parser.getStationDictionary(),
+				text -> parser.parseCompassSurveyData(text, file),
+				() -> counter.getCount() == 0,
+				CompassBinaryReader::readTrips,
+				CompassBinaryWriter::writeTrips);
+		}
+		catch (SegmentParseException e) {
+			// the survey parser doesn't throw these
+			throw new IllegalStateException(e);
+		}
+		finally {
+			parser.setErrorSink(errorSink);
+		}
+	}
+
+	/**
+	 * Loads the commands of the given .PLT file from the cache, or parses them
+	 * with the given {@code parser} if the file has changed. Station names are
+	 * interned in the parser's {@link StationDictionary} either way.
+	 */
+	public List<CompassPlotCommand> loadPlot(Path file, CompassPlotParser parser) throws IOException {
+		ErrorSink errorSink = parser.getErrorSink();
+		CountingErrorSink counter = new CountingErrorSink(errorSink);
+		parser.setErrorSink(counter);
+		try {
+			return load(
+				file,
+				PLOT,
+				parser.getStationDictionary(),
+				text -> parser.parsePlot(new StringReader(text), file),
+				() -> counter.getCount() == 0,
+				CompassBinaryReader::readPlotCommands,
+				CompassBinaryWriter::writePlotCommands);
+		}
+		catch (SegmentParseException e) {
+			// the plot parser doesn't throw these
+			throw new IllegalStateException(e);
+		}
+		finally {
+			parser.setErrorSink(errorSink);
+		}
+	}
+
+	/**
+	 * Loads the directives of the given .MAK file from the cache, or parses them
+	 * if the file has changed. Link station names are interned in the given
+	 * {@code stations}.
+	 *
+	 * @throws SegmentParseException if the file has changed and is invalid
+	 */
+	public List<CompassProjectDirective> loadProject(Path file, StationDictionary stations)
+		throws IOException, SegmentParseException {
+		return load(file, PROJECT, stations, text -> {
+			CompassProjectCollector collector = new CompassProjectCollector();
+			CompassProjectParser parser = new CompassProjectParser(collector);
+			parser.setStationDictionary(stations);
+			parser.parse(new Segment(text, file, 0, 0));
+			return collector.getDirectives();
+		}, () -> true, CompassBinaryReader::readProjectDirectives, CompassBinaryWriter::writeProjectDirectives);
+	}
+
+	private <T> T load(
+		Path file,
+		int kind,
+		StationDictionary stations,
+		Parse<T> parse,
+		BooleanSupplier cacheable,
+		Read<T> read,
+		Write<T> write) throws IOException, SegmentParseException {
+		String key = file.toAbsolutePath().normalize().toString();
+		Path entry = directory.resolve(entryName(key));
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		long size = attributes.size();
+		long modified = attributes.lastModifiedTime().toMillis();
+
+		byte[] bytes = null;
+		long crc = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+			if (in.readInt() == MAGIC
+				&& in.readInt() == VERSION
+				&& in.readInt() == kind
+				&& in.readUTF().equals(key)
+				&& in.readLong() == size) {
+				long entryModified = in.readLong();
+				long entryCrc = in.readLong();
+				boolean modifiedChanged = entryModified != modified;
+				if (modifiedChanged || verifyContents) {
+					bytes = Files.readAllBytes(file);
+					crc = crc(bytes);
+				}
+				if (bytes == null || crc == entryCrc) {
+					T result = readEntry(in, stations, read);
+					if (modifiedChanged) {
+						store(file, entry, key, kind, size, modified, crc, result, write);
+					}
+					return result;
+				}
+			}
+		}
+		catch (NoSuchFileException e) {
+			// not cached yet
+		}
+		catch (IOException | RuntimeException e) {
+			// unreadable entry; parse the file
+			failed(file, entry, e);
+		}
+
+		if (bytes == null) {
+			bytes = Files.readAllBytes(file);
+			crc = crc(bytes);
+		}
+		T result = parse.parse(new String(bytes, CompassFiles.CHARSET));
+		if (cacheable.getAsBoolean()) {
+			store(file, entry, key, kind, size, modified, crc, result, write);
+		}
+		return result;
+	}
+
+	private static <T> T readEntry(DataInputStream in, StationDictionary stations, Read<T> read) throws IOException {
+		CompassBinaryReader reader = new CompassBinaryReader(in);
+		reader.setStationDictionary(stations);
+		return read.read(reader);
+	}
+
+	private <T> void store(Path file, Path entry, String key, int kind, long size, long modified, long crc, T value,
+		Write<T> write) {
+		Path temp = null;
+		try {
+			temp = Files.createTempFile(directory, entry.getFileName().toString(), ".tmp");
+			try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(temp))) {
+				DataOutputStream out = new DataOutputStream(stream);
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(kind);
+				out.writeUTF(key);
+				out.writeLong(size);
+				out.writeLong(modified);
+				out.writeLong(crc);
+				CompassBinaryWriter writer = new CompassBinaryWriter(out);
+				write.write(writer, value);
+				writer.flush();
+			}
+			try {
+				Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+			}
+			temp = null;
+		}
+		catch (IOException | RuntimeException e) {
+			// caching is best effort
+			failed(file, entry, e);
+		}
+		finally {
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				}
+				catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	private void failed(Path file, Path entry, Exception exception) {
+		FailureListener listener = failureListener;
+		if (listener != null) {
+			listener.cacheFailed(file, entry, exception);
+		}
+	}
+
+	private static long crc(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return crc.getValue();
+	}
+
+	/**
+	 * @return a file name for the entry of the file at the given absolute path.
+	 */
+	private static String entryName(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+			StringBuilder builder = new StringBuilder(digest.length * 2 + 4);
+			for (byte b : digest) {
+				builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return builder.append(".bin").toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+}
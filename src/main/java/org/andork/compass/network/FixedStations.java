@@ -0,0 +1,163 @@
+package org.andork.compass.network;
+
+import java.util.Arrays;
+
+import org.andork.compass.NEVLocation;
+import org.andork.compass.StationDictionary;
+import org.andork.compass.plot.CompassPlotCommand;
+import org.andork.compass.plot.DrawSurveyCommand;
+import org.andork.compass.plot.Location;
+import org.andork.compass.project.CompassProject;
+import org.andork.compass.project.CompassProjectDirective;
+import org.andork.compass.project.CompassProjectFile;
+import org.andork.compass.project.LinkStation;
+import org.andork.compass.project.LocationDirective;
+import org.andork.compass.project.UTMConvergenceDirective;
+import org.andork.unit.Angle;
+import org.andork.unit.Length;
+import org.andork.unit.UnitizedDouble;
+
+/**
+ * Stations with known locations, that {@link SurveyNetwork#computeCoordinates}
+ * lays out the rest of the network from. All coordinates are in meters.<br>
+ * <br>
+ * Shot offsets are relative to true north, but fixed coordinates may be on a
+ * grid such as UTM, whose north differs from true north by the
+ * {@linkplain #getGridConvergence() grid convergence}; the offsets are rotated
+ * by it to match.<br>
+ * <br>
+ * If the same station is added more than once, the first location given for it
+ * is used.
+ */
+public class FixedStations {
+	private int size;
+	private int[] stations = new int[16];
+	private double[] northings = new double[16];
+	private double[] eastings = new double[16];
+	private double[] elevations = new double[16];
+	private double gridConvergence;
+
+	/**
+	 * @return the link stations with locations in all the
+	 *         {@link org.andork.compass.project.FileDirective}s of the given
+	 *         project, with the project's UTM convergence (from the last
+	 *         {@code @} or {@code %} directive) as the grid convergence. Link
+	 *         station names are interned in the project's
+	 *         {@link StationDictionary} if they don't have ids.
+	 */
+	public static FixedStations fromProject(CompassProject project) {
+		FixedStations result = new FixedStations();
+		for (CompassProjectDirective directive : project.directives) {
+			UnitizedDouble<Angle> convergence = null;
+			if (directive instanceof LocationDirective) {
+				convergence = ((LocationDirective) directive).utmConvergence;
+			}
+			else if (directive instanceof UTMConvergenceDirective) {
+				convergence = ((UTMConvergenceDirective) directive).utmConvergence;
+			}
+			if (convergence != null) {
+				result.gridConvergence = convergence.get(Angle.radians);
+			}
+		}
+		for (CompassProjectFile file : project.files) {
+			for (LinkStation station : file.directive.linkStations) {
+				if (station.location != null) {
+					int id = station.id >= 0 ? station.id : project.stations.intern(station.name);
+					result.add(id, station.location);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the locations of the stations drawn by the {@link DrawSurveyCommand}s
+	 *         in the given plot commands. Station names are interned in the given
+	 *         dictionary if the commands don't have ids.
+	 */
+	public static FixedStations fromPlot(Iterable<? extends CompassPlotCommand> commands, StationDictionary stations) {
+		FixedStations result = new FixedStations();
+		for (CompassPlotCommand command : commands) {
+			if (command instanceof DrawSurveyCommand) {
+				DrawSurveyCommand draw = (DrawSurveyCommand) command;
+				if (draw.getStationName() == null) {
+					continue;
+				}
+				int id = draw.getStationId() >= 0 ? draw.getStationId() : stations.intern(draw.getStationName());
+				Location location = draw.getLocation();
+				if (location.getNorthing() == null || location.getEasting() == null || location.getVertical() == null) {
+					continue;
+				}
+				result.add(
+					id,
+					location.getNorthing().get(Length.meters),
+					location.getEasting().get(Length.meters),
+					location.getVertical().get(Length.meters));
+			}
+		}
+		return result;
+	}
+
+	public void add(int station, NEVLocation location) {
+		add(
+			station,
+			location.northing.get(Length.meters),
+			location.easting.get(Length.meters),
+			location.elevation.get(Length.meters));
+	}
+
+	public void add(int station, double northing, double easting, double elevation) {
+		if (station < 0) {
+			throw new IllegalArgumentException("invalid station id: " + station);
+		}
+		if (size == stations.length) {
+			int capacity = size * 2;
+			stations = Arrays.copyOf(stations, capacity);
+			northings = Arrays.copyOf(northings, capacity);
+			eastings = Arrays.copyOf(eastings, capacity);
+			elevations = Arrays.copyOf(elevations, capacity);
+		}
+		stations[size] = station;
+		northings[size] = northing;
+		eastings[size] = easting;
+		elevations[size] = elevation;
+		size++;
+	}
+
+	/**
+	 * @return the clockwise angle from true north to the north of the grid the
+	 *         coordinates are on, in radians (0 by default).
+	 */
+	public double getGridConvergence() {
+		return gridConvergence;
+	}
+
+	/**
+	 * Sets the clockwise angle from true north to the north of the grid the
+	 * coordinates are on, in radians. Shots with a true azimuth of {@code a} are
+	 * laid out at a grid azimuth of {@code a - gridConvergence}.
+	 */
+	public void setGridConvergence(double gridConvergence) {
+		this.gridConvergence = gridConvergence;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getStation(int index) {
+		return stations[index];
+	}
+
+	public double getNorthing(int index) {
+		return northings[index];
+	}
+
+	public double getEasting(int index) {
+		return eastings[index];
+	}
+
+	public double getElevation(int index) {
+		return elevations[index];
+	}
+}
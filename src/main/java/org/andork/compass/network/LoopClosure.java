@@ -0,0 +1,517 @@
+package org.andork.compass.network;
+
+import java.util.Arrays;
+
+import org.andork.compass.survey.CompassShot;
+
+/**
+ * Distributes loop misclosures in a {@link SurveyNetwork} by least squares,
+ * with the variance of each shot proportional to its length, so that longer
+ * shots absorb more of the error. Shots marked
+ * {@link CompassShot#isDoNotAdjust() do not adjust} are held rigid; shots
+ * excluded from all processing aren't in the network to begin with.<br>
+ * <br>
+ * The normal equations are only solved for the junctions of the network:
+ * <ol>
+ * <li>stations joined by do not adjust shots are merged into one rigid
+ * cluster,</li>
+ * <li>clusters that aren't fixed and are only connected to one other cluster
+ * are pruned, since they aren't in any loop,</li>
+ * <li>series of shots through clusters with only two connections are
+ * collapsed into one chain between two junctions,</li>
+ * <li>the junction coordinates are solved by Jacobi-preconditioned conjugate
+ * gradient, starting from the unadjusted coordinates,</li>
+ * <li>the misclosure of each chain is spread along it in proportion to
+ * variance, which is the least squares solution for a series, and the pruned
+ * clusters are placed from their neighbors.</li>
+ * </ol>
+ * Each conjugate gradient iteration takes time linear in the number of chains,
+ * and no matrices are formed. Stations that aren't connected to a fixed station
+ * have NaN coordinates, as in {@link SurveyNetwork#computeCoordinates}.
+ */
+public class LoopClosure {
+	/**
+	 * The variance (in meters) given to zero-length shots, so that they don't
+	 * have infinite weight.
+	 */
+	private static final double MIN_VARIANCE = 1e-3;
+
+	private final SurveyNetwork network;
+	private double tolerance = 1e-10;
+	private int maxIterations = 0;
+
+	public LoopClosure(SurveyNetwork network) {
+		this.network = network;
+	}
+
+	public SurveyNetwork getNetwork() {
+		return network;
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * Sets when to stop iterating: once the norm of the residual is this
+	 * fraction of the norm of the initial residual.
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	/**
+	 * Sets the maximum number of conjugate gradient iterations per axis. If 0
+	 * (the default), twice the number of junctions plus 100 is used.
+	 */
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * @return the adjusted coordinates of the stations in the network, laid out
+	 *         from the given fixed stations, in meters.
+	 */
+	public StationCoordinates adjust(FixedStations fixed) {
+		StationCoordinates initial = network.computeCoordinates(fixed);
+		int stationCount = network.getStationCount();
+		int shotCount = network.getShotCount();
+
+		// in the grid of the fixed stations, like the initial coordinates
+		double cos = Math.cos(fixed.getGridConvergence());
+		double sin = Math.sin(fixed.getGridConvergence());
+		double[][] shotOffsets = new double[3][shotCount];
+		boolean[] rigid = new boolean[shotCount];
+		for (int shot = 0; shot < shotCount; shot++) {
+			double north = network.getNorthOffset(shot);
+			double east = network.getEastOffset(shot);
+			shotOffsets[0][shot] = north * cos + east * sin;
+			shotOffsets[1][shot] = east * cos - north * sin;
+			shotOffsets[2][shot] = network.getUpOffset(shot);
+			rigid[shot] = network.getShot(shot).isDoNotAdjust();
+		}
+
+		// merge stations joined by do not adjust shots into rigid clusters,
+		// recording the offset of each station from the first in its cluster
+		int[] clusters = new int[stationCount];
+		Arrays.fill(clusters, -1);
+		double[][] stationOffsets = new double[3][stationCount];
+		int[] representatives = new int[stationCount];
+		int clusterCount = 0;
+		int[] queue = new int[stationCount];
+		for (int start = 0; start < stationCount; start++) {
+			if (!initial.isLocated(start) || clusters[start] >= 0) {
+				continue;
+			}
+			int cluster = clusterCount++;
+			representatives[cluster] = start;
+			clusters[start] = cluster;
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = start;
+			while (head < tail) {
+				int station = queue[head++];
+				for (int edge = network.getFirstEdge(station); edge < network.getFirstEdge(station + 1); edge++) {
+					int shot = network.getEdgeShot(edge);
+					int target = network.getEdgeTarget(edge);
+					if (!rigid[shot] || clusters[target] >= 0) {
+						continue;
+					}
+					double sign = network.isEdgeReversed(edge) ? -1 : 1;
+					for (int axis = 0; axis < 3; axis++) {
+						stationOffsets[axis][target] = stationOffsets[axis][station] + sign * shotOffsets[axis][shot];
+					}
+					clusters[target] = cluster;
+					queue[tail++] = target;
+				}
+			}
+		}
+
+		// unadjusted cluster coordinates
+		double[][] coordinates = new double[3][clusterCount];
+		boolean[] clusterFixed = new boolean[clusterCount];
+		for (int cluster = 0; cluster < clusterCount; cluster++) {
+			int station = representatives[cluster];
+			coordinates[0][cluster] = initial.getNorthing(station);
+			coordinates[1][cluster] = initial.getEasting(station);
+			coordinates[2][cluster] = initial.getElevation(station);
+		}
+		for (int i = 0; i < fixed.size(); i++) {
+			int station = fixed.getStation(i);
+			if (station >= stationCount || clusters[station] < 0 || clusterFixed[clusters[station]]) {
+				continue;
+			}
+			int cluster = clusters[station];
+			clusterFixed[cluster] = true;
+			coordinates[0][cluster] = fixed.getNorthing(i) - stationOffsets[0][station];
+			coordinates[1][cluster] = fixed.getEasting(i) - stationOffsets[1][station];
+			coordinates[2][cluster] = fixed.getElevation(i) - stationOffsets[2][station];
+		}
+
+		// the adjustable shots between clusters
+		int edgeCount = 0;
+		int[] edgeFrom = new int[shotCount];
+		int[] edgeTo = new int[shotCount];
+		double[][] edgeOffsets = new double[3][shotCount];
+		double[] edgeVariances = new double[shotCount];
+		for (int shot = 0; shot < shotCount; shot++) {
+			int from = network.getFromStation(shot);
+			int to = network.getToStation(shot);
+			if (rigid[shot] || clusters[from] < 0 || clusters[from] == clusters[to]) {
+				continue;
+			}
+			edgeFrom[edgeCount] = clusters[from];
+			edgeTo[edgeCount] = clusters[to];
+			double squaredLength = 0;
+			for (int axis = 0; axis < 3; axis++) {
+				edgeOffsets[axis][edgeCount] = shotOffsets[axis][shot]
+					+ stationOffsets[axis][from]
+					- stationOffsets[axis][to];
+				squaredLength += shotOffsets[axis][shot] * shotOffsets[axis][shot];
+			}
+			edgeVariances[edgeCount] = Math.max(MIN_VARIANCE, Math.sqrt(squaredLength));
+			edgeCount++;
+		}
+
+		// edges of each cluster, encoded like SurveyNetwork's
+		int[] adjacencyStarts = new int[clusterCount + 1];
+		for (int edge = 0; edge < edgeCount; edge++) {
+			adjacencyStarts[edgeFrom[edge] + 1]++;
+			adjacencyStarts[edgeTo[edge] + 1]++;
+		}
+		for (int cluster = 0; cluster < clusterCount; cluster++) {
+			adjacencyStarts[cluster + 1] += adjacencyStarts[cluster];
+		}
+		int[] degrees = new int[clusterCount];
+		for (int cluster = 0; cluster < clusterCount; cluster++) {
+			degrees[cluster] = adjacencyStarts[cluster + 1] - adjacencyStarts[cluster];
+		}
+		int[] next = Arrays.copyOf(adjacencyStarts, clusterCount);
+		int[] adjacency = new int[edgeCount * 2];
+		for (int edge = 0; edge < edgeCount; edge++) {
+			adjacency[next[edgeFrom[edge]]++] = edge * 2;
+			adjacency[next[edgeTo[edge]]++] = edge * 2 + 1;
+		}
+
+		// prune clusters that aren't in any loop
+		boolean[] removedEdges = new boolean[edgeCount];
+		boolean[] pruned = new boolean[clusterCount];
+		int[] prunedClusters = new int[clusterCount];
+		int[] prunedEdges = new int[clusterCount];
+		int prunedCount = 0;
+		int head = 0;
+		int tail = 0;
+		for (int cluster = 0; cluster < clusterCount; cluster++) {
+			if (degrees[cluster] == 1 && !clusterFixed[cluster]) {
+				queue[tail++] = cluster;
+			}
+		}
+		while (head < tail) {
+			int cluster = queue[head++];
+			if (degrees[cluster] != 1) {
+				continue;
+			}
+			int edge = -1;
+			for (int i = adjacencyStarts[cluster]; i < adjacencyStarts[cluster + 1]; i++) {
+				if (!removedEdges[adjacency[i] >> 1]) {
+					edge = adjacency[i] >> 1;
+					break;
+				}
+			}
+			removedEdges[edge] = true;
+			pruned[cluster] = true;
+			degrees[cluster] = 0;
+			prunedClusters[prunedCount] = cluster;
+			prunedEdges[prunedCount++] = edge;
+			int neighbor = edgeFrom[edge] == cluster ? edgeTo[edge] : edgeFrom[edge];
+			if (--degrees[neighbor] == 1 && !clusterFixed[neighbor]) {
+				queue[tail++] = neighbor;
+			}
+		}
+
+		// collapse series into chains between junctions
+		boolean[] junctions = new boolean[clusterCount];
+		for (int cluster = 0; cluster < clusterCount; cluster++) {
+			junctions[cluster] = !pruned[cluster] && (clusterFixed[cluster] || degrees[cluster] != 2);
+		}
+		Chains chains = new Chains(edgeCount);
+		boolean[] usedEdges = Arrays.copyOf(removedEdges, edgeCount);
+		for (int pass = 0; pass < 2; pass++) {
+			for (int start = 0; start < clusterCount; start++) {
+				if (pruned[start]) {
+					continue;
+				}
+				if (!junctions[start]) {
+					// only loops of two-connection clusters are left on the second
+					// pass; make one of their clusters a junction
+					if (pass == 0 || !hasUnusedEdge(start, adjacencyStarts, adjacency, usedEdges)) {
+						continue;
+					}
+					junctions[start] = true;
+				}
+				for (int i = adjacencyStarts[start]; i < adjacencyStarts[start + 1]; i++) {
+					if (usedEdges[adjacency[i] >> 1]) {
+						continue;
+					}
+					int entry = adjacency[i];
+					int cluster = start;
+					chains.begin(start);
+					while (true) {
+						int edge = entry >> 1;
+						boolean reversed = (entry & 1) != 0;
+						usedEdges[edge] = true;
+						chains.add(entry, reversed, edgeOffsets, edgeVariances[edge]);
+						cluster = reversed ? edgeFrom[edge] : edgeTo[edge];
+						if (junctions[cluster]) {
+							break;
+						}
+						for (int j = adjacencyStarts[cluster]; j < adjacencyStarts[cluster + 1]; j++) {
+							if (!usedEdges[adjacency[j] >> 1]) {
+								entry = adjacency[j];
+								break;
+							}
+						}
+					}
+					chains.end(cluster);
+				}
+			}
+		}
+
+		solveJunctions(chains, junctions, clusterFixed, coordinates);
+
+		// spread each chain's misclosure along it
+		for (int chain = 0; chain < chains.count; chain++) {
+			int from = chains.from[chain];
+			int to = chains.to[chain];
+			double variance = chains.variances[chain];
+			for (int axis = 0; axis < 3; axis++) {
+				double[] x = coordinates[axis];
+				double misclosure = x[to] - x[from] - chains.offsets[axis][chain];
+				double offset = 0;
+				double cumulativeVariance = 0;
+				for (int i = chains.starts[chain]; i < chains.starts[chain + 1] - 1; i++) {
+					int entry = chains.entries[i];
+					int edge = entry >> 1;
+					boolean reversed = (entry & 1) != 0;
+					offset += reversed ? -edgeOffsets[axis][edge] : edgeOffsets[axis][edge];
+					cumulativeVariance += edgeVariances[edge];
+					int cluster = reversed ? edgeFrom[edge] : edgeTo[edge];
+					x[cluster] = x[from] + offset + misclosure * cumulativeVariance / variance;
+				}
+			}
+		}
+
+		// place pruned clusters from their neighbors, in reverse order of pruning
+		for (int i = prunedCount - 1; i >= 0; i--) {
+			int cluster = prunedClusters[i];
+			int edge = prunedEdges[i];
+			for (int axis = 0; axis < 3; axis++) {
+				double[] x = coordinates[axis];
+				x[cluster] = edgeTo[edge] == cluster
+					? x[edgeFrom[edge]] + edgeOffsets[axis][edge]
+					: x[edgeTo[edge]] - edgeOffsets[axis][edge];
+			}
+		}
+
+		StationCoordinates result = new StationCoordinates(stationCount);
+		for (int station = 0; station < stationCount; station++) {
+			int cluster = clusters[station];
+			result.parentShots[station] = initial.getParentShot(station);
+			if (cluster < 0) {
+				result.northings[station] = result.eastings[station] = result.elevations[station] = Double.NaN;
+				continue;
+			}
+			result.northings[station] = coordinates[0][cluster] + stationOffsets[0][station];
+			result.eastings[station] = coordinates[1][cluster] + stationOffsets[1][station];
+			result.elevations[station] = coordinates[2][cluster] + stationOffsets[2][station];
+		}
+		return result;
+	}
+
+	private static boolean hasUnusedEdge(int cluster, int[] adjacencyStarts, int[] adjacency, boolean[] usedEdges) {
+		for (int i = adjacencyStarts[cluster]; i < adjacencyStarts[cluster + 1]; i++) {
+			if (!usedEdges[adjacency[i] >> 1]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Solves the weighted least squares problem for the coordinates of the
+	 * junctions that aren't fixed, given the chains between them, starting from
+	 * and replacing the given coordinates.
+	 */
+	private void solveJunctions(Chains chains, boolean[] junctions, boolean[] clusterFixed, double[][] coordinates) {
+		int clusterCount = junctions.length;
+		int[] indices = new int[clusterCount];
+		int n = 0;
+		for (int cluster = 0; cluster < clusterCount; cluster++) {
+			indices[cluster] = junctions[cluster] && !clusterFixed[cluster] ? n++ : -1;
+		}
+		if (n == 0) {
+			return;
+		}
+
+		double[] weights = new double[chains.count];
+		double[] diagonal = new double[n];
+		for (int chain = 0; chain < chains.count; chain++) {
+			int from = chains.from[chain];
+			int to = chains.to[chain];
+			if (from == to) {
+				continue;
+			}
+			weights[chain] = 1 / chains.variances[chain];
+			if (indices[from] >= 0) {
+				diagonal[indices[from]] += weights[chain];
+			}
+			if (indices[to] >= 0) {
+				diagonal[indices[to]] += weights[chain];
+			}
+		}
+
+		for (int i = 0; i < n; i++) {
+			if (diagonal[i] == 0) {
+				// only possible if the junction is only in loops back to itself
+				diagonal[i] = 1;
+			}
+		}
+
+		int maxIterations = this.maxIterations > 0 ? this.maxIterations : n * 2 + 100;
+		double[] corrections = new double[n];
+		double[] residual = new double[n];
+		double[] preconditioned = new double[n];
+		double[] direction = new double[n];
+		double[] product = new double[n];
+
+		for (int axis = 0; axis < 3; axis++) {
+			double[] x = coordinates[axis];
+			double[] offsets = chains.offsets[axis];
+
+			// solve for corrections to the unadjusted coordinates, which are much
+			// smaller than the coordinates themselves
+			Arrays.fill(corrections, 0);
+			Arrays.fill(residual, 0);
+			for (int chain = 0; chain < chains.count; chain++) {
+				int from = chains.from[chain];
+				int to = chains.to[chain];
+				if (from == to) {
+					continue;
+				}
+				double misclosure = weights[chain] * (x[to] - x[from] - offsets[chain]);
+				if (indices[from] >= 0) {
+					residual[indices[from]] += misclosure;
+				}
+				if (indices[to] >= 0) {
+					residual[indices[to]] -= misclosure;
+				}
+			}
+			double initialNorm = Math.sqrt(dot(residual, residual));
+			double rz = 0;
+			for (int i = 0; i < n; i++) {
+				preconditioned[i] = residual[i] / diagonal[i];
+				direction[i] = preconditioned[i];
+				rz += residual[i] * preconditioned[i];
+			}
+
+			for (int iteration = 0; iteration < maxIterations
+				&& Math.sqrt(dot(residual, residual)) > tolerance * initialNorm; iteration++) {
+				Arrays.fill(product, 0);
+				for (int chain = 0; chain < chains.count; chain++) {
+					int from = indices[chains.from[chain]];
+					int to = indices[chains.to[chain]];
+					if (chains.from[chain] == chains.to[chain]) {
+						continue;
+					}
+					double difference = weights[chain]
+						* ((from >= 0 ? direction[from] : 0) - (to >= 0 ? direction[to] : 0));
+					if (from >= 0) {
+						product[from] += difference;
+					}
+					if (to >= 0) {
+						product[to] -= difference;
+					}
+				}
+				double alpha = rz / dot(direction, product);
+				double nextRz = 0;
+				for (int i = 0; i < n; i++) {
+					corrections[i] += alpha * direction[i];
+					residual[i] -= alpha * product[i];
+					preconditioned[i] = residual[i] / diagonal[i];
+					nextRz += residual[i] * preconditioned[i];
+				}
+				double beta = nextRz / rz;
+				rz = nextRz;
+				for (int i = 0; i < n; i++) {
+					direction[i] = preconditioned[i] + beta * direction[i];
+				}
+			}
+
+			for (int cluster = 0; cluster < clusterCount; cluster++) {
+				if (indices[cluster] >= 0) {
+					x[cluster] += corrections[indices[cluster]];
+				}
+			}
+		}
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Series of edges between junctions, stored contiguously.
+	 */
+	private static class Chains {
+		int count;
+		int[] from;
+		int[] to;
+		double[][] offsets;
+		double[] variances;
+		/**
+		 * The edges of chain <code>c</code> are <code>entries[starts[c]]</code>
+		 * until <code>entries[starts[c + 1]]</code>, encoded like the adjacency
+		 * of {@link LoopClosure#adjust}.
+		 */
+		int[] starts;
+		int[] entries;
+		int size;
+
+		Chains(int edgeCount) {
+			// there can't be more chains than edges
+			from = new int[edgeCount];
+			to = new int[edgeCount];
+			offsets = new double[3][edgeCount];
+			variances = new double[edgeCount];
+			starts = new int[edgeCount + 1];
+			entries = new int[edgeCount];
+		}
+
+		void begin(int junction) {
+			from[count] = junction;
+			starts[count] = size;
+		}
+
+		void add(int entry, boolean reversed, double[][] edgeOffsets, double variance) {
+			int edge = entry >> 1;
+			entries[size++] = entry;
+			for (int axis = 0; axis < 3; axis++) {
+				offsets[axis][count] += reversed ? -edgeOffsets[axis][edge] : edgeOffsets[axis][edge];
+			}
+			variances[count] += variance;
+		}
+
+		void end(int junction) {
+			to[count++] = junction;
+			starts[count] = size;
+		}
+	}
+}
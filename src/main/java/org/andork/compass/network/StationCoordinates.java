@@ -0,0 +1,55 @@
+package org.andork.compass.network;
+
+/**
+ * The coordinates of the stations of a {@link SurveyNetwork}, indexed by
+ * station id, in meters. Stations that aren't connected to any fixed station
+ * have NaN coordinates.
+ */
+public class StationCoordinates {
+	final double[] northings;
+	final double[] eastings;
+	final double[] elevations;
+	/**
+	 * The shot each station was reached by, or -1 for fixed and unreached
+	 * stations.
+	 */
+	final int[] parentShots;
+
+	StationCoordinates(int stationCount) {
+		northings = new double[stationCount];
+		eastings = new double[stationCount];
+		elevations = new double[stationCount];
+		parentShots = new int[stationCount];
+	}
+
+	/**
+	 * @return the number of stations, including unreached ones.
+	 */
+	public int size() {
+		return northings.length;
+	}
+
+	public boolean isLocated(int station) {
+		return !Double.isNaN(northings[station]);
+	}
+
+	public double getNorthing(int station) {
+		return northings[station];
+	}
+
+	public double getEasting(int station) {
+		return eastings[station];
+	}
+
+	public double getElevation(int station) {
+		return elevations[station];
+	}
+
+	/**
+	 * @return the index in the {@link SurveyNetwork} of the shot the given
+	 *         station was located by, or -1 if it was fixed or unreached.
+	 */
+	public int getParentShot(int station) {
+		return parentShots[station];
+	}
+}
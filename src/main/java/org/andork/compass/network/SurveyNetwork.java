@@ -0,0 +1,350 @@
+package org.andork.compass.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.andork.compass.StationDictionary;
+import org.andork.compass.project.CompassProject;
+import org.andork.compass.project.CompassProjectFile;
+import org.andork.compass.survey.CompassShot;
+import org.andork.compass.survey.CompassTrip;
+import org.andork.compass.survey.CorrectedShots;
+
+/**
+ * The graph of stations and shots in a set of trips, with the offset of each
+ * shot already computed from its measurements and its trip's corrections, so
+ * that station coordinates can be computed without going back to the
+ * {@link CompassShot}s.<br>
+ * <br>
+ * Stations are the ids of a {@link StationDictionary}; shots are numbered from
+ * 0 in the order they were given, skipping shots that are excluded from all
+ * processing or don't have enough measurements to locate their to station. The
+ * shots touching each station are stored contiguously as "edges", so walking
+ * the graph doesn't create any objects:
+ *
+ * <pre>
+ * for (int edge = network.getFirstEdge(station); edge &lt; network.getFirstEdge(station + 1); edge++) {
+ * 	int shot = network.getEdgeShot(edge);
+ * 	int neighbor = network.getEdgeTarget(edge);
+ * 	...
+ * }
+ * </pre>
+ *
+ * Shot offsets are in meters, relative to true north, computed from the
+ * {@link CorrectedShots} of each trip: the azimuth of a shot is the average of
+ * its frontsight and its reversed backsight (if it has both), after the trip's
+ * corrections, plus the trip's declination; likewise for the inclination.
+ * Vertical shots may omit the azimuth.<br>
+ * <br>
+ * Building a network and computing its coordinates both take time linear in
+ * the number of stations and shots. Instances are immutable.
+ */
+public class SurveyNetwork {
+	private final StationDictionary stations;
+	private final int stationCount;
+
+	private final CompassShot[] shots;
+	private final int[] fromStations;
+	private final int[] toStations;
+	private final double[] northOffsets;
+	private final double[] eastOffsets;
+	private final double[] upOffsets;
+
+	/**
+	 * The edges of station <code>s</code> are <code>edgeStarts[s]</code> until
+	 * <code>edgeStarts[s + 1]</code>.
+	 */
+	private final int[] edgeStarts;
+	/**
+	 * <code>shot * 2</code> for an edge from the shot's from station to its to
+	 * station, <code>shot * 2 + 1</code> for the reverse.
+	 */
+	private final int[] edges;
+
+	private SurveyNetwork(
+		StationDictionary stations,
+		int stationCount,
+		int shotCount,
+		CompassShot[] shots,
+		int[] fromStations,
+		int[] toStations,
+		double[] northOffsets,
+		double[] eastOffsets,
+		double[] upOffsets) {
+		this.stations = stations;
+		this.stationCount = stationCount;
+		this.shots = Arrays.copyOf(shots, shotCount);
+		this.fromStations = Arrays.copyOf(fromStations, shotCount);
+		this.toStations = Arrays.copyOf(toStations, shotCount);
+		this.northOffsets = Arrays.copyOf(northOffsets, shotCount);
+		this.eastOffsets = Arrays.copyOf(eastOffsets, shotCount);
+		this.upOffsets = Arrays.copyOf(upOffsets, shotCount);
+
+		// counting sort of the shot ends by station
+		edgeStarts = new int[stationCount + 1];
+		for (int shot = 0; shot < shotCount; shot++) {
+			edgeStarts[this.fromStations[shot] + 1]++;
+			edgeStarts[this.toStations[shot] + 1]++;
+		}
+		for (int station = 0; station < stationCount; station++) {
+			edgeStarts[station + 1] += edgeStarts[station];
+		}
+		int[] next = Arrays.copyOf(edgeStarts, stationCount);
+		edges = new int[shotCount * 2];
+		for (int shot = 0; shot < shotCount; shot++) {
+			edges[next[this.fromStations[shot]]++] = shot * 2;
+			edges[next[this.toStations[shot]]++] = shot * 2 + 1;
+		}
+	}
+
+	/**
+	 * Builds the network of all the trips in the given project.
+	 */
+	public static SurveyNetwork build(CompassProject project) {
+		return build(project, null);
+	}
+
+	/**
+	 * Builds the network of all the trips in the given project, reusing the
+	 * {@link CorrectedShots} in the given cache (which may be <code>null</code>).
+	 */
+	public static SurveyNetwork build(CompassProject project, CorrectedShots.Cache cache) {
+		List<CompassTrip> trips = new ArrayList<>();
+		for (CompassProjectFile file : project.files) {
+			trips.addAll(file.trips);
+		}
+		return build(project.stations, trips, cache);
+	}
+
+	/**
+	 * Builds the network of the given trips. Shots are expected to have station
+	 * ids from the given dictionary; names of shots without ids are interned in
+	 * it.
+	 */
+	public static SurveyNetwork build(StationDictionary stations, Iterable<CompassTrip> trips) {
+		return build(stations, trips, null);
+	}
+
+	/**
+	 * Like {@link #build(StationDictionary, Iterable)}, but reuses the
+	 * {@link CorrectedShots} in the given cache (which may be <code>null</code>)
+	 * instead of applying the trip corrections again.
+	 */
+	public static SurveyNetwork build(
+		StationDictionary stations,
+		Iterable<CompassTrip> trips,
+		CorrectedShots.Cache cache) {
+		int capacity = 1024;
+		int shotCount = 0;
+		int stationCount = 0;
+		CompassShot[] shots = new CompassShot[capacity];
+		int[] fromStations = new int[capacity];
+		int[] toStations = new int[capacity];
+		double[] northOffsets = new double[capacity];
+		double[] eastOffsets = new double[capacity];
+		double[] upOffsets = new double[capacity];
+
+		for (CompassTrip trip : trips) {
+			List<CompassShot> tripShots = trip.getShots();
+			CorrectedShots corrected = cache != null ? cache.get(trip) : null;
+			if (corrected == null || corrected.size() != tripShots.size()) {
+				// the shots changed since the cached corrections were computed
+				corrected = CorrectedShots.of(trip);
+			}
+
+			for (int i = 0; i < tripShots.size(); i++) {
+				CompassShot shot = tripShots.get(i);
+				double length = corrected.getLength(i);
+				double azimuth = corrected.getAzimuth(i);
+				double inclination = corrected.getInclination(i);
+				if (shot.isExcludedFromAllProcessing()
+					|| Double.isNaN(length)
+					|| Double.isNaN(azimuth)
+					|| Double.isNaN(inclination)
+					|| shot.getFromStationName() == null
+					|| shot.getToStationName() == null) {
+					continue;
+				}
+				int from = shot.getFromStationId() >= 0
+					? shot.getFromStationId()
+					: stations.intern(shot.getFromStationName());
+				int to = shot.getToStationId() >= 0
+					? shot.getToStationId()
+					: stations.intern(shot.getToStationName());
+				if (from == to) {
+					continue;
+				}
+
+				double horizontal = length * Math.cos(inclination);
+
+				if (shotCount == capacity) {
+					capacity *= 2;
+					shots = Arrays.copyOf(shots, capacity);
+					fromStations = Arrays.copyOf(fromStations, capacity);
+					toStations = Arrays.copyOf(toStations, capacity);
+					northOffsets = Arrays.copyOf(northOffsets, capacity);
+					eastOffsets = Arrays.copyOf(eastOffsets, capacity);
+					upOffsets = Arrays.copyOf(upOffsets, capacity);
+				}
+				shots[shotCount] = shot;
+				fromStations[shotCount] = from;
+				toStations[shotCount] = to;
+				northOffsets[shotCount] = horizontal * Math.cos(azimuth);
+				eastOffsets[shotCount] = horizontal * Math.sin(azimuth);
+				upOffsets[shotCount] = length * Math.sin(inclination);
+				shotCount++;
+				stationCount = Math.max(stationCount, Math.max(from, to) + 1);
+			}
+		}
+		stationCount = Math.max(stationCount, stations.size());
+
+		return new SurveyNetwork(
+			stations,
+			stationCount,
+			shotCount,
+			shots,
+			fromStations,
+			toStations,
+			northOffsets,
+			eastOffsets,
+			upOffsets);
+	}
+
+	public StationDictionary getStationDictionary() {
+		return stations;
+	}
+
+	/**
+	 * @return one more than the largest station id in the network (stations are
+	 *         numbered from 0, but not all ids are necessarily used).
+	 */
+	public int getStationCount() {
+		return stationCount;
+	}
+
+	public int getShotCount() {
+		return shots.length;
+	}
+
+	public CompassShot getShot(int shot) {
+		return shots[shot];
+	}
+
+	public int getFromStation(int shot) {
+		return fromStations[shot];
+	}
+
+	public int getToStation(int shot) {
+		return toStations[shot];
+	}
+
+	/**
+	 * @return the northward offset from the from station to the to station of
+	 *         the given shot, in meters.
+	 */
+	public double getNorthOffset(int shot) {
+		return northOffsets[shot];
+	}
+
+	/**
+	 * @return the eastward offset from the from station to the to station of the
+	 *         given shot, in meters.
+	 */
+	public double getEastOffset(int shot) {
+		return eastOffsets[shot];
+	}
+
+	/**
+	 * @return the upward offset from the from station to the to station of the
+	 *         given shot, in meters.
+	 */
+	public double getUpOffset(int shot) {
+		return upOffsets[shot];
+	}
+
+	/**
+	 * @return the first edge of the given station. Its edges end at the first
+	 *         edge of the next station; pass {@link #getStationCount()} to get
+	 *         the total number of edges.
+	 */
+	public int getFirstEdge(int station) {
+		return edgeStarts[station];
+	}
+
+	/**
+	 * @return the shot the given edge belongs to.
+	 */
+	public int getEdgeShot(int edge) {
+		return edges[edge] >> 1;
+	}
+
+	/**
+	 * @return whether the given edge goes from its shot's to station to its from
+	 *         station.
+	 */
+	public boolean isEdgeReversed(int edge) {
+		return (edges[edge] & 1) != 0;
+	}
+
+	/**
+	 * @return the station at the other end of the given edge.
+	 */
+	public int getEdgeTarget(int edge) {
+		int shot = edges[edge] >> 1;
+		return (edges[edge] & 1) != 0 ? fromStations[shot] : toStations[shot];
+	}
+
+	/**
+	 * Computes station coordinates by walking the network breadth-first from
+	 * the given fixed stations, so each station is located from the nearest
+	 * fixed station (in number of shots). When there are loops, only the first
+	 * shot to reach each station is used; the rest are ignored, so loop
+	 * misclosures end up in the last shots of each loop. Shot offsets are
+	 * rotated by the {@linkplain FixedStations#getGridConvergence() grid
+	 * convergence} of the fixed stations.
+	 */
+	public StationCoordinates computeCoordinates(FixedStations fixed) {
+		double cos = Math.cos(fixed.getGridConvergence());
+		double sin = Math.sin(fixed.getGridConvergence());
+
+		StationCoordinates result = new StationCoordinates(stationCount);
+		Arrays.fill(result.northings, Double.NaN);
+		Arrays.fill(result.eastings, Double.NaN);
+		Arrays.fill(result.elevations, Double.NaN);
+		Arrays.fill(result.parentShots, -1);
+
+		int[] queue = new int[stationCount];
+		int head = 0;
+		int tail = 0;
+		for (int i = 0; i < fixed.size(); i++) {
+			int station = fixed.getStation(i);
+			if (station < stationCount && !result.isLocated(station)) {
+				result.northings[station] = fixed.getNorthing(i);
+				result.eastings[station] = fixed.getEasting(i);
+				result.elevations[station] = fixed.getElevation(i);
+				queue[tail++] = station;
+			}
+		}
+		while (head < tail) {
+			int station = queue[head++];
+			for (int edge = edgeStarts[station]; edge < edgeStarts[station + 1]; edge++) {
+				int shot = edges[edge] >> 1;
+				boolean reversed = (edges[edge] & 1) != 0;
+				int target = reversed ? fromStations[shot] : toStations[shot];
+				if (result.isLocated(target)) {
+					continue;
+				}
+				double sign = reversed ? -1 : 1;
+				double north = northOffsets[shot] * cos + eastOffsets[shot] * sin;
+				double east = eastOffsets[shot] * cos - northOffsets[shot] * sin;
+				result.northings[target] = result.northings[station] + sign * north;
+				result.eastings[target] = result.eastings[station] + sign * east;
+				result.elevations[target] = result.elevations[station] + sign * upOffsets[shot];
+				result.parentShots[target] = shot;
+				queue[tail++] = target;
+			}
+		}
+		return result;
+	}
+}
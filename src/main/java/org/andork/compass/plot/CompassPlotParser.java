@@ -2,22 +2,26 @@ package org.andork.compass.plot;
 
 import static org.andork.segment.SegmentParser.missingOrInvalid;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 
+import org.andork.compass.CollectingErrorSink;
+import org.andork.compass.CompassFiles;
 import org.andork.compass.CompassParseError;
+import org.andork.compass.CompassParseError.ErrorCode;
 import org.andork.compass.CompassParseError.Severity;
+import org.andork.compass.ErrorSink;
+import org.andork.compass.StationDictionary;
 import org.andork.segment.Segment;
 import org.andork.segment.SegmentParseException;
 import org.andork.segment.SegmentParser;
@@ -26,8 +30,11 @@ import org.andork.unit.UnitizedDouble;
 
 public class CompassPlotParser {
 	private static final Pattern UINT_10 = Pattern.compile("[1-9]\\d*");
-	private final List<CompassParseError> errors = new ArrayList<>();
-	private final List<CompassPlotCommand> commands = new ArrayList<>();
+	private ErrorSink errorSink = new CollectingErrorSink();
+	private List<CompassPlotCommand> commands = new ArrayList<>();
+	private StationDictionary stationDictionary = new StationDictionary();
+	private final PlotLineCursor cursor = new PlotLineCursor();
+	private final Vertex vertex = new Vertex();
 
 	public Date date(SegmentParser p) throws SegmentParseException {
 		int start = p.getIndex();
@@ -47,14 +54,98 @@ public class CompassPlotParser {
 		return cal.getTime();
 	}
 
+	/**
+	 * @return the errors and warnings collected so far if the error sink is a
+	 *         {@link CollectingErrorSink} (the default), otherwise an empty list.
+	 */
 	public List<CompassParseError> getErrors() {
-		return errors;
+		return errorSink instanceof CollectingErrorSink
+			? ((CollectingErrorSink) errorSink).getErrors()
+			: Collections.emptyList();
 	}
 
+	/**
+	 * @return the sink errors and warnings are passed to.
+	 */
+	public ErrorSink getErrorSink() {
+		return errorSink;
+	}
+
+	/**
+	 * Sets the sink errors and warnings are passed to. The default is a
+	 * {@link CollectingErrorSink} with no maximum.
+	 */
+	public void setErrorSink(ErrorSink errorSink) {
+		this.errorSink = Objects.requireNonNull(errorSink);
+	}
+
+	/**
+	 * @return the list returned by the last <code>parsePlot</code> call that
+	 *         returns a list (commands passed to a {@link CompassPlotVisitor}
+	 *         aren't kept), or an empty list if there was none since
+	 *         {@link #reset()}. It is the same list, not a copy, so the commands
+	 *         of a large file are only referenced once; keep the lists returned
+	 *         by <code>parsePlot</code> to collect the commands of several files.
+	 */
 	public List<CompassPlotCommand> getCommands() {
 		return commands;
 	}
 
+	/**
+	 * @return the dictionary station names are interned in.
+	 */
+	public StationDictionary getStationDictionary() {
+		return stationDictionary;
+	}
+
+	/**
+	 * Sets the dictionary station names are interned in. Share one dictionary
+	 * between parsers to get the same station ids across files.
+	 */
+	public void setStationDictionary(StationDictionary stationDictionary) {
+		this.stationDictionary = Objects.requireNonNull(stationDictionary);
+	}
+
+	/**
+	 * Forgets the errors and commands from previous parses and restores the
+	 * default error sink, so that this parser can be reused for unrelated input.
+	 */
+	public void reset() {
+		errorSink = new CollectingErrorSink();
+		// a new list, so that lists already returned by getCommands() keep their
+		// commands
+		commands = new ArrayList<>();
+	}
+
+	/**
+	 * Interns all names of {@code from} in {@code into} and replaces the station
+	 * ids (and names, with the instances from {@code into}) of the given commands,
+	 * which were parsed with {@code from}. This gives the same ids as if the
+	 * commands had been parsed with {@code into} in the first place.
+	 */
+	public static void mergeStationIds(
+		List<CompassPlotCommand> commands,
+		StationDictionary from,
+		StationDictionary into) {
+		int[] ids = into.internAll(from);
+		for (CompassPlotCommand command : commands) {
+			if (command instanceof LocationCommand) {
+				LocationCommand location = (LocationCommand) command;
+				if (location.getStationId() >= 0) {
+					int id = ids[location.getStationId()];
+					location.setStationId(id);
+					location.setStationName(into.getName(id));
+				}
+			}
+		}
+	}
+
+	private void parseStationName(SegmentParser p, LocationCommand command) throws SegmentParseException {
+		int stationId = stationDictionary.intern(p.nonwhitespace("missing station name"));
+		command.setStationId(stationId);
+		command.setStationName(stationDictionary.getName(stationId));
+	}
+
 	private static final UnitizedDouble<Length> NULL_LRUD0 = Length.feet(999);
 	private static final UnitizedDouble<Length> NULL_LRUD1 = Length.feet(999.9);
 
@@ -66,7 +157,7 @@ public class CompassPlotParser {
 				: value;
 		}
 		catch (SegmentParseException e) {
-			errors.add(new CompassParseError(e));
+			errorSink.accept(new CompassParseError(e, p.getSegment()));
 			p.advanceToWhitespace();
 			return null;
 		}
@@ -100,34 +191,286 @@ public class CompassPlotParser {
 	}
 
 	public List<CompassPlotCommand> parsePlot(Path path) throws IOException {
-		return parsePlot(new FileReader(path.toFile()), path);
+		try (Reader reader = CompassFiles.newReader(path)) {
+			return parsePlot(reader, path);
+		}
 	}
 
 	public List<CompassPlotCommand> parsePlot(InputStream in, Object source) throws IOException {
-		return parsePlot(new InputStreamReader(in), source);
+		return parsePlot(CompassFiles.newReader(in), source);
 	}
 
 	public List<CompassPlotCommand> parsePlot(Reader reader, Object source) throws IOException {
 		List<CompassPlotCommand> commands = new ArrayList<>();
-		BufferedReader r = new BufferedReader(reader);
-		String text;
+		this.commands = commands;
+		parsePlot(reader, source, commands::add);
+		return commands;
+	}
+
+	/**
+	 * Parses the given plot file, passing each command to the given
+	 * {@code visitor} as soon as it is parsed.
+	 */
+	public void parsePlot(Path path, CompassPlotVisitor visitor) throws IOException {
+		try (Reader reader = CompassFiles.newReader(path)) {
+			parsePlot(reader, path, visitor);
+		}
+	}
+
+	/**
+	 * Parses plot data from the given {@link Reader}, passing each command to the
+	 * given {@code visitor} as soon as it is parsed.<br>
+	 * <br>
+	 * Lines are read into a buffer that is reused for the whole file, and M/D
+	 * lines (the bulk of any plot file) are parsed straight from that buffer.
+	 * Other lines, and M/D lines that aren't in the usual form, go through
+	 * {@link #parseCommand(SegmentParser)} so they produce the same errors.
+	 *
+	 * @param source If any errors or warnings are generated they will reference
+	 *               this object. For instance you can pass a {@link java.io.File},
+	 *               {@link Path}, or {@link java.net.URL}.
+	 */
+	public void parsePlot(Reader reader, Object source, CompassPlotVisitor visitor) throws IOException {
+		parse(reader, source, Objects.requireNonNull(visitor), null);
+	}
+
+	/**
+	 * Parses the M and D lines of the given plot file straight into the given
+	 * {@code sink} as primitives. See
+	 * {@link #parseVertices(Reader, Object, PlotVertexSink)}.
+	 */
+	public void parseVertices(Path path, PlotVertexSink sink) throws IOException {
+		try (Reader reader = CompassFiles.newReader(path)) {
+			parseVertices(reader, path, sink);
+		}
+	}
+
+	/**
+	 * Parses the M and D lines of plot data from the given {@link Reader} straight
+	 * into the given {@code sink} as primitives, without creating a
+	 * {@link DrawSurveyCommand} for each one (see {@link PlotVertexBuffers}).
+	 * Other commands are checked for errors but otherwise ignored.
+	 *
+	 * @param source If any errors or warnings are generated they will reference
+	 *               this object. For instance you can pass a {@link java.io.File},
+	 *               {@link Path}, or {@link java.net.URL}.
+	 */
+	public void parseVertices(Reader reader, Object source, PlotVertexSink sink) throws IOException {
+		parse(reader, source, null, Objects.requireNonNull(sink));
+	}
+
+	/**
+	 * Passes M and D lines to the {@code sink} if there is one, and all other
+	 * commands to the {@code visitor} if there is one.
+	 */
+	private void parse(Reader reader, Object source, CompassPlotVisitor visitor, PlotVertexSink sink)
+		throws IOException {
+		cursor.reset();
 		int line = 0;
-		while ((text = r.readLine()) != null) {
-			if (text.trim().isEmpty())
+		while (cursor.readLine(reader)) {
+			if (cursor.isBlank())
 				continue;
+			Segment segment = null;
 			try {
-				CompassPlotCommand command = parseCommand(new SegmentParser(new Segment(text, source, line, 0)));
-				if (command != null) {
-					commands.add(command);
+				CompassPlotCommand command = null;
+				if (cursor.length > 0 && (cursor.chars[0] == 'D' || cursor.chars[0] == 'M')
+					&& scanDrawSurveyCommand(cursor, vertex)) {
+					if (sink != null) {
+						vertex.send(sink);
+					}
+					else {
+						command = vertex.toCommand(stationDictionary);
+					}
+				}
+				else {
+					segment = cursor.toSegment(source, line);
+					command = parseCommand(new SegmentParser(segment));
+					if (command instanceof DrawSurveyCommand && sink != null) {
+						vertex.set((DrawSurveyCommand) command);
+						vertex.send(sink);
+						command = null;
+					}
+				}
+				if (command != null && visitor != null) {
+					visit(command, visitor);
 				}
 			}
 			catch (SegmentParseException e) {
-				errors.add(new CompassParseError(e));
+				errorSink.accept(new CompassParseError(e, segment));
 			}
 			line++;
 		}
-		this.commands.addAll(commands);
-		return commands;
+	}
+
+	private static void visit(CompassPlotCommand command, CompassPlotVisitor visitor) {
+		if (command instanceof DrawSurveyCommand) {
+			visitor.drawSurvey((DrawSurveyCommand) command);
+		}
+		else if (command instanceof BeginSurveyCommand) {
+			visitor.beginSurvey((BeginSurveyCommand) command);
+		}
+		else if (command instanceof SurveyBoundsCommand) {
+			visitor.surveyBounds((SurveyBoundsCommand) command);
+		}
+		else if (command instanceof FeatureCommand) {
+			visitor.feature((FeatureCommand) command);
+		}
+		else if (command instanceof BeginFeatureCommand) {
+			visitor.beginFeature((BeginFeatureCommand) command);
+		}
+		else if (command instanceof BeginSectionCommand) {
+			visitor.beginSection((BeginSectionCommand) command);
+		}
+		else if (command instanceof CaveBoundsCommand) {
+			visitor.caveBounds((CaveBoundsCommand) command);
+		}
+		else if (command instanceof DatumCommand) {
+			visitor.datum((DatumCommand) command);
+		}
+		else if (command instanceof UtmZoneCommand) {
+			visitor.utmZone((UtmZoneCommand) command);
+		}
+		else {
+			visitor.command(command);
+		}
+	}
+
+	/**
+	 * Scans an M or D line in the usual form straight from the cursor's buffer
+	 * into the given {@code vertex}.
+	 *
+	 * @return <code>false</code> if the line needs to be parsed with
+	 *         {@link #parseDrawSurveyCommand(SegmentParser)} instead (to report
+	 *         errors or handle unusual syntax).
+	 */
+	private boolean scanDrawSurveyCommand(PlotLineCursor c, Vertex vertex) {
+		vertex.reset(c.chars[0] == 'M' ? DrawOperation.MOVE_TO : DrawOperation.LINE_TO);
+		c.index = 1;
+		if (!c.whitespace()
+			|| Double.isNaN(vertex.northing = c.number())
+			|| !c.whitespace()
+			|| Double.isNaN(vertex.easting = c.number())
+			|| !c.whitespace()
+			|| Double.isNaN(vertex.vertical = c.number())) {
+			return false;
+		}
+
+		while (!c.atEnd()) {
+			if (!c.whitespace()) {
+				return false;
+			}
+			if (c.atEnd()) {
+				break;
+			}
+			switch (c.chars[c.index++]) {
+			case 'S':
+				int start = c.nonwhitespace();
+				if (c.index == start) {
+					return false;
+				}
+				vertex.stationId = stationDictionary.intern(c.chars, start, c.index);
+				break;
+			case 'P':
+				if (!c.whitespace()
+					|| Double.isNaN(vertex.left = c.number())
+					|| !c.whitespace()
+					|| Double.isNaN(vertex.up = c.number())
+					|| !c.whitespace()
+					|| Double.isNaN(vertex.down = c.number())
+					|| !c.whitespace()
+					|| Double.isNaN(vertex.right = c.number())) {
+					return false;
+				}
+				vertex.left = lrudMeasurement(vertex.left);
+				vertex.up = lrudMeasurement(vertex.up);
+				vertex.down = lrudMeasurement(vertex.down);
+				vertex.right = lrudMeasurement(vertex.right);
+				break;
+			case 'I':
+				if (!c.whitespace() || Double.isNaN(vertex.distanceFromEntrance = c.number())) {
+					return false;
+				}
+				if (vertex.distanceFromEntrance < 0) {
+					// let the SegmentParser version report the warning
+					return false;
+				}
+				// return for now; I've seen an extra undocumented "FL" that
+				// comes after this point
+				return true;
+			default:
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the given LRUD, or <code>NaN</code> if it means passage.
+	 */
+	private static double lrudMeasurement(double value) {
+		return value < 0 || value == 999 || value == 999.9 ? Double.NaN : value;
+	}
+
+	/**
+	 * The data of an M or D line as primitives, reused for every line.
+	 */
+	private static class Vertex {
+		DrawOperation operation;
+		double northing;
+		double easting;
+		double vertical;
+		double left;
+		double up;
+		double down;
+		double right;
+		int stationId;
+		double distanceFromEntrance;
+
+		void reset(DrawOperation operation) {
+			this.operation = operation;
+			northing = easting = vertical = Double.NaN;
+			left = up = down = right = Double.NaN;
+			stationId = -1;
+			distanceFromEntrance = 0;
+		}
+
+		void set(DrawSurveyCommand command) {
+			operation = command.getOperation();
+			northing = feet(command.getLocation().getNorthing());
+			easting = feet(command.getLocation().getEasting());
+			vertical = feet(command.getLocation().getVertical());
+			left = feet(command.getLeft());
+			up = feet(command.getUp());
+			down = feet(command.getDown());
+			right = feet(command.getRight());
+			stationId = command.getStationId();
+			distanceFromEntrance = feet(command.getDistanceFromEntrance());
+		}
+
+		void send(PlotVertexSink sink) {
+			sink.vertex(operation, northing, easting, vertical, left, up, down, right, stationId, distanceFromEntrance);
+		}
+
+		DrawSurveyCommand toCommand(StationDictionary stationDictionary) {
+			DrawSurveyCommand command = new DrawSurveyCommand(operation);
+			command.getLocation().setNorthing(Length.feet(northing));
+			command.getLocation().setEasting(Length.feet(easting));
+			command.getLocation().setVertical(Length.feet(vertical));
+			command.setLeft(Double.isNaN(left) ? null : Length.feet(left));
+			command.setUp(Double.isNaN(up) ? null : Length.feet(up));
+			command.setDown(Double.isNaN(down) ? null : Length.feet(down));
+			command.setRight(Double.isNaN(right) ? null : Length.feet(right));
+			if (stationId >= 0) {
+				command.setStationId(stationId);
+				command.setStationName(stationDictionary.getName(stationId));
+			}
+			command.setDistanceFromEntrance(Length.feet(distanceFromEntrance));
+			return command;
+		}
+
+		private static double feet(UnitizedDouble<Length> value) {
+			return value == null ? Double.NaN : value.get(Length.feet);
+		}
 	}
 
 	public CompassPlotCommand parseCommand(SegmentParser p) throws SegmentParseException {
@@ -249,12 +592,14 @@ public class CompassPlotParser {
 		int start = p.getIndex();
 		command.setDistanceToFarthestStation(parseFeet(p, missingOrInvalid("distance to farthest station")));
 		if (command.getDistanceToFarthestStation().isNegative()) {
-			errors
-				.add(
+			errorSink
+				.accept(
 					new CompassParseError(
 						Severity.WARNING,
-						"distance to farthest station is negative",
-						p.getSegment().substring(start, p.getIndex())));
+						ErrorCode.NEGATIVE,
+						p.getSegment().substring(start, p.getIndex()),
+						p.getSegment(),
+						new Object[] { "distance to farthest station" }));
 		}
 		return command;
 	}
@@ -296,7 +641,7 @@ public class CompassPlotParser {
 			}
 			switch (p.match("[SPI]", missingOrInvalid("command (expected S, P, or I)")).charAt(0)) {
 			case 'S':
-				command.setStationName(p.nonwhitespace("missing station name").toString());
+				parseStationName(p, command);
 				break;
 			case 'P':
 				p.whitespace("missing whitespace before left");
@@ -313,12 +658,14 @@ public class CompassPlotParser {
 				int start = p.getIndex();
 				command.setDistanceFromEntrance(parseFeet(p, missingOrInvalid("distance from entrance")));
 				if (command.getDistanceFromEntrance().isNegative()) {
-					errors
-						.add(
+					errorSink
+						.accept(
 							new CompassParseError(
 								Severity.WARNING,
-								"distance from entrance is negative",
-								p.getSegment().substring(start, p.getIndex())));
+								ErrorCode.NEGATIVE,
+								p.getSegment().substring(start, p.getIndex()),
+								p.getSegment(),
+								new Object[] { "distance from entrance" }));
 				}
 				// return for now; I've seen an extra undocumented "FL" that
 				// comes after this point
@@ -349,7 +696,7 @@ public class CompassPlotParser {
 			}
 			switch (p.match("[SPV]", missingOrInvalid("command (expected S, P, or V)")).charAt(0)) {
 			case 'S':
-				command.setStationName(p.nonwhitespace("missing station name").toString());
+				parseStationName(p, command);
 				break;
 			case 'P':
 				p.whitespace("missing whitespace before left");
@@ -0,0 +1,53 @@
+package org.andork.compass.plot;
+
+/**
+ * Receives the commands of a .PLT file as they are parsed, so that callers
+ * don't have to hold the whole file in memory.<br>
+ * <br>
+ * Each command type has its own method, which by default passes the command
+ * to {@link #command(CompassPlotCommand)}. Override the ones you care about,
+ * or just {@link #command(CompassPlotCommand)} to get all of them (for
+ * instance with <code>commands::add</code>).
+ */
+public interface CompassPlotVisitor {
+	/**
+	 * Called for each command whose type-specific method hasn't been overridden.
+	 */
+	public void command(CompassPlotCommand command);
+
+	public default void beginSection(BeginSectionCommand command) {
+		command((CompassPlotCommand) command);
+	}
+
+	public default void beginSurvey(BeginSurveyCommand command) {
+		command((CompassPlotCommand) command);
+	}
+
+	public default void beginFeature(BeginFeatureCommand command) {
+		command((CompassPlotCommand) command);
+	}
+
+	public default void drawSurvey(DrawSurveyCommand command) {
+		command((CompassPlotCommand) command);
+	}
+
+	public default void feature(FeatureCommand command) {
+		command((CompassPlotCommand) command);
+	}
+
+	public default void surveyBounds(SurveyBoundsCommand command) {
+		command((CompassPlotCommand) command);
+	}
+
+	public default void caveBounds(CaveBoundsCommand command) {
+		command((CompassPlotCommand) command);
+	}
+
+	public default void datum(DatumCommand command) {
+		command((CompassPlotCommand) command);
+	}
+
+	public default void utmZone(UtmZoneCommand command) {
+		command((CompassPlotCommand) command);
+	}
+}
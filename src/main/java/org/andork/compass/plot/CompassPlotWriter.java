@@ -0,0 +1,391 @@
+package org.andork.compass.plot;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Calendar;
+import java.util.Objects;
+
+import org.andork.compass.CompassFiles;
+import org.andork.compass.DecimalFormatter;
+import org.andork.compass.FormattedWriter;
+import org.andork.unit.Length;
+import org.andork.unit.UnitizedDouble;
+
+/**
+ * Writes plot commands in the Compass .PLT format, which
+ * {@link CompassPlotParser} reads back into the same commands.<br>
+ * <br>
+ * Each line is formatted into a reusable character buffer in the same columns
+ * Compass uses, with numbers written by {@link DecimalFormatter}s rather than
+ * {@link StringBuilder#append(double)}. By default coordinates have two decimal
+ * places and LRUDs and distances have one, like Compass; set other formatters
+ * to change that. All lengths are written in feet. Missing LRUDs are written
+ * as the values Compass uses for them, but the format has no way to write a
+ * missing coordinate, so locations and bounds must be complete. A line with a
+ * missing coordinate, or with a value that can't be formatted (such as an
+ * infinite LRUD), throws an {@link IllegalArgumentException} and nothing of
+ * the line is written.<br>
+ * <br>
+ * To regenerate plot files from computed coordinates without creating a
+ * {@link DrawSurveyCommand} for each station, use
+ * {@link #writeDrawSurvey(DrawOperation, double, double, double, String, double, double, double, double, double)}.
+ * Since this is a {@link CompassPlotVisitor}, a parser can also write straight
+ * into it.
+ */
+public class CompassPlotWriter implements CompassPlotVisitor, Closeable, Flushable {
+	private static final String EOL = "\r\n";
+	/**
+	 * What Compass writes for missing LRUDs on M and D lines
+	 */
+	private static final double MISSING_LRUD = -9999;
+	/**
+	 * What Compass writes for missing LRUDs on L lines
+	 */
+	private static final double MISSING_FEATURE_LRUD = -9;
+
+	private final FormattedWriter out;
+	private DecimalFormatter coordinateFormatter = new DecimalFormatter(2);
+	private DecimalFormatter lrudFormatter = new DecimalFormatter(1);
+	private DecimalFormatter distanceFormatter = new DecimalFormatter(1);
+	private Calendar calendar;
+
+	public CompassPlotWriter(Writer out) {
+		this.out = new FormattedWriter(out, 8192);
+	}
+
+	public CompassPlotWriter(OutputStream out) {
+		this(CompassFiles.newWriter(out));
+	}
+
+	public CompassPlotWriter(WritableByteChannel channel) {
+		this(CompassFiles.newWriter(channel));
+	}
+
+	/**
+	 * Creates a writer for the file at the given {@code path}, which is created or
+	 * truncated.
+	 */
+	public CompassPlotWriter(Path path) throws IOException {
+		this(CompassFiles.newWriter(path));
+	}
+
+	/**
+	 * @return the formatter for northings, eastings, verticals and bounds.
+	 */
+	public DecimalFormatter getCoordinateFormatter() {
+		return coordinateFormatter;
+	}
+
+	public void setCoordinateFormatter(DecimalFormatter coordinateFormatter) {
+		this.coordinateFormatter = Objects.requireNonNull(coordinateFormatter);
+	}
+
+	public DecimalFormatter getLrudFormatter() {
+		return lrudFormatter;
+	}
+
+	public void setLrudFormatter(DecimalFormatter lrudFormatter) {
+		this.lrudFormatter = Objects.requireNonNull(lrudFormatter);
+	}
+
+	/**
+	 * @return the formatter for distances from the entrance and to the farthest
+	 *         station.
+	 */
+	public DecimalFormatter getDistanceFormatter() {
+		return distanceFormatter;
+	}
+
+	public void setDistanceFormatter(DecimalFormatter distanceFormatter) {
+		this.distanceFormatter = Objects.requireNonNull(distanceFormatter);
+	}
+
+	public void writeCommands(Iterable<? extends CompassPlotCommand> commands) throws IOException {
+		for (CompassPlotCommand command : commands) {
+			writeCommand(command);
+		}
+	}
+
+	/**
+	 * Writes the given command. Commands of other types than the ones in this
+	 * package are ignored.
+	 */
+	public void writeCommand(CompassPlotCommand command) throws IOException {
+		if (command instanceof DrawSurveyCommand) {
+			writeDrawSurvey((DrawSurveyCommand) command);
+		}
+		else if (command instanceof BeginSurveyCommand) {
+			writeBeginSurvey((BeginSurveyCommand) command);
+		}
+		else if (command instanceof SurveyBoundsCommand) {
+			writeSurveyBounds((SurveyBoundsCommand) command);
+		}
+		else if (command instanceof FeatureCommand) {
+			writeFeature((FeatureCommand) command);
+		}
+		else if (command instanceof BeginFeatureCommand) {
+			writeBeginFeature((BeginFeatureCommand) command);
+		}
+		else if (command instanceof BeginSectionCommand) {
+			writeBeginSection((BeginSectionCommand) command);
+		}
+		else if (command instanceof CaveBoundsCommand) {
+			writeCaveBounds((CaveBoundsCommand) command);
+		}
+		else if (command instanceof DatumCommand) {
+			writeDatum((DatumCommand) command);
+		}
+		else if (command instanceof UtmZoneCommand) {
+			writeUtmZone((UtmZoneCommand) command);
+		}
+	}
+
+	/**
+	 * Writes an {@code N} line.
+	 */
+	public void writeBeginSurvey(BeginSurveyCommand command) throws IOException {
+		out.appendAtomically(() -> {
+			out.append('N').append(command.getSurveyName());
+			if (command.getDate() != null) {
+				if (calendar == null) {
+					calendar = Calendar.getInstance();
+				}
+				calendar.setTime(command.getDate());
+				out.append(" D ").appendInt(calendar.get(Calendar.MONTH) + 1);
+				out.append(' ').appendInt(calendar.get(Calendar.DAY_OF_MONTH));
+				out.append(' ').appendInt(calendar.get(Calendar.YEAR));
+			}
+			if (command.getComment() != null) {
+				out.append(" C").appendLine(command.getComment());
+			}
+			out.append(EOL);
+		});
+	}
+
+	/**
+	 * Writes an {@code S} line.
+	 */
+	public void writeBeginSection(BeginSectionCommand command) throws IOException {
+		out.append('S').appendLine(command.getSectionName()).append(EOL);
+	}
+
+	/**
+	 * Writes an {@code F} line.
+	 */
+	public void writeBeginFeature(BeginFeatureCommand command) throws IOException {
+		out.appendAtomically(() -> {
+			out.append('F').append(command.getFeatureName());
+			if (command.getMinValue() != null && command.getMaxValue() != null) {
+				out.append(" R ").append(command.getMinValue().toString());
+				out.append(' ').append(command.getMaxValue().toString());
+			}
+			out.append(EOL);
+		});
+	}
+
+	/**
+	 * Writes an {@code M} or {@code D} line.
+	 */
+	public void writeDrawSurvey(DrawSurveyCommand command) throws IOException {
+		Location location = command.getLocation();
+		writeDrawSurvey(
+			command.getOperation(),
+			feet(location.getNorthing()),
+			feet(location.getEasting()),
+			feet(location.getVertical()),
+			command.getStationName(),
+			feet(command.getLeft()),
+			feet(command.getUp()),
+			feet(command.getDown()),
+			feet(command.getRight()),
+			feet(command.getDistanceFromEntrance()));
+	}
+
+	/**
+	 * Writes an {@code M} or {@code D} line from primitives. All lengths are in
+	 * feet.
+	 *
+	 * @param stationName          the station name, or <code>null</code> to leave
+	 *                             it out
+	 * @param left                 the left LRUD, or <code>NaN</code> if it is
+	 *                             missing (and likewise for the other LRUDs)
+	 * @param distanceFromEntrance the distance from the entrance, or
+	 *                             <code>NaN</code> to leave it out
+	 * @throws IllegalArgumentException if a coordinate is missing, or a value
+	 *                                  can't be formatted
+	 */
+	public void writeDrawSurvey(
+		DrawOperation operation,
+		double northing,
+		double easting,
+		double vertical,
+		String stationName,
+		double left,
+		double up,
+		double down,
+		double right,
+		double distanceFromEntrance) throws IOException {
+		checkLocation(northing, easting, vertical);
+		out.appendAtomically(() -> {
+			out.append(operation == DrawOperation.MOVE_TO ? 'M' : 'D');
+			appendLocation(northing, easting, vertical);
+			if (stationName != null) {
+				out.append("  S").append(stationName);
+			}
+			out.append("  P");
+			appendLrud(left, MISSING_LRUD);
+			appendLrud(up, MISSING_LRUD);
+			appendLrud(down, MISSING_LRUD);
+			appendLrud(right, MISSING_LRUD);
+			if (!Double.isNaN(distanceFromEntrance)) {
+				out.append(" I");
+				append(' ', distanceFormatter, distanceFromEntrance, 7);
+			}
+			out.append(EOL);
+		});
+	}
+
+	/**
+	 * Writes an {@code L} line.
+	 */
+	public void writeFeature(FeatureCommand command) throws IOException {
+		out.appendAtomically(() -> {
+			Location location = command.getLocation();
+			double northing = feet(location.getNorthing());
+			double easting = feet(location.getEasting());
+			double vertical = feet(location.getVertical());
+			checkLocation(northing, easting, vertical);
+			out.append('L');
+			appendLocation(northing, easting, vertical);
+			if (command.getStationName() != null) {
+				out.append("  S").append(command.getStationName());
+			}
+			out.append(" P");
+			appendLrud(feet(command.getLeft()), MISSING_FEATURE_LRUD);
+			appendLrud(feet(command.getRight()), MISSING_FEATURE_LRUD);
+			appendLrud(feet(command.getUp()), MISSING_FEATURE_LRUD);
+			appendLrud(feet(command.getDown()), MISSING_FEATURE_LRUD);
+			if (command.getValue() != null) {
+				out.append(" V ").append(command.getValue().toString());
+			}
+			out.append(EOL);
+		});
+	}
+
+	/**
+	 * Writes an {@code X} line.
+	 */
+	public void writeSurveyBounds(SurveyBoundsCommand command) throws IOException {
+		out.appendAtomically(() -> {
+			checkBounds(command);
+			out.append('X');
+			appendBounds(command);
+			out.append(EOL);
+		});
+	}
+
+	/**
+	 * Writes a {@code Z} line.
+	 */
+	public void writeCaveBounds(CaveBoundsCommand command) throws IOException {
+		out.appendAtomically(() -> {
+			checkBounds(command);
+			out.append('Z');
+			appendBounds(command);
+			if (command.getDistanceToFarthestStation() != null) {
+				out.append(" I");
+				append(' ', distanceFormatter, feet(command.getDistanceToFarthestStation()), 10);
+			}
+			out.append(EOL);
+		});
+	}
+
+	/**
+	 * Writes an {@code O} line.
+	 */
+	public void writeDatum(DatumCommand command) throws IOException {
+		out.append('O').append(command.getDatum()).append(EOL);
+	}
+
+	/**
+	 * Writes a {@code G} line.
+	 */
+	public void writeUtmZone(UtmZoneCommand command) throws IOException {
+		out.append('G').append(command.getUtmZone()).append(EOL);
+	}
+
+	@Override
+	public void command(CompassPlotCommand command) {
+		FormattedWriter.unchecked(() -> writeCommand(command));
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Appends {@code separator} and then {@code value}, right-aligned in
+	 * {@code width - 1} characters.
+	 */
+	private void append(char separator, DecimalFormatter formatter, double value, int width) throws IOException {
+		out.append(separator).append(formatter, value, width - 1);
+	}
+
+	private void appendLocation(double northing, double easting, double vertical) throws IOException {
+		append(' ', coordinateFormatter, northing, 12);
+		append(' ', coordinateFormatter, easting, 11);
+		append(' ', coordinateFormatter, vertical, 9);
+	}
+
+	private void appendLrud(double value, double missing) throws IOException {
+		append(' ', lrudFormatter, Double.isNaN(value) ? missing : value, 7);
+	}
+
+	private void appendBounds(BoundsCommand command) throws IOException {
+		Location lower = command.getLowerBound();
+		Location upper = command.getUpperBound();
+		append(' ', coordinateFormatter, feet(lower.getNorthing()), 12);
+		append(' ', coordinateFormatter, feet(upper.getNorthing()), 12);
+		append(' ', coordinateFormatter, feet(lower.getEasting()), 12);
+		append(' ', coordinateFormatter, feet(upper.getEasting()), 12);
+		append(' ', coordinateFormatter, feet(lower.getVertical()), 12);
+		append(' ', coordinateFormatter, feet(upper.getVertical()), 12);
+	}
+
+	private static void checkBounds(BoundsCommand command) {
+		Location lower = command.getLowerBound();
+		Location upper = command.getUpperBound();
+		checkLocation(feet(lower.getNorthing()), feet(lower.getEasting()), feet(lower.getVertical()));
+		checkLocation(feet(upper.getNorthing()), feet(upper.getEasting()), feet(upper.getVertical()));
+	}
+
+	private static void checkLocation(double northing, double easting, double vertical) {
+		checkCoordinate("northing", northing);
+		checkCoordinate("easting", easting);
+		checkCoordinate("vertical", vertical);
+	}
+
+	private static void checkCoordinate(String name, double value) {
+		if (Double.isNaN(value)) {
+			throw new IllegalArgumentException("missing " + name + ": .PLT files have no value for missing coordinates");
+		}
+		if (Double.isInfinite(value)) {
+			throw new IllegalArgumentException("infinite " + name);
+		}
+	}
+
+	private static double feet(UnitizedDouble<Length> value) {
+		return value == null ? Double.NaN : value.get(Length.feet);
+	}
+}
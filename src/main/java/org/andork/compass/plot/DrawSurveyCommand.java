@@ -9,6 +9,7 @@ public class DrawSurveyCommand implements LocationCommand {
 	private DrawOperation operation;
 	private final Location location = new Location();
 	private String stationName;
+	private int stationId = -1;
 	private UnitizedDouble<Length> left = null;
 	private UnitizedDouble<Length> right = null;
 	private UnitizedDouble<Length> up = null;
@@ -50,6 +51,11 @@ public class DrawSurveyCommand implements LocationCommand {
 		return right;
 	}
 
+	@Override
+	public int getStationId() {
+		return stationId;
+	}
+
 	@Override
 	public String getStationName() {
 		return stationName;
@@ -83,6 +89,11 @@ public class DrawSurveyCommand implements LocationCommand {
 		this.right = right;
 	}
 
+	@Override
+	public void setStationId(int stationId) {
+		this.stationId = stationId;
+	}
+
 	@Override
 	public void setStationName(String stationName) {
 		this.stationName = stationName;
@@ -8,6 +8,7 @@ import org.andork.unit.UnitizedDouble;
 public class FeatureCommand implements LocationCommand {
 	private final Location location = new Location();
 	private String stationName;
+	private int stationId = -1;
 	private UnitizedDouble<Length> left = null;
 	private UnitizedDouble<Length> right = null;
 	private UnitizedDouble<Length> up = null;
@@ -34,6 +35,11 @@ public class FeatureCommand implements LocationCommand {
 		return right;
 	}
 
+	@Override
+	public int getStationId() {
+		return stationId;
+	}
+
 	@Override
 	public String getStationName() {
 		return stationName;
@@ -66,6 +72,11 @@ public class FeatureCommand implements LocationCommand {
 		this.right = right;
 	}
 
+	@Override
+	public void setStationId(int stationId) {
+		this.stationId = stationId;
+	}
+
 	@Override
 	public void setStationName(String stationName) {
 		this.stationName = stationName;
@@ -21,6 +21,16 @@ public interface LocationCommand extends CompassPlotCommand {
 	 */
 	public UnitizedDouble<Length> getRight();
 
+	/**
+	 * @return the id of the station in the
+	 *         {@link org.andork.compass.StationDictionary} used by the parser, or
+	 *         -1 if unknown. Implementations that don't keep ids (the default)
+	 *         always return -1.
+	 */
+	public default int getStationId() {
+		return -1;
+	}
+
 	/**
 	 * @return the name of the station
 	 */
@@ -37,6 +47,14 @@ public interface LocationCommand extends CompassPlotCommand {
 
 	public void setRight(UnitizedDouble<Length> right);
 
+	/**
+	 * Sets the id of the station in the
+	 * {@link org.andork.compass.StationDictionary} used by the parser.
+	 * Implementations that don't keep ids (the default) ignore it.
+	 */
+	public default void setStationId(int stationId) {
+	}
+
 	public void setStationName(String stationName);
 
 	public void setUp(UnitizedDouble<Length> up);
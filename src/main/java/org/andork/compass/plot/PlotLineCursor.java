@@ -0,0 +1,178 @@
+package org.andork.compass.plot;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.andork.compass.DecimalScanner;
+import org.andork.segment.Segment;
+
+/**
+ * Reads the lines of a .PLT file into a reusable char buffer and scans them
+ * without allocating a {@link String}, {@link Segment} or
+ * {@link org.andork.segment.SegmentParser} per line.<br>
+ * <br>
+ * The scanning methods only accept the plain forms Compass writes, and report
+ * anything else by returning <code>false</code>/<code>NaN</code> instead of
+ * throwing, so that the caller can reparse the line with a
+ * {@link org.andork.segment.SegmentParser} to get the usual errors.
+ */
+class PlotLineCursor {
+	private final DecimalScanner decimalScanner = new DecimalScanner();
+
+	private final char[] buffer = new char[8192];
+	private int bufferStart;
+	private int bufferEnd;
+	private boolean skipLineFeed;
+
+	char[] chars = new char[256];
+	int length;
+	int index;
+
+	/**
+	 * Prepares to read from a new {@link Reader}.
+	 */
+	void reset() {
+		bufferStart = 0;
+		bufferEnd = 0;
+		skipLineFeed = false;
+		length = 0;
+		index = 0;
+	}
+
+	/**
+	 * Reads the next line (terminated by \n, \r, or \r\n, like
+	 * {@link java.io.BufferedReader#readLine()}) into {@link #chars}.
+	 *
+	 * @return <code>false</code> if the end of input has been reached.
+	 */
+	boolean readLine(Reader reader) throws IOException {
+		length = 0;
+		index = 0;
+		boolean started = false;
+		while (true) {
+			if (bufferStart == bufferEnd) {
+				int read = reader.read(buffer);
+				if (read < 0) {
+					return started;
+				}
+				bufferStart = 0;
+				bufferEnd = read;
+				continue;
+			}
+			if (skipLineFeed) {
+				skipLineFeed = false;
+				if (buffer[bufferStart] == '\n') {
+					bufferStart++;
+					continue;
+				}
+			}
+			started = true;
+			for (int i = bufferStart; i < bufferEnd; i++) {
+				char c = buffer[i];
+				if (c == '\n' || c == '\r') {
+					append(bufferStart, i);
+					bufferStart = i + 1;
+					skipLineFeed = c == '\r';
+					return true;
+				}
+			}
+			append(bufferStart, bufferEnd);
+			bufferStart = bufferEnd;
+		}
+	}
+
+	private void append(int start, int end) {
+		int count = end - start;
+		if (length + count > chars.length) {
+			char[] grown = new char[Math.max(chars.length * 2, length + count)];
+			System.arraycopy(chars, 0, grown, 0, length);
+			chars = grown;
+		}
+		System.arraycopy(buffer, start, chars, length, count);
+		length += count;
+	}
+
+	/**
+	 * @return whether the line is empty after {@link String#trim()}.
+	 */
+	boolean isBlank() {
+		for (int i = 0; i < length; i++) {
+			if (chars[i] > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	Segment toSegment(Object source, int line) {
+		return new Segment(new String(chars, 0, length), source, line, 0);
+	}
+
+	boolean atEnd() {
+		return index >= length;
+	}
+
+	/**
+	 * Skips whitespace (as in the regular expression <code>\s</code>).
+	 *
+	 * @return whether there was any whitespace.
+	 */
+	boolean whitespace() {
+		int start = index;
+		while (index < length && isWhitespace(chars[index])) {
+			index++;
+		}
+		return index > start;
+	}
+
+	/**
+	 * Skips non-whitespace.
+	 *
+	 * @return the index where the non-whitespace started.
+	 */
+	int nonwhitespace() {
+		int start = index;
+		while (index < length && !isWhitespace(chars[index])) {
+			index++;
+		}
+		return start;
+	}
+
+	/**
+	 * Scans a number of the form <code>[-+]?\d+(\.\d+)?</code> followed by
+	 * whitespace or the end of the line.
+	 *
+	 * @return the number, or <code>NaN</code> if there isn't one.
+	 */
+	double number() {
+		int start = index;
+		if (index < length && (chars[index] == '-' || chars[index] == '+')) {
+			index++;
+		}
+		if (skipDigits() == 0) {
+			return Double.NaN;
+		}
+		if (index < length && chars[index] == '.') {
+			index++;
+			if (skipDigits() == 0) {
+				return Double.NaN;
+			}
+		}
+		if (index < length && !isWhitespace(chars[index])) {
+			return Double.NaN;
+		}
+		return decimalScanner.parse(chars, start, index);
+	}
+
+	private int skipDigits() {
+		int start = index;
+		while (index < length && chars[index] >= '0' && chars[index] <= '9') {
+			index++;
+		}
+		return index - start;
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000b' || c == '\f' || c == '\r';
+	}
+}
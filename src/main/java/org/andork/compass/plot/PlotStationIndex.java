@@ -0,0 +1,434 @@
+package org.andork.compass.plot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+import org.andork.unit.Length;
+
+/**
+ * A spatial index of the station locations in a .PLT file, for finding the
+ * stations in a map tile, the stations nearest a point, or the survey at a
+ * point without scanning every {@link DrawSurveyCommand}.<br>
+ * <br>
+ * Build one with a {@link Builder}, which is a {@link CompassPlotVisitor} so
+ * that it can be filled while parsing:
+ *
+ * <pre>
+ * PlotStationIndex.Builder builder = new PlotStationIndex.Builder();
+ * parser.parsePlot(path, builder);
+ * PlotStationIndex index = builder.build();
+ * </pre>
+ *
+ * The index is a uniform grid over northing and easting, with the entries of
+ * each cell stored contiguously, so queries only touch the cells they overlap
+ * and don't create any objects per entry. Each station is indexed once, under
+ * the survey that first draws it; features are indexed under no survey. All
+ * coordinates are in feet, as in the .PLT file.<br>
+ * <br>
+ * Instances are immutable, so any number of threads may query them at once.
+ */
+public class PlotStationIndex {
+	/**
+	 * The average number of entries per grid cell to aim for.
+	 */
+	private static final int ENTRIES_PER_CELL = 4;
+
+	private final double minNorthing;
+	private final double minEasting;
+	private final double cellSize;
+	private final int rows;
+	private final int cols;
+	/**
+	 * The entries of cell <code>row * cols + col</code> are
+	 * <code>cellStarts[cell]</code> until <code>cellStarts[cell + 1]</code>.
+	 */
+	private final int[] cellStarts;
+
+	private final double[] northings;
+	private final double[] eastings;
+	private final double[] verticals;
+	private final String[] stationNames;
+	private final int[] stationIds;
+	private final int[] surveys;
+	private final String[] surveyNames;
+
+	private PlotStationIndex(Builder builder) {
+		int size = builder.size;
+		surveyNames = builder.surveyNames.toArray(new String[builder.surveyNames.size()]);
+
+		double minNorthing = Double.POSITIVE_INFINITY;
+		double minEasting = Double.POSITIVE_INFINITY;
+		double maxNorthing = Double.NEGATIVE_INFINITY;
+		double maxEasting = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			minNorthing = Math.min(minNorthing, builder.northings[i]);
+			maxNorthing = Math.max(maxNorthing, builder.northings[i]);
+			minEasting = Math.min(minEasting, builder.eastings[i]);
+			maxEasting = Math.max(maxEasting, builder.eastings[i]);
+		}
+		if (size == 0) {
+			minNorthing = maxNorthing = minEasting = maxEasting = 0;
+		}
+		double height = maxNorthing - minNorthing;
+		double width = maxEasting - minEasting;
+		// square cells with about ENTRIES_PER_CELL entries each if the stations
+		// are evenly spread, but no more rows or columns than that would give if
+		// they're all in a line
+		double cellsWanted = Math.max(size, 1) / (double) ENTRIES_PER_CELL;
+		double cellSize = Math.max(Math.sqrt(width * height / cellsWanted), Math.max(width, height) / cellsWanted);
+		cellSize = Math.max(cellSize, 1);
+		this.minNorthing = minNorthing;
+		this.minEasting = minEasting;
+		this.cellSize = cellSize;
+		rows = (int) Math.floor(height / cellSize) + 1;
+		cols = (int) Math.floor(width / cellSize) + 1;
+
+		// counting sort of the entries by cell
+		int[] cells = new int[size];
+		cellStarts = new int[rows * cols + 1];
+		for (int i = 0; i < size; i++) {
+			cells[i] = row(builder.northings[i]) * cols + col(builder.eastings[i]);
+			cellStarts[cells[i] + 1]++;
+		}
+		for (int cell = 0; cell < rows * cols; cell++) {
+			cellStarts[cell + 1] += cellStarts[cell];
+		}
+		int[] next = Arrays.copyOf(cellStarts, rows * cols);
+
+		northings = new double[size];
+		eastings = new double[size];
+		verticals = new double[size];
+		stationNames = new String[size];
+		stationIds = new int[size];
+		surveys = new int[size];
+		for (int i = 0; i < size; i++) {
+			int k = next[cells[i]]++;
+			northings[k] = builder.northings[i];
+			eastings[k] = builder.eastings[i];
+			verticals[k] = builder.verticals[i];
+			stationNames[k] = builder.stationNames[i];
+			stationIds[k] = builder.stationIds[i];
+			surveys[k] = builder.surveys[i];
+		}
+	}
+
+	private int row(double northing) {
+		return clamp((int) Math.floor((northing - minNorthing) / cellSize), rows);
+	}
+
+	private int col(double easting) {
+		return clamp((int) Math.floor((easting - minEasting) / cellSize), cols);
+	}
+
+	private static int clamp(int index, int count) {
+		return index < 0 ? 0 : index >= count ? count - 1 : index;
+	}
+
+	/**
+	 * @return the number of entries in this index. Entries are numbered from 0
+	 *         in no particular order.
+	 */
+	public int size() {
+		return northings.length;
+	}
+
+	public double getNorthing(int entry) {
+		return northings[entry];
+	}
+
+	public double getEasting(int entry) {
+		return eastings[entry];
+	}
+
+	public double getVertical(int entry) {
+		return verticals[entry];
+	}
+
+	public String getStationName(int entry) {
+		return stationNames[entry];
+	}
+
+	/**
+	 * @return the id of the entry's station in the parser's
+	 *         {@link org.andork.compass.StationDictionary}, or -1 if unknown
+	 */
+	public int getStationId(int entry) {
+		return stationIds[entry];
+	}
+
+	/**
+	 * @return the name of the survey that first drew the entry's station, or
+	 *         <code>null</code> for features
+	 */
+	public String getSurveyName(int entry) {
+		return surveys[entry] < 0 ? null : surveyNames[surveys[entry]];
+	}
+
+	/**
+	 * Passes each entry within the given box (inclusive) to the given
+	 * {@code consumer}.
+	 */
+	public void forEachInBox(
+		double minNorthing,
+		double minEasting,
+		double maxNorthing,
+		double maxEasting,
+		IntConsumer consumer) {
+		if (northings.length == 0 || minNorthing > maxNorthing || minEasting > maxEasting) {
+			return;
+		}
+		int minRow = row(minNorthing), maxRow = row(maxNorthing);
+		int minCol = col(minEasting), maxCol = col(maxEasting);
+		for (int row = minRow; row <= maxRow; row++) {
+			int end = cellStarts[row * cols + maxCol + 1];
+			for (int i = cellStarts[row * cols + minCol]; i < end; i++) {
+				if (northings[i] >= minNorthing
+					&& northings[i] <= maxNorthing
+					&& eastings[i] >= minEasting
+					&& eastings[i] <= maxEasting) {
+					consumer.accept(i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the entries within the given box (inclusive).
+	 */
+	public int[] findInBox(double minNorthing, double minEasting, double maxNorthing, double maxEasting) {
+		int[][] result = { new int[16] };
+		int[] count = { 0 };
+		forEachInBox(minNorthing, minEasting, maxNorthing, maxEasting, i -> {
+			if (count[0] == result[0].length) {
+				result[0] = Arrays.copyOf(result[0], count[0] * 2);
+			}
+			result[0][count[0]++] = i;
+		});
+		return Arrays.copyOf(result[0], count[0]);
+	}
+
+	/**
+	 * @return the names of the surveys with stations within the given box
+	 *         (inclusive).
+	 */
+	public Set<String> findSurveysInBox(double minNorthing, double minEasting, double maxNorthing, double maxEasting) {
+		Set<String> result = new LinkedHashSet<>();
+		forEachInBox(minNorthing, minEasting, maxNorthing, maxEasting, i -> {
+			if (surveys[i] >= 0) {
+				result.add(surveyNames[surveys[i]]);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @return the {@code k} entries with the least horizontal distance to the
+	 *         given point, nearest first (fewer if this index is smaller).
+	 */
+	public int[] findNearest(double northing, double easting, int k) {
+		if (k <= 0 || northings.length == 0) {
+			return new int[0];
+		}
+		k = Math.min(k, northings.length);
+		// max-heap of the nearest entries found so far
+		int[] heap = new int[k];
+		double[] heapDistances = new double[k];
+		int heapSize = 0;
+
+		int centerRow = row(northing);
+		int centerCol = col(easting);
+		for (int ring = 0;; ring++) {
+			int minRow = centerRow - ring, maxRow = centerRow + ring;
+			int minCol = centerCol - ring, maxCol = centerCol + ring;
+			for (int row = Math.max(0, minRow); row <= Math.min(rows - 1, maxRow); row++) {
+				boolean edgeRow = row == minRow || row == maxRow;
+				for (int col = Math.max(0, minCol); col <= Math.min(cols - 1, maxCol); col++) {
+					if (!edgeRow && col != minCol && col != maxCol) {
+						// already searched in an inner ring
+						col = maxCol - 1;
+						continue;
+					}
+					int cell = row * cols + col;
+					for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+						double dn = northings[i] - northing;
+						double de = eastings[i] - easting;
+						double distance = dn * dn + de * de;
+						if (heapSize < k) {
+							heap[heapSize] = i;
+							heapDistances[heapSize] = distance;
+							siftUp(heap, heapDistances, heapSize++);
+						}
+						else if (distance < heapDistances[0]) {
+							heap[0] = i;
+							heapDistances[0] = distance;
+							siftDown(heap, heapDistances, k);
+						}
+					}
+				}
+			}
+			if (minRow <= 0 && minCol <= 0 && maxRow >= rows - 1 && maxCol >= cols - 1) {
+				break;
+			}
+			if (heapSize == k) {
+				// the distance from the point to the nearest cell outside the
+				// rings searched so far
+				double outside = Math.min(
+					Math.min(northing - (this.minNorthing + minRow * cellSize),
+						this.minNorthing + (maxRow + 1) * cellSize - northing),
+					Math.min(easting - (this.minEasting + minCol * cellSize),
+						this.minEasting + (maxCol + 1) * cellSize - easting));
+				if (outside > 0 && outside * outside >= heapDistances[0]) {
+					break;
+				}
+			}
+		}
+
+		int[] result = new int[heapSize];
+		while (heapSize > 0) {
+			result[heapSize - 1] = heap[0];
+			heap[0] = heap[--heapSize];
+			heapDistances[0] = heapDistances[heapSize];
+			siftDown(heap, heapDistances, heapSize);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the entry with the least horizontal distance to the given point,
+	 *         or -1 if this index is empty.
+	 */
+	public int findNearest(double northing, double easting) {
+		int[] nearest = findNearest(northing, easting, 1);
+		return nearest.length == 0 ? -1 : nearest[0];
+	}
+
+	/**
+	 * @return the name of the survey of the station nearest the given point, if
+	 *         it is within {@code maxDistance}; otherwise <code>null</code>.
+	 */
+	public String findSurveyAt(double northing, double easting, double maxDistance) {
+		int entry = findNearest(northing, easting);
+		if (entry < 0 || Math.hypot(northings[entry] - northing, eastings[entry] - easting) > maxDistance) {
+			return null;
+		}
+		return getSurveyName(entry);
+	}
+
+	private static void siftUp(int[] heap, double[] distances, int index) {
+		while (index > 0) {
+			int parent = (index - 1) >> 1;
+			if (distances[parent] >= distances[index]) {
+				break;
+			}
+			swap(heap, distances, parent, index);
+			index = parent;
+		}
+	}
+
+	private static void siftDown(int[] heap, double[] distances, int size) {
+		int index = 0;
+		while (true) {
+			int largest = index;
+			int left = index * 2 + 1, right = left + 1;
+			if (left < size && distances[left] > distances[largest]) {
+				largest = left;
+			}
+			if (right < size && distances[right] > distances[largest]) {
+				largest = right;
+			}
+			if (largest == index) {
+				return;
+			}
+			swap(heap, distances, largest, index);
+			index = largest;
+		}
+	}
+
+	private static void swap(int[] heap, double[] distances, int a, int b) {
+		int entry = heap[a];
+		heap[a] = heap[b];
+		heap[b] = entry;
+		double distance = distances[a];
+		distances[a] = distances[b];
+		distances[b] = distance;
+	}
+
+	/**
+	 * Collects station locations from plot commands. Pass it to
+	 * {@link CompassPlotParser#parsePlot(java.nio.file.Path, CompassPlotVisitor)},
+	 * or pass it each command of an already parsed file.
+	 */
+	public static class Builder implements CompassPlotVisitor {
+		private final List<String> surveyNames = new ArrayList<>();
+		private final Set<String> seenStations = new HashSet<>();
+		private int survey = -1;
+
+		private int size = 0;
+		private double[] northings = new double[256];
+		private double[] eastings = new double[256];
+		private double[] verticals = new double[256];
+		private String[] stationNames = new String[256];
+		private int[] stationIds = new int[256];
+		private int[] surveys = new int[256];
+
+		@Override
+		public void command(CompassPlotCommand command) {
+			if (command instanceof BeginSurveyCommand) {
+				survey = surveyNames.size();
+				surveyNames.add(((BeginSurveyCommand) command).getSurveyName());
+			}
+			else if (command instanceof BeginFeatureCommand) {
+				survey = -1;
+			}
+			else if (command instanceof DrawSurveyCommand) {
+				DrawSurveyCommand draw = (DrawSurveyCommand) command;
+				if (draw.getStationName() == null || seenStations.add(draw.getStationName())) {
+					add(draw, survey);
+				}
+			}
+			else if (command instanceof FeatureCommand) {
+				add((FeatureCommand) command, -1);
+			}
+		}
+
+		private void add(LocationCommand command, int survey) {
+			Location location = command.getLocation();
+			if (location.getNorthing() == null || location.getEasting() == null) {
+				return;
+			}
+			double northing = location.getNorthing().get(Length.feet);
+			double easting = location.getEasting().get(Length.feet);
+			if (Double.isNaN(northing) || Double.isNaN(easting)) {
+				return;
+			}
+			if (size == northings.length) {
+				int capacity = size * 2;
+				northings = Arrays.copyOf(northings, capacity);
+				eastings = Arrays.copyOf(eastings, capacity);
+				verticals = Arrays.copyOf(verticals, capacity);
+				stationNames = Arrays.copyOf(stationNames, capacity);
+				stationIds = Arrays.copyOf(stationIds, capacity);
+				surveys = Arrays.copyOf(surveys, capacity);
+			}
+			northings[size] = northing;
+			eastings[size] = easting;
+			verticals[size] = location.getVertical() == null ? Double.NaN : location.getVertical().get(Length.feet);
+			stationNames[size] = command.getStationName();
+			stationIds[size] = command.getStationId();
+			surveys[size] = survey;
+			size++;
+		}
+
+		/**
+		 * @return an index of the stations collected so far.
+		 */
+		public PlotStationIndex build() {
+			return new PlotStationIndex(this);
+		}
+	}
+}
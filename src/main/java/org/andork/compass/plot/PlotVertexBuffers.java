@@ -0,0 +1,155 @@
+package org.andork.compass.plot;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A {@link PlotVertexSink} that puts vertices straight into caller-supplied NIO
+ * buffers, for feeding renderers and tile builders without creating any
+ * objects per vertex. The buffers may be heap buffers or views of direct
+ * {@link ByteBuffer}s (for instance
+ * <code>ByteBuffer.allocateDirect(n * 12).order(ByteOrder.nativeOrder()).asFloatBuffer()</code>).<br>
+ * <br>
+ * For each vertex:
+ * <ul>
+ * <li>{@code positions} gets northing, easting, vertical</li>
+ * <li>{@code lruds} gets left, up, down, right (<code>NaN</code> if
+ * missing)</li>
+ * <li>{@code operations} gets {@link #MOVE_TO} or {@link #LINE_TO}</li>
+ * <li>{@code stationIds} gets the station id</li>
+ * </ul>
+ * Any buffer may be <code>null</code> to skip that data. All lengths are in
+ * feet; {@link org.andork.compass.UnitArrays#feetToMeters(DoubleBuffer, int, int)}
+ * converts filled buffers to meters in one pass. Since UTM coordinates are too big to store precisely in a
+ * <code>float</code>, the float version subtracts an origin from positions.<br>
+ * <br>
+ * If a buffer fills up, {@link BufferOverflowException} is thrown.
+ */
+public class PlotVertexBuffers implements PlotVertexSink {
+	public static final byte MOVE_TO = 0;
+	public static final byte LINE_TO = 1;
+
+	private final DoubleBuffer doublePositions;
+	private final DoubleBuffer doubleLruds;
+	private final FloatBuffer floatPositions;
+	private final FloatBuffer floatLruds;
+	private final ByteBuffer operations;
+	private final IntBuffer stationIds;
+	private final double originNorthing;
+	private final double originEasting;
+	private final double originVertical;
+	private int vertexCount = 0;
+
+	private PlotVertexBuffers(
+		DoubleBuffer doublePositions,
+		DoubleBuffer doubleLruds,
+		FloatBuffer floatPositions,
+		FloatBuffer floatLruds,
+		ByteBuffer operations,
+		IntBuffer stationIds,
+		double originNorthing,
+		double originEasting,
+		double originVertical) {
+		this.doublePositions = doublePositions;
+		this.doubleLruds = doubleLruds;
+		this.floatPositions = floatPositions;
+		this.floatLruds = floatLruds;
+		this.operations = operations;
+		this.stationIds = stationIds;
+		this.originNorthing = originNorthing;
+		this.originEasting = originEasting;
+		this.originVertical = originVertical;
+	}
+
+	/**
+	 * Creates a sink that puts full precision coordinates into
+	 * {@link DoubleBuffer}s.
+	 */
+	public static PlotVertexBuffers ofDoubles(
+		DoubleBuffer positions,
+		DoubleBuffer lruds,
+		ByteBuffer operations,
+		IntBuffer stationIds) {
+		return new PlotVertexBuffers(positions, lruds, null, null, operations, stationIds, 0, 0, 0);
+	}
+
+	/**
+	 * Creates a sink that puts coordinates relative to the given origin (for
+	 * instance the lower bound of the cave) into {@link FloatBuffer}s.
+	 */
+	public static PlotVertexBuffers ofFloats(
+		FloatBuffer positions,
+		FloatBuffer lruds,
+		ByteBuffer operations,
+		IntBuffer stationIds,
+		double originNorthing,
+		double originEasting,
+		double originVertical) {
+		return new PlotVertexBuffers(
+			null,
+			null,
+			positions,
+			lruds,
+			operations,
+			stationIds,
+			originNorthing,
+			originEasting,
+			originVertical);
+	}
+
+	/**
+	 * @return the number of vertices put into the buffers so far.
+	 */
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	@Override
+	public void vertex(
+		DrawOperation operation,
+		double northing,
+		double easting,
+		double vertical,
+		double left,
+		double up,
+		double down,
+		double right,
+		int stationId,
+		double distanceFromEntrance) {
+		// check everything first so that a full buffer doesn't leave the others
+		// with a partial vertex
+		if (doublePositions != null && doublePositions.remaining() < 3
+			|| floatPositions != null && floatPositions.remaining() < 3
+			|| doubleLruds != null && doubleLruds.remaining() < 4
+			|| floatLruds != null && floatLruds.remaining() < 4
+			|| operations != null && !operations.hasRemaining()
+			|| stationIds != null && !stationIds.hasRemaining()) {
+			throw new BufferOverflowException();
+		}
+		if (doublePositions != null) {
+			doublePositions.put(northing).put(easting).put(vertical);
+		}
+		if (floatPositions != null) {
+			floatPositions
+				.put((float) (northing - originNorthing))
+				.put((float) (easting - originEasting))
+				.put((float) (vertical - originVertical));
+		}
+		if (doubleLruds != null) {
+			doubleLruds.put(left).put(up).put(down).put(right);
+		}
+		if (floatLruds != null) {
+			floatLruds.put((float) left).put((float) up).put((float) down).put((float) right);
+		}
+		if (operations != null) {
+			operations.put(operation == DrawOperation.MOVE_TO ? MOVE_TO : LINE_TO);
+		}
+		if (stationIds != null) {
+			stationIds.put(stationId);
+		}
+		vertexCount++;
+	}
+}
@@ -0,0 +1,27 @@
+package org.andork.compass.plot;
+
+/**
+ * Receives the vertices of the M and D lines of a .PLT file as primitives,
+ * without a {@link DrawSurveyCommand} being created for each one. See
+ * {@link CompassPlotParser#parseVertices(java.io.Reader, Object, PlotVertexSink)}.
+ */
+public interface PlotVertexSink {
+	/**
+	 * All lengths are in feet, and missing LRUDs are <code>NaN</code>.
+	 *
+	 * @param stationId the id of the station in the parser's
+	 *                  {@link org.andork.compass.StationDictionary}, or -1 if
+	 *                  the line has no station name
+	 */
+	public void vertex(
+		DrawOperation operation,
+		double northing,
+		double easting,
+		double vertical,
+		double left,
+		double up,
+		double down,
+		double right,
+		int stationId,
+		double distanceFromEntrance);
+}
@@ -0,0 +1,59 @@
+package org.andork.compass.project;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.andork.compass.StationDictionary;
+
+/**
+ * A .MAK project file along with the parsed contents of the survey files it
+ * references.
+ */
+public class CompassProject {
+	/**
+	 * The path of the .MAK file
+	 */
+	public final Path path;
+	/**
+	 * All directives in the .MAK file, in order.
+	 */
+	public final List<CompassProjectDirective> directives;
+	/**
+	 * The files referenced by {@link FileDirective}s, in the order they appear.
+	 */
+	public final List<CompassProjectFile> files;
+	/**
+	 * The dictionary all station names in the project were interned in, so
+	 * station ids are the same across all files.
+	 */
+	public final StationDictionary stations;
+
+	public CompassProject(Path path, List<CompassProjectDirective> directives, List<CompassProjectFile> files) {
+		this(path, directives, files, new StationDictionary());
+	}
+
+	public CompassProject(
+		Path path,
+		List<CompassProjectDirective> directives,
+		List<CompassProjectFile> files,
+		StationDictionary stations) {
+		this.path = path;
+		this.directives = Collections.unmodifiableList(Objects.requireNonNull(directives));
+		this.files = Collections.unmodifiableList(Objects.requireNonNull(files));
+		this.stations = Objects.requireNonNull(stations);
+	}
+
+	/**
+	 * @return whether any file failed to load or had parse errors or warnings.
+	 */
+	public boolean hasErrors() {
+		for (CompassProjectFile file : files) {
+			if (file.exception != null || !file.errors.isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
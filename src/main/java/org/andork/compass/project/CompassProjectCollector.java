@@ -0,0 +1,53 @@
+package org.andork.compass.project;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.andork.segment.Segment;
+
+/**
+ * A {@link CompassProjectVisitor} that collects all directives in the order
+ * they appear in the project file.
+ */
+public class CompassProjectCollector implements CompassProjectVisitor {
+	private final List<CompassProjectDirective> directives = new ArrayList<>();
+
+	public List<CompassProjectDirective> getDirectives() {
+		return directives;
+	}
+
+	@Override
+	public void file(Segment name, FileDirective file) {
+		directives.add(file);
+	}
+
+	@Override
+	public void location(LocationDirective location) {
+		directives.add(location);
+	}
+
+	@Override
+	public void utmConvergence(UTMConvergenceDirective utmConvergence) {
+		directives.add(utmConvergence);
+	}
+
+	@Override
+	public void utmZone(UTMZoneDirective utmZone) {
+		directives.add(utmZone);
+	}
+
+	@Override
+	public void datum(DatumDirective datum) {
+		directives.add(datum);
+	}
+
+	@Override
+	public void flags(FlagsDirective flags) {
+		directives.add(flags);
+	}
+
+	@Override
+	public void comment(CommentDirective comment) {
+		directives.add(comment);
+	}
+}
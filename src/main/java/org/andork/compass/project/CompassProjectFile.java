@@ -0,0 +1,49 @@
+package org.andork.compass.project;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.andork.compass.CompassParseError;
+import org.andork.compass.plot.CompassPlotCommand;
+import org.andork.compass.survey.CompassTrip;
+
+/**
+ * The result of loading a file referenced by a {@link FileDirective}.
+ */
+public class CompassProjectFile {
+	public final FileDirective directive;
+	/**
+	 * The resolved path of the file
+	 */
+	public final Path path;
+	/**
+	 * The trips in the file if it is a survey (.DAT) file, otherwise empty.
+	 */
+	public final List<CompassTrip> trips;
+	/**
+	 * The commands in the file if it is a plot (.PLT) file, otherwise empty.
+	 */
+	public final List<CompassPlotCommand> plotCommands;
+	/**
+	 * Errors and warnings from parsing the file
+	 */
+	public final List<CompassParseError> errors;
+	/**
+	 * The exception thrown while reading or parsing the file (an
+	 * {@link java.io.IOException} or a {@link RuntimeException}), or
+	 * <code>null</code> if it was read successfully.
+	 */
+	public final Exception exception;
+
+	public CompassProjectFile(FileDirective directive, Path path, List<CompassTrip> trips,
+			List<CompassPlotCommand> plotCommands, List<CompassParseError> errors, Exception exception) {
+		this.directive = Objects.requireNonNull(directive);
+		this.path = Objects.requireNonNull(path);
+		this.trips = trips != null ? trips : Collections.emptyList();
+		this.plotCommands = plotCommands != null ? plotCommands : Collections.emptyList();
+		this.errors = errors != null ? errors : Collections.emptyList();
+		this.exception = exception;
+	}
+}
@@ -0,0 +1,192 @@
+package org.andork.compass.project;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.andork.compass.StationDictionary;
+import org.andork.compass.cache.CompassParseCache;
+import org.andork.compass.plot.CompassPlotCommand;
+import org.andork.compass.plot.CompassPlotParser;
+import org.andork.compass.survey.CompassSurveyParser;
+import org.andork.segment.SegmentParseException;
+
+/**
+ * Loads a .MAK project file and all of the survey (.DAT) and plot (.PLT) files
+ * it references, parsing the referenced files concurrently.
+ */
+public class CompassProjectLoader {
+	private final int parallelism;
+	private CompassParseCache parseCache;
+
+	/**
+	 * Creates a loader that parses as many files at once as there are available
+	 * processors.
+	 */
+	public CompassProjectLoader() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param parallelism the maximum number of files to parse at once
+	 */
+	public CompassProjectLoader(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be >= 1");
+		}
+		this.parallelism = parallelism;
+	}
+
+	public CompassParseCache getParseCache() {
+		return parseCache;
+	}
+
+	/**
+	 * Sets a cache to load unchanged files from instead of parsing them, or
+	 * <code>null</code> to always parse.
+	 */
+	public void setParseCache(CompassParseCache parseCache) {
+		this.parseCache = parseCache;
+	}
+
+	/**
+	 * Loads the given project file and all of the files it references. Files are
+	 * resolved relative to the directory containing the project file. Errors
+	 * reading or parsing a referenced file, including runtime exceptions such as
+	 * an {@link java.io.UncheckedIOException} from a mapped file, are reported in
+	 * the corresponding {@link CompassProjectFile} rather than thrown.
+	 *
+	 * @throws IOException           if the project file itself can't be read
+	 * @throws SegmentParseException if the project file itself is invalid
+	 */
+	public CompassProject load(Path projectFile) throws IOException, SegmentParseException {
+		StationDictionary stations = new StationDictionary();
+		CompassParseCache parseCache = this.parseCache;
+		List<CompassProjectDirective> directives;
+		if (parseCache != null) {
+			directives = parseCache.loadProject(projectFile, stations);
+		}
+		else {
+			CompassProjectCollector collector = new CompassProjectCollector();
+			CompassProjectParser projectParser = new CompassProjectParser(collector);
+			projectParser.setStationDictionary(stations);
+			projectParser.parse(projectFile);
+			directives = collector.getDirectives();
+		}
+
+		Path directory = projectFile.toAbsolutePath().getParent();
+		List<FileDirective> fileDirectives = new ArrayList<>();
+		for (CompassProjectDirective directive : directives) {
+			if (directive instanceof FileDirective) {
+				fileDirectives.add((FileDirective) directive);
+			}
+		}
+
+		List<CompassProjectFile> files = new ArrayList<>();
+		ExecutorService executor =
+			Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, fileDirectives.size())));
+		try {
+			// each file gets its own dictionary, merged into the project's in file
+			// order below, so that ids don't depend on which file was parsed first
+			List<StationDictionary> fileStations = new ArrayList<>();
+			List<Future<CompassProjectFile>> futures = new ArrayList<>();
+			for (FileDirective directive : fileDirectives) {
+				StationDictionary dictionary = new StationDictionary();
+				fileStations.add(dictionary);
+				futures.add(executor.submit(() -> loadFile(directive, directory, dictionary, parseCache)));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				CompassProjectFile file = futures.get(i).get();
+				if (file.trips != null) {
+					CompassSurveyParser.mergeStationIds(file.trips, fileStations.get(i), stations);
+				}
+				if (file.plotCommands != null) {
+					CompassPlotParser.mergeStationIds(file.plotCommands, fileStations.get(i), stations);
+				}
+				files.add(file);
+			}
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while loading " + projectFile, ex);
+		}
+		catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			if (ex.getCause() instanceof Error) {
+				throw (Error) ex.getCause();
+			}
+			throw new IOException("failed to load " + projectFile, ex.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		return new CompassProject(projectFile, directives, files, stations);
+	}
+
+	private static CompassProjectFile loadFile(
+		FileDirective directive,
+		Path directory,
+		StationDictionary stations,
+		CompassParseCache parseCache) {
+		Path path = directory.resolve(directive.file.replace('\\', File.separatorChar));
+		try {
+			path = resolve(path);
+			if (isPlotFile(path)) {
+				CompassPlotParser parser = new CompassPlotParser();
+				parser.setStationDictionary(stations);
+				List<CompassPlotCommand> commands =
+					parseCache != null ? parseCache.loadPlot(path, parser) : parser.parsePlot(path);
+				return new CompassProjectFile(directive, path, null, commands, parser.getErrors(), null);
+			}
+			CompassSurveyParser parser = new CompassSurveyParser();
+			parser.setStationDictionary(stations);
+			return new CompassProjectFile(
+				directive,
+				path,
+				parseCache != null ? parseCache.loadSurvey(path, parser) : parser.parseCompassSurveyData(path),
+				null,
+				parser.getErrors(),
+				null);
+		}
+		catch (IOException | RuntimeException ex) {
+			// report it with this file rather than losing every other file's results
+			return new CompassProjectFile(directive, path, null, null, null, ex);
+		}
+	}
+
+	private static boolean isPlotFile(Path path) {
+		return path.getFileName().toString().toUpperCase().endsWith(".PLT");
+	}
+
+	/**
+	 * Compass runs on Windows, so file names in .MAK files may not match the case
+	 * of the actual file names.
+	 *
+	 * @return the existing file whose name matches the given {@code path} ignoring
+	 *         case, or {@code path} if there is none.
+	 */
+	static Path resolve(Path path) throws IOException {
+		if (Files.exists(path) || path.getParent() == null || !Files.isDirectory(path.getParent())) {
+			return path;
+		}
+		String fileName = path.getFileName().toString();
+		try (DirectoryStream<Path> siblings = Files.newDirectoryStream(path.getParent())) {
+			for (Path sibling : siblings) {
+				if (sibling.getFileName().toString().equalsIgnoreCase(fileName)) {
+					return sibling;
+				}
+			}
+		}
+		return path;
+	}
+}
@@ -0,0 +1,215 @@
+package org.andork.compass.project;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiFunction;
+
+import org.andork.compass.NEVLocation;
+import org.andork.segment.Segment;
+import org.andork.segment.SegmentParseException;
+
+/**
+ * The directives of a .MAK file in order, for editing a project and writing it
+ * back out with {@link CompassProjectWriter}. Unlike {@link CompassProject},
+ * this doesn't load the files the project references.<br>
+ * <br>
+ * For instance, to move a link station:
+ *
+ * <pre>
+ * CompassProjectModel project = CompassProjectModel.read(path);
+ * project.setLinkStationLocation("A1", new NEVLocation(easting, northing, elevation));
+ * project.write(path);
+ * </pre>
+ */
+public class CompassProjectModel implements CompassProjectVisitor {
+	private final List<CompassProjectDirective> directives = new ArrayList<>();
+
+	public CompassProjectModel() {
+
+	}
+
+	public CompassProjectModel(List<? extends CompassProjectDirective> directives) {
+		this.directives.addAll(directives);
+	}
+
+	public static CompassProjectModel read(Path projectFile) throws IOException, SegmentParseException {
+		CompassProjectModel model = new CompassProjectModel();
+		new CompassProjectParser(model).parse(projectFile);
+		return model;
+	}
+
+	public static CompassProjectModel read(InputStream in, Object source) throws IOException, SegmentParseException {
+		CompassProjectModel model = new CompassProjectModel();
+		new CompassProjectParser(model).parse(in, source);
+		return model;
+	}
+
+	/**
+	 * @return the directives in order. Changes to this list change the model.
+	 */
+	public List<CompassProjectDirective> getDirectives() {
+		return directives;
+	}
+
+	/**
+	 * @return a new list of the {@link FileDirective}s, in order.
+	 */
+	public List<FileDirective> getFiles() {
+		List<FileDirective> files = new ArrayList<>();
+		for (CompassProjectDirective directive : directives) {
+			if (directive instanceof FileDirective) {
+				files.add((FileDirective) directive);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * @return the first {@link FileDirective} for the given file name (ignoring
+	 *         case, like Windows), or <code>null</code> if there is none.
+	 */
+	public FileDirective getFile(String file) {
+		for (CompassProjectDirective directive : directives) {
+			if (directive instanceof FileDirective && ((FileDirective) directive).file.equalsIgnoreCase(file)) {
+				return (FileDirective) directive;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the project location, or <code>null</code> if there is none.
+	 */
+	public LocationDirective getLocation() {
+		for (CompassProjectDirective directive : directives) {
+			if (directive instanceof LocationDirective) {
+				return (LocationDirective) directive;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Replaces the project location, or inserts it at the start of the project
+	 * if there is none.
+	 */
+	public void setLocation(LocationDirective location) {
+		Objects.requireNonNull(location);
+		for (int i = 0; i < directives.size(); i++) {
+			if (directives.get(i) instanceof LocationDirective) {
+				directives.set(i, location);
+				return;
+			}
+		}
+		directives.add(0, location);
+	}
+
+	/**
+	 * Replaces each link station of each {@link FileDirective} with the result of
+	 * the given {@code replacer}. {@link FileDirective}s whose link stations are
+	 * all returned unchanged are kept as they are.
+	 *
+	 * @param replacer returns the link station to use instead of the given one,
+	 *                 which may be the same one
+	 * @return the number of link stations that were replaced.
+	 */
+	public int replaceLinkStations(BiFunction<FileDirective, LinkStation, LinkStation> replacer) {
+		int replaced = 0;
+		for (int i = 0; i < directives.size(); i++) {
+			if (!(directives.get(i) instanceof FileDirective)) {
+				continue;
+			}
+			FileDirective file = (FileDirective) directives.get(i);
+			List<LinkStation> linkStations = null;
+			for (int j = 0; j < file.linkStations.size(); j++) {
+				LinkStation station = file.linkStations.get(j);
+				LinkStation replacement = Objects.requireNonNull(replacer.apply(file, station));
+				if (replacement != station) {
+					if (linkStations == null) {
+						linkStations = new ArrayList<>(file.linkStations);
+					}
+					linkStations.set(j, replacement);
+					replaced++;
+				}
+			}
+			if (linkStations != null) {
+				directives.set(i, new FileDirective(file.file, linkStations));
+			}
+		}
+		return replaced;
+	}
+
+	/**
+	 * Sets the location of every link station with the given name, in every
+	 * file.
+	 *
+	 * @param location the new location, or <code>null</code> to make them plain
+	 *                 link stations
+	 * @return the number of link stations that were changed.
+	 */
+	public int setLinkStationLocation(String stationName, NEVLocation location) {
+		return replaceLinkStations(
+			(file, station) -> station.name.equals(stationName)
+				? new LinkStation(station.name, station.id, location)
+				: station);
+	}
+
+	public void write(Path projectFile) throws IOException {
+		try (CompassProjectWriter writer = new CompassProjectWriter(projectFile)) {
+			writer.writeDirectives(directives);
+		}
+	}
+
+	public void write(OutputStream out) throws IOException {
+		CompassProjectWriter writer = new CompassProjectWriter(out);
+		writer.writeDirectives(directives);
+		writer.flush();
+	}
+
+	public void write(Writer out) throws IOException {
+		CompassProjectWriter writer = new CompassProjectWriter(out);
+		writer.writeDirectives(directives);
+		writer.flush();
+	}
+
+	@Override
+	public void file(Segment name, FileDirective file) {
+		directives.add(file);
+	}
+
+	@Override
+	public void location(LocationDirective location) {
+		directives.add(location);
+	}
+
+	@Override
+	public void utmConvergence(UTMConvergenceDirective utmConvergence) {
+		directives.add(utmConvergence);
+	}
+
+	@Override
+	public void utmZone(UTMZoneDirective utmZone) {
+		directives.add(utmZone);
+	}
+
+	@Override
+	public void datum(DatumDirective datum) {
+		directives.add(datum);
+	}
+
+	@Override
+	public void flags(FlagsDirective flags) {
+		directives.add(flags);
+	}
+
+	@Override
+	public void comment(CommentDirective comment) {
+		directives.add(comment);
+	}
+}
@@ -2,17 +2,15 @@ package org.andork.compass.project;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Scanner;
-import java.util.regex.Pattern;
 
+import org.andork.compass.CompassFiles;
 import org.andork.compass.NEVLocation;
+import org.andork.compass.StationDictionary;
 import org.andork.segment.Segment;
-import org.andork.segment.SegmentMatcher;
 import org.andork.segment.SegmentParseException;
 import org.andork.unit.Angle;
 import org.andork.unit.Length;
@@ -82,35 +80,35 @@ import org.andork.unit.UnitizedDouble;
  * 
  */
 public class CompassProjectParser {
-	private static Pattern endOfLineRx = Pattern.compile("\\r\\n?|\\n");
-	private static Pattern fileNameRx = Pattern.compile("[^,;/]+");
-	private static Pattern datumRx = Pattern.compile("[^;/]+");
-	private static Pattern linkStationRx = Pattern.compile("[^,;/\\[]+");
-	private static Pattern numberRx = Pattern.compile("[-+]?\\d+(\\.\\d*)?|\\.\\d+");
-
 	private final CompassProjectVisitor visitor;
 	private int i;
 	private Segment data;
-	private SegmentMatcher endOfLineMatcher;
-	private SegmentMatcher fileNameMatcher;
-	private SegmentMatcher datumMatcher;
-	private SegmentMatcher linkStationMatcher;
-	private SegmentMatcher numberMatcher;
+	private StationDictionary stationDictionary = new StationDictionary();
 
 	public CompassProjectParser(CompassProjectVisitor visitor) {
 		this.visitor = Objects.requireNonNull(visitor);
 	}
+
+	/**
+	 * @return the dictionary link station names are interned in.
+	 */
+	public StationDictionary getStationDictionary() {
+		return stationDictionary;
+	}
+
+	/**
+	 * Sets the dictionary link station names are interned in. Share one
+	 * dictionary with the survey and plot parsers to get the same station ids
+	 * across files.
+	 */
+	public void setStationDictionary(StationDictionary stationDictionary) {
+		this.stationDictionary = Objects.requireNonNull(stationDictionary);
+	}
 	
-	private void reset(Segment data) throws IOException {
+	private void reset(Segment data) {
 		i = 0;
 		this.data = data;
-		endOfLineMatcher = new SegmentMatcher(data, endOfLineRx);
-		fileNameMatcher = new SegmentMatcher(data, fileNameRx);
-		datumMatcher = new SegmentMatcher(data, datumRx);
-		linkStationMatcher = new SegmentMatcher(data, linkStationRx);
-		numberMatcher = new SegmentMatcher(data, numberRx);
 	}
-	
 
 	public void parse(Segment data) throws IOException, SegmentParseException {
 		reset(data);
@@ -118,16 +116,12 @@ public class CompassProjectParser {
 	}
 	
 	public void parse(InputStream in, Object source) throws IOException, SegmentParseException {
-		try (@SuppressWarnings("resource")
-		Scanner s = new Scanner(in, "ASCII").useDelimiter("\\A")) {
-			String result = s.hasNext() ? s.next() : "";
-			reset(new Segment(result, source, 0, 0));
-		}
+		reset(new Segment(CompassFiles.readString(in), source, 0, 0));
 		parse();
 	}
 
 	public void parse(Path projectFile) throws IOException, SegmentParseException {
-		reset(Segment.readFile(projectFile, Charset.forName("ASCII")));
+		reset(new Segment(CompassFiles.readString(projectFile), projectFile, 0, 0));
 		parse();
 	}
 
@@ -181,19 +175,72 @@ public class CompassProjectParser {
 	}
 	
 	private void nextLine() {
-		i = endOfLineMatcher.region(i, data.length()).find()
-			? endOfLineMatcher.end()
-			: data.length();
+		while (i < data.length()) {
+			char c = data.charAt(i++);
+			if (c == '\n') {
+				return;
+			}
+			if (c == '\r') {
+				if (i < data.length() && data.charAt(i) == '\n') {
+					i++;
+				}
+				return;
+			}
+		}
 	}
-	
-	private Segment expect(SegmentMatcher matcher, String missingErrorMessage) throws SegmentParseException {
-		if (!matcher.region(i,  data.length()).find() || matcher.start() != i) {
+
+	/**
+	 * Matches one or more characters up to (but not including) any of the given
+	 * {@code delimiters} or the end of the data.
+	 */
+	private Segment expectUntil(String delimiters, String missingErrorMessage) throws SegmentParseException {
+		int start = i;
+		while (i < data.length() && delimiters.indexOf(data.charAt(i)) < 0) {
+			i++;
+		}
+		if (i == start) {
 			throw new SegmentParseException(missingErrorMessage, data.charAtAsSegment(i));
 		}
-		i = matcher.end();
-		return matcher.group();
+		return data.substring(start, i);
 	}
-	
+
+	/**
+	 * Matches <code>[-+]?\d+(\.\d*)?|\.\d+</code>.
+	 */
+	private Segment expectNumberText(String missingErrorMessage) throws SegmentParseException {
+		int start = i;
+		int end = start;
+		if (end < data.length() && (data.charAt(end) == '-' || data.charAt(end) == '+')) {
+			end++;
+		}
+		int integerStart = end;
+		while (end < data.length() && isDigit(data.charAt(end))) {
+			end++;
+		}
+		boolean hasInteger = end > integerStart;
+		if (end < data.length() && data.charAt(end) == '.' && (hasInteger || start == integerStart)) {
+			int fractionStart = ++end;
+			while (end < data.length() && isDigit(data.charAt(end))) {
+				end++;
+			}
+			if (!hasInteger && end == fractionStart) {
+				end = start;
+			}
+		}
+		else if (!hasInteger) {
+			end = start;
+		}
+		if (end == start) {
+			throw new SegmentParseException(missingErrorMessage, data.charAtAsSegment(i));
+		}
+		i = end;
+		return data.substring(start, end);
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
 	private void expect(char c) throws SegmentParseException {
 		if (data.charAt(i++) != c) {
 			throw new SegmentParseException("expected " + c, data.charAtAsSegment(i - 1));
@@ -214,11 +261,11 @@ public class CompassProjectParser {
 	}
 	
 	private double expectNumber(String missingErrorMessage) throws SegmentParseException {
-		return Double.parseDouble(expect(numberMatcher, missingErrorMessage).toString());
+		return Double.parseDouble(expectNumberText(missingErrorMessage).toString());
 	}
 	
 	private void surveyFile() throws SegmentParseException {
-		Segment file = expect(fileNameMatcher, "missing file name").trim();
+		Segment file = expectUntil(",;/", "missing file name").trim();
 		List<LinkStation> linkStations = null;
 	
 		while (true) {
@@ -232,7 +279,7 @@ public class CompassProjectParser {
 				return;
 			case ',':
 				skipWhitespaceAndComments();
-				String stationName = expect(linkStationMatcher, "missing station name").toString().trim();
+				int stationId = stationDictionary.intern(expectUntil(",;/[", "missing station name").trim());
 				NEVLocation location = null;
 	
 				skipWhitespaceAndComments();
@@ -260,7 +307,8 @@ public class CompassProjectParser {
 						new UnitizedDouble<>(northing, unit),
 						new UnitizedDouble<>(elevation, unit));
 				}
-				LinkStation linkStation = new LinkStation(stationName, location);
+				LinkStation linkStation =
+					new LinkStation(stationDictionary.getName(stationId), stationId, location);
 				if (linkStations == null) linkStations = new ArrayList<>();
 				linkStations.add(linkStation);
 				break;
@@ -271,7 +319,7 @@ public class CompassProjectParser {
 	}
 
 	private int expectUTMZone() throws SegmentParseException {
-		Segment text = expect(numberMatcher, "missing UTM zone");
+		Segment text = expectNumberText("missing UTM zone");
 		int decimalIndex = text.indexOf('.');
 		if (decimalIndex >= 0) {
 			throw new SegmentParseException("invalid UTM zone", text.substring(decimalIndex));
@@ -318,7 +366,7 @@ public class CompassProjectParser {
 	}
 	
 	private void datum() throws SegmentParseException {
-		visitor.datum(new DatumDirective(expect(datumMatcher, "missing datum").toString().trim()));
+		visitor.datum(new DatumDirective(expectUntil(";/", "missing datum").toString().trim()));
 		expect(';');
 	}
 	
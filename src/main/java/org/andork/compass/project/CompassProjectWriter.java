@@ -0,0 +1,226 @@
+package org.andork.compass.project;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+import org.andork.compass.CompassFiles;
+import org.andork.compass.DecimalFormatter;
+import org.andork.compass.FormattedWriter;
+import org.andork.compass.NEVLocation;
+import org.andork.segment.Segment;
+import org.andork.unit.Angle;
+import org.andork.unit.Length;
+import org.andork.unit.Unit;
+import org.andork.unit.UnitizedDouble;
+
+/**
+ * Writes project directives in the .MAK format, laid out the way Compass
+ * writes them, which {@link CompassProjectParser} reads back into the same
+ * directives. Coordinates and convergence angles are written with three decimal
+ * places. Every location, link station location and convergence angle must be
+ * complete and finite; otherwise an {@link IllegalArgumentException} is thrown
+ * and nothing of the line is written.<br>
+ * <br>
+ * Since this is a {@link CompassProjectVisitor}, a parser can also write
+ * straight into it.
+ */
+public class CompassProjectWriter implements CompassProjectVisitor, Closeable, Flushable {
+	private static final String EOL = "\r\n";
+	private static final DecimalFormatter FIXED = new DecimalFormatter(3);
+
+	private final FormattedWriter out;
+
+	public CompassProjectWriter(Writer out) {
+		this.out = new FormattedWriter(out, 4096);
+	}
+
+	public CompassProjectWriter(OutputStream out) {
+		this(CompassFiles.newWriter(out));
+	}
+
+	public CompassProjectWriter(WritableByteChannel channel) {
+		this(CompassFiles.newWriter(channel));
+	}
+
+	/**
+	 * Creates a writer for the file at the given {@code path}, which is created or
+	 * truncated.
+	 */
+	public CompassProjectWriter(Path path) throws IOException {
+		this(CompassFiles.newWriter(path));
+	}
+
+	public void writeDirectives(Iterable<? extends CompassProjectDirective> directives) throws IOException {
+		for (CompassProjectDirective directive : directives) {
+			writeDirective(directive);
+		}
+	}
+
+	/**
+	 * Writes the given directive. Directives of other types than the ones in this
+	 * package are ignored.
+	 */
+	public void writeDirective(CompassProjectDirective directive) throws IOException {
+		if (directive instanceof FileDirective) {
+			writeFile((FileDirective) directive);
+		}
+		else if (directive instanceof LocationDirective) {
+			writeLocation((LocationDirective) directive);
+		}
+		else if (directive instanceof DatumDirective) {
+			writeDatum((DatumDirective) directive);
+		}
+		else if (directive instanceof UTMConvergenceDirective) {
+			writeUtmConvergence((UTMConvergenceDirective) directive);
+		}
+		else if (directive instanceof UTMZoneDirective) {
+			writeUtmZone((UTMZoneDirective) directive);
+		}
+		else if (directive instanceof FlagsDirective) {
+			writeFlags((FlagsDirective) directive);
+		}
+		else if (directive instanceof CommentDirective) {
+			writeComment((CommentDirective) directive);
+		}
+	}
+
+	/**
+	 * Writes a {@code #} line, with each link station on its own line.
+	 */
+	public void writeFile(FileDirective file) throws IOException {
+		for (LinkStation station : file.linkStations) {
+			if (station.location != null) {
+				checkLocation(station.location, "link station " + station.name);
+			}
+		}
+		out.appendAtomically(() -> {
+			out.append('#').append(file.file);
+			for (LinkStation station : file.linkStations) {
+				out.append(',').append(EOL).append(' ').append(station.name);
+				if (station.location != null) {
+					Unit<Length> unit = station.location.easting.unit == Length.feet ? Length.feet : Length.meters;
+					out.append('[').append(unit == Length.feet ? 'f' : 'm');
+					out.append(',').append(FIXED, station.location.easting.get(unit), 0);
+					out.append(',').append(FIXED, station.location.northing.get(unit), 0);
+					out.append(',').append(FIXED, station.location.elevation.get(unit), 0);
+					out.append(']');
+				}
+			}
+			out.append(';').append(EOL);
+		});
+	}
+
+	/**
+	 * Writes an {@code @} line, in meters.
+	 */
+	public void writeLocation(LocationDirective location) throws IOException {
+		checkLocation(location, "location");
+		double utmConvergence = degrees(location.utmConvergence);
+		out.appendAtomically(() -> {
+			out.append('@').append(FIXED, location.easting.get(Length.meters), 0);
+			out.append(',').append(FIXED, location.northing.get(Length.meters), 0);
+			out.append(',').append(FIXED, location.elevation.get(Length.meters), 0);
+			out.append(',').appendInt(location.utmZone);
+			out.append(',').append(FIXED, utmConvergence, 0);
+			out.append(';').append(EOL);
+		});
+	}
+
+	public void writeDatum(DatumDirective datum) throws IOException {
+		out.append('&').append(datum.datum).append(';').append(EOL);
+	}
+
+	public void writeUtmConvergence(UTMConvergenceDirective utmConvergence) throws IOException {
+		double degrees = degrees(utmConvergence.utmConvergence);
+		out.appendAtomically(() -> out.append('%').append(FIXED, degrees, 0).append(';').append(EOL));
+	}
+
+	public void writeUtmZone(UTMZoneDirective utmZone) throws IOException {
+		out.append('$').appendInt(utmZone.utmZone).append(';').append(EOL);
+	}
+
+	public void writeFlags(FlagsDirective flags) throws IOException {
+		out.append('!').append(flags.isOverrideLruds() ? 'O' : 'o').append(flags.isLrudsAtToStation() ? 'T' : 't');
+		out.append(';').append(EOL);
+	}
+
+	/**
+	 * Writes a {@code /} line between blank lines, like Compass does.
+	 */
+	public void writeComment(CommentDirective comment) throws IOException {
+		out.append(EOL).append('/').appendLine(comment.comment).append(EOL).append(EOL);
+	}
+
+	@Override
+	public void file(Segment name, FileDirective file) {
+		FormattedWriter.unchecked(() -> writeFile(file));
+	}
+
+	@Override
+	public void location(LocationDirective location) {
+		FormattedWriter.unchecked(() -> writeLocation(location));
+	}
+
+	@Override
+	public void utmConvergence(UTMConvergenceDirective utmConvergence) {
+		FormattedWriter.unchecked(() -> writeUtmConvergence(utmConvergence));
+	}
+
+	@Override
+	public void utmZone(UTMZoneDirective utmZone) {
+		FormattedWriter.unchecked(() -> writeUtmZone(utmZone));
+	}
+
+	@Override
+	public void datum(DatumDirective datum) {
+		FormattedWriter.unchecked(() -> writeDatum(datum));
+	}
+
+	@Override
+	public void flags(FlagsDirective flags) {
+		FormattedWriter.unchecked(() -> writeFlags(flags));
+	}
+
+	@Override
+	public void comment(CommentDirective comment) {
+		FormattedWriter.unchecked(() -> writeComment(comment));
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	private static void checkLocation(NEVLocation location, String what) {
+		if (location.easting == null || location.northing == null || location.elevation == null) {
+			throw new IllegalArgumentException(what + " is missing a coordinate");
+		}
+		if (!Double.isFinite(location.easting.get(Length.meters))
+			|| !Double.isFinite(location.northing.get(Length.meters))
+			|| !Double.isFinite(location.elevation.get(Length.meters))) {
+			throw new IllegalArgumentException(what + " has an infinite or NaN coordinate");
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException if {@code angle} is <code>null</code>,
+	 *                                  since the .MAK format has no way to write
+	 *                                  a missing convergence angle.
+	 */
+	private static double degrees(UnitizedDouble<Angle> angle) {
+		if (angle == null) {
+			throw new IllegalArgumentException("missing UTM convergence angle");
+		}
+		return angle.get(Angle.degrees);
+	}
+}
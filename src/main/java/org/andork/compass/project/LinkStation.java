@@ -6,11 +6,21 @@ import org.andork.compass.NEVLocation;
 
 public class LinkStation {
 	public final String name;
+	/**
+	 * The id of the station in the {@link org.andork.compass.StationDictionary}
+	 * used by the parser, or -1 if unknown
+	 */
+	public final int id;
 	public final NEVLocation location;
 
 	public LinkStation(String name, NEVLocation location) {
+		this(name, -1, location);
+	}
+
+	public LinkStation(String name, int id, NEVLocation location) {
 		super();
 		this.name = Objects.requireNonNull(name);
+		this.id = id;
 		this.location = location;
 	}
 }
@@ -20,6 +20,16 @@ public class CompassShot {
 	 * The name of the to station
 	 */
 	private String toStationName;
+	/**
+	 * The id of the from station in the {@link org.andork.compass.StationDictionary}
+	 * used by the parser, or -1 if unknown
+	 */
+	private int fromStationId = -1;
+	/**
+	 * The id of the to station in the {@link org.andork.compass.StationDictionary}
+	 * used by the parser, or -1 if unknown
+	 */
+	private int toStationId = -1;
 	/**
 	 * Distance between the two stations, in feet
 	 */
@@ -83,6 +93,10 @@ public class CompassShot {
 	 * If <code>true</code>, this shot should not be adjusted when closing loops.
 	 */
 	private boolean doNotAdjust = false;
+	/**
+	 * The header of the trip this shot belongs to
+	 */
+	private CompassTripHeader tripHeader;
 
 	public UnitizedDouble<Angle> getBacksightAzimuth() {
 		return backsightAzimuth;
@@ -104,6 +118,10 @@ public class CompassShot {
 		return fromStationName;
 	}
 
+	public int getFromStationId() {
+		return fromStationId;
+	}
+
 	public UnitizedDouble<Angle> getFrontsightAzimuth() {
 		return frontsightAzimuth;
 	}
@@ -128,6 +146,14 @@ public class CompassShot {
 		return toStationName;
 	}
 
+	public int getToStationId() {
+		return toStationId;
+	}
+
+	public CompassTripHeader getTripHeader() {
+		return tripHeader;
+	}
+
 	public UnitizedDouble<Length> getUp() {
 		return up;
 	}
@@ -184,6 +210,10 @@ public class CompassShot {
 		this.fromStationName = fromStationName;
 	}
 
+	public void setFromStationId(int fromStationId) {
+		this.fromStationId = fromStationId;
+	}
+
 	public void setFrontsightAzimuth(UnitizedDouble<Angle> frontsightAzimuth) {
 		this.frontsightAzimuth = frontsightAzimuth;
 	}
@@ -208,6 +238,14 @@ public class CompassShot {
 		this.toStationName = toStationName;
 	}
 
+	public void setToStationId(int toStationId) {
+		this.toStationId = toStationId;
+	}
+
+	public void setTripHeader(CompassTripHeader tripHeader) {
+		this.tripHeader = tripHeader;
+	}
+
 	public void setUp(UnitizedDouble<Length> up) {
 		this.up = up;
 	}
@@ -217,37 +255,37 @@ public class CompassShot {
 		StringBuilder builder = new StringBuilder();
 		builder
 			.append("CompassShot [fromStationName=")
-			.append(fromStationName)
+			.append(getFromStationName())
 			.append(", toStationName=")
-			.append(toStationName)
+			.append(getToStationName())
 			.append(", length=")
-			.append(length)
+			.append(getLength())
 			.append(", frontsightAzimuth=")
-			.append(frontsightAzimuth)
+			.append(getFrontsightAzimuth())
 			.append(", frontsightInclination=")
-			.append(frontsightInclination)
+			.append(getFrontsightInclination())
 			.append(", backsightAzimuth=")
-			.append(backsightAzimuth)
+			.append(getBacksightAzimuth())
 			.append(", backsightInclination=")
-			.append(backsightInclination)
+			.append(getBacksightInclination())
 			.append(", left=")
-			.append(left)
+			.append(getLeft())
 			.append(", right=")
-			.append(right)
+			.append(getRight())
 			.append(", up=")
-			.append(up)
+			.append(getUp())
 			.append(", down=")
-			.append(down)
+			.append(getDown())
 			.append(", comment=")
-			.append(comment)
+			.append(getComment())
 			.append(", excludedFromLength=")
-			.append(excludedFromLength)
+			.append(isExcludedFromLength())
 			.append(", excludedFromPlotting=")
-			.append(excludedFromPlotting)
+			.append(isExcludedFromPlotting())
 			.append(", excludedFromAllProcessing=")
-			.append(excludedFromAllProcessing)
+			.append(isExcludedFromAllProcessing())
 			.append(", doNotAdjust=")
-			.append(doNotAdjust)
+			.append(isDoNotAdjust())
 			.append("]");
 		return builder.toString();
 	}
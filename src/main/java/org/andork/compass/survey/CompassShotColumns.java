@@ -0,0 +1,622 @@
+package org.andork.compass.survey;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import org.andork.compass.StationDictionary;
+import org.andork.compass.UnitArrays;
+import org.andork.unit.Angle;
+import org.andork.unit.Length;
+import org.andork.unit.UnitizedDouble;
+
+/**
+ * Stores shots in primitive columns instead of one {@link CompassShot} per
+ * shot, for holding very large amounts of survey data in memory.<br>
+ * <br>
+ * Measurements are stored in feet and degrees (the units Compass itself
+ * stores), with <code>NaN</code> for missing measurements/passage. Station
+ * names are interned in a {@link StationDictionary} and stored as ids, and the
+ * flags of each shot are packed into a single byte.<br>
+ * <br>
+ * This is a {@link CompassSurveyVisitor}, so it can be passed straight to
+ * {@link CompassSurveyParser#parseCompassSurveyData(java.nio.file.Path, CompassSurveyVisitor)}.
+ * {@link #view(int)} and {@link #asList()} provide {@link CompassShot}s backed by
+ * the columns for code that works with the object model.
+ */
+public class CompassShotColumns implements CompassSurveyVisitor {
+	public static final int LENGTH = 0;
+	public static final int FRONTSIGHT_AZIMUTH = 1;
+	public static final int FRONTSIGHT_INCLINATION = 2;
+	public static final int BACKSIGHT_AZIMUTH = 3;
+	public static final int BACKSIGHT_INCLINATION = 4;
+	public static final int LEFT = 5;
+	public static final int RIGHT = 6;
+	public static final int UP = 7;
+	public static final int DOWN = 8;
+	public static final int COLUMN_COUNT = 9;
+
+	public static final byte EXCLUDED_FROM_LENGTH = 1;
+	public static final byte EXCLUDED_FROM_PLOTTING = 2;
+	public static final byte EXCLUDED_FROM_ALL_PROCESSING = 4;
+	public static final byte DO_NOT_ADJUST = 8;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private int size = 0;
+	private final double[][] columns = new double[COLUMN_COUNT][INITIAL_CAPACITY];
+	private int[] fromStationIds = new int[INITIAL_CAPACITY];
+	private int[] toStationIds = new int[INITIAL_CAPACITY];
+	private byte[] flags = new byte[INITIAL_CAPACITY];
+	/**
+	 * Most shots have no comment, so this stays <code>null</code> until one
+	 * does.
+	 */
+	private String[] comments = null;
+
+	private final StationDictionary stationDictionary;
+
+	private final List<CompassTripHeader> tripHeaders = new ArrayList<>();
+	private int[] tripStarts = new int[16];
+
+	public CompassShotColumns() {
+		this(new StationDictionary());
+	}
+
+	/**
+	 * @param stationDictionary the dictionary to intern station names in. If it
+	 *                          is the one the parser uses, the station ids of the
+	 *                          stored shots are the same as the parsed ones.
+	 */
+	public CompassShotColumns(StationDictionary stationDictionary) {
+		this.stationDictionary = Objects.requireNonNull(stationDictionary);
+	}
+
+	/**
+	 * @return the number of shots stored.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of trips stored.
+	 */
+	public int tripCount() {
+		return tripHeaders.size();
+	}
+
+	public CompassTripHeader getTripHeader(int trip) {
+		return tripHeaders.get(trip);
+	}
+
+	/**
+	 * @return the index of the first shot of the given trip.
+	 */
+	public int getTripStart(int trip) {
+		return tripStarts[trip];
+	}
+
+	/**
+	 * @return the index after the last shot of the given trip.
+	 */
+	public int getTripEnd(int trip) {
+		return trip + 1 < tripHeaders.size() ? tripStarts[trip + 1] : size;
+	}
+
+	/**
+	 * @return the index of the trip the given shot belongs to.
+	 */
+	public int tripOf(int shot) {
+		checkIndex(shot);
+		int trip = Arrays.binarySearch(tripStarts, 0, tripHeaders.size(), shot);
+		if (trip < 0) {
+			return -trip - 2;
+		}
+		// skip past trips with no shots
+		while (trip + 1 < tripHeaders.size() && tripStarts[trip + 1] == shot) {
+			trip++;
+		}
+		return trip;
+	}
+
+	public StationDictionary getStationDictionary() {
+		return stationDictionary;
+	}
+
+	public String getStationName(int stationId) {
+		return stationDictionary.getName(stationId);
+	}
+
+	/**
+	 * @param column
+	 *            one of {@link #LENGTH}, {@link #FRONTSIGHT_AZIMUTH}, etc.
+	 * @return the measurement in feet or degrees, or <code>NaN</code> if it is
+	 *         missing.
+	 */
+	public double get(int column, int shot) {
+		checkIndex(shot);
+		return columns[column][shot];
+	}
+
+	public void set(int column, int shot, double value) {
+		checkIndex(shot);
+		columns[column][shot] = value;
+	}
+
+	/**
+	 * Copies a range of a column into an array, for bulk processing.
+	 */
+	public void getColumn(int column, int start, double[] dest, int destPos, int length) {
+		if (start < 0 || length < 0 || start + length > size) {
+			throw new IndexOutOfBoundsException("start: " + start + ", length: " + length + ", size: " + size);
+		}
+		System.arraycopy(columns[column], start, dest, destPos, length);
+	}
+
+	/**
+	 * Copies a range of a column into an array like
+	 * {@link #getColumn(int, int, double[], int, int)}, converting lengths to
+	 * meters and angles to radians.
+	 */
+	public void getColumnInMetersOrRadians(int column, int start, double[] dest, int destPos, int length) {
+		getColumn(column, start, dest, destPos, length);
+		if (isLengthColumn(column)) {
+			UnitArrays.feetToMeters(dest, destPos, dest, destPos, length);
+		}
+		else {
+			UnitArrays.degreesToRadians(dest, destPos, dest, destPos, length);
+		}
+	}
+
+	/**
+	 * @return whether the given column holds lengths (as opposed to angles).
+	 */
+	public static boolean isLengthColumn(int column) {
+		return column == LENGTH || column >= LEFT;
+	}
+
+	public int getFromStationId(int shot) {
+		checkIndex(shot);
+		return fromStationIds[shot];
+	}
+
+	public int getToStationId(int shot) {
+		checkIndex(shot);
+		return toStationIds[shot];
+	}
+
+	/**
+	 * @return the bitwise or of the {@link #EXCLUDED_FROM_LENGTH},
+	 *         {@link #EXCLUDED_FROM_PLOTTING}, {@link #EXCLUDED_FROM_ALL_PROCESSING},
+	 *         and {@link #DO_NOT_ADJUST} flags of the given shot.
+	 */
+	public byte getFlags(int shot) {
+		checkIndex(shot);
+		return flags[shot];
+	}
+
+	public boolean hasFlag(int shot, byte flag) {
+		return (getFlags(shot) & flag) != 0;
+	}
+
+	public String getComment(int shot) {
+		checkIndex(shot);
+		return comments == null ? null : comments[shot];
+	}
+
+	@Override
+	public void tripHeader(CompassTripHeader header) {
+		int trip = tripHeaders.size();
+		if (trip == tripStarts.length) {
+			tripStarts = Arrays.copyOf(tripStarts, Math.max(16, trip * 2));
+		}
+		tripStarts[trip] = size;
+		tripHeaders.add(header);
+	}
+
+	@Override
+	public void shot(CompassShot shot) {
+		add(shot);
+	}
+
+	@Override
+	public void endTrip() {
+	}
+
+	/**
+	 * Adds all shots of the given trip.
+	 */
+	public void addTrip(CompassTrip trip) {
+		tripHeader(trip.getHeader());
+		for (CompassShot shot : trip.getShots()) {
+			add(shot);
+		}
+	}
+
+	/**
+	 * Adds a shot to the current trip (the one most recently passed to
+	 * {@link #tripHeader(CompassTripHeader)}).
+	 *
+	 * @return the index of the shot.
+	 */
+	public int add(CompassShot shot) {
+		if (tripHeaders.isEmpty()) {
+			throw new IllegalStateException("tripHeader must be called before adding shots");
+		}
+		if (size == flags.length) {
+			grow();
+		}
+		int i = size++;
+		columns[LENGTH][i] = feet(shot.getLength());
+		columns[FRONTSIGHT_AZIMUTH][i] = degrees(shot.getFrontsightAzimuth());
+		columns[FRONTSIGHT_INCLINATION][i] = degrees(shot.getFrontsightInclination());
+		columns[BACKSIGHT_AZIMUTH][i] = degrees(shot.getBacksightAzimuth());
+		columns[BACKSIGHT_INCLINATION][i] = degrees(shot.getBacksightInclination());
+		columns[LEFT][i] = feet(shot.getLeft());
+		columns[RIGHT][i] = feet(shot.getRight());
+		columns[UP][i] = feet(shot.getUp());
+		columns[DOWN][i] = feet(shot.getDown());
+		fromStationIds[i] = internStation(shot.getFromStationName());
+		toStationIds[i] = internStation(shot.getToStationName());
+		byte shotFlags = 0;
+		if (shot.isExcludedFromLength()) {
+			shotFlags |= EXCLUDED_FROM_LENGTH;
+		}
+		if (shot.isExcludedFromPlotting()) {
+			shotFlags |= EXCLUDED_FROM_PLOTTING;
+		}
+		if (shot.isExcludedFromAllProcessing()) {
+			shotFlags |= EXCLUDED_FROM_ALL_PROCESSING;
+		}
+		if (shot.isDoNotAdjust()) {
+			shotFlags |= DO_NOT_ADJUST;
+		}
+		flags[i] = shotFlags;
+		setComment(i, shot.getComment());
+		return i;
+	}
+
+	/**
+	 * Shrinks the columns to exactly fit the shots stored, once no more will be
+	 * added.
+	 */
+	public void trimToSize() {
+		resize(size);
+		tripStarts = Arrays.copyOf(tripStarts, tripHeaders.size());
+	}
+
+	/**
+	 * @return a {@link CompassShot} backed by the given shot. Setting properties
+	 *         on it modifies the stored shot.
+	 */
+	public View view(int shot) {
+		View view = new View();
+		view.moveTo(shot);
+		return view;
+	}
+
+	/**
+	 * @return an unmodifiable list of {@link #view(int) views} of all shots.
+	 */
+	public List<CompassShot> asList() {
+		return new AbstractList<CompassShot>() {
+			@Override
+			public CompassShot get(int index) {
+				return view(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * A {@link CompassShot} that reads and writes one of the shots stored in the
+	 * enclosing {@link CompassShotColumns}. It can be {@link #moveTo(int) moved}
+	 * to iterate over all shots without allocating one per shot.
+	 */
+	public class View extends CompassShot {
+		private int index;
+
+		private View() {
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Points this view at a different shot.
+		 */
+		public View moveTo(int shot) {
+			checkIndex(shot);
+			index = shot;
+			return this;
+		}
+
+		private UnitizedDouble<Length> getFeet(int column) {
+			double value = columns[column][index];
+			return Double.isNaN(value) ? null : Length.feet(value);
+		}
+
+		private UnitizedDouble<Angle> getDegrees(int column) {
+			double value = columns[column][index];
+			return Double.isNaN(value) ? null : Angle.degrees(value);
+		}
+
+		private void setFlag(byte flag, boolean value) {
+			if (value) {
+				flags[index] |= flag;
+			}
+			else {
+				flags[index] &= ~flag;
+			}
+		}
+
+		@Override
+		public UnitizedDouble<Angle> getBacksightAzimuth() {
+			return getDegrees(BACKSIGHT_AZIMUTH);
+		}
+
+		@Override
+		public UnitizedDouble<Angle> getBacksightInclination() {
+			return getDegrees(BACKSIGHT_INCLINATION);
+		}
+
+		@Override
+		public String getComment() {
+			return CompassShotColumns.this.getComment(index);
+		}
+
+		@Override
+		public UnitizedDouble<Length> getDown() {
+			return getFeet(DOWN);
+		}
+
+		@Override
+		public String getFromStationName() {
+			return stationName(fromStationIds[index]);
+		}
+
+		@Override
+		public int getFromStationId() {
+			return fromStationIds[index];
+		}
+
+		@Override
+		public UnitizedDouble<Angle> getFrontsightAzimuth() {
+			return getDegrees(FRONTSIGHT_AZIMUTH);
+		}
+
+		@Override
+		public UnitizedDouble<Angle> getFrontsightInclination() {
+			return getDegrees(FRONTSIGHT_INCLINATION);
+		}
+
+		@Override
+		public UnitizedDouble<Length> getLeft() {
+			return getFeet(LEFT);
+		}
+
+		@Override
+		public UnitizedDouble<Length> getLength() {
+			return getFeet(LENGTH);
+		}
+
+		@Override
+		public UnitizedDouble<Length> getRight() {
+			return getFeet(RIGHT);
+		}
+
+		@Override
+		public String getToStationName() {
+			return stationName(toStationIds[index]);
+		}
+
+		@Override
+		public int getToStationId() {
+			return toStationIds[index];
+		}
+
+		@Override
+		public CompassTripHeader getTripHeader() {
+			return tripHeaders.get(tripOf(index));
+		}
+
+		@Override
+		public UnitizedDouble<Length> getUp() {
+			return getFeet(UP);
+		}
+
+		@Override
+		public boolean isDoNotAdjust() {
+			return (flags[index] & DO_NOT_ADJUST) != 0;
+		}
+
+		@Override
+		public boolean isExcludedFromAllProcessing() {
+			return (flags[index] & EXCLUDED_FROM_ALL_PROCESSING) != 0;
+		}
+
+		@Override
+		public boolean isExcludedFromLength() {
+			return (flags[index] & EXCLUDED_FROM_LENGTH) != 0;
+		}
+
+		@Override
+		public boolean isExcludedFromPlotting() {
+			return (flags[index] & EXCLUDED_FROM_PLOTTING) != 0;
+		}
+
+		@Override
+		public void setBacksightAzimuth(UnitizedDouble<Angle> backsightAzimuth) {
+			columns[BACKSIGHT_AZIMUTH][index] = degrees(backsightAzimuth);
+		}
+
+		@Override
+		public void setBacksightInclination(UnitizedDouble<Angle> backsightInclination) {
+			columns[BACKSIGHT_INCLINATION][index] = degrees(backsightInclination);
+		}
+
+		@Override
+		public void setComment(String comment) {
+			CompassShotColumns.this.setComment(index, comment);
+		}
+
+		@Override
+		public void setDoNotAdjust(boolean doNotAdjust) {
+			setFlag(DO_NOT_ADJUST, doNotAdjust);
+		}
+
+		@Override
+		public void setDown(UnitizedDouble<Length> down) {
+			columns[DOWN][index] = feet(down);
+		}
+
+		@Override
+		public void setExcludedFromAllProcessing(boolean excludeFromAllProcessing) {
+			setFlag(EXCLUDED_FROM_ALL_PROCESSING, excludeFromAllProcessing);
+		}
+
+		@Override
+		public void setExcludedFromLength(boolean excludeFromLength) {
+			setFlag(EXCLUDED_FROM_LENGTH, excludeFromLength);
+		}
+
+		@Override
+		public void setExcludedFromPlotting(boolean excludeFromPlotting) {
+			setFlag(EXCLUDED_FROM_PLOTTING, excludeFromPlotting);
+		}
+
+		@Override
+		public void setFromStationName(String fromStationName) {
+			fromStationIds[index] = internStation(fromStationName);
+		}
+
+		/**
+		 * Sets the from station by its id in this store's
+		 * {@link CompassShotColumns#getStationDictionary() dictionary}, or -1 for no
+		 * station. The name follows from the id.
+		 *
+		 * @throws IndexOutOfBoundsException if the id isn't in the dictionary.
+		 */
+		@Override
+		public void setFromStationId(int fromStationId) {
+			if (fromStationId >= 0) {
+				stationDictionary.getName(fromStationId);
+			}
+			fromStationIds[index] = Math.max(-1, fromStationId);
+		}
+
+		@Override
+		public void setFrontsightAzimuth(UnitizedDouble<Angle> frontsightAzimuth) {
+			columns[FRONTSIGHT_AZIMUTH][index] = degrees(frontsightAzimuth);
+		}
+
+		@Override
+		public void setFrontsightInclination(UnitizedDouble<Angle> frontsightInclination) {
+			columns[FRONTSIGHT_INCLINATION][index] = degrees(frontsightInclination);
+		}
+
+		@Override
+		public void setLeft(UnitizedDouble<Length> left) {
+			columns[LEFT][index] = feet(left);
+		}
+
+		@Override
+		public void setLength(UnitizedDouble<Length> length) {
+			columns[LENGTH][index] = feet(length);
+		}
+
+		@Override
+		public void setRight(UnitizedDouble<Length> right) {
+			columns[RIGHT][index] = feet(right);
+		}
+
+		@Override
+		public void setToStationName(String toStationName) {
+			toStationIds[index] = internStation(toStationName);
+		}
+
+		/**
+		 * Sets the to station by its id in this store's
+		 * {@link CompassShotColumns#getStationDictionary() dictionary}, or -1 for no
+		 * station. The name follows from the id.
+		 *
+		 * @throws IndexOutOfBoundsException if the id isn't in the dictionary.
+		 */
+		@Override
+		public void setToStationId(int toStationId) {
+			if (toStationId >= 0) {
+				stationDictionary.getName(toStationId);
+			}
+			toStationIds[index] = Math.max(-1, toStationId);
+		}
+
+		/**
+		 * The trip a stored shot belongs to is determined by its position, so it
+		 * can't be changed.
+		 */
+		@Override
+		public void setTripHeader(CompassTripHeader tripHeader) {
+			throw new UnsupportedOperationException("the trip of a stored shot can't be changed");
+		}
+
+		@Override
+		public void setUp(UnitizedDouble<Length> up) {
+			columns[UP][index] = feet(up);
+		}
+	}
+
+	private void checkIndex(int shot) {
+		if (shot < 0 || shot >= size) {
+			throw new IndexOutOfBoundsException("shot: " + shot + ", size: " + size);
+		}
+	}
+
+	private static double feet(UnitizedDouble<Length> value) {
+		return value == null ? Double.NaN : value.get(Length.feet);
+	}
+
+	private static double degrees(UnitizedDouble<Angle> value) {
+		return value == null ? Double.NaN : value.get(Angle.degrees);
+	}
+
+	private int internStation(String name) {
+		return name == null ? -1 : stationDictionary.intern(name);
+	}
+
+	private String stationName(int stationId) {
+		return stationId < 0 ? null : stationDictionary.getName(stationId);
+	}
+
+	private void setComment(int shot, String comment) {
+		if (comment != null && comments == null) {
+			comments = new String[flags.length];
+		}
+		if (comments != null) {
+			comments[shot] = comment;
+		}
+	}
+
+	private void grow() {
+		resize(Math.max(INITIAL_CAPACITY, flags.length + (flags.length >> 1)));
+	}
+
+	private void resize(int capacity) {
+		for (int c = 0; c < COLUMN_COUNT; c++) {
+			columns[c] = Arrays.copyOf(columns[c], capacity);
+		}
+		fromStationIds = Arrays.copyOf(fromStationIds, capacity);
+		toStationIds = Arrays.copyOf(toStationIds, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		if (comments != null) {
+			comments = Arrays.copyOf(comments, capacity);
+		}
+	}
+}
@@ -3,27 +3,45 @@ package org.andork.compass.survey;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.math.BigDecimal;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.net.URL;
-import java.nio.file.Files;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.andork.compass.AzimuthUnit;
+import org.andork.compass.CollectingErrorSink;
+import org.andork.compass.CompassFiles;
 import org.andork.compass.CompassParseError;
+import org.andork.compass.CompassParseError.ErrorCode;
 import org.andork.compass.CompassParseError.Severity;
+import org.andork.compass.CompassParseException;
+import org.andork.compass.DecimalScanner;
+import org.andork.compass.ErrorSink;
+import org.andork.compass.FailFastErrorSink;
 import org.andork.compass.InclinationUnit;
 import org.andork.compass.LengthUnit;
 import org.andork.compass.LrudAssociation;
 import org.andork.compass.LrudItem;
+import org.andork.compass.StationDictionary;
 import org.andork.segment.Segment;
 import org.andork.segment.SegmentMatcher;
 import org.andork.unit.Angle;
@@ -31,20 +49,16 @@ import org.andork.unit.Length;
 import org.andork.unit.UnitizedDouble;
 
 public class CompassSurveyParser {
-	private static final Pattern EOL = Pattern.compile("\r\n|\r|\n");
+	static final Pattern EOL = Pattern.compile("\r\n|\r|\n");
+	private static final Pattern FORM_FEED = Pattern.compile("\f");
 	private static final Pattern COLUMN_HEADER =
 		Pattern.compile("^\\s*FROM\\s+TO[^\r\n]+(\r\n|\r|\n){2}", Pattern.MULTILINE | Pattern.CASE_INSENSITIVE);
-	private static final Pattern NON_WHITESPACE = Pattern.compile("\\S+");
 	private static final Pattern HEADER_FIELDS =
 		Pattern
 			.compile(
 				"SURVEY (NAME|DATE|TEAM):|COMMENT:|DECLINATION:|FORMAT:|CORRECTIONS2?:|FROM",
 				Pattern.CASE_INSENSITIVE);
 
-	private static final BigDecimal POS_90 = new BigDecimal(90);
-
-	private static final BigDecimal NEG_90 = new BigDecimal(-90);
-
 	public static void main(String[] args) {
 		if (args.length == 0) {
 			System.out
@@ -55,8 +69,7 @@ public class CompassSurveyParser {
 		final CompassSurveyParser parser = new CompassSurveyParser();
 		try {
 			for (String file : args) {
-				final byte[] bytes = Files.readAllBytes(Paths.get(file));
-				final Segment segment = new Segment(new String(bytes), file, 0, 0);
+				final Segment segment = new Segment(CompassFiles.readString(Paths.get(file)), file, 0, 0);
 				parser.parseCompassSurveyData(segment);
 			}
 		}
@@ -81,22 +94,77 @@ public class CompassSurveyParser {
 		return new Segment[] { segment.substring(0, headerEnd).trim(), segment.substring(headerEnd).trim() };
 	}
 
-	private final List<CompassParseError> errors = new ArrayList<>();
+	private ErrorSink errorSink = new CollectingErrorSink();
+	private final DecimalScanner decimalScanner = new DecimalScanner();
+	/**
+	 * Scans the tokens of shot lines and trip header fields, reused for each one
+	 */
+	private final TokenCursor tokens = new TokenCursor();
+	private StationDictionary stationDictionary = new StationDictionary();
+	/**
+	 * The shot line or trip header being parsed, to show errors in context
+	 */
+	private Segment context;
 
 	public CompassSurveyParser() {
 
 	}
 
-	private void addError(String message, Segment segment) {
-		errors.add(new CompassParseError(Severity.ERROR, message, segment));
+	/**
+	 * @return the dictionary station names are interned in.
+	 */
+	public StationDictionary getStationDictionary() {
+		return stationDictionary;
+	}
+
+	/**
+	 * Sets the dictionary station names are interned in. Share one dictionary
+	 * between parsers to get the same station ids across files.
+	 */
+	public void setStationDictionary(StationDictionary stationDictionary) {
+		this.stationDictionary = Objects.requireNonNull(stationDictionary);
+	}
+
+	/**
+	 * @return the sink errors and warnings are passed to.
+	 */
+	public ErrorSink getErrorSink() {
+		return errorSink;
+	}
+
+	/**
+	 * Sets the sink errors and warnings are passed to. The default is a
+	 * {@link CollectingErrorSink} with no maximum.
+	 */
+	public void setErrorSink(ErrorSink errorSink) {
+		this.errorSink = Objects.requireNonNull(errorSink);
+	}
+
+	/**
+	 * Forgets the errors and the last line from previous parses and restores the
+	 * default error sink, so that this parser can be reused for unrelated input.
+	 */
+	public void reset() {
+		errorSink = new CollectingErrorSink();
+		tokens.clear();
+	}
+
+	private void addError(ErrorCode code, Segment segment, Object... args) {
+		errorSink.accept(new CompassParseError(Severity.ERROR, code, segment, context, args));
 	}
 
-	private void addWarning(String message, Segment segment) {
-		errors.add(new CompassParseError(Severity.WARNING, message, segment));
+	private void addWarning(ErrorCode code, Segment segment, Object... args) {
+		errorSink.accept(new CompassParseError(Severity.WARNING, code, segment, context, args));
 	}
 
+	/**
+	 * @return the errors and warnings collected so far if the error sink is a
+	 *         {@link CollectingErrorSink} (the default), otherwise an empty list.
+	 */
 	public List<CompassParseError> getErrors() {
-		return Collections.unmodifiableList(errors);
+		return errorSink instanceof CollectingErrorSink
+			? Collections.unmodifiableList(((CollectingErrorSink) errorSink).getErrors())
+			: Collections.emptyList();
 	}
 
 	void getFields(SegmentMatcher matcher, BiConsumer<String, Segment> iteratee) {
@@ -114,15 +182,15 @@ public class CompassSurveyParser {
 		iteratee.accept(lastMatch, matcher.segment().substring(lastEnd).trim());
 	}
 
-	UnitizedDouble<Angle> parseAzimuth(SegmentMatcher matcher, String fieldName) {
-		BigDecimal measurement = parseMeasurement(matcher, fieldName);
-		if (measurement == null) {
+	UnitizedDouble<Angle> parseAzimuth(TokenCursor cursor, String fieldName) {
+		double measurement = parseMeasurement(cursor, fieldName);
+		if (Double.isNaN(measurement)) {
 			return null;
 		}
-		if (measurement.compareTo(BigDecimal.ZERO) < 0 || measurement.compareTo(new BigDecimal(360)) >= 0) {
-			addError(fieldName + " must be >= 0 and < 360", matcher.group());
+		if (measurement < 0 || measurement >= 360) {
+			addError(ErrorCode.NOT_AN_AZIMUTH, cursor.group(), fieldName);
 		}
-		return Angle.degrees(measurement.doubleValue());
+		return Angle.degrees(measurement);
 	}
 
 	AzimuthUnit parseAzimuthUnit(Segment unit) {
@@ -134,7 +202,7 @@ public class CompassSurveyParser {
 		case 'R':
 			return AzimuthUnit.GRADS;
 		default:
-			addError("unrecognized azimuth unit: " + unit.charAt(0), unit);
+			addError(ErrorCode.UNRECOGNIZED_AZIMUTH_UNIT, unit, unit.charAt(0));
 			return AzimuthUnit.DEGREES;
 		}
 	}
@@ -143,37 +211,328 @@ public class CompassSurveyParser {
 	 * Parses the file at the given {@code path}.
 	 */
 	public List<CompassTrip> parseCompassSurveyData(InputStream in, Object source) throws IOException {
-		Segment data;
-		try (@SuppressWarnings("resource")
-		Scanner s = new Scanner(in, "ASCII").useDelimiter("\\A")) {
-			String result = s.hasNext() ? s.next() : "";
-			data = new Segment(result, source, 0, 0);
-		}
-		return parseCompassSurveyData(data);
+		CompassTripCollector collector = new CompassTripCollector();
+		parseCompassSurveyData(CompassFiles.newReader(in), source, collector);
+		return collector.getTrips();
 	}
 
 	/**
 	 * Parses the file at the given {@code path}.
 	 */
 	public List<CompassTrip> parseCompassSurveyData(Path path) throws IOException {
-		byte[] bytes = Files.readAllBytes(path);
-		return parseCompassSurveyData(new Segment(new String(bytes), path, 0, 0));
+		CompassTripCollector collector = new CompassTripCollector();
+		parseCompassSurveyData(path, collector);
+		return collector.getTrips();
 	}
 
 	/**
 	 * Parses the data in the given {@link Segment}.
 	 */
 	List<CompassTrip> parseCompassSurveyData(Segment segment) {
+		CompassTripCollector collector = new CompassTripCollector();
+		for (Segment text : segment.split(FORM_FEED)) {
+			parseTrip(text.trim(), collector);
+		}
+		return collector.getTrips();
+	}
+
+	/**
+	 * Parses the file at the given {@code path}, parsing trips concurrently on the
+	 * given {@code executor} (for instance
+	 * {@link java.util.concurrent.ForkJoinPool#commonPool()}). The trips and
+	 * errors are in the same order the sequential parser would produce them.
+	 */
+	public List<CompassTrip> parseCompassSurveyData(Path path, Executor executor) throws IOException {
+		return parseCompassSurveyData(new Segment(CompassFiles.readString(path), path, 0, 0), executor);
+	}
+
+	/**
+	 * Parses the given {@code data}, parsing trips concurrently on the given
+	 * {@code executor} (for instance
+	 * {@link java.util.concurrent.ForkJoinPool#commonPool()}). The trips and
+	 * errors are in the same order the sequential parser would produce them.
+	 *
+	 * @param data   the data to parse
+	 * @param source If any errors or warnings are generated they will reference
+	 *               this object. For instance you can pass a {@link File},
+	 *               {@link Path}, or {@link URL}.
+	 */
+	public List<CompassTrip> parseCompassSurveyData(String data, Object source, Executor executor) {
+		return parseCompassSurveyData(new Segment(data, source, 0, 0), executor);
+	}
+
+	/**
+	 * How many trips {@link #parseCompassSurveyData(Segment, Executor)} parses
+	 * ahead of the first one that isn't done, which bounds how many trips' errors
+	 * and results wait to be passed on in file order.
+	 */
+	public static final int MAX_TRIPS_IN_FLIGHT = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+
+	/**
+	 * Parses the data in the given {@link Segment}, parsing each trip with its own
+	 * {@link CompassSurveyParser} and {@link StationDictionary} on the given
+	 * {@code executor}, then merging the results in file order, so that station
+	 * ids are the same as the sequential parser's.<br>
+	 * <br>
+	 * Errors are passed to our {@link ErrorSink} on the calling thread, in file
+	 * order, as each trip is done. At most {@link #MAX_TRIPS_IN_FLIGHT} trips are
+	 * parsed ahead, and with a {@link CollectingErrorSink} trips only keep as many
+	 * errors as it still has room for, so memory stays bounded. If our sink
+	 * throws (for instance a {@link org.andork.compass.FailFastErrorSink}), the
+	 * trips that aren't done are cancelled.
+	 */
+	List<CompassTrip> parseCompassSurveyData(Segment segment, Executor executor) {
+		Segment[] texts = segment.split(FORM_FEED);
+		CompassSurveyParser[] parsers = new CompassSurveyParser[texts.length];
+		CompassTripCollector[] collectors = new CompassTripCollector[texts.length];
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[texts.length];
+		// how many more errors our sink keeps, shared by all trips so that none
+		// of them keeps errors that would be dropped anyway
+		AtomicInteger room = new AtomicInteger(room(errorSink));
+		boolean failFast = errorSink instanceof FailFastErrorSink;
+
 		List<CompassTrip> trips = new ArrayList<>();
-		for (Segment text : segment.split(Pattern.compile("\f"))) {
-			CompassTrip trip = parseTrip(text.trim());
-			if (trip != null) {
-				trips.add(trip);
+		int submitted = 0;
+		try {
+			for (int i = 0; i < texts.length; i++) {
+				while (submitted < texts.length && submitted < i + MAX_TRIPS_IN_FLIGHT) {
+					futures[submitted] = parseTripAsync(submitted, texts, parsers, collectors, room, failFast, executor);
+					submitted++;
+				}
+				join(futures[i]);
+				futures[i] = null;
+
+				TripErrorSink tripErrors = (TripErrorSink) parsers[i].errorSink;
+				if (errorSink instanceof CollectingErrorSink) {
+					((CollectingErrorSink) errorSink).addAll(tripErrors);
+					room.set(room(errorSink));
+				}
+				else {
+					for (CompassParseError error : tripErrors.getErrors()) {
+						errorSink.accept(error);
+					}
+				}
+				List<CompassTrip> tripsOfText = collectors[i].getTrips();
+				mergeStationIds(tripsOfText, parsers[i].stationDictionary, stationDictionary);
+				trips.addAll(tripsOfText);
+				parsers[i] = null;
+				collectors[i] = null;
+			}
+		}
+		finally {
+			for (int i = 0; i < submitted; i++) {
+				if (futures[i] != null) {
+					futures[i].cancel(false);
+				}
 			}
 		}
 		return trips;
 	}
 
+	private static CompletableFuture<?> parseTripAsync(
+		int i,
+		Segment[] texts,
+		CompassSurveyParser[] parsers,
+		CompassTripCollector[] collectors,
+		AtomicInteger room,
+		boolean failFast,
+		Executor executor) {
+		Segment text = texts[i];
+		CompassSurveyParser parser = parsers[i] = new CompassSurveyParser();
+		// each trip gets its own dictionary, merged into ours in file order, so
+		// that ids don't depend on which trip was parsed first
+		parser.setStationDictionary(new StationDictionary());
+		parser.setErrorSink(new TripErrorSink(room, failFast));
+		CompassTripCollector collector = collectors[i] = new CompassTripCollector();
+		return CompletableFuture.runAsync(() -> {
+			try {
+				parser.parseTrip(text.trim(), collector);
+			}
+			catch (CompassParseException e) {
+				// the trip stopped at its first error, which its sink kept to be
+				// passed on in file order
+			}
+		}, executor);
+	}
+
+	private static void join(CompletableFuture<?> future) {
+		try {
+			future.join();
+		}
+		catch (CompletionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			if (ex.getCause() instanceof Error) {
+				throw (Error) ex.getCause();
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * @return how many more errors the given sink keeps.
+	 */
+	private static int room(ErrorSink errorSink) {
+		if (errorSink instanceof CollectingErrorSink) {
+			CollectingErrorSink collecting = (CollectingErrorSink) errorSink;
+			return Math.max(0, collecting.getMaxErrors() - collecting.getErrors().size());
+		}
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Holds the errors of one trip parsed concurrently until they can be passed
+	 * on in file order. Keeps no more errors than the sink they will be passed to
+	 * still has room for, and counts the rest as dropped. For a
+	 * {@link FailFastErrorSink}, stops the trip at its first error.
+	 */
+	private static class TripErrorSink extends CollectingErrorSink {
+		private final AtomicInteger room;
+		private final boolean failFast;
+
+		TripErrorSink(AtomicInteger room, boolean failFast) {
+			this.room = room;
+			this.failFast = failFast;
+		}
+
+		@Override
+		public void accept(CompassParseError error) {
+			// room only shrinks, so this keeps at least as many errors as will fit
+			if (getErrors().size() < room.get()) {
+				super.accept(error);
+			}
+			else {
+				drop(error);
+			}
+			if (failFast && error.getSeverity() != Severity.WARNING) {
+				throw new CompassParseException(error);
+			}
+		}
+	}
+
+	/**
+	 * Interns all names of {@code from} in {@code into} and replaces the station
+	 * ids (and names, with the instances from {@code into}) of the shots of the
+	 * given trips, which were parsed with {@code from}. This gives the same ids as
+	 * if the trips had been parsed with {@code into} in the first place.
+	 */
+	public static void mergeStationIds(List<CompassTrip> trips, StationDictionary from, StationDictionary into) {
+		int[] ids = into.internAll(from);
+		for (CompassTrip trip : trips) {
+			for (CompassShot shot : trip.getShots()) {
+				if (shot.getFromStationId() >= 0) {
+					int id = ids[shot.getFromStationId()];
+					shot.setFromStationId(id);
+					shot.setFromStationName(into.getName(id));
+				}
+				if (shot.getToStationId() >= 0) {
+					int id = ids[shot.getToStationId()];
+					shot.setToStationId(id);
+					shot.setToStationName(into.getName(id));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parses the file at the given {@code path}, passing each trip and shot to the
+	 * given {@code visitor} as soon as it has been parsed. Only one trip is held in
+	 * memory at a time.
+	 */
+	public void parseCompassSurveyData(Path path, CompassSurveyVisitor visitor) throws IOException {
+		try (Reader reader = CompassFiles.newReader(path)) {
+			parseCompassSurveyData(reader, path, visitor);
+		}
+	}
+
+	/**
+	 * Parses the data from the given {@code channel}, passing each trip and shot to
+	 * the given {@code visitor} as soon as it has been parsed. Only one trip is
+	 * held in memory at a time.
+	 *
+	 * @param source If any errors or warnings are generated they will reference
+	 *               this object.
+	 */
+	public void parseCompassSurveyData(ReadableByteChannel channel, Object source, CompassSurveyVisitor visitor)
+		throws IOException {
+		parseCompassSurveyData(CompassFiles.newReader(channel), source, visitor);
+	}
+
+	/**
+	 * Parses the data from the given {@code reader}, passing each trip and shot to
+	 * the given {@code visitor} as soon as it has been parsed. Only one trip is
+	 * held in memory at a time.
+	 *
+	 * @param source If any errors or warnings are generated they will reference
+	 *               this object.
+	 */
+	public void parseCompassSurveyData(Reader reader, Object source, CompassSurveyVisitor visitor)
+		throws IOException {
+		TripTextReader trips = new TripTextReader(reader, source);
+		Segment text;
+		while ((text = trips.next()) != null) {
+			parseTrip(text.trim(), visitor);
+		}
+	}
+
+	/**
+	 * Lazily parses the trips from the given {@code reader}; each trip is only read
+	 * and parsed when the returned iterator is advanced to it.
+	 *
+	 * @param source If any errors or warnings are generated they will reference
+	 *               this object.
+	 */
+	public Iterator<CompassTrip> trips(Reader reader, Object source) {
+		return new TripIterator(this, new TripTextReader(reader, source));
+	}
+
+	/**
+	 * Lazily parses the trips in the file at the given {@code path}. The returned
+	 * stream should be closed (for instance with a try-with-resources statement)
+	 * to close the file.
+	 */
+	public Stream<CompassTrip> trips(Path path) throws IOException {
+		Reader reader = CompassFiles.newReader(path);
+		return stream(trips(reader, path), reader);
+	}
+
+	/**
+	 * Lazily parses the shots from the given {@code reader}; each shot is only
+	 * parsed when the returned iterator is advanced to it. The trip header of each
+	 * shot is available from {@link CompassShot#getTripHeader()}.
+	 *
+	 * @param source If any errors or warnings are generated they will reference
+	 *               this object.
+	 */
+	public Iterator<CompassShot> shots(Reader reader, Object source) {
+		return new ShotIterator(this, new TripTextReader(reader, source));
+	}
+
+	/**
+	 * Lazily parses the shots in the file at the given {@code path}. The trip
+	 * header of each shot is available from {@link CompassShot#getTripHeader()}.
+	 * The returned stream should be closed (for instance with a try-with-resources
+	 * statement) to close the file.
+	 */
+	public Stream<CompassShot> shots(Path path) throws IOException {
+		Reader reader = CompassFiles.newReader(path);
+		return stream(shots(reader, path), reader);
+	}
+
+	private static <T> Stream<T> stream(Iterator<T> iterator, Reader reader) {
+		return StreamSupport
+			.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+			.onClose(() -> {
+				try {
+					reader.close();
+				}
+				catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+			});
+	}
+
 	/**
 	 * Parses the given {@code data}.
 	 *
@@ -188,26 +547,26 @@ public class CompassSurveyParser {
 
 	@SuppressWarnings("deprecation")
 	Date parseDate(Segment segment) {
-		SegmentMatcher dateMatcher = new SegmentMatcher(segment, NON_WHITESPACE);
-		Integer month = parseInt(dateMatcher, "month");
-		Segment monthGroup = month != null ? dateMatcher.group() : null;
-		Integer day = parseInt(dateMatcher, "day");
-		Segment dayGroup = day != null ? dateMatcher.group() : null;
-		Integer year = parseInt(dateMatcher, "year");
-		Segment yearGroup = year != null ? dateMatcher.group() : null;
+		tokens.reset(segment);
+		Integer month = parseInt(tokens, "month");
+		Segment monthGroup = month != null ? tokens.group() : null;
+		Integer day = parseInt(tokens, "day");
+		Segment dayGroup = day != null ? tokens.group() : null;
+		Integer year = parseInt(tokens, "year");
+		Segment yearGroup = year != null ? tokens.group() : null;
 		if (month == null || day == null || year == null) {
 			return null;
 		}
 		if (month < 1 || month > 12) {
-			addError("month must be between 1 and 12", monthGroup);
+			addError(ErrorCode.NOT_BETWEEN, monthGroup, "month", 1, 12);
 			return null;
 		}
 		if (day < 1 || day > 31) {
-			addError("day must be between 1 and 31", dayGroup);
+			addError(ErrorCode.NOT_BETWEEN, dayGroup, "day", 1, 31);
 			return null;
 		}
 		if (year < 0) {
-			addError("year must be >= 0", yearGroup);
+			addError(ErrorCode.LESS_THAN_MINIMUM, yearGroup, "year", 0);
 		}
 
 		return new Date(year >= 100 ? year - 1900 : year, month - 1, day);
@@ -226,21 +585,21 @@ public class CompassSurveyParser {
 		case 'W':
 			return InclinationUnit.DEPTH_GAUGE;
 		default:
-			addError("unrecognized inclination unit: " + unit.charAt(0), unit);
+			addError(ErrorCode.UNRECOGNIZED_INCLINATION_UNIT, unit, unit.charAt(0));
 			return InclinationUnit.DEGREES;
 		}
 	}
 
-	Integer parseInt(SegmentMatcher matcher, String fieldName) {
-		if (!matcher.find()) {
-			addError("missing " + fieldName, matcher.group());
+	Integer parseInt(TokenCursor cursor, String fieldName) {
+		if (!cursor.find()) {
+			addError(ErrorCode.MISSING, cursor.group(), fieldName);
 			return null;
 		}
 		try {
-			return Integer.parseInt(matcher.group().toString());
+			return Integer.parseInt(cursor.toString());
 		}
 		catch (NumberFormatException ex) {
-			addError("invalid " + fieldName, matcher.group());
+			addError(ErrorCode.INVALID, cursor.group(), fieldName);
 			return null;
 		}
 	}
@@ -254,7 +613,7 @@ public class CompassSurveyParser {
 		case 'M':
 			return LengthUnit.METERS;
 		default:
-			addError("unrecognized length unit: " + unit.charAt(0), unit);
+			addError(ErrorCode.UNRECOGNIZED_LENGTH_UNIT, unit, unit.charAt(0));
 			return LengthUnit.DECIMAL_FEET;
 		}
 	}
@@ -266,7 +625,7 @@ public class CompassSurveyParser {
 		case 'T':
 			return LrudAssociation.TO;
 		default:
-			addError("unrecognized LRUD association: " + segment.charAt(0), segment);
+			addError(ErrorCode.UNRECOGNIZED_LRUD_ASSOCIATION, segment, segment.charAt(0));
 			return null;
 		}
 	}
@@ -282,138 +641,165 @@ public class CompassSurveyParser {
 		case 'D':
 			return LrudItem.DOWN;
 		default:
-			addError("unrecognized LRUD item: " + segment.charAt(0), segment);
+			addError(ErrorCode.UNRECOGNIZED_LRUD_ITEM, segment, segment.charAt(0));
 			return null;
 		}
 	}
 
-	UnitizedDouble<Length> parseLrudMeasurement(SegmentMatcher matcher, String fieldName) {
-		if (!matcher.find()) {
-			addError("missing " + fieldName, matcher.group().substring(matcher.regionEnd()));
+	UnitizedDouble<Length> parseLrudMeasurement(TokenCursor cursor, String fieldName) {
+		if (!cursor.find()) {
+			addError(ErrorCode.MISSING, cursor.group(), fieldName);
 			return null;
 		}
-		BigDecimal value;
-		try {
-			value = new BigDecimal(matcher.group().toString());
-		}
-		catch (NumberFormatException ex) {
-			addError("missing " + fieldName, matcher.group());
+		double value = parseNumber(cursor);
+		if (Double.isNaN(value)) {
+			addError(ErrorCode.MISSING, cursor.group(), fieldName);
 			return null;
 		}
-		if (value.compareTo(new BigDecimal(-1)) < 0 || value.compareTo(new BigDecimal(990)) > 0) {
+		if (value < -1 || value > 990) {
 			return null;
 		}
 		// Compass barfs on LRUDs between -1 and 0
-		if (value.compareTo(BigDecimal.ZERO) < 0) {
-			addError(fieldName + " must be >= 0.0", matcher.group());
+		if (value < 0) {
+			addError(ErrorCode.LESS_THAN_MINIMUM, cursor.group(), fieldName, 0.0);
 		}
-		return Length.feet(value.doubleValue());
+		return Length.feet(value);
 	}
 
-	BigDecimal parseMeasurement(SegmentMatcher matcher, String fieldName) {
-		if (!matcher.find()) {
-			addError("missing " + fieldName, matcher.segment().substring(matcher.regionEnd()));
-			return null;
-		}
-		BigDecimal value;
-		try {
-			value = new BigDecimal(matcher.group().toString());
+	/**
+	 * @return the value of the current token of the given {@code cursor}, or
+	 *         <code>NaN</code> if it isn't a valid number.
+	 */
+	double parseNumber(TokenCursor cursor) {
+		return decimalScanner.parse(cursor.segment(), cursor.start(), cursor.end());
+	}
+
+	/**
+	 * @return the measurement, or <code>NaN</code> if it is missing.
+	 */
+	double parseMeasurement(TokenCursor cursor, String fieldName) {
+		if (!cursor.find()) {
+			addError(ErrorCode.MISSING, cursor.group(), fieldName);
+			return Double.NaN;
 		}
-		catch (NumberFormatException ex) {
-			addError("missing " + fieldName, matcher.group());
-			return null;
+		double value = parseNumber(cursor);
+		if (Double.isNaN(value)) {
+			addError(ErrorCode.MISSING, cursor.group(), fieldName);
+			return Double.NaN;
 		}
-		if (value.abs().compareTo(new BigDecimal(990)) > 0) {
-			return null;
+		if (Math.abs(value) > 990) {
+			return Double.NaN;
 		}
 		return value;
 	}
 
-	BigDecimal parseMeasurement(SegmentMatcher matcher, String fieldName, BigDecimal min) {
-		BigDecimal measurement = parseMeasurement(matcher, fieldName);
-		if (measurement == null) {
-			return null;
-		}
-		if (measurement.compareTo(min) < 0) {
-			addError(fieldName + " must be >= " + min, matcher.group());
+	double parseMeasurement(TokenCursor cursor, String fieldName, int min) {
+		double measurement = parseMeasurement(cursor, fieldName);
+		if (measurement < min) {
+			addError(ErrorCode.LESS_THAN_MINIMUM, cursor.group(), fieldName, min);
 		}
 		return measurement;
 	}
 
-	BigDecimal parseMeasurement(SegmentMatcher matcher, String fieldName, BigDecimal min, BigDecimal max) {
-		BigDecimal measurement = parseMeasurement(matcher, fieldName);
-		if (measurement == null) {
-			return null;
-		}
-		if (measurement.compareTo(min) < 0 || measurement.compareTo(max) > 0) {
-			addError(fieldName + " must be between " + min + " and " + max, matcher.group());
+	double parseMeasurement(TokenCursor cursor, String fieldName, int min, int max) {
+		double measurement = parseMeasurement(cursor, fieldName);
+		if (measurement < min || measurement > max) {
+			addError(ErrorCode.NOT_BETWEEN, cursor.group(), fieldName, min, max);
 		}
 		return measurement;
 	}
 
-	UnitizedDouble<Angle> parseDegrees(SegmentMatcher matcher, String fieldName) {
-		BigDecimal measurement = parseMeasurement(matcher, fieldName);
-		return measurement == null ? null : Angle.degrees(measurement.doubleValue());
+	UnitizedDouble<Angle> parseDegrees(TokenCursor cursor, String fieldName) {
+		double measurement = parseMeasurement(cursor, fieldName);
+		return Double.isNaN(measurement) ? null : Angle.degrees(measurement);
 	}
 
-	UnitizedDouble<Length> parseFeet(SegmentMatcher matcher, String fieldName) {
-		BigDecimal measurement = parseMeasurement(matcher, fieldName);
-		return measurement == null ? null : Length.feet(measurement.doubleValue());
+	UnitizedDouble<Length> parseFeet(TokenCursor cursor, String fieldName) {
+		double measurement = parseMeasurement(cursor, fieldName);
+		return Double.isNaN(measurement) ? null : Length.feet(measurement);
 	}
 
-	UnitizedDouble<Angle> parseInclination(SegmentMatcher matcher, String fieldName) {
-		BigDecimal measurement = parseMeasurement(matcher, fieldName, NEG_90, POS_90);
-		return measurement == null ? null : Angle.degrees(measurement.doubleValue());
+	UnitizedDouble<Angle> parseInclination(TokenCursor cursor, String fieldName) {
+		double measurement = parseMeasurement(cursor, fieldName, -90, 90);
+		return Double.isNaN(measurement) ? null : Angle.degrees(measurement);
 	}
 
-	UnitizedDouble<Length> parseDistance(SegmentMatcher matcher, String fieldName) {
-		BigDecimal measurement = parseMeasurement(matcher, fieldName, BigDecimal.ZERO);
-		return measurement == null ? null : Length.feet(measurement.doubleValue());
+	UnitizedDouble<Length> parseDistance(TokenCursor cursor, String fieldName) {
+		double measurement = parseMeasurement(cursor, fieldName, 0);
+		return Double.isNaN(measurement) ? null : Length.feet(measurement);
 	}
 
 	<T> void parseOrder(Segment segment, T[] order, Function<Segment, T> parser, String itemName) {
 		for (int i = 0; i < order.length; i++) {
 			if (segment.length() <= i) {
-				addError("missing " + itemName, segment.substring(segment.length()));
+				addError(ErrorCode.MISSING, segment.substring(segment.length()), itemName);
 			}
 			order[i] = parser.apply(segment.charAtAsSegment(i));
 		}
 	}
 
 	public CompassShot parseShot(Segment segment, CompassTripHeader tripHeader) {
-		final SegmentMatcher matcher = new SegmentMatcher(segment, NON_WHITESPACE);
+		Segment outerContext = context;
+		context = segment;
+		try {
+			return parseShotInContext(segment, tripHeader);
+		}
+		finally {
+			context = outerContext;
+		}
+	}
+
+	private CompassShot parseShotInContext(Segment segment, CompassTripHeader tripHeader) {
+		tokens.reset(segment);
 
 		final CompassShot shot = new CompassShot();
-		shot.setFromStationName(parseString(matcher, "from station name"));
-		shot.setToStationName(parseString(matcher, "to station name"));
-		shot.setLength(parseDistance(matcher, "length"));
-		if (shot.getLength() == null && matcher.hitEnd()) {
+		shot.setTripHeader(tripHeader);
+		// find the station names, but only intern them once the line turns out to
+		// be a shot, so that blank and short lines don't add names
+		int fromStart = -1;
+		int fromEnd = -1;
+		if (findStationName(tokens, "from station name")) {
+			fromStart = tokens.start();
+			fromEnd = tokens.end();
+		}
+		int toStart = -1;
+		int toEnd = -1;
+		if (findStationName(tokens, "to station name")) {
+			toStart = tokens.start();
+			toEnd = tokens.end();
+		}
+		shot.setLength(parseDistance(tokens, "length"));
+		if (shot.getLength() == null && tokens.hitEnd()) {
 			return null;
 		}
-
-		shot.setFrontsightAzimuth(parseAzimuth(matcher, "frontsight azimuth"));
-		shot.setFrontsightInclination(parseInclination(matcher, "frontsight inclination"));
-		shot.setLeft(parseLrudMeasurement(matcher, "left"));
-		shot.setUp(parseLrudMeasurement(matcher, "up"));
-		shot.setDown(parseLrudMeasurement(matcher, "down"));
-		shot.setRight(parseLrudMeasurement(matcher, "right"));
+		shot.setFromStationId(internStation(segment, fromStart, fromEnd));
+		shot.setFromStationName(stationName(shot.getFromStationId()));
+		shot.setToStationId(internStation(segment, toStart, toEnd));
+		shot.setToStationName(stationName(shot.getToStationId()));
+
+		shot.setFrontsightAzimuth(parseAzimuth(tokens, "frontsight azimuth"));
+		shot.setFrontsightInclination(parseInclination(tokens, "frontsight inclination"));
+		shot.setLeft(parseLrudMeasurement(tokens, "left"));
+		shot.setUp(parseLrudMeasurement(tokens, "up"));
+		shot.setDown(parseLrudMeasurement(tokens, "down"));
+		shot.setRight(parseLrudMeasurement(tokens, "right"));
 		if (tripHeader.hasBacksights()) {
-			shot.setBacksightAzimuth(parseAzimuth(matcher, "backsight azimuth"));
-			shot.setBacksightInclination(parseInclination(matcher, "backsight inclination"));
+			shot.setBacksightAzimuth(parseAzimuth(tokens, "backsight azimuth"));
+			shot.setBacksightInclination(parseInclination(tokens, "backsight inclination"));
 		}
-		if (matcher.hitEnd()) {
+		if (tokens.hitEnd()) {
 			return shot;
 		}
-		int commentStart = matcher.end();
-		if (matcher.find()) {
-			if (matcher.group().startsWith("#|")) {
-				int endIndex = segment.indexOf('#', matcher.start() + 1);
+		int commentStart = tokens.end();
+		if (tokens.find()) {
+			if (tokens.startsWith("#|")) {
+				int endIndex = segment.indexOf('#', tokens.start() + 1);
 				if (endIndex < 0) {
-					endIndex = matcher.end();
-					addError("missing # after flags", segment.charAtAsSegment(endIndex));
+					endIndex = tokens.end();
+					addError(ErrorCode.MISSING_FLAGS_END, segment.charAtAsSegment(endIndex));
 				}
 				commentStart = endIndex + 1;
-				final Segment flags = segment.substring(matcher.start() + 2, endIndex);
+				final Segment flags = segment.substring(tokens.start() + 2, endIndex);
 				for (int i = 0; i < flags.length(); i++) {
 					final char flag = flags.charAt(i);
 					switch (Character.toUpperCase(flag)) {
@@ -432,7 +818,7 @@ public class CompassSurveyParser {
 					case ' ':
 						break;
 					default:
-						addWarning("unrecognized flag: " + flag, flags.charAtAsSegment(i));
+						addWarning(ErrorCode.UNRECOGNIZED_FLAG, flags.charAtAsSegment(i), flag);
 						break;
 					}
 				}
@@ -448,7 +834,7 @@ public class CompassSurveyParser {
 	void parseShotFormat(CompassTripHeader header, Segment format) {
 		int i = 0;
 		if (format.length() < 11) {
-			addError("format must be at least 11 characters long", format.substring(format.length()));
+			addError(ErrorCode.FORMAT_TOO_SHORT, format.substring(format.length()));
 			return;
 		}
 		header.setAzimuthUnit(parseAzimuthUnit(format.charAtAsSegment(i++)));
@@ -481,44 +867,89 @@ public class CompassSurveyParser {
 		case 'd':
 			return ShotItem.BACKSIGHT_INCLINATION;
 		default:
-			addError("unrecognized shot item: " + segment.charAt(0), segment);
+			addError(ErrorCode.UNRECOGNIZED_SHOT_ITEM, segment, segment.charAt(0));
 			return null;
 		}
 	}
 
-	String parseString(SegmentMatcher matcher, String fieldName) {
-		if (!matcher.find()) {
-			addError("missing " + fieldName, matcher.segment().substring(matcher.segment().length()));
+	String parseString(TokenCursor cursor, String fieldName) {
+		if (!cursor.find()) {
+			addError(ErrorCode.MISSING, cursor.group(), fieldName);
 			return null;
 		}
-		return matcher.group().toString();
+		return cursor.toString();
+	}
+
+	/**
+	 * Finds the next station name, adding an error if it is missing.
+	 *
+	 * @return whether it was found.
+	 */
+	private boolean findStationName(TokenCursor cursor, String fieldName) {
+		if (!cursor.find()) {
+			addError(ErrorCode.MISSING, cursor.group(), fieldName);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Interns a station name in the {@link #getStationDictionary() dictionary}
+	 * without creating a {@link String} unless it's a new name.
+	 *
+	 * @return the id of the station, or -1 if {@code start} is -1 (the name is
+	 *         missing).
+	 */
+	private int internStation(Segment segment, int start, int end) {
+		return start < 0 ? -1 : stationDictionary.intern(segment, start, end);
+	}
+
+	private String stationName(int stationId) {
+		return stationId < 0 ? null : stationDictionary.getName(stationId);
 	}
 
 	public CompassTrip parseTrip(Segment segment) {
+		CompassTripCollector collector = new CompassTripCollector();
+		parseTrip(segment, collector);
+		return collector.getTrips().isEmpty() ? null : collector.getTrips().get(0);
+	}
+
+	/**
+	 * Parses the given trip, passing its header and shots to the given
+	 * {@code visitor}. Nothing is passed to the visitor if the header is missing.
+	 */
+	public void parseTrip(Segment segment, CompassSurveyVisitor visitor) {
 		final Segment[] parts = splitHeaderAndData(segment);
-		CompassTrip trip = new CompassTrip();
 		CompassTripHeader header = parseTripHeader(parts[0]);
 		if (header == null) {
-			return null;
+			return;
 		}
-		trip.setHeader(header);
-
-		List<CompassShot> shots = new ArrayList<>();
+		visitor.tripHeader(header);
 
 		if (!parts[1].isEmpty()) {
 			final Segment[] data = parts[1].split(EOL);
 			for (Segment line : data) {
 				CompassShot shot = parseShot(line, header);
 				if (shot != null) {
-					shots.add(shot);
+					visitor.shot(shot);
 				}
 			}
 		}
-		trip.setShots(shots);
-		return trip;
+		visitor.endTrip();
 	}
 
 	public CompassTripHeader parseTripHeader(Segment segment) {
+		Segment outerContext = context;
+		context = segment;
+		try {
+			return parseTripHeaderInContext(segment);
+		}
+		finally {
+			context = outerContext;
+		}
+	}
+
+	private CompassTripHeader parseTripHeaderInContext(Segment segment) {
 		final CompassTripHeader header = new CompassTripHeader();
 		final Segment[] parts = segment.trim().split(EOL, 2);
 		if (parts.length < 2) {
@@ -527,7 +958,8 @@ public class CompassSurveyParser {
 		header.setCaveName(parts[0].toString());
 		getFields(new SegmentMatcher(parts[1], HEADER_FIELDS), (field, value) -> {
 			if (field.equalsIgnoreCase("SURVEY NAME:")) {
-				header.setSurveyName(parseString(new SegmentMatcher(value, NON_WHITESPACE), "survey name"));
+				tokens.reset(value);
+				header.setSurveyName(parseString(tokens, "survey name"));
 			}
 			else if (field.equalsIgnoreCase("SURVEY DATE:")) {
 				header.setDate(parseDate(value));
@@ -539,21 +971,22 @@ public class CompassSurveyParser {
 				header.setTeam(value.toString());
 			}
 			else if (field.equalsIgnoreCase("DECLINATION:")) {
-				header.setDeclination(parseDegrees(new SegmentMatcher(value, NON_WHITESPACE), "declination"));
+				tokens.reset(value);
+				header.setDeclination(parseDegrees(tokens, "declination"));
 			}
 			else if (field.equalsIgnoreCase("FORMAT:")) {
 				parseShotFormat(header, value);
 			}
 			else if (field.equalsIgnoreCase("CORRECTIONS:")) {
-				SegmentMatcher matcher = new SegmentMatcher(value, NON_WHITESPACE);
-				header.setLengthCorrection(parseFeet(matcher, "length correction"));
-				header.setFrontsightAzimuthCorrection(parseDegrees(matcher, "frontsight azimuth correction"));
-				header.setFrontsightInclinationCorrection(parseDegrees(matcher, "frontsight inclination correction"));
+				tokens.reset(value);
+				header.setLengthCorrection(parseFeet(tokens, "length correction"));
+				header.setFrontsightAzimuthCorrection(parseDegrees(tokens, "frontsight azimuth correction"));
+				header.setFrontsightInclinationCorrection(parseDegrees(tokens, "frontsight inclination correction"));
 			}
 			else if (field.equalsIgnoreCase("CORRECTIONS2:")) {
-				SegmentMatcher matcher = new SegmentMatcher(value, NON_WHITESPACE);
-				header.setBacksightAzimuthCorrection(parseDegrees(matcher, "backsight azimuth correction"));
-				header.setBacksightInclinationCorrection(parseDegrees(matcher, "backsight inclination correction"));
+				tokens.reset(value);
+				header.setBacksightAzimuthCorrection(parseDegrees(tokens, "backsight azimuth correction"));
+				header.setBacksightInclinationCorrection(parseDegrees(tokens, "backsight inclination correction"));
 			}
 		});
 		return header;
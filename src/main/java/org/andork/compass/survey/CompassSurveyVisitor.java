@@ -0,0 +1,19 @@
+package org.andork.compass.survey;
+
+/**
+ * Receives the trips and shots of a .DAT file as they are parsed, so that
+ * callers don't have to hold the whole file in memory.
+ */
+public interface CompassSurveyVisitor {
+	/**
+	 * Called when the header of a trip has been parsed, before any of its shots.
+	 */
+	public void tripHeader(CompassTripHeader header);
+
+	public void shot(CompassShot shot);
+
+	/**
+	 * Called after the last shot of the current trip.
+	 */
+	public void endTrip();
+}
@@ -0,0 +1,326 @@
+package org.andork.compass.survey;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Date;
+
+import org.andork.compass.CompassFiles;
+import org.andork.compass.DecimalFormatter;
+import org.andork.compass.FormattedWriter;
+import org.andork.compass.InclinationUnit;
+import org.andork.compass.LengthUnit;
+import org.andork.compass.LrudAssociation;
+import org.andork.compass.LrudItem;
+import org.andork.unit.Angle;
+import org.andork.unit.Length;
+import org.andork.unit.UnitizedDouble;
+
+/**
+ * Writes trips in the Compass .DAT format, which {@link CompassSurveyParser}
+ * reads back into the same trips.<br>
+ * <br>
+ * Each line is formatted into a reusable character buffer in fixed-width
+ * columns without creating any strings, so any number of shots can be streamed
+ * out. Since this is a {@link CompassSurveyVisitor}, a parser can also write
+ * straight into it.<br>
+ * <br>
+ * Like Compass, shot measurements are always written in feet and degrees in the
+ * same column order, rounded to two decimal places; the units and orders in the
+ * {@code FORMAT:} of the trip header only tell Compass how to display them.
+ * Missing measurements are written as -999.00 (-9999.00 for LRUDs), which the
+ * parser reads back as <code>null</code>. A header or shot with a value that
+ * can't be written (such as an infinite length) throws an
+ * {@link IllegalArgumentException} and nothing of it is written.
+ */
+public class CompassSurveyWriter implements CompassSurveyVisitor, Closeable, Flushable {
+	private static final String EOL = "\r\n";
+	private static final double MISSING = -999;
+	private static final double MISSING_LRUD = -9999;
+	private static final DecimalFormatter FIXED = new DecimalFormatter(2);
+
+	private final FormattedWriter out;
+	private CompassTripHeader header;
+
+	public CompassSurveyWriter(Writer out) {
+		this.out = new FormattedWriter(out, 8192);
+	}
+
+	public CompassSurveyWriter(OutputStream out) {
+		this(CompassFiles.newWriter(out));
+	}
+
+	public CompassSurveyWriter(WritableByteChannel channel) {
+		this(CompassFiles.newWriter(channel));
+	}
+
+	/**
+	 * Creates a writer for the file at the given {@code path}, which is created or
+	 * truncated.
+	 */
+	public CompassSurveyWriter(Path path) throws IOException {
+		this(CompassFiles.newWriter(path));
+	}
+
+	public void writeTrips(Iterable<CompassTrip> trips) throws IOException {
+		for (CompassTrip trip : trips) {
+			writeTrip(trip);
+		}
+	}
+
+	public void writeTrip(CompassTrip trip) throws IOException {
+		writeTripHeader(trip.getHeader());
+		for (CompassShot shot : trip.getShots()) {
+			writeShot(shot);
+		}
+		writeTripEnd();
+	}
+
+	/**
+	 * Writes the given header, which applies to the shots written after it.
+	 */
+	public void writeTripHeader(CompassTripHeader header) throws IOException {
+		out.appendAtomically(() -> appendTripHeader(header));
+		this.header = header;
+	}
+
+	@SuppressWarnings("deprecation")
+	private void appendTripHeader(CompassTripHeader header) throws IOException {
+		out.append(header.getCaveName()).append(EOL);
+		out.append("SURVEY NAME: ").append(header.getSurveyName()).append(EOL);
+		Date date = header.getDate();
+		if (date != null) {
+			out.append("SURVEY DATE: ").appendInt(date.getMonth() + 1).append(' ').appendInt(date.getDate());
+			out.append(' ').appendInt(date.getYear() + 1900);
+			if (header.getComment() != null) {
+				out.append("  ");
+			}
+		}
+		if (header.getComment() != null) {
+			out.append("COMMENT:").appendLine(header.getComment());
+		}
+		out.append(EOL);
+		out.append("SURVEY TEAM:").append(EOL);
+		out.appendLine(header.getTeam()).append(EOL);
+
+		out.append("DECLINATION: ");
+		appendFixed(degrees(header.getDeclination(), 0), 7);
+		out.append("  FORMAT: ");
+		appendFormat(header);
+		out.append("  CORRECTIONS: ");
+		appendFixed(feet(header.getLengthCorrection(), 0), 1);
+		appendFixed(degrees(header.getFrontsightAzimuthCorrection(), 0), 1);
+		appendFixed(degrees(header.getFrontsightInclinationCorrection(), 0), 1);
+		double backsightAzimuthCorrection = degrees(header.getBacksightAzimuthCorrection(), 0);
+		double backsightInclinationCorrection = degrees(header.getBacksightInclinationCorrection(), 0);
+		if (header.hasBacksights() || backsightAzimuthCorrection != 0 || backsightInclinationCorrection != 0) {
+			out.append("  CORRECTIONS2: ");
+			appendFixed(backsightAzimuthCorrection, 1);
+			appendFixed(backsightInclinationCorrection, 1);
+		}
+		out.append(EOL).append(EOL);
+
+		out.append("        FROM           TO   LENGTH  BEARING      INC     LEFT       UP     DOWN    RIGHT");
+		if (header.hasBacksights()) {
+			out.append("    AZM2    INC2");
+		}
+		out.append("   FLAGS  COMMENTS").append(EOL).append(EOL);
+	}
+
+	/**
+	 * Writes the given shot as part of the trip whose header was written last.
+	 */
+	public void writeShot(CompassShot shot) throws IOException {
+		if (header == null) {
+			throw new IllegalStateException("writeTripHeader must be called first");
+		}
+		out.appendAtomically(() -> appendShot(shot));
+	}
+
+	private void appendShot(CompassShot shot) throws IOException {
+		appendPadded(shot.getFromStationName(), 12);
+		appendPadded(shot.getToStationName(), 13);
+		appendFixed(feet(shot.getLength(), MISSING), 9);
+		appendFixed(degrees(shot.getFrontsightAzimuth(), MISSING), 9);
+		appendFixed(degrees(shot.getFrontsightInclination(), MISSING), 9);
+		appendFixed(feet(shot.getLeft(), MISSING_LRUD), 9);
+		appendFixed(feet(shot.getUp(), MISSING_LRUD), 9);
+		appendFixed(feet(shot.getDown(), MISSING_LRUD), 9);
+		appendFixed(feet(shot.getRight(), MISSING_LRUD), 9);
+		if (header.hasBacksights()) {
+			appendFixed(degrees(shot.getBacksightAzimuth(), MISSING), 8);
+			appendFixed(degrees(shot.getBacksightInclination(), MISSING), 8);
+		}
+		if (shot.isExcludedFromLength()
+			|| shot.isExcludedFromPlotting()
+			|| shot.isExcludedFromAllProcessing()
+			|| shot.isDoNotAdjust()) {
+			out.append(" #|");
+			if (shot.isExcludedFromLength()) {
+				out.append('L');
+			}
+			if (shot.isExcludedFromPlotting()) {
+				out.append('P');
+			}
+			if (shot.isExcludedFromAllProcessing()) {
+				out.append('X');
+			}
+			if (shot.isDoNotAdjust()) {
+				out.append('C');
+			}
+			out.append('#');
+		}
+		if (shot.getComment() != null) {
+			out.append(' ').appendLine(shot.getComment());
+		}
+		out.append(EOL);
+	}
+
+	/**
+	 * Writes the form feed that ends the current trip.
+	 */
+	public void writeTripEnd() throws IOException {
+		out.append('\f').append(EOL);
+		header = null;
+	}
+
+	@Override
+	public void tripHeader(CompassTripHeader header) {
+		FormattedWriter.unchecked(() -> writeTripHeader(header));
+	}
+
+	@Override
+	public void shot(CompassShot shot) {
+		FormattedWriter.unchecked(() -> writeShot(shot));
+	}
+
+	@Override
+	public void endTrip() {
+		FormattedWriter.unchecked(this::writeTripEnd);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Appends {@code s} right-aligned in {@code width} characters, with at least
+	 * one space before it.
+	 */
+	private void appendPadded(String s, int width) throws IOException {
+		int textLength = s == null ? 0 : s.length();
+		for (int i = Math.max(1, width - textLength); i > 0; i--) {
+			out.append(' ');
+		}
+		out.append(s);
+	}
+
+	/**
+	 * Appends {@code value} rounded to two decimal places, right-aligned in
+	 * {@code width} characters with at least one space before it.
+	 */
+	private void appendFixed(double value, int width) throws IOException {
+		out.append(' ').append(FIXED, value, width - 1);
+	}
+
+	private void appendFormat(CompassTripHeader header) throws IOException {
+		switch (header.getAzimuthUnit()) {
+		case QUADS:
+			out.append('Q');
+			break;
+		case GRADS:
+			out.append('R');
+			break;
+		default:
+			out.append('D');
+			break;
+		}
+		appendLengthUnit(header.getLengthUnit());
+		appendLengthUnit(header.getLrudUnit());
+		appendInclinationUnit(header.getInclinationUnit());
+		for (LrudItem item : header.getLrudOrder()) {
+			out.append(item == null ? 'L' : item.name().charAt(0));
+		}
+		for (ShotItem item : header.getShotMeasurementOrder()) {
+			appendShotItem(item);
+		}
+		out.append(header.hasBacksights() ? 'B' : 'N');
+		out.append(header.getLrudAssociation() == LrudAssociation.TO ? 'T' : 'F');
+	}
+
+	private void appendLengthUnit(LengthUnit unit) throws IOException {
+		switch (unit) {
+		case FEET_AND_INCHES:
+			out.append('I');
+			break;
+		case METERS:
+			out.append('M');
+			break;
+		default:
+			out.append('D');
+			break;
+		}
+	}
+
+	private void appendInclinationUnit(InclinationUnit unit) throws IOException {
+		switch (unit) {
+		case PERCENT_GRADE:
+			out.append('G');
+			break;
+		case DEGREES_AND_MINUTES:
+			out.append('M');
+			break;
+		case GRADS:
+			out.append('R');
+			break;
+		case DEPTH_GAUGE:
+			out.append('W');
+			break;
+		default:
+			out.append('D');
+			break;
+		}
+	}
+
+	private void appendShotItem(ShotItem item) throws IOException {
+		if (item == null) {
+			out.append('L');
+			return;
+		}
+		switch (item) {
+		case FRONTSIGHT_AZIMUTH:
+			out.append('A');
+			break;
+		case FRONTSIGHT_INCLINATION:
+			out.append('D');
+			break;
+		case BACKSIGHT_AZIMUTH:
+			out.append('a');
+			break;
+		case BACKSIGHT_INCLINATION:
+			out.append('d');
+			break;
+		default:
+			out.append('L');
+			break;
+		}
+	}
+
+	private static double feet(UnitizedDouble<Length> length, double ifNull) {
+		return length == null ? ifNull : length.get(Length.feet);
+	}
+
+	private static double degrees(UnitizedDouble<Angle> angle, double ifNull) {
+		return angle == null ? ifNull : angle.get(Angle.degrees);
+	}
+}
@@ -0,0 +1,35 @@
+package org.andork.compass.survey;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link CompassSurveyVisitor} that builds a {@link CompassTrip} for each
+ * trip it visits.
+ */
+public class CompassTripCollector implements CompassSurveyVisitor {
+	private final List<CompassTrip> trips = new ArrayList<>();
+	private CompassTrip trip;
+
+	public List<CompassTrip> getTrips() {
+		return trips;
+	}
+
+	@Override
+	public void tripHeader(CompassTripHeader header) {
+		trip = new CompassTrip();
+		trip.setHeader(header);
+		trip.setShots(new ArrayList<>());
+	}
+
+	@Override
+	public void shot(CompassShot shot) {
+		trip.getShots().add(shot);
+	}
+
+	@Override
+	public void endTrip() {
+		trips.add(trip);
+		trip = null;
+	}
+}
@@ -0,0 +1,295 @@
+package org.andork.compass.survey;
+
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.andork.compass.UnitArrays;
+import org.andork.unit.Angle;
+import org.andork.unit.Length;
+import org.andork.unit.UnitizedDouble;
+
+/**
+ * The measurements of the shots of one trip with the trip's corrections
+ * applied, in meters and radians, computed once for all the shots in a single
+ * pass over primitive arrays:
+ * <ul>
+ * <li>the length is the measured length plus the length correction</li>
+ * <li>the inclination is the average of the corrected frontsight and the
+ * negated corrected backsight (or whichever of them is present)</li>
+ * <li>the azimuth is the average of the corrected frontsight and the corrected
+ * backsight minus 180&deg; (or whichever of them is present), plus the
+ * declination, so it is relative to true north. Vertical shots without an
+ * azimuth get an azimuth of 0&deg; plus the declination.</li>
+ * </ul>
+ * Missing measurements are <code>NaN</code>. Shots are numbered in the same
+ * order as in the trip, including shots that are excluded from processing, so
+ * consumers decide which shots to skip.<br>
+ * <br>
+ * Instances are immutable. Use a {@link Cache} to share them between repeated
+ * analyses of the same trips.
+ */
+public class CorrectedShots {
+	private final int size;
+	private final double[] lengths;
+	private final double[] azimuths;
+	private final double[] inclinations;
+
+	private CorrectedShots(int size, double[] lengths, double[] azimuths, double[] inclinations) {
+		this.size = size;
+		this.lengths = lengths;
+		this.azimuths = azimuths;
+		this.inclinations = inclinations;
+	}
+
+	/**
+	 * Computes the corrected shots of the given trip.
+	 */
+	public static CorrectedShots of(CompassTrip trip) {
+		List<CompassShot> shots = trip.getShots();
+		int size = shots.size();
+		double[] lengths = new double[size];
+		double[] frontsightAzimuths = new double[size];
+		double[] frontsightInclinations = new double[size];
+		double[] backsightAzimuths = new double[size];
+		double[] backsightInclinations = new double[size];
+		for (int i = 0; i < size; i++) {
+			CompassShot shot = shots.get(i);
+			lengths[i] = feet(shot.getLength());
+			frontsightAzimuths[i] = degrees(shot.getFrontsightAzimuth());
+			frontsightInclinations[i] = degrees(shot.getFrontsightInclination());
+			backsightAzimuths[i] = degrees(shot.getBacksightAzimuth());
+			backsightInclinations[i] = degrees(shot.getBacksightInclination());
+		}
+		return compute(
+			trip.getHeader(),
+			size,
+			lengths,
+			frontsightAzimuths,
+			frontsightInclinations,
+			backsightAzimuths,
+			backsightInclinations);
+	}
+
+	/**
+	 * Computes the corrected shots of the given trip of a
+	 * {@link CompassShotColumns}, straight from its columns.
+	 */
+	public static CorrectedShots of(CompassShotColumns columns, int trip) {
+		int start = columns.getTripStart(trip);
+		int size = columns.getTripEnd(trip) - start;
+		double[] lengths = new double[size];
+		double[] frontsightAzimuths = new double[size];
+		double[] frontsightInclinations = new double[size];
+		double[] backsightAzimuths = new double[size];
+		double[] backsightInclinations = new double[size];
+		columns.getColumn(CompassShotColumns.LENGTH, start, lengths, 0, size);
+		columns.getColumn(CompassShotColumns.FRONTSIGHT_AZIMUTH, start, frontsightAzimuths, 0, size);
+		columns.getColumn(CompassShotColumns.FRONTSIGHT_INCLINATION, start, frontsightInclinations, 0, size);
+		columns.getColumn(CompassShotColumns.BACKSIGHT_AZIMUTH, start, backsightAzimuths, 0, size);
+		columns.getColumn(CompassShotColumns.BACKSIGHT_INCLINATION, start, backsightInclinations, 0, size);
+		return compute(
+			columns.getTripHeader(trip),
+			size,
+			lengths,
+			frontsightAzimuths,
+			frontsightInclinations,
+			backsightAzimuths,
+			backsightInclinations);
+	}
+
+	/**
+	 * Computes in place: the length, frontsight azimuth and frontsight
+	 * inclination arrays become the corrected values.
+	 */
+	private static CorrectedShots compute(
+		CompassTripHeader header,
+		int size,
+		double[] lengths,
+		double[] frontsightAzimuths,
+		double[] frontsightInclinations,
+		double[] backsightAzimuths,
+		double[] backsightInclinations) {
+		double lengthCorrection = orZero(feet(header.getLengthCorrection()));
+		double declination = orZero(degrees(header.getDeclination()));
+		double frontsightAzimuthCorrection = orZero(degrees(header.getFrontsightAzimuthCorrection()));
+		double backsightAzimuthCorrection = orZero(degrees(header.getBacksightAzimuthCorrection())) - 180;
+		double frontsightInclinationCorrection = orZero(degrees(header.getFrontsightInclinationCorrection()));
+		double backsightInclinationCorrection = orZero(degrees(header.getBacksightInclinationCorrection()));
+
+		for (int i = 0; i < size; i++) {
+			lengths[i] += lengthCorrection;
+			double inclination = average(
+				frontsightInclinations[i] + frontsightInclinationCorrection,
+				-(backsightInclinations[i] + backsightInclinationCorrection));
+			double azimuth = averageAzimuth(
+				frontsightAzimuths[i] + frontsightAzimuthCorrection,
+				backsightAzimuths[i] + backsightAzimuthCorrection);
+			if (Double.isNaN(azimuth) && Math.abs(inclination) == 90) {
+				azimuth = 0;
+			}
+			frontsightAzimuths[i] = azimuth + declination;
+			frontsightInclinations[i] = inclination;
+		}
+		UnitArrays.feetToMeters(lengths, 0, lengths, 0, size);
+		UnitArrays.degreesToRadians(frontsightAzimuths, 0, frontsightAzimuths, 0, size);
+		UnitArrays.degreesToRadians(frontsightInclinations, 0, frontsightInclinations, 0, size);
+		return new CorrectedShots(size, lengths, frontsightAzimuths, frontsightInclinations);
+	}
+
+	/**
+	 * @return the number of shots.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the corrected length of the given shot in meters, or
+	 *         <code>NaN</code> if it is missing.
+	 */
+	public double getLength(int shot) {
+		checkIndex(shot);
+		return lengths[shot];
+	}
+
+	/**
+	 * @return the corrected azimuth of the given shot relative to true north in
+	 *         radians, or <code>NaN</code> if it is missing.
+	 */
+	public double getAzimuth(int shot) {
+		checkIndex(shot);
+		return azimuths[shot];
+	}
+
+	/**
+	 * @return the corrected inclination of the given shot in radians, or
+	 *         <code>NaN</code> if it is missing.
+	 */
+	public double getInclination(int shot) {
+		checkIndex(shot);
+		return inclinations[shot];
+	}
+
+	private void checkIndex(int shot) {
+		if (shot < 0 || shot >= size) {
+			throw new IndexOutOfBoundsException("shot: " + shot + ", size: " + size);
+		}
+	}
+
+	private static double feet(UnitizedDouble<Length> value) {
+		return value == null ? Double.NaN : value.get(Length.feet);
+	}
+
+	private static double degrees(UnitizedDouble<Angle> value) {
+		return value == null ? Double.NaN : value.get(Angle.degrees);
+	}
+
+	/**
+	 * Missing trip corrections count as 0.
+	 */
+	private static double orZero(double correction) {
+		return Double.isNaN(correction) ? 0 : correction;
+	}
+
+	/**
+	 * @return the average of the given values that aren't NaN, or NaN if both
+	 *         are.
+	 */
+	private static double average(double a, double b) {
+		if (Double.isNaN(a)) {
+			return b;
+		}
+		if (Double.isNaN(b)) {
+			return a;
+		}
+		return (a + b) / 2;
+	}
+
+	/**
+	 * Like {@link #average(double, double)}, but averages 359 and 1 to 0 rather
+	 * than 180.
+	 */
+	private static double averageAzimuth(double a, double b) {
+		if (Double.isNaN(a)) {
+			return b;
+		}
+		if (Double.isNaN(b)) {
+			return a;
+		}
+		double difference = b - a;
+		difference -= 360 * Math.floor((difference + 180) / 360);
+		return a + difference / 2;
+	}
+
+	/**
+	 * Keeps the {@link CorrectedShots} of trips for as long as the trips are in
+	 * use, so that repeated analyses (for instance rebuilding a
+	 * {@link org.andork.compass.network.SurveyNetwork} after fixing stations)
+	 * don't recompute them. Entries are recomputed when a trip's header or list
+	 * of shots is replaced, or when the number of shots in the list has
+	 * changed; after changing shots or the header in place otherwise, call
+	 * {@link #invalidate(CompassTrip)}. Trips are held weakly and compared by
+	 * identity.<br>
+	 * <br>
+	 * Caches are thread safe.
+	 */
+	public static class Cache {
+		private final Map<CompassTrip, Entry> entries = new WeakHashMap<>();
+
+		private static class Entry {
+			final CompassTripHeader header;
+			final List<CompassShot> shots;
+			final CorrectedShots correctedShots;
+
+			Entry(CompassTripHeader header, List<CompassShot> shots, CorrectedShots correctedShots) {
+				this.header = header;
+				this.shots = shots;
+				this.correctedShots = correctedShots;
+			}
+		}
+
+		/**
+		 * @return the cached corrected shots of the given trip, computing them if
+		 *         necessary.
+		 */
+		public CorrectedShots get(CompassTrip trip) {
+			synchronized (entries) {
+				Entry entry = entries.get(trip);
+				if (entry != null
+					&& entry.header == trip.getHeader()
+					&& entry.shots == trip.getShots()
+					&& entry.correctedShots.size() == entry.shots.size()) {
+					return entry.correctedShots;
+				}
+			}
+			// compute outside the lock so that other trips can be looked up meanwhile
+			CorrectedShots correctedShots = CorrectedShots.of(trip);
+			synchronized (entries) {
+				entries.put(trip, new Entry(trip.getHeader(), trip.getShots(), correctedShots));
+			}
+			return correctedShots;
+		}
+
+		public void invalidate(CompassTrip trip) {
+			synchronized (entries) {
+				entries.remove(trip);
+			}
+		}
+
+		public void clear() {
+			synchronized (entries) {
+				entries.clear();
+			}
+		}
+
+		/**
+		 * @return the number of trips cached.
+		 */
+		public int size() {
+			synchronized (entries) {
+				return entries.size();
+			}
+		}
+	}
+}
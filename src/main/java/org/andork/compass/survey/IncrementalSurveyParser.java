@@ -0,0 +1,357 @@
+package org.andork.compass.survey;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.andork.compass.CompassParseError;
+import org.andork.compass.StationDictionary;
+import org.andork.segment.Segment;
+
+/**
+ * Keeps the parsed trips of a .DAT file that is being edited, and re-parses
+ * only the trips whose text changes.<br>
+ * <br>
+ * The file is split into the same form-feed delimited chunks that
+ * {@link CompassSurveyParser} parses as trips, and the offsets and a hash of
+ * each chunk's text are kept. When {@link #update(String) new contents} or a
+ * {@link #update(int, int, String) text edit} comes in, chunks whose text is
+ * unchanged keep their {@link CompassTrip} objects, and the rest are parsed.
+ * Each update reports which trips were added, removed or changed (matched up by
+ * survey name), for invalidating anything derived from them.<br>
+ * <br>
+ * Instances are not thread-safe.
+ */
+public class IncrementalSurveyParser {
+	private final Object source;
+	private StationDictionary stationDictionary = new StationDictionary();
+	private String text = "";
+	private List<Chunk> chunks = new ArrayList<>();
+
+	/**
+	 * @param source If any errors or warnings are generated they will reference
+	 *               this object. For instance you can pass a
+	 *               {@link java.io.File}, {@link java.nio.file.Path}, or
+	 *               {@link java.net.URL}.
+	 */
+	public IncrementalSurveyParser(Object source) {
+		this.source = source;
+	}
+
+	/**
+	 * A form-feed delimited chunk of the text, and what was parsed from it. Only
+	 * the text from {@code trimStart} to {@code trimEnd} is parsed, so whitespace
+	 * around it doesn't count as a change.
+	 */
+	private static class Chunk {
+		int start;
+		int end;
+		int trimStart;
+		int trimEnd;
+		int line;
+		int col;
+		long hash;
+		CompassTrip trip;
+		List<CompassParseError> errors;
+		boolean reused;
+	}
+
+	/**
+	 * The trips added, removed and changed by an update.
+	 */
+	public static class Update {
+		private final List<CompassTrip> addedTrips = new ArrayList<>();
+		private final List<CompassTrip> removedTrips = new ArrayList<>();
+		private final List<CompassTrip> changedTrips = new ArrayList<>();
+		private final List<CompassTrip> replacedTrips = new ArrayList<>();
+		private int unchangedTripCount;
+
+		/**
+		 * @return the new trips that don't replace any old trip.
+		 */
+		public List<CompassTrip> getAddedTrips() {
+			return Collections.unmodifiableList(addedTrips);
+		}
+
+		/**
+		 * @return the old trips that weren't replaced by any new trip.
+		 */
+		public List<CompassTrip> getRemovedTrips() {
+			return Collections.unmodifiableList(removedTrips);
+		}
+
+		/**
+		 * @return the new trips whose text changed, in the same order as
+		 *         {@link #getReplacedTrips()}.
+		 */
+		public List<CompassTrip> getChangedTrips() {
+			return Collections.unmodifiableList(changedTrips);
+		}
+
+		/**
+		 * @return the old versions of {@link #getChangedTrips()}.
+		 */
+		public List<CompassTrip> getReplacedTrips() {
+			return Collections.unmodifiableList(replacedTrips);
+		}
+
+		/**
+		 * @return the number of trips whose text didn't change (and whose
+		 *         {@link CompassTrip} objects were reused).
+		 */
+		public int getUnchangedTripCount() {
+			return unchangedTripCount;
+		}
+
+		public boolean isEmpty() {
+			return addedTrips.isEmpty() && removedTrips.isEmpty() && changedTrips.isEmpty();
+		}
+	}
+
+	public StationDictionary getStationDictionary() {
+		return stationDictionary;
+	}
+
+	/**
+	 * Sets the dictionary station names are interned in. Share one dictionary
+	 * between parsers to get station ids that are consistent across files.
+	 */
+	public void setStationDictionary(StationDictionary stationDictionary) {
+		this.stationDictionary = Objects.requireNonNull(stationDictionary);
+	}
+
+	/**
+	 * @return the current contents of the file.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @return the trips of the current contents, in file order.
+	 */
+	public List<CompassTrip> getTrips() {
+		List<CompassTrip> trips = new ArrayList<>();
+		for (Chunk chunk : chunks) {
+			if (chunk.trip != null) {
+				trips.add(chunk.trip);
+			}
+		}
+		return trips;
+	}
+
+	/**
+	 * @return the errors and warnings in the current contents, in file order.
+	 */
+	public List<CompassParseError> getErrors() {
+		List<CompassParseError> errors = new ArrayList<>();
+		for (Chunk chunk : chunks) {
+			errors.addAll(chunk.errors);
+		}
+		return errors;
+	}
+
+	/**
+	 * Replaces the contents of the file, re-parsing only the trips whose text
+	 * changed.
+	 */
+	public Update update(String data) {
+		return update(data, 0, data.length(), 0);
+	}
+
+	/**
+	 * Replaces the characters from {@code start} to {@code end} of the current
+	 * contents with {@code replacement}, re-parsing only the trips whose text
+	 * changed. Chunks entirely outside the edited range aren't even rehashed.
+	 */
+	public Update update(int start, int end, String replacement) {
+		if (start < 0 || end < start || end > text.length()) {
+			throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + text.length());
+		}
+		String data = text.substring(0, start) + replacement + text.substring(end);
+		return update(data, start, start + replacement.length(), replacement.length() - (end - start));
+	}
+
+	/**
+	 * @param editStart the start of the edited range in {@code data}
+	 * @param editEnd   the end of the edited range in {@code data}
+	 * @param shift     how far the text after the edited range moved
+	 */
+	private Update update(String data, int editStart, int editEnd, int shift) {
+		Map<Integer, Chunk> oldChunksByStart = new HashMap<>();
+		Map<Long, Deque<Chunk>> oldChunksByHash = new HashMap<>();
+		for (Chunk chunk : chunks) {
+			oldChunksByStart.put(chunk.start, chunk);
+			oldChunksByHash.computeIfAbsent(chunk.hash, h -> new ArrayDeque<>()).add(chunk);
+		}
+
+		List<Chunk> newChunks = split(data);
+		for (Chunk chunk : newChunks) {
+			Chunk old = null;
+			if (chunk.end < editStart) {
+				old = oldChunksByStart.get(chunk.start);
+			}
+			else if (chunk.start > editEnd) {
+				old = oldChunksByStart.get(chunk.start - shift);
+			}
+			chunk.hash = old != null && old.end - old.start == chunk.end - chunk.start
+				? old.hash
+				: hash(data, chunk.trimStart, chunk.trimEnd);
+		}
+
+		Update update = new Update();
+		List<Chunk> parsed = new ArrayList<>();
+		for (Chunk chunk : newChunks) {
+			Chunk old = removeMatch(oldChunksByHash, chunk, data);
+			if (old == null) {
+				parse(data, chunk);
+				parsed.add(chunk);
+				continue;
+			}
+			if (!old.errors.isEmpty() && !samePosition(old, chunk, data)) {
+				// the errors would point to the wrong place
+				parse(data, chunk);
+				if (old.trip != null && chunk.trip != null) {
+					chunk.trip = old.trip;
+				}
+			}
+			else {
+				chunk.trip = old.trip;
+				chunk.errors = old.errors;
+			}
+			if (chunk.trip != null) {
+				update.unchangedTripCount++;
+			}
+		}
+
+		Map<String, Deque<CompassTrip>> oldTripsBySurvey = new LinkedHashMap<>();
+		for (Chunk chunk : chunks) {
+			if (!chunk.reused && chunk.trip != null) {
+				oldTripsBySurvey
+					.computeIfAbsent(chunk.trip.getHeader().getSurveyName(), s -> new ArrayDeque<>())
+					.add(chunk.trip);
+			}
+		}
+		for (Chunk chunk : parsed) {
+			if (chunk.trip == null) {
+				continue;
+			}
+			Deque<CompassTrip> replaced = oldTripsBySurvey.get(chunk.trip.getHeader().getSurveyName());
+			if (replaced != null && !replaced.isEmpty()) {
+				update.changedTrips.add(chunk.trip);
+				update.replacedTrips.add(replaced.poll());
+			}
+			else {
+				update.addedTrips.add(chunk.trip);
+			}
+		}
+		for (Deque<CompassTrip> removed : oldTripsBySurvey.values()) {
+			update.removedTrips.addAll(removed);
+		}
+
+		text = data;
+		chunks = newChunks;
+		return update;
+	}
+
+	/**
+	 * Removes and returns the first old chunk with the same text as the given
+	 * new chunk, if any.
+	 */
+	private Chunk removeMatch(Map<Long, Deque<Chunk>> oldChunksByHash, Chunk chunk, String data) {
+		Deque<Chunk> candidates = oldChunksByHash.get(chunk.hash);
+		if (candidates == null) {
+			return null;
+		}
+		for (Chunk old : candidates) {
+			if (old.trimEnd - old.trimStart == chunk.trimEnd - chunk.trimStart
+				&& text.regionMatches(old.trimStart, data, chunk.trimStart, chunk.trimEnd - chunk.trimStart)) {
+				candidates.remove(old);
+				old.reused = true;
+				return old;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether the trimmed text of the given chunks starts at the same
+	 *         line and column.
+	 */
+	private boolean samePosition(Chunk old, Chunk chunk, String data) {
+		return old.line == chunk.line
+			&& old.col == chunk.col
+			&& old.trimStart - old.start == chunk.trimStart - chunk.start
+			&& text.regionMatches(old.start, data, chunk.start, chunk.trimStart - chunk.start);
+	}
+
+	private void parse(String data, Chunk chunk) {
+		CompassSurveyParser parser = new CompassSurveyParser();
+		parser.setStationDictionary(stationDictionary);
+		Segment segment = new Segment(data.substring(chunk.start, chunk.end), source, chunk.line, chunk.col);
+		chunk.trip = parser.parseTrip(segment.trim());
+		chunk.errors = new ArrayList<>(parser.getErrors());
+	}
+
+	/**
+	 * Splits the given data into form-feed delimited chunks, with their line and
+	 * column numbers.
+	 */
+	private static List<Chunk> split(String data) {
+		List<Chunk> chunks = new ArrayList<>();
+		int line = 0;
+		int col = 0;
+		Chunk chunk = new Chunk();
+		for (int i = 0; i < data.length(); i++) {
+			char c = data.charAt(i);
+			if (c == '\f') {
+				chunk.end = i;
+				chunks.add(chunk);
+				chunk = new Chunk();
+				chunk.start = i + 1;
+				chunk.line = line;
+			}
+			if (c == '\n' || c == '\r' && (i + 1 == data.length() || data.charAt(i + 1) != '\n')) {
+				line++;
+				col = 0;
+			}
+			else {
+				col++;
+			}
+			if (c == '\f') {
+				chunk.col = col;
+			}
+		}
+		chunk.end = data.length();
+		chunks.add(chunk);
+		for (Chunk c : chunks) {
+			c.trimStart = c.start;
+			c.trimEnd = c.end;
+			while (c.trimStart < c.trimEnd && data.charAt(c.trimStart) <= ' ') {
+				c.trimStart++;
+			}
+			while (c.trimEnd > c.trimStart && data.charAt(c.trimEnd - 1) <= ' ') {
+				c.trimEnd--;
+			}
+		}
+		return chunks;
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the given characters.
+	 */
+	private static long hash(String data, int start, int end) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = start; i < end; i++) {
+			hash ^= data.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,84 @@
+package org.andork.compass.survey;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.andork.segment.Segment;
+import org.andork.segment.SegmentMatcher;
+
+/**
+ * Parses each shot of a .DAT file only when it is asked for. Shots reference
+ * their trip header via {@link CompassShot#getTripHeader()}.
+ */
+class ShotIterator implements Iterator<CompassShot> {
+	private final CompassSurveyParser parser;
+	private final TripTextReader trips;
+	private CompassTripHeader header;
+	private Segment data;
+	private SegmentMatcher endOfLineMatcher;
+	private int lineStart;
+	private CompassShot next;
+
+	ShotIterator(CompassSurveyParser parser, TripTextReader trips) {
+		this.parser = parser;
+		this.trips = trips;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null) {
+			next = advance();
+		}
+		return next != null;
+	}
+
+	@Override
+	public CompassShot next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		CompassShot result = next;
+		next = null;
+		return result;
+	}
+
+	private CompassShot advance() {
+		while (true) {
+			while (data != null) {
+				Segment line;
+				if (endOfLineMatcher.find()) {
+					line = data.substring(lineStart, endOfLineMatcher.start());
+					lineStart = endOfLineMatcher.end();
+				}
+				else {
+					line = data.substring(lineStart);
+					data = null;
+				}
+				CompassShot shot = parser.parseShot(line, header);
+				if (shot != null) {
+					return shot;
+				}
+			}
+
+			Segment text;
+			try {
+				text = trips.next();
+			}
+			catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			if (text == null) {
+				return null;
+			}
+			Segment[] parts = CompassSurveyParser.splitHeaderAndData(text.trim());
+			header = parser.parseTripHeader(parts[0]);
+			if (header != null && !parts[1].isEmpty()) {
+				data = parts[1];
+				endOfLineMatcher = new SegmentMatcher(data, CompassSurveyParser.EOL);
+				lineStart = 0;
+			}
+		}
+	}
+}
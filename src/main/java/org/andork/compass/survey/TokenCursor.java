@@ -0,0 +1,121 @@
+package org.andork.compass.survey;
+
+import org.andork.segment.Segment;
+
+/**
+ * Scans the whitespace-separated tokens of a shot line or trip header field,
+ * like a {@link org.andork.segment.SegmentMatcher} for <code>\S+</code>, but
+ * without allocating a matcher per line or a {@link Segment} per token. One
+ * cursor is reused for every line a {@link CompassSurveyParser} parses.
+ */
+class TokenCursor {
+	private Segment segment;
+	private int length;
+	private int index;
+	private int start;
+	private int end;
+	private boolean hitEnd;
+
+	/**
+	 * Starts scanning the given segment from the beginning.
+	 */
+	void reset(Segment segment) {
+		this.segment = segment;
+		length = segment.length();
+		index = 0;
+		start = 0;
+		end = 0;
+		hitEnd = false;
+	}
+
+	/**
+	 * Forgets the segment being scanned, so that it can be garbage collected.
+	 */
+	void clear() {
+		segment = null;
+		length = 0;
+		index = 0;
+		start = 0;
+		end = 0;
+		hitEnd = false;
+	}
+
+	/**
+	 * Finds the next token.
+	 *
+	 * @return whether there was one. If not, the current token is empty and at
+	 *         the end of the segment.
+	 */
+	boolean find() {
+		while (index < length && isWhitespace(segment.charAt(index))) {
+			index++;
+		}
+		start = index;
+		while (index < length && !isWhitespace(segment.charAt(index))) {
+			index++;
+		}
+		end = index;
+		hitEnd = end == length;
+		return end > start;
+	}
+
+	Segment segment() {
+		return segment;
+	}
+
+	/**
+	 * @return the index where the current token starts.
+	 */
+	int start() {
+		return start;
+	}
+
+	/**
+	 * @return the index where the current token ends.
+	 */
+	int end() {
+		return end;
+	}
+
+	/**
+	 * @return whether the last {@link #find()} reached the end of the segment,
+	 *         that is, there are no more tokens.
+	 */
+	boolean hitEnd() {
+		return hitEnd;
+	}
+
+	/**
+	 * @return the current token as a {@link Segment}, for error messages.
+	 */
+	Segment group() {
+		return segment.substring(start, end);
+	}
+
+	/**
+	 * @return whether the current token starts with the given prefix.
+	 */
+	boolean startsWith(String prefix) {
+		if (end - start < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (segment.charAt(start + i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the current token, as a new {@link String}.
+	 */
+	@Override
+	public String toString() {
+		return segment.substring(start, end).toString();
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000b' || c == '\f' || c == '\r';
+	}
+}
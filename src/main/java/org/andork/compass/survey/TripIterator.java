@@ -0,0 +1,56 @@
+package org.andork.compass.survey;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.andork.segment.Segment;
+
+/**
+ * Parses each trip of a .DAT file only when it is asked for.
+ */
+class TripIterator implements Iterator<CompassTrip> {
+	private final CompassSurveyParser parser;
+	private final TripTextReader trips;
+	private CompassTrip next;
+
+	TripIterator(CompassSurveyParser parser, TripTextReader trips) {
+		this.parser = parser;
+		this.trips = trips;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null) {
+			next = advance();
+		}
+		return next != null;
+	}
+
+	@Override
+	public CompassTrip next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		CompassTrip result = next;
+		next = null;
+		return result;
+	}
+
+	private CompassTrip advance() {
+		try {
+			Segment text;
+			while ((text = trips.next()) != null) {
+				CompassTrip trip = parser.parseTrip(text.trim());
+				if (trip != null) {
+					return trip;
+				}
+			}
+			return null;
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package org.andork.compass.survey;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.andork.segment.Segment;
+
+/**
+ * Reads the form-feed-delimited trips of a .DAT file one at a time, keeping
+ * track of the line and column each one starts at so that errors point to the
+ * right place in the file.<br>
+ * <br>
+ * {@link Segment}s are backed by {@link String}s, so each trip is copied once
+ * out of the read buffer into its own {@link String}. Trips that span more than
+ * one buffer are gathered in a {@link StringBuilder} first, which costs a
+ * second copy.
+ */
+class TripTextReader {
+	private final Reader reader;
+	private final Object source;
+	private final char[] buffer = new char[8192];
+	private int bufferStart = 0;
+	private int bufferEnd = 0;
+	private final StringBuilder text = new StringBuilder();
+	private int line = 0;
+	private int col = 0;
+	private boolean afterCarriageReturn = false;
+	private boolean atEnd = false;
+
+	TripTextReader(Reader reader, Object source) {
+		this.reader = reader;
+		this.source = source;
+	}
+
+	/**
+	 * @return the text of the next trip (without the form feed), or
+	 *         <code>null</code> if the end of the input has been reached.
+	 */
+	Segment next() throws IOException {
+		if (atEnd) {
+			return null;
+		}
+		text.setLength(0);
+		while (true) {
+			if (bufferStart == bufferEnd) {
+				int read = reader.read(buffer);
+				if (read < 0) {
+					atEnd = true;
+					return takeText(text.toString());
+				}
+				bufferStart = 0;
+				bufferEnd = read;
+			}
+			for (int i = bufferStart; i < bufferEnd; i++) {
+				if (buffer[i] == '\f') {
+					String trip;
+					if (text.length() == 0) {
+						// the whole trip is in the buffer
+						trip = new String(buffer, bufferStart, i - bufferStart);
+					}
+					else {
+						text.append(buffer, bufferStart, i - bufferStart);
+						trip = text.toString();
+					}
+					bufferStart = i + 1;
+					Segment result = takeText(trip);
+					col++;
+					afterCarriageReturn = false;
+					return result;
+				}
+			}
+			text.append(buffer, bufferStart, bufferEnd - bufferStart);
+			bufferStart = bufferEnd;
+		}
+	}
+
+	private Segment takeText(String text) {
+		Segment result = new Segment(text, source, line, col);
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\r') {
+				line++;
+				col = 0;
+			}
+			else if (c == '\n') {
+				if (!afterCarriageReturn) {
+					line++;
+				}
+				col = 0;
+			}
+			else {
+				col++;
+			}
+			afterCarriageReturn = c == '\r';
+		}
+		return result;
+	}
+}
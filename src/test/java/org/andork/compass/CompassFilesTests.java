@@ -0,0 +1,53 @@
+package org.andork.compass;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompassFilesTests {
+	@Test
+	public void testReadWindows1252() throws IOException {
+		Path file = Files.createTempFile("compass", ".dat");
+		try {
+			Files.write(file, new byte[] { 'A', '1', (byte) 0x80, ' ', (byte) 0xe9, '\r', '\n', '\f' });
+			Assert.assertEquals("A1\u20ac \u00e9\r\n\f", CompassFiles.readString(file));
+
+			StringBuilder builder = new StringBuilder();
+			try (Reader reader = CompassFiles.newReader(file)) {
+				char[] buffer = new char[3];
+				int read;
+				while ((read = reader.read(buffer)) >= 0) {
+					builder.append(buffer, 0, read);
+				}
+			}
+			Assert.assertEquals("A1\u20ac \u00e9\r\n\f", builder.toString());
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testEmptyFile() throws IOException {
+		Path file = Files.createTempFile("compass", ".dat");
+		try {
+			Assert.assertEquals("", CompassFiles.readString(file));
+			try (Reader reader = CompassFiles.newReader(file)) {
+				Assert.assertEquals(-1, reader.read(new char[10]));
+			}
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMultiByteCharset() {
+		MappedFileReader.decodeTable(StandardCharsets.UTF_8);
+	}
+}
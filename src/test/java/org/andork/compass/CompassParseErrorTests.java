@@ -0,0 +1,99 @@
+package org.andork.compass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import org.andork.compass.CompassParseError.ErrorCode;
+import org.andork.compass.CompassParseError.Severity;
+import org.andork.segment.Segment;
+import org.junit.Test;
+
+public class CompassParseErrorTests {
+	@Test
+	public void testMessage() {
+		Segment segment = new Segment("13", "test.dat", 4, 7);
+		CompassParseError error = new CompassParseError(Severity.ERROR, ErrorCode.NOT_BETWEEN, segment, "month", 1, 12);
+		assertEquals("month must be between 1 and 12", error.getMessage());
+		assertSame(error.getMessage(), error.getMessage());
+		assertEquals(ErrorCode.NOT_BETWEEN, error.getCode());
+		assertEquals("test.dat", error.getSource());
+		assertEquals(4, error.getLine());
+		assertEquals(7, error.getColumn());
+		assertEquals(segment, error.getSegment());
+	}
+
+	@Test
+	public void testEquals() {
+		Segment segment = new Segment("A3", "test.dat", 0, 0);
+		CompassParseError coded = new CompassParseError(Severity.ERROR, ErrorCode.MISSING, segment, "length");
+		CompassParseError formatted = new CompassParseError(Severity.ERROR, "missing length", segment);
+		assertEquals(formatted, coded);
+		assertEquals(coded, formatted);
+		assertEquals(formatted.hashCode(), coded.hashCode());
+		assertNotEquals(coded, new CompassParseError(Severity.WARNING, ErrorCode.MISSING, segment, "length"));
+		assertNotEquals(coded, new CompassParseError(Severity.ERROR, ErrorCode.MISSING, segment, "azimuth"));
+		assertNotEquals(
+			coded,
+			new CompassParseError(Severity.ERROR, ErrorCode.MISSING, new Segment("A3", "test.dat", 1, 0), "length"));
+	}
+
+	@Test
+	public void testToString() {
+		CompassParseError error = new CompassParseError(
+			Severity.WARNING,
+			ErrorCode.UNRECOGNIZED_FLAG,
+			new Segment("Q", "test.dat", 9, 64),
+			'Q');
+		assertEquals("warning: unrecognized flag: Q (in test.dat, line 10, column 65):\nQ\n^", error.toString());
+	}
+
+	@Test
+	public void testToStringInContext() {
+		Segment line = new Segment("A3\tA4 4.25 15.00 -91.00 5.00", "test.dat", 9, 0);
+		CompassParseError error = new CompassParseError(
+			Severity.ERROR,
+			ErrorCode.NOT_BETWEEN,
+			line.substring(17, 23),
+			line,
+			new Object[] { "inclination", -90, 90 });
+		assertEquals(
+			"error: inclination must be between -90 and 90 (in test.dat, line 10, column 18):\n"
+				+ "A3\tA4 4.25 15.00 -91.00 5.00\n"
+				+ "  \t              ^^^^^^",
+			error.toString());
+		assertSame(error.toString(), error.toString());
+		assertEquals(new CompassParseError(Severity.ERROR, ErrorCode.NOT_BETWEEN, line.substring(17, 23),
+			"inclination", -90, 90), error);
+
+		// the input is found in a multi-line context
+		Segment header = new Segment("SURVEY NAME: A\r\nDECLINATION: x", "test.dat", 1, 0);
+		error = new CompassParseError(Severity.ERROR, ErrorCode.INVALID, header.substring(29), header,
+			new Object[] { "declination" });
+		assertEquals(
+			"error: invalid declination (in test.dat, line 3, column 14):\nDECLINATION: x\n             ^",
+			error.toString());
+	}
+
+	@Test
+	public void testBoundedText() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			builder.append("ABCDEFGHIJ");
+		}
+		Segment line = new Segment(builder.toString(), "test.dat", 0, 0);
+		CompassParseError error = new CompassParseError(
+			Severity.ERROR,
+			ErrorCode.INVALID,
+			line.substring(5000),
+			line,
+			new Object[] { "junk" });
+		assertEquals(CompassParseError.MAX_TEXT_LENGTH, error.getText().length());
+		String[] lines = error.toString().split("\n");
+		assertEquals(CompassParseError.MAX_TEXT_LENGTH + 2 * CompassParseError.CONTEXT_RADIUS, lines[1].length());
+		assertEquals(CompassParseError.CONTEXT_RADIUS, lines[2].indexOf('^'));
+
+		assertEquals("A3", new CompassParseError(Severity.ERROR, ErrorCode.INVALID,
+			new Segment("A3\r\nA4", "test.dat", 0, 0), "shot").getText());
+	}
+}
@@ -0,0 +1,129 @@
+package org.andork.compass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.andork.compass.plot.CompassPlotCommand;
+import org.andork.compass.plot.CompassPlotParser;
+import org.andork.compass.survey.CompassSurveyParser;
+import org.junit.Test;
+
+public class CompassParserFactoryTests {
+	private static final String BAD_PLOT = "M 1 2 3 SA1 P 1 2 3 4 I -5\r\nD x y z SA2\r\nD q r s SA3\r\n";
+
+	@Test
+	public void testParsersAreReusedPerThread() throws Exception {
+		CompassParserFactory factory = new CompassParserFactory();
+		CompassPlotParser first;
+		List<CompassPlotCommand> commands;
+		List<CompassPlotCommand> allCommands;
+		List<CompassParseError> errors;
+		StationDictionary stations;
+		try (CompassParserFactory.Lease<CompassPlotParser> lease = factory.plotParser()) {
+			first = lease.get();
+			commands = first.parsePlot(new StringReader(BAD_PLOT), "first.plt");
+			allCommands = first.getCommands();
+			errors = first.getErrors();
+			assertEquals(3, errors.size());
+			stations = first.getStationDictionary();
+		}
+		// nothing from the parse is left in the parser
+		assertTrue(first.getErrors().isEmpty());
+		assertTrue(first.getCommands().isEmpty());
+		assertEquals(0, first.getStationDictionary().size());
+
+		try (CompassParserFactory.Lease<CompassPlotParser> lease = factory.plotParser()) {
+			CompassPlotParser second = lease.get();
+			assertSame(first, second);
+			assertNotSame(stations, second.getStationDictionary());
+			second.parsePlot(new StringReader(BAD_PLOT), "second.plt");
+		}
+
+		// results of the first parse are untouched
+		assertEquals(3, errors.size());
+		assertEquals("first.plt", errors.get(0).getSource());
+		assertEquals(1, commands.size());
+		assertEquals(commands, allCommands);
+
+		AtomicReference<CompassSurveyParser> other = new AtomicReference<>();
+		Thread thread = new Thread(() -> {
+			try (CompassParserFactory.Lease<CompassSurveyParser> lease = factory.surveyParser()) {
+				other.set(lease.get());
+			}
+		});
+		thread.start();
+		thread.join();
+		try (CompassParserFactory.Lease<CompassSurveyParser> lease = factory.surveyParser()) {
+			assertNotSame(lease.get(), other.get());
+		}
+	}
+
+	@Test
+	public void testLeasesAreNotReentrant() {
+		CompassParserFactory factory = new CompassParserFactory();
+		CompassParserFactory.Lease<CompassSurveyParser> lease = factory.surveyParser();
+		try {
+			factory.surveyParser();
+			fail("expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+		// other kinds of parsers can still be leased
+		factory.plotParser().close();
+
+		lease.close();
+		lease.close();
+		try {
+			lease.get();
+			fail("expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+		factory.surveyParser().close();
+	}
+
+	@Test
+	public void testRelease() {
+		CompassParserFactory factory = new CompassParserFactory();
+		CompassSurveyParser first;
+		try (CompassParserFactory.Lease<CompassSurveyParser> lease = factory.surveyParser()) {
+			first = lease.get();
+			try {
+				factory.release();
+				fail("expected IllegalStateException");
+			}
+			catch (IllegalStateException e) {
+				// expected
+			}
+		}
+		factory.release();
+		try (CompassParserFactory.Lease<CompassSurveyParser> lease = factory.surveyParser()) {
+			assertNotSame(first, lease.get());
+		}
+	}
+
+	@Test
+	public void testMaxErrorsAndSharedDictionary() throws Exception {
+		StationDictionary stations = new StationDictionary();
+		CompassParserFactory factory = new CompassParserFactory(1, stations);
+		try (CompassParserFactory.Lease<CompassPlotParser> lease = factory.plotParser()) {
+			CompassPlotParser parser = lease.get();
+			parser.parsePlot(new StringReader(BAD_PLOT), "test.plt");
+			assertEquals(1, parser.getErrors().size());
+			assertEquals(2, ((CollectingErrorSink) parser.getErrorSink()).getDroppedCount());
+		}
+		try (CompassParserFactory.Lease<CompassSurveyParser> lease = factory.surveyParser()) {
+			assertSame(stations, lease.get().getStationDictionary());
+		}
+		assertTrue(stations.getId("A1") >= 0);
+	}
+}
@@ -0,0 +1,59 @@
+package org.andork.compass;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DecimalFormatterTests {
+	private static String format(DecimalFormatter formatter, double value, int width) {
+		char[] out = new char[Math.max(width, DecimalFormatter.MAX_LENGTH) + 2];
+		int length = formatter.format(value, width, out, 1);
+		return new String(out, 1, length);
+	}
+
+	@Test
+	public void testFormat() {
+		DecimalFormatter two = new DecimalFormatter(2);
+		Assert.assertEquals("0.00", format(two, 0, 0));
+		Assert.assertEquals("0.00", format(two, -0.001, 0));
+		Assert.assertEquals("-0.01", format(two, -0.005, 0));
+		Assert.assertEquals("   21.75", format(two, 21.75, 8));
+		Assert.assertEquals("-9999.00", format(two, -9999, 8));
+		Assert.assertEquals("-9999.00", format(two, -9999, 3));
+		Assert.assertEquals("14346579.97", format(two, 14346579.97, 0));
+
+		DecimalFormatter zero = new DecimalFormatter(0);
+		Assert.assertEquals("1987", format(zero, 1987, 0));
+		Assert.assertEquals("   -3", format(zero, -2.5, 5));
+		Assert.assertEquals(3, new DecimalFormatter(3).getDecimals());
+	}
+
+	@Test
+	public void testMatchesBigDecimal() {
+		Random random = new Random(7);
+		for (int decimals = 0; decimals <= 4; decimals++) {
+			DecimalFormatter formatter = new DecimalFormatter(decimals);
+			for (int i = 0; i < 1000; i++) {
+				double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(10));
+				String expected = new BigDecimal(value).setScale(decimals, RoundingMode.HALF_UP).toPlainString();
+				if (expected.matches("-0\\.?0*")) {
+					expected = expected.substring(1);
+				}
+				Assert.assertEquals(String.valueOf(value), expected, format(formatter, value, 0));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNaN() {
+		format(new DecimalFormatter(2), Double.NaN, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyDecimals() {
+		new DecimalFormatter(19);
+	}
+}
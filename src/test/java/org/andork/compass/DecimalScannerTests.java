@@ -0,0 +1,85 @@
+package org.andork.compass;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.andork.segment.Segment;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DecimalScannerTests {
+	private static void assertMatchesBigDecimal(DecimalScanner scanner, String text) {
+		double expected;
+		try {
+			expected = new BigDecimal(text).doubleValue();
+		}
+		catch (NumberFormatException ex) {
+			expected = Double.NaN;
+		}
+		String padded = "  " + text + " ";
+		double actual = scanner.parse(new Segment(padded, "test.txt", 0, 0), 2, 2 + text.length());
+		Assert.assertEquals(text, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+		Assert.assertEquals(text, Double.doubleToLongBits(expected),
+			Double.doubleToLongBits(scanner.parse(padded, 2, 2 + text.length())));
+		Assert.assertEquals(text, Double.doubleToLongBits(expected),
+			Double.doubleToLongBits(scanner.parse(padded.toCharArray(), 2, 2 + text.length())));
+	}
+
+	@Test
+	public void testValidNumbers() {
+		DecimalScanner scanner = new DecimalScanner();
+		for (String text : new String[] {
+			"0", "-0", "+0", "0.0", "-0.00", "1", "-1", "+1", "12.00", "135.00", "-85.00", "-9.90", "-999.00",
+			"-9999.00", "990", "990.0000000000000000001", "359.99", "0.1", "0.3", ".5", "-.5", "5.", "-5.",
+			"1e3", "1E3", "1.5e-3", "-2.5E+2", "1.e5", "00012.3400", "9007199254740993", "0.1234567890123456789012",
+			"123456789012345678901234567890", "1234567.8901234567", "4.9e-324", "1.7976931348623157e308",
+		}) {
+			assertMatchesBigDecimal(scanner, text);
+		}
+	}
+
+	@Test
+	public void testInvalidNumbers() {
+		DecimalScanner scanner = new DecimalScanner();
+		for (String text : new String[] {
+			"", "-", "+", ".", "-.", "e5", ".e5", "1e", "1e+", "1..2", "1.2.3", "--1", "+-1", "1-", "NaN",
+			"Infinity", "0x10", "1d", "1f", "1,5", "a0.0", "%2.0", "#|PC#", "1e99999999999",
+		}) {
+			assertMatchesBigDecimal(scanner, text);
+			Assert.assertTrue(text, Double.isNaN(scanner.parse(text, 0, text.length())));
+		}
+	}
+
+	@Test
+	public void testRandomNumbers() {
+		DecimalScanner scanner = new DecimalScanner();
+		Random random = new Random(1234);
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			builder.setLength(0);
+			switch (random.nextInt(3)) {
+			case 0:
+				builder.append('-');
+				break;
+			case 1:
+				builder.append('+');
+				break;
+			}
+			int integerDigits = random.nextInt(i % 10 == 0 ? 20 : 5);
+			for (int d = 0; d < integerDigits; d++) {
+				builder.append((char) ('0' + random.nextInt(10)));
+			}
+			if (random.nextBoolean()) {
+				builder.append('.');
+				int fractionDigits = random.nextInt(i % 10 == 0 ? 25 : 4);
+				for (int d = 0; d < fractionDigits; d++) {
+					builder.append((char) ('0' + random.nextInt(10)));
+				}
+			}
+			if (random.nextInt(20) == 0) {
+				builder.append('e').append(random.nextInt(41) - 20);
+			}
+			assertMatchesBigDecimal(scanner, builder.toString());
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package org.andork.compass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.andork.compass.plot.CompassPlotParser;
+import org.andork.compass.survey.CompassSurveyParser;
+import org.junit.Test;
+
+public class ErrorSinkTests {
+	private static final String HEADER = "SECRET CAVE\r\n" +
+		"SURVEY NAME: A\r\n" +
+		"SURVEY DATE: 7 10 79  COMMENT:Entrance Passage\r\n" +
+		"SURVEY TEAM:\r\n" +
+		"D.SMITH,R.BROWN,S.MURRAY\r\n" +
+		"DECLINATION: 1.00  FORMAT: DDDDLUDRADLNF\r\n" +
+		"\r\n" +
+		"FROM TO  LENGTH BEARING  DIP    LEFT    UP  DOWN RIGHT\r\n" +
+		"\r\n";
+
+	/**
+	 * @return trips with one error in each of their shots.
+	 */
+	private static String junk(int trips, int shotsPerTrip) {
+		StringBuilder builder = new StringBuilder();
+		for (int trip = 0; trip < trips; trip++) {
+			builder.append(HEADER);
+			for (int shot = 0; shot < shotsPerTrip; shot++) {
+				builder.append("A").append(shot).append(" A").append(shot + 1)
+					.append("  -41.17   46.00   2.00  0.00  0.00  0.00  0.00\r\n");
+			}
+			builder.append("\f\r\n");
+		}
+		return builder.toString();
+	}
+
+	@Test
+	public void testBoundedCollecting() {
+		CompassSurveyParser parser = new CompassSurveyParser();
+		CollectingErrorSink sink = new CollectingErrorSink(5);
+		parser.setErrorSink(sink);
+		parser.parseCompassSurveyData(junk(3, 10), "junk.dat");
+		assertEquals(5, sink.getErrors().size());
+		assertEquals(5, parser.getErrors().size());
+		assertEquals(25, sink.getDroppedCount());
+		assertTrue(sink.isTruncated());
+	}
+
+	@Test
+	public void testBoundedCollectingInParallel() {
+		CompassSurveyParser parser = new CompassSurveyParser();
+		CollectingErrorSink sink = new CollectingErrorSink(5);
+		parser.setErrorSink(sink);
+		int trips = CompassSurveyParser.MAX_TRIPS_IN_FLIGHT + 3;
+		parser.parseCompassSurveyData(junk(trips, 10), "junk.dat", ForkJoinPool.commonPool());
+
+		CompassSurveyParser sequential = new CompassSurveyParser();
+		sequential.parseCompassSurveyData(junk(trips, 10), "junk.dat");
+		assertEquals(sequential.getErrors().subList(0, 5), sink.getErrors());
+		assertEquals(trips * 10 - 5, sink.getDroppedCount());
+	}
+
+	@Test
+	public void testStreamingInParallel() {
+		int trips = CompassSurveyParser.MAX_TRIPS_IN_FLIGHT * 2 + 3;
+		CompassSurveyParser sequential = new CompassSurveyParser();
+		sequential.parseCompassSurveyData(junk(trips, 3), "junk.dat");
+
+		// errors come on the calling thread, in file order
+		Thread caller = Thread.currentThread();
+		List<CompassParseError> received = new ArrayList<>();
+		CompassSurveyParser parser = new CompassSurveyParser();
+		parser.setErrorSink(error -> {
+			assertSame(caller, Thread.currentThread());
+			received.add(error);
+		});
+		parser.parseCompassSurveyData(junk(trips, 3), "junk.dat", ForkJoinPool.commonPool());
+		assertEquals(sequential.getErrors(), received);
+	}
+
+	@Test
+	public void testFailFastInParallel() {
+		CompassSurveyParser parser = new CompassSurveyParser();
+		parser.setErrorSink(new FailFastErrorSink());
+		try {
+			parser.parseCompassSurveyData(junk(CompassSurveyParser.MAX_TRIPS_IN_FLIGHT * 2, 10), "junk.dat",
+				ForkJoinPool.commonPool());
+			fail("expected CompassParseException");
+		}
+		catch (CompassParseException e) {
+			CompassSurveyParser expected = new CompassSurveyParser();
+			expected.parseCompassSurveyData(junk(1, 10), "junk.dat");
+			assertEquals(expected.getErrors().get(0), e.getError());
+		}
+	}
+
+	@Test
+	public void testCounting() {
+		CompassSurveyParser parser = new CompassSurveyParser();
+		CountingErrorSink sink = new CountingErrorSink();
+		parser.setErrorSink(sink);
+		parser.parseCompassSurveyData(junk(2, 10), "junk.dat");
+		assertEquals(20, sink.getCount());
+		assertEquals(20, sink.getErrorCount());
+		assertEquals(0, sink.getWarningCount());
+		assertTrue(parser.getErrors().isEmpty());
+	}
+
+	@Test
+	public void testFailFast() {
+		CompassSurveyParser parser = new CompassSurveyParser();
+		parser.setErrorSink(new FailFastErrorSink());
+		try {
+			parser.parseCompassSurveyData(junk(2, 10), "junk.dat");
+			fail("expected CompassParseException");
+		}
+		catch (CompassParseException e) {
+			CompassSurveyParser expected = new CompassSurveyParser();
+			expected.parseCompassSurveyData(junk(2, 10), "junk.dat");
+			assertEquals(expected.getErrors().get(0), e.getError());
+		}
+	}
+
+	@Test
+	public void testStreaming() throws Exception {
+		List<CompassParseError> received = new ArrayList<>();
+		CompassPlotParser parser = new CompassPlotParser();
+		parser.setErrorSink(received::add);
+		parser.parsePlot(new StringReader("M 1 2 3 SA1 P 1 2 3 4 I -5\r\nD x y z SA2\r\n"), "junk.plt");
+		assertEquals(2, received.size());
+		assertEquals(CompassParseError.Severity.WARNING, received.get(0).getSeverity());
+		assertEquals(CompassParseError.Severity.ERROR, received.get(1).getSeverity());
+		assertTrue(parser.getErrors().isEmpty());
+	}
+}
@@ -0,0 +1,77 @@
+package org.andork.compass;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FormattedWriterTests {
+	@Test
+	public void testAppend() throws IOException {
+		StringWriter out = new StringWriter();
+		StringBuilder expected = new StringBuilder();
+		try (FormattedWriter writer = new FormattedWriter(out, DecimalFormatter.MAX_LENGTH)) {
+			for (int i = 0; i < 20; i++) {
+				writer.append('#').appendInt(i).append(" some text longer than the buffer itself ");
+				writer.append(new DecimalFormatter(2), i / 3.0, 8).append((String) null);
+				writer.appendLine("a\r\nb\fc").appendLine(null).append('\n');
+				expected.append('#').append(i).append(" some text longer than the buffer itself ");
+				expected.append(String.format(Locale.ROOT, "%8.2f", i / 3.0));
+				expected.append("a  b c\n");
+			}
+			Assert.assertTrue(out.toString().length() < expected.length());
+			writer.flush();
+			Assert.assertEquals(expected.toString(), out.toString());
+		}
+		Assert.assertEquals(expected.toString(), out.toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBufferTooSmall() {
+		new FormattedWriter(new StringWriter(), DecimalFormatter.MAX_LENGTH - 1);
+	}
+
+	@Test
+	public void testUnchecked() {
+		IOException failure = new IOException("failed");
+		FormattedWriter writer = new FormattedWriter(new FilterWriter(new StringWriter()) {
+			@Override
+			public void write(char[] cbuf, int off, int len) throws IOException {
+				throw failure;
+			}
+		}, 64);
+		try {
+			FormattedWriter.unchecked(() -> writer.append("text").flush());
+			Assert.fail("expected UncheckedIOException");
+		}
+		catch (UncheckedIOException e) {
+			Assert.assertSame(failure, e.getCause());
+		}
+	}
+
+	@Test
+	public void testAppendAtomically() throws IOException {
+		StringWriter out = new StringWriter();
+		try (FormattedWriter writer = new FormattedWriter(out, DecimalFormatter.MAX_LENGTH)) {
+			writer.append("kept ");
+			writer.appendAtomically(() -> writer.append("also kept "));
+			try {
+				writer.appendAtomically(() -> {
+					// longer than the buffer, so it has to grow
+					writer.append("this part is longer than the buffer of the writer ");
+					writer.appendAtomically(() -> writer.append(new DecimalFormatter(2), Double.POSITIVE_INFINITY, 0));
+				});
+				Assert.fail("expected IllegalArgumentException");
+			}
+			catch (IllegalArgumentException e) {
+				// expected
+			}
+			writer.append("end");
+		}
+		Assert.assertEquals("kept also kept end", out.toString());
+	}
+}
@@ -0,0 +1,83 @@
+package org.andork.compass;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.andork.segment.Segment;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StationDictionaryTests {
+	@Test
+	public void testIntern() {
+		StationDictionary dictionary = new StationDictionary();
+		Segment segment = new Segment("A1 A2 A1 B1", "test.txt", 0, 0);
+		Assert.assertEquals(0, dictionary.intern(segment, 0, 2));
+		Assert.assertEquals(1, dictionary.intern(segment, 3, 5));
+		Assert.assertEquals(0, dictionary.intern(segment, 6, 8));
+		Assert.assertEquals(0, dictionary.intern("A1"));
+		Assert.assertEquals(2, dictionary.intern("xB1x", 1, 3));
+		Assert.assertEquals(2, dictionary.intern(segment.substring(9)));
+		Assert.assertEquals(3, dictionary.size());
+		Assert.assertEquals("A2", dictionary.getName(1));
+		Assert.assertEquals(-1, dictionary.getId("a1"));
+		Assert.assertArrayEquals(new String[] { "A1", "A2", "B1" }, dictionary.getNames());
+	}
+
+	@Test
+	public void testGrowth() {
+		StationDictionary dictionary = new StationDictionary();
+		for (int i = 0; i < 10000; i++) {
+			Assert.assertEquals(i, dictionary.intern("S" + i));
+		}
+		for (int i = 0; i < 10000; i++) {
+			Assert.assertEquals(i, dictionary.getId("S" + i));
+			Assert.assertEquals("S" + i, dictionary.getName(i));
+		}
+	}
+
+	@Test
+	public void testInternAll() {
+		StationDictionary dictionary = new StationDictionary();
+		dictionary.intern("B");
+		StationDictionary other = new StationDictionary();
+		other.intern("A");
+		other.intern("B");
+		other.intern("C");
+		Assert.assertArrayEquals(new int[] { 1, 0, 2 }, dictionary.internAll(other));
+		Assert.assertArrayEquals(new String[] { "B", "A", "C" }, dictionary.getNames());
+		Assert.assertSame(dictionary.getName(1), dictionary.getName(dictionary.intern("A")));
+	}
+
+	@Test
+	public void testConcurrentIntern() throws Exception {
+		StationDictionary dictionary = new StationDictionary();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<int[]>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				futures.add(executor.submit(() -> {
+					int[] ids = new int[5000];
+					for (int i = 0; i < ids.length; i++) {
+						ids[i] = dictionary.intern("S" + i);
+					}
+					return ids;
+				}));
+			}
+			int[] expected = futures.get(0).get();
+			for (Future<int[]> future : futures) {
+				Assert.assertArrayEquals(expected, future.get());
+			}
+			Assert.assertEquals(5000, dictionary.size());
+			for (int i = 0; i < expected.length; i++) {
+				Assert.assertEquals("S" + i, dictionary.getName(expected[i]));
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package org.andork.compass;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+import org.andork.unit.Angle;
+import org.andork.unit.Length;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class UnitArraysTests {
+	@Test
+	public void testMatchesUnitizedDouble() {
+		double[] values = { 0, 1, -2.5, 359.99, Double.NaN, 1e6 };
+		double[] out = new double[values.length + 2];
+
+		UnitArrays.feetToMeters(values, 0, out, 1, values.length);
+		for (int i = 0; i < values.length; i++) {
+			Assert.assertEquals(Length.feet(values[i]).get(Length.meters), out[i + 1], 1e-9);
+		}
+		UnitArrays.degreesToRadians(values, 0, out, 0, values.length);
+		for (int i = 0; i < values.length; i++) {
+			Assert.assertEquals(Angle.degrees(values[i]).get(Angle.radians), out[i], 1e-12);
+		}
+	}
+
+	@Test
+	public void testMatchesUnitEnums() {
+		double[] values = { 45, -30, 180 };
+		double[] out = new double[values.length];
+		for (InclinationUnit unit : InclinationUnit.values()) {
+			UnitArrays.convertInclinations(values, 0, out, 0, values.length, unit);
+			for (int i = 0; i < values.length; i++) {
+				Assert.assertEquals(
+					unit.toString(),
+					InclinationUnit.convert(new BigDecimal(values[i]), unit).doubleValue(),
+					out[i],
+					1e-9);
+			}
+			UnitArrays.inclinationsToDegrees(out, 0, out, 0, out.length, unit);
+			if (unit != InclinationUnit.PERCENT_GRADE) {
+				Assert.assertArrayEquals(unit.toString(), values, out, 1e-9);
+			}
+		}
+		for (AzimuthUnit unit : AzimuthUnit.values()) {
+			UnitArrays.convertAzimuths(values, 0, out, 0, values.length, unit);
+			for (int i = 0; i < values.length; i++) {
+				Assert.assertEquals(AzimuthUnit.convert(new BigDecimal(values[i]), unit).doubleValue(), out[i], 1e-9);
+			}
+		}
+		for (LengthUnit unit : LengthUnit.values()) {
+			UnitArrays.convertLengths(values, 0, out, 0, values.length, unit);
+			for (int i = 0; i < values.length; i++) {
+				Assert.assertEquals(LengthUnit.convert(new BigDecimal(values[i]), unit).doubleValue(), out[i], 1e-9);
+			}
+		}
+
+		// percent grade only round trips within +/- 90 degrees
+		double[] grades = { 100, -50 };
+		UnitArrays.percentGradeToDegrees(grades, 0, out, 0, 2);
+		Assert.assertEquals(45, out[0], 1e-9);
+		UnitArrays.degreesToPercentGrade(out, 0, out, 0, 2);
+		Assert.assertEquals(-50, out[1], 1e-9);
+	}
+
+	@Test
+	public void testBuffers() {
+		DoubleBuffer doubles = DoubleBuffer.wrap(new double[] { 1, 10, 100 });
+		UnitArrays.feetToMeters(doubles, 1, 2);
+		Assert.assertArrayEquals(new double[] { 1, 3.048, 30.48 }, doubles.array(), 1e-12);
+
+		FloatBuffer direct = ByteBuffer.allocateDirect(12).asFloatBuffer();
+		direct.put(0, 1).put(1, 10).put(2, 100);
+		UnitArrays.feetToMeters(direct, 0, 3);
+		Assert.assertEquals(30.48f, direct.get(2), 0);
+		Assert.assertEquals(0, direct.position());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testOutOfBounds() {
+		UnitArrays.feetToMeters(new double[3], 0, new double[2], 0, 3);
+	}
+}
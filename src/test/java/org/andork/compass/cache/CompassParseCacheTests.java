@@ -0,0 +1,171 @@
+package org.andork.compass.cache;
+
+import static org.andork.compass.survey.SurveyAssertions.assertTripsEqual;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.andork.compass.StationDictionary;
+import org.andork.compass.plot.CompassPlotCommand;
+import org.andork.compass.plot.CompassPlotParser;
+import org.andork.compass.plot.DrawSurveyCommand;
+import org.andork.compass.project.CompassProject;
+import org.andork.compass.project.CompassProjectLoader;
+import org.andork.compass.project.FileDirective;
+import org.andork.compass.survey.CompassShot;
+import org.andork.compass.survey.CompassSurveyParser;
+import org.andork.compass.survey.CompassTrip;
+import org.andork.segment.SegmentParseException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompassParseCacheTests {
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("compass-parse-cache");
+		for (String name : new String[] { "Fulfords.mak", "Fulford.dat", "Fulsurf.dat", "Fulfords.plt" }) {
+			try (InputStream in = getClass().getResourceAsStream("../fulford/" + name)) {
+				Files.copy(in, directory.resolve(name));
+			}
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testSurvey() throws IOException {
+		Path file = directory.resolve("Fulford.dat");
+		CompassParseCache cache = new CompassParseCache(directory.resolve("cache"));
+		List<CompassTrip> expected = new CompassSurveyParser().parseCompassSurveyData(file);
+
+		assertTripsEqual(expected, cache.loadSurvey(file, new CompassSurveyParser()));
+
+		CompassSurveyParser parser = new CompassSurveyParser();
+		List<CompassTrip> cached = cache.loadSurvey(file, parser);
+		assertTripsEqual(expected, cached);
+		for (CompassTrip trip : cached) {
+			for (CompassShot shot : trip.getShots()) {
+				Assert.assertSame(
+					parser.getStationDictionary().getName(shot.getFromStationId()),
+					shot.getFromStationName());
+			}
+		}
+
+		// same size and modification time, so the cache can't tell it changed...
+		FileTime modified = Files.getLastModifiedTime(file);
+		String text = new String(Files.readAllBytes(file), "windows-1252");
+		Files.write(file, text.replaceFirst("A1", "Q1").getBytes("windows-1252"));
+		Files.setLastModifiedTime(file, modified);
+		assertTripsEqual(expected, cache.loadSurvey(file, new CompassSurveyParser()));
+
+		// ...unless it checks the contents
+		cache.setVerifyContents(true);
+		List<CompassTrip> changed = cache.loadSurvey(file, new CompassSurveyParser());
+		assertTripsEqual(new CompassSurveyParser().parseCompassSurveyData(file), changed);
+	}
+
+	@Test
+	public void testPlot() throws IOException {
+		Path file = directory.resolve("Fulfords.plt");
+		CompassParseCache cache = new CompassParseCache(directory.resolve("cache"));
+		List<CompassPlotCommand> expected = new CompassPlotParser().parsePlot(file);
+
+		Assert.assertEquals(expected.toString(), cache.loadPlot(file, new CompassPlotParser()).toString());
+		StationDictionary stations = new StationDictionary();
+		CompassPlotParser parser = new CompassPlotParser();
+		parser.setStationDictionary(stations);
+		List<CompassPlotCommand> cached = cache.loadPlot(file, parser);
+		Assert.assertEquals(expected.toString(), cached.toString());
+		for (CompassPlotCommand command : cached) {
+			if (command instanceof DrawSurveyCommand) {
+				DrawSurveyCommand draw = (DrawSurveyCommand) command;
+				Assert.assertSame(stations.getName(draw.getStationId()), draw.getStationName());
+			}
+		}
+
+		// a new modification time with the same contents still hits
+		Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10000));
+		Assert.assertEquals(expected.toString(), cache.loadPlot(file, new CompassPlotParser()).toString());
+	}
+
+	@Test
+	public void testProjectLoader() throws IOException, SegmentParseException {
+		Path file = directory.resolve("Fulfords.mak");
+		CompassProject expected = new CompassProjectLoader(2).load(file);
+
+		CompassProjectLoader loader = new CompassProjectLoader(2);
+		loader.setParseCache(new CompassParseCache(directory.resolve("cache")));
+		for (int pass = 0; pass < 2; pass++) {
+			CompassProject actual = loader.load(file);
+			Assert.assertEquals(expected.directives.toString(), actual.directives.toString());
+			Assert.assertEquals(expected.files.size(), actual.files.size());
+			for (int i = 0; i < expected.files.size(); i++) {
+				assertTripsEqual(expected.files.get(i).trips, actual.files.get(i).trips);
+			}
+			FileDirective directive = (FileDirective) actual.files.get(0).directive;
+			Assert.assertEquals(actual.stations.getId("A1"), directive.linkStations.get(0).id);
+			// ids don't depend on which files came from the cache or were parsed first
+			Assert.assertArrayEquals(expected.stations.getNames(), actual.stations.getNames());
+			Assert.assertFalse(actual.hasErrors());
+		}
+	}
+
+	@Test
+	public void testCorruptEntry() throws IOException {
+		Path file = directory.resolve("Fulford.dat");
+		Path cacheDirectory = directory.resolve("cache");
+		CompassParseCache cache = new CompassParseCache(cacheDirectory);
+		List<CompassTrip> expected = cache.loadSurvey(file, new CompassSurveyParser());
+		try (Stream<Path> entries = Files.list(cacheDirectory)) {
+			for (Path entry : (Iterable<Path>) entries::iterator) {
+				byte[] bytes = Files.readAllBytes(entry);
+				Files.write(entry, Arrays.copyOf(bytes, bytes.length / 2));
+			}
+		}
+		List<Exception> failures = new ArrayList<>();
+		cache.setFailureListener((failedFile, entry, exception) -> failures.add(exception));
+		assertTripsEqual(expected, cache.loadSurvey(file, new CompassSurveyParser()));
+		Assert.assertEquals(1, failures.size());
+		assertTripsEqual(expected, cache.loadSurvey(file, new CompassSurveyParser()));
+		Assert.assertEquals(1, failures.size());
+	}
+
+	@Test
+	public void testLongStrings() throws IOException {
+		StringBuilder comment = new StringBuilder();
+		while (comment.length() < 100000) {
+			comment.append("long comment \u00e9\u4e2d ");
+		}
+		CompassTrip trip = new CompassSurveyParser().parseCompassSurveyData(directory.resolve("Fulford.dat")).get(0);
+		trip.getHeader().setComment(comment.toString());
+		trip.getShots().get(0).setComment(comment.toString());
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CompassBinaryWriter writer = new CompassBinaryWriter(bytes);
+		writer.writeTrips(Arrays.asList(trip));
+		writer.flush();
+		List<CompassTrip> read =
+			new CompassBinaryReader(new ByteArrayInputStream(bytes.toByteArray())).readTrips();
+		Assert.assertEquals(comment.toString(), read.get(0).getHeader().getComment());
+		Assert.assertEquals(comment.toString(), read.get(0).getShots().get(0).getComment());
+	}
+}
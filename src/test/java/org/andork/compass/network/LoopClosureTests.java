@@ -0,0 +1,164 @@
+package org.andork.compass.network;
+
+import static org.andork.compass.survey.SurveyFixtures.shot;
+import static org.andork.compass.survey.SurveyFixtures.trips;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.andork.compass.StationDictionary;
+import org.andork.compass.project.CompassProject;
+import org.andork.compass.project.CompassProjectLoader;
+import org.andork.compass.survey.CompassShot;
+import org.andork.unit.Length;
+import org.junit.Test;
+
+public class LoopClosureTests {
+	@Test
+	public void testSingleLoop() {
+		StationDictionary stations = new StationDictionary();
+		SurveyNetwork network = SurveyNetwork.build(
+			stations,
+			trips(
+				shot("A", "B", Length.meters(10), 90, 0),
+				shot("B", "C", Length.meters(10), 0, 0),
+				shot("C", "D", Length.meters(10), 270, 0),
+				shot("D", "A", Length.meters(11), 180, 0),
+				shot("D", "E", Length.meters(5), 270, 0)));
+		FixedStations fixed = new FixedStations();
+		fixed.add(stations.getId("A"), 0, 0, 0);
+		StationCoordinates coordinates = new LoopClosure(network).adjust(fixed);
+
+		// the 1 meter misclosure is spread in proportion to shot length
+		assertEquals(0, coordinates.getNorthing(stations.getId("A")), 0);
+		assertEquals(10 / 41.0, coordinates.getNorthing(stations.getId("B")), 1e-9);
+		assertEquals(10 + 20 / 41.0, coordinates.getNorthing(stations.getId("C")), 1e-9);
+		assertEquals(10 + 30 / 41.0, coordinates.getNorthing(stations.getId("D")), 1e-9);
+		assertEquals(10 + 30 / 41.0, coordinates.getNorthing(stations.getId("E")), 1e-9);
+		assertEquals(-5, coordinates.getEasting(stations.getId("E")), 1e-9);
+		assertEquals(10, coordinates.getEasting(stations.getId("B")), 1e-9);
+	}
+
+	@Test
+	public void testDoNotAdjust() {
+		StationDictionary stations = new StationDictionary();
+		CompassShot rigid = shot("D", "A", Length.meters(11), 180, 0);
+		rigid.setDoNotAdjust(true);
+		SurveyNetwork network = SurveyNetwork.build(
+			stations,
+			trips(
+				shot("A", "B", Length.meters(10), 90, 0),
+				shot("B", "C", Length.meters(10), 0, 0),
+				shot("C", "D", Length.meters(10), 270, 0),
+				rigid));
+		FixedStations fixed = new FixedStations();
+		fixed.add(stations.getId("B"), 0, 10, 0);
+		StationCoordinates coordinates = new LoopClosure(network).adjust(fixed);
+
+		int a = stations.getId("A");
+		int d = stations.getId("D");
+		assertEquals(11, coordinates.getNorthing(d) - coordinates.getNorthing(a), 1e-9);
+		assertEquals(0, coordinates.getNorthing(stations.getId("B")), 0);
+		assertEquals(-1 / 3.0, coordinates.getNorthing(a), 1e-9);
+		assertEquals(10 + 1 / 3.0, coordinates.getNorthing(stations.getId("C")), 1e-9);
+	}
+
+	/**
+	 * Checks that the gradient of the weighted sum of squared shot residuals is
+	 * zero at every station that isn't fixed.
+	 */
+	@Test
+	public void testGridIsLeastSquares() {
+		Random random = new Random(7);
+		int size = 30;
+		List<CompassShot> shots = new ArrayList<>();
+		for (int row = 0; row < size; row++) {
+			for (int col = 0; col < size; col++) {
+				String station = "S" + row + "_" + col;
+				if (col + 1 < size && random.nextInt(5) > 0) {
+					shots.add(shot(station, "S" + row + "_" + (col + 1), Length.meters(5 + random.nextDouble() * 10),
+						85 + random.nextDouble() * 10, random.nextDouble() * 10 - 5));
+				}
+				if (row + 1 < size && random.nextInt(5) > 0) {
+					shots.add(shot(station, "S" + (row + 1) + "_" + col, Length.meters(5 + random.nextDouble() * 10),
+						random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5));
+				}
+			}
+			shots.add(shot("S" + row + "_" + (size - 1), "spur" + row, Length.meters(3), 45, 0));
+		}
+		StationDictionary stations = new StationDictionary();
+		SurveyNetwork network = SurveyNetwork.build(stations, trips(shots.toArray(new CompassShot[shots.size()])));
+		FixedStations fixed = new FixedStations();
+		fixed.add(stations.getId("S0_0"), 1000, 2000, 300);
+		fixed.add(stations.getId("S10_10"), 1100, 2100, 310);
+		StationCoordinates coordinates = new LoopClosure(network).adjust(fixed);
+
+		double[][] gradients = new double[3][network.getStationCount()];
+		for (int shot = 0; shot < network.getShotCount(); shot++) {
+			int from = network.getFromStation(shot);
+			int to = network.getToStation(shot);
+			if (!coordinates.isLocated(from)) {
+				continue;
+			}
+			double[] offsets = { network.getNorthOffset(shot), network.getEastOffset(shot), network.getUpOffset(shot) };
+			double[] fromCoordinates = {
+				coordinates.getNorthing(from),
+				coordinates.getEasting(from),
+				coordinates.getElevation(from) };
+			double[] toCoordinates = {
+				coordinates.getNorthing(to),
+				coordinates.getEasting(to),
+				coordinates.getElevation(to) };
+			double length = Math.sqrt(offsets[0] * offsets[0] + offsets[1] * offsets[1] + offsets[2] * offsets[2]);
+			for (int axis = 0; axis < 3; axis++) {
+				double residual = (toCoordinates[axis] - fromCoordinates[axis] - offsets[axis]) / length;
+				gradients[axis][from] -= residual;
+				gradients[axis][to] += residual;
+			}
+		}
+		int checked = 0;
+		for (int station = 0; station < network.getStationCount(); station++) {
+			if (!coordinates.isLocated(station)
+				|| station == stations.getId("S0_0")
+				|| station == stations.getId("S10_10")) {
+				continue;
+			}
+			checked++;
+			for (int axis = 0; axis < 3; axis++) {
+				assertEquals(0, gradients[axis][station], 1e-6);
+			}
+		}
+		assertTrue(checked > size * size / 2);
+		assertEquals(1100, coordinates.getNorthing(stations.getId("S10_10")), 0);
+	}
+
+	@Test
+	public void testFulfordProject() throws Exception {
+		Path path = Paths.get(getClass().getResource("../fulford/Fulfords.mak").toURI());
+		CompassProject project = new CompassProjectLoader().load(path);
+		SurveyNetwork network = SurveyNetwork.build(project);
+		FixedStations fixed = FixedStations.fromProject(project);
+		StationCoordinates unadjusted = network.computeCoordinates(fixed);
+		StationCoordinates adjusted = new LoopClosure(network).adjust(fixed);
+
+		double unadjustedError = 0;
+		double adjustedError = 0;
+		for (int shot = 0; shot < network.getShotCount(); shot++) {
+			int from = network.getFromStation(shot);
+			int to = network.getToStation(shot);
+			unadjustedError = Math.max(unadjustedError, Math.abs(
+				unadjusted.getElevation(to) - unadjusted.getElevation(from) - network.getUpOffset(shot)));
+			adjustedError = Math.max(adjustedError, Math.abs(
+				adjusted.getElevation(to) - adjusted.getElevation(from) - network.getUpOffset(shot)));
+		}
+		assertTrue(adjustedError < unadjustedError);
+		for (int station = 0; station < adjusted.size(); station++) {
+			assertEquals(unadjusted.isLocated(station), adjusted.isLocated(station));
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package org.andork.compass.network;
+
+import static org.andork.compass.survey.SurveyFixtures.shot;
+import static org.andork.compass.survey.SurveyFixtures.trip;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.andork.compass.NEVLocation;
+import org.andork.compass.StationDictionary;
+import org.andork.compass.plot.CompassPlotCommand;
+import org.andork.compass.plot.CompassPlotParser;
+import org.andork.compass.plot.DrawSurveyCommand;
+import org.andork.compass.project.CompassProject;
+import org.andork.compass.project.CompassProjectFile;
+import org.andork.compass.project.CompassProjectLoader;
+import org.andork.compass.project.FileDirective;
+import org.andork.compass.project.LinkStation;
+import org.andork.compass.project.UTMConvergenceDirective;
+import org.andork.compass.survey.CompassShot;
+import org.andork.compass.survey.CompassTrip;
+import org.andork.compass.survey.CompassTripHeader;
+import org.andork.compass.survey.CorrectedShots;
+import org.andork.unit.Angle;
+import org.andork.unit.Length;
+import org.junit.Test;
+
+public class SurveyNetworkTests {
+	@Test
+	public void testSimpleNetwork() {
+		CompassTripHeader header = new CompassTripHeader();
+		header.setDeclination(Angle.degrees(10));
+		header.setLengthCorrection(Length.feet(1));
+
+		CompassShot backsighted = shot("B", "C", 9, Double.NaN, 0);
+		backsighted.setFrontsightInclination(null);
+		backsighted.setBacksightAzimuth(Angle.degrees(350));
+		backsighted.setBacksightInclination(Angle.degrees(-30));
+		CompassShot excluded = shot("C", "X", 100, 0.0, 0);
+		excluded.setExcludedFromAllProcessing(true);
+
+		StationDictionary stations = new StationDictionary();
+		SurveyNetwork network = SurveyNetwork.build(
+			stations,
+			Arrays.asList(
+				trip(
+					header,
+					shot("A", "B", 9, 350.0, 0),
+					backsighted,
+					shot("D", "C", 9, Double.NaN, -90),
+					excluded),
+				trip(new CompassTripHeader(), shot("Y", "Z", 1, 0.0, 0))));
+
+		assertEquals(4, network.getShotCount());
+		int a = stations.getId("A");
+		int b = stations.getId("B");
+		int c = stations.getId("C");
+		int d = stations.getId("D");
+		int y = stations.getId("Y");
+		assertEquals(2, network.getFirstEdge(b + 1) - network.getFirstEdge(b));
+		assertEquals(8, network.getFirstEdge(network.getStationCount()));
+
+		FixedStations fixed = new FixedStations();
+		fixed.add(a, 100, 200, 300);
+		StationCoordinates coordinates = network.computeCoordinates(fixed);
+
+		double ten = Length.feet(10).get(Length.meters);
+		assertEquals(100, coordinates.getNorthing(a), 0);
+		assertEquals(100 + ten, coordinates.getNorthing(b), 1e-9);
+		assertEquals(200, coordinates.getEasting(b), 1e-9);
+		assertEquals(300, coordinates.getElevation(b), 1e-9);
+		// backsight of 350 at -30 is a frontsight of 170 at 30, plus declination
+		assertEquals(100 + ten - ten * Math.cos(Math.toRadians(30)), coordinates.getNorthing(c), 1e-9);
+		assertEquals(300 + ten / 2, coordinates.getElevation(c), 1e-9);
+		assertEquals(network.getShot(1), network.getShot(coordinates.getParentShot(c)));
+		// reached backwards through a vertical shot
+		assertEquals(coordinates.getNorthing(c), coordinates.getNorthing(d), 1e-9);
+		assertEquals(coordinates.getElevation(c) + ten, coordinates.getElevation(d), 1e-9);
+		// not connected to a fixed station
+		assertFalse(coordinates.isLocated(y));
+		assertEquals(-1, stations.getId("X"));
+		assertEquals(-1, coordinates.getParentShot(a));
+	}
+
+	@Test
+	public void testCacheSeesShotsAddedInPlace() {
+		CompassTrip trip = trip(new CompassTripHeader(), shot("A", "B", 10, 0.0, 0));
+		trip.setShots(new ArrayList<>(trip.getShots()));
+		StationDictionary stations = new StationDictionary();
+		CorrectedShots.Cache cache = new CorrectedShots.Cache();
+		assertEquals(1, SurveyNetwork.build(stations, Arrays.asList(trip), cache).getShotCount());
+
+		trip.getShots().add(shot("B", "C", 10, 90.0, 0));
+		SurveyNetwork network = SurveyNetwork.build(stations, Arrays.asList(trip), cache);
+		assertEquals(2, network.getShotCount());
+		assertEquals(Length.feet(10).get(Length.meters), network.getEastOffset(1), 1e-9);
+
+		// a cache that hands out stale corrections doesn't break the network
+		CorrectedShots stale = cache.get(trip);
+		trip.getShots().add(shot("C", "D", 10, 180.0, 0));
+		network = SurveyNetwork.build(stations, Arrays.asList(trip), new CorrectedShots.Cache() {
+			@Override
+			public CorrectedShots get(CompassTrip trip) {
+				return stale;
+			}
+		});
+		assertEquals(3, network.getShotCount());
+		assertEquals(-Length.feet(10).get(Length.meters), network.getNorthOffset(2), 1e-9);
+	}
+
+	@Test
+	public void testBacksightAzimuthsAverageAcrossNorth() {
+		CompassShot shot = shot("A", "B", 10, 355.0, 0);
+		shot.setBacksightAzimuth(Angle.degrees(185));
+		StationDictionary stations = new StationDictionary();
+		SurveyNetwork network = SurveyNetwork.build(stations, Arrays.asList(trip(new CompassTripHeader(), shot)));
+		assertEquals(Length.feet(10).get(Length.meters), network.getNorthOffset(0), 1e-9);
+		assertEquals(0, network.getEastOffset(0), 1e-9);
+	}
+
+	@Test
+	public void testGridConvergence() {
+		StationDictionary stations = new StationDictionary();
+		CompassTrip trip = trip(new CompassTripHeader(), shot("A", "B", 10, 0.0, 0));
+		SurveyNetwork network = SurveyNetwork.build(stations, Arrays.asList(trip));
+
+		FileDirective file = new FileDirective("A.DAT", Arrays.asList(new LinkStation("A", new NEVLocation(
+			Length.meters(0), Length.meters(0), Length.meters(0)))));
+		CompassProject project = new CompassProject(
+			Paths.get("A.MAK"),
+			Arrays.asList(new UTMConvergenceDirective(Angle.degrees(30)), file),
+			Arrays.asList(new CompassProjectFile(file, Paths.get("A.DAT"), Arrays.asList(trip), null, null, null)),
+			stations);
+		FixedStations fixed = FixedStations.fromProject(project);
+		assertEquals(Math.toRadians(30), fixed.getGridConvergence(), 1e-12);
+
+		// true north is 30 degrees counterclockwise of grid north
+		double ten = Length.feet(10).get(Length.meters);
+		int b = stations.getId("B");
+		StationCoordinates coordinates = network.computeCoordinates(fixed);
+		assertEquals(ten * Math.cos(Math.toRadians(30)), coordinates.getNorthing(b), 1e-9);
+		assertEquals(-ten / 2, coordinates.getEasting(b), 1e-9);
+
+		coordinates = new LoopClosure(network).adjust(fixed);
+		assertEquals(ten * Math.cos(Math.toRadians(30)), coordinates.getNorthing(b), 1e-9);
+		assertEquals(-ten / 2, coordinates.getEasting(b), 1e-9);
+	}
+
+	@Test
+	public void testFulfordProject() throws Exception {
+		Path path = Paths.get(getClass().getResource("../fulford/Fulfords.mak").toURI());
+		CompassProject project = new CompassProjectLoader().load(path);
+		SurveyNetwork network = SurveyNetwork.build(project);
+		FixedStations fixed = FixedStations.fromProject(project);
+		assertEquals(Math.toRadians(-1.05), fixed.getGridConvergence(), 1e-12);
+		StationCoordinates coordinates = network.computeCoordinates(fixed);
+
+		int a1 = project.stations.getId("A1");
+		assertEquals(Length.feet(14346579.967).get(Length.meters), coordinates.getNorthing(a1), 1e-6);
+
+		for (int shot = 0; shot < network.getShotCount(); shot++) {
+			assertTrue(coordinates.isLocated(network.getFromStation(shot)));
+			assertTrue(coordinates.isLocated(network.getToStation(shot)));
+		}
+		for (int station = 0; station < coordinates.size(); station++) {
+			int shot = coordinates.getParentShot(station);
+			if (shot < 0) {
+				continue;
+			}
+			int from = network.getFromStation(shot);
+			int to = network.getToStation(shot);
+			// the .MAK convergence is -1.05 degrees
+			double convergence = Math.toRadians(-1.05);
+			assertEquals(
+				network.getNorthOffset(shot) * Math.cos(convergence) + network.getEastOffset(shot) * Math.sin(convergence),
+				coordinates.getNorthing(to) - coordinates.getNorthing(from),
+				1e-6);
+		}
+		// only the fixed stations weren't located by a shot
+		int located = 0;
+		for (int station = 0; station < coordinates.size(); station++) {
+			if (coordinates.isLocated(station) && coordinates.getParentShot(station) < 0) {
+				located++;
+			}
+		}
+		assertEquals(fixed.size(), located);
+
+		// the plot has loops closed, so only expect to be in the neighborhood
+		Path plot = Paths.get(getClass().getResource("../fulford/Fulfords.plt").toURI());
+		List<CompassPlotCommand> commands = new CompassPlotParser().parsePlot(plot);
+		List<DrawSurveyCommand> draws = new ArrayList<>();
+		for (CompassPlotCommand command : commands) {
+			if (command instanceof DrawSurveyCommand) {
+				draws.add((DrawSurveyCommand) command);
+			}
+		}
+		for (DrawSurveyCommand draw : draws) {
+			int station = project.stations.getId(draw.getStationName());
+			if (station >= 0 && coordinates.isLocated(station)) {
+				assertEquals(
+					draw.getLocation().getVertical().get(Length.meters),
+					coordinates.getElevation(station),
+					5);
+			}
+		}
+	}
+}
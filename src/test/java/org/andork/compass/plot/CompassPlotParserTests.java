@@ -1,16 +1,25 @@
 package org.andork.compass.plot;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 
+import org.andork.compass.CompassFiles;
 import org.andork.compass.CompassParseError;
 import org.andork.compass.ExceptionRunnable;
 import org.andork.segment.Segment;
 import org.andork.segment.SegmentParseException;
 import org.andork.segment.SegmentParser;
 import org.andork.unit.Length;
+import org.andork.unit.UnitizedDouble;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -167,4 +176,149 @@ public class CompassPlotParserTests {
 			System.out.println(command);
 		}
 	}
+
+	@Test
+	public void testStreamingMatchesSegmentParser() throws IOException {
+		String text = CompassFiles.readString(getClass().getResourceAsStream("../fulford/Fulfords.plt"))
+			+ "D   128.2   -65.9   -86.8  SZ7  P    a0.0    b3.0    .    %2.0  I   21.8\r\n"
+			+ "D 128.2 -65.9 -86.8 SZ8 P 1 2 3 4 I -5\n"
+			+ "M 128.2 -65.9 -86.8 S \r"
+			+ "D 1e2 -65.9 -86.8 SZ9 P 999 999.9 -1 4.0 I 3 FL\n"
+			+ "\n  \r\n"
+			+ "D 128.2 -65.9 -86.8 SZ10";
+
+		CompassPlotParser expectedParser = new CompassPlotParser();
+		List<String> expected = new ArrayList<>();
+		int line = 0;
+		for (String lineText : text.split("\r\n|\r|\n")) {
+			if (lineText.trim().isEmpty()) {
+				continue;
+			}
+			try {
+				CompassPlotCommand command = expectedParser
+					.parseCommand(new SegmentParser(new Segment(lineText, "test.plt", line, 0)));
+				if (command != null) {
+					expected.add(command.toString());
+				}
+			}
+			catch (SegmentParseException e) {
+				expectedParser.getErrors().add(new CompassParseError(e));
+			}
+			line++;
+		}
+
+		CompassPlotParser parser = new CompassPlotParser();
+		List<String> actual = new ArrayList<>();
+		int[] drawCount = { 0 };
+		parser.parsePlot(new StringReader(text), "test.plt", new CompassPlotVisitor() {
+			@Override
+			public void command(CompassPlotCommand command) {
+				actual.add(command.toString());
+			}
+
+			@Override
+			public void drawSurvey(DrawSurveyCommand command) {
+				drawCount[0]++;
+				Assert.assertEquals(command.getStationName(), parser.getStationDictionary().getName(command.getStationId()));
+				command((CompassPlotCommand) command);
+			}
+		});
+		Assert.assertEquals(expected, actual);
+		Assert.assertEquals(expectedParser.getErrors(), parser.getErrors());
+		Assert.assertTrue(drawCount[0] > 0);
+		Assert.assertTrue(parser.getCommands().isEmpty());
+
+		List<CompassPlotCommand> commands = parser.parsePlot(new StringReader(text), "test.plt");
+		Assert.assertEquals(actual.size(), commands.size());
+		// the commands are held by a single list
+		Assert.assertSame(commands, parser.getCommands());
+
+		List<CompassPlotCommand> more = parser.parsePlot(new StringReader(text), "test.plt");
+		Assert.assertSame(more, parser.getCommands());
+		Assert.assertEquals(actual.size(), commands.size());
+		Assert.assertEquals(actual.size(), more.size());
+		parser.reset();
+		Assert.assertTrue(parser.getCommands().isEmpty());
+		Assert.assertEquals(actual.size(), more.size());
+	}
+
+	private static double feet(UnitizedDouble<Length> value) {
+		return value == null ? Double.NaN : value.get(Length.feet);
+	}
+
+	@Test
+	public void testParseVerticesMatchesParsePlot() throws IOException {
+		String text = CompassFiles.readString(getClass().getResourceAsStream("../fulford/Fulfords.plt"))
+			+ "D 128.2 -65.9 -86.8 SZ8 P 1 2 3 4 I -5\n"
+			+ "D 1e2 -65.9 -86.8 SZ9 P 999 999.9 -1 4.0 I 3 FL\n";
+
+		CompassPlotParser expectedParser = new CompassPlotParser();
+		List<DrawSurveyCommand> expected = new ArrayList<>();
+		expectedParser.parsePlot(new StringReader(text), "test.plt", new CompassPlotVisitor() {
+			@Override
+			public void command(CompassPlotCommand command) {
+			}
+
+			@Override
+			public void drawSurvey(DrawSurveyCommand command) {
+				expected.add(command);
+			}
+		});
+		Assert.assertTrue(expected.size() > 0);
+
+		int n = expected.size() + 1;
+		DoubleBuffer positions = DoubleBuffer.allocate(n * 3);
+		DoubleBuffer lruds = DoubleBuffer.allocate(n * 4);
+		ByteBuffer operations = ByteBuffer.allocate(n);
+		IntBuffer stationIds = IntBuffer.allocate(n);
+		PlotVertexBuffers buffers = PlotVertexBuffers.ofDoubles(positions, lruds, operations, stationIds);
+
+		CompassPlotParser parser = new CompassPlotParser();
+		parser.parseVertices(new StringReader(text), "test.plt", buffers);
+		Assert.assertEquals(expectedParser.getErrors(), parser.getErrors());
+		Assert.assertEquals(expected.size(), buffers.getVertexCount());
+		Assert.assertEquals(expected.size(), stationIds.position());
+
+		for (int i = 0; i < expected.size(); i++) {
+			DrawSurveyCommand command = expected.get(i);
+			Assert.assertEquals(
+				command.getOperation() == DrawOperation.MOVE_TO ? PlotVertexBuffers.MOVE_TO : PlotVertexBuffers.LINE_TO,
+				operations.get(i));
+			Assert.assertEquals(feet(command.getLocation().getNorthing()), positions.get(i * 3), 0);
+			Assert.assertEquals(feet(command.getLocation().getEasting()), positions.get(i * 3 + 1), 0);
+			Assert.assertEquals(feet(command.getLocation().getVertical()), positions.get(i * 3 + 2), 0);
+			Assert.assertEquals(feet(command.getLeft()), lruds.get(i * 4), 0);
+			Assert.assertEquals(feet(command.getUp()), lruds.get(i * 4 + 1), 0);
+			Assert.assertEquals(feet(command.getDown()), lruds.get(i * 4 + 2), 0);
+			Assert.assertEquals(feet(command.getRight()), lruds.get(i * 4 + 3), 0);
+			Assert.assertEquals(command.getStationName(), parser.getStationDictionary().getName(stationIds.get(i)));
+		}
+
+		FloatBuffer floatPositions = FloatBuffer.allocate(expected.size() * 3);
+		double originNorthing = feet(expected.get(0).getLocation().getNorthing());
+		double originEasting = feet(expected.get(0).getLocation().getEasting());
+		double originVertical = feet(expected.get(0).getLocation().getVertical());
+		buffers = PlotVertexBuffers.ofFloats(floatPositions, null, null, null, originNorthing, originEasting,
+			originVertical);
+		new CompassPlotParser().parseVertices(new StringReader(text), "test.plt", buffers);
+		Assert.assertFalse(floatPositions.hasRemaining());
+		for (int i = 0; i < expected.size(); i++) {
+			DrawSurveyCommand command = expected.get(i);
+			Assert.assertEquals((float) (feet(command.getLocation().getNorthing()) - originNorthing),
+				floatPositions.get(i * 3), 0);
+			Assert.assertEquals((float) (feet(command.getLocation().getEasting()) - originEasting),
+				floatPositions.get(i * 3 + 1), 0);
+			Assert.assertEquals((float) (feet(command.getLocation().getVertical()) - originVertical),
+				floatPositions.get(i * 3 + 2), 0);
+		}
+
+		try {
+			new CompassPlotParser().parseVertices(new StringReader(text), "test.plt",
+				PlotVertexBuffers.ofDoubles(DoubleBuffer.allocate(3), null, null, null));
+			Assert.fail("expected BufferOverflowException");
+		}
+		catch (BufferOverflowException e) {
+			// expected
+		}
+	}
 }
@@ -0,0 +1,154 @@
+package org.andork.compass.plot;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.andork.compass.CompassFiles;
+import org.andork.compass.DecimalFormatter;
+import org.andork.unit.Length;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompassPlotWriterTests {
+	private static String write(List<CompassPlotCommand> commands) throws IOException {
+		StringWriter out = new StringWriter();
+		try (CompassPlotWriter writer = new CompassPlotWriter(out)) {
+			writer.writeCommands(commands);
+		}
+		return out.toString();
+	}
+
+	private static List<String> toStrings(List<CompassPlotCommand> commands) {
+		List<String> result = new ArrayList<>();
+		for (CompassPlotCommand command : commands) {
+			result.add(command.toString());
+		}
+		return result;
+	}
+
+	@Test
+	public void testRoundTripFulford() throws IOException {
+		CompassPlotParser parser = new CompassPlotParser();
+		List<CompassPlotCommand> commands =
+			parser.parsePlot(getClass().getResourceAsStream("../fulford/Fulfords.plt"), "Fulfords.plt");
+		Assert.assertTrue(parser.getErrors().isEmpty());
+
+		String text = write(commands);
+		CompassPlotParser reparser = new CompassPlotParser();
+		List<CompassPlotCommand> reparsed = reparser.parsePlot(new StringReader(text), "written.plt");
+		Assert.assertTrue(reparser.getErrors().isEmpty());
+		Assert.assertEquals(toStrings(commands), toStrings(reparsed));
+		Assert.assertEquals(text, write(reparsed));
+
+		// the same columns Compass writes
+		Assert
+			.assertTrue(
+				text,
+				text.contains("M 14346579.97 1173608.00 10000.00  SA1  P    2.6    2.6    2.6    2.6 I    0.0\r\n"));
+		Assert.assertTrue(text, text.contains("  SA5  P    8.0    6.6    5.0 -9999.0 I   72.9\r\n"));
+	}
+
+	@Test
+	public void testRoundTripFeatures() throws IOException {
+		String original = CompassFiles.readString(getClass().getResourceAsStream("testplot.plt"));
+		List<CompassPlotCommand> commands = new CompassPlotParser().parsePlot(new StringReader(original), "testplot.plt");
+		CompassPlotParser reparser = new CompassPlotParser();
+		List<CompassPlotCommand> reparsed = reparser.parsePlot(new StringReader(write(commands)), "written.plt");
+		Assert.assertTrue(reparser.getErrors().isEmpty());
+		Assert.assertEquals(toStrings(commands), toStrings(reparsed));
+
+		FeatureCommand feature = null;
+		for (CompassPlotCommand command : reparsed) {
+			if (command instanceof FeatureCommand && ((FeatureCommand) command).getValue() != null) {
+				feature = (FeatureCommand) command;
+				break;
+			}
+		}
+		Assert.assertEquals(new BigDecimal("5.51234E2"), feature.getValue());
+		Assert.assertNull(feature.getLeft());
+	}
+
+	@Test
+	public void testWriteDrawSurveyPrimitives() throws IOException {
+		StringWriter out = new StringWriter();
+		try (CompassPlotWriter writer = new CompassPlotWriter(out)) {
+			writer.setCoordinateFormatter(new DecimalFormatter(3));
+			writer.setDistanceFormatter(new DecimalFormatter(0));
+			writer.writeDrawSurvey(DrawOperation.MOVE_TO, 1.23456, -0.0001, -12, "A1", 1, Double.NaN, 2.25, 0, 0);
+			writer.writeDrawSurvey(DrawOperation.LINE_TO, 5, 6, 7, null, 1, 2, 3, 4, Double.NaN);
+		}
+		Assert
+			.assertEquals(
+				"M       1.235      0.000  -12.000  SA1  P    1.0 -9999.0    2.3    0.0 I      0\r\n"
+					+ "D       5.000      6.000    7.000  P    1.0    2.0    3.0    4.0\r\n",
+				out.toString());
+
+		List<CompassPlotCommand> commands = new CompassPlotParser().parsePlot(new StringReader(out.toString()), "test");
+		DrawSurveyCommand move = (DrawSurveyCommand) commands.get(0);
+		Assert.assertEquals(DrawOperation.MOVE_TO, move.getOperation());
+		Assert.assertEquals(1.235, move.getLocation().getNorthing().get(Length.feet), 0);
+		Assert.assertEquals("A1", move.getStationName());
+		Assert.assertNull(move.getUp());
+		DrawSurveyCommand draw = (DrawSurveyCommand) commands.get(1);
+		Assert.assertNull(draw.getStationName());
+		Assert.assertEquals(4, draw.getRight().get(Length.feet), 0);
+	}
+
+	@Test
+	public void testMissingCoordinates() throws IOException {
+		FeatureCommand feature = new FeatureCommand();
+		feature.getLocation().setNorthing(Length.feet(1));
+		feature.getLocation().setVertical(Length.feet(2));
+		feature.setStationName("A1");
+
+		StringWriter out = new StringWriter();
+		try (CompassPlotWriter writer = new CompassPlotWriter(out)) {
+			try {
+				writer.writeFeature(feature);
+				Assert.fail("expected IllegalArgumentException");
+			}
+			catch (IllegalArgumentException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().contains("easting"));
+			}
+			try {
+				writer.writeDrawSurvey(DrawOperation.LINE_TO, 1, 2, Double.NaN, "A1", 0, 0, 0, 0, Double.NaN);
+				Assert.fail("expected IllegalArgumentException");
+			}
+			catch (IllegalArgumentException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().contains("vertical"));
+			}
+
+			try {
+				writer.writeDrawSurvey(DrawOperation.LINE_TO, 1, Double.POSITIVE_INFINITY, 3, "A1", 0, 0, 0, 0, 0);
+				Assert.fail("expected IllegalArgumentException");
+			}
+			catch (IllegalArgumentException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().contains("easting"));
+			}
+			try {
+				writer.writeDrawSurvey(DrawOperation.LINE_TO, 1, 2, 3, "A1", Double.POSITIVE_INFINITY, 0, 0, 0, 0);
+				Assert.fail("expected IllegalArgumentException");
+			}
+			catch (IllegalArgumentException e) {
+				// expected
+			}
+			try {
+				writer.writeDrawSurvey(DrawOperation.LINE_TO, 1, 2, 3, "A1", 0, 0, 0, 0, 1e300);
+				Assert.fail("expected IllegalArgumentException");
+			}
+			catch (IllegalArgumentException e) {
+				// expected
+			}
+
+			// nothing of the rejected lines was written
+			feature.getLocation().setEasting(Length.feet(3));
+			writer.writeFeature(feature);
+		}
+		Assert.assertEquals(1, new CompassPlotParser().parsePlot(new StringReader(out.toString()), "test").size());
+		Assert.assertTrue(out.toString().startsWith("L"));
+	}
+}
@@ -0,0 +1,137 @@
+package org.andork.compass.plot;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.andork.compass.CompassFiles;
+import org.andork.unit.Length;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PlotStationIndexTests {
+	private static DrawSurveyCommand draw(String station, double northing, double easting) {
+		DrawSurveyCommand command = new DrawSurveyCommand(DrawOperation.LINE_TO);
+		command.setStationName(station);
+		command.getLocation().setNorthing(Length.feet(northing));
+		command.getLocation().setEasting(Length.feet(easting));
+		command.getLocation().setVertical(Length.feet(0));
+		return command;
+	}
+
+	private static BeginSurveyCommand survey(String name) {
+		BeginSurveyCommand command = new BeginSurveyCommand();
+		command.setSurveyName(name);
+		return command;
+	}
+
+	private static void assertQueriesMatchLinearScan(PlotStationIndex index, Random random, double extent) {
+		int size = index.size();
+		for (int q = 0; q < 200; q++) {
+			double n1 = (random.nextDouble() - 0.25) * extent * 1.5;
+			double e1 = (random.nextDouble() - 0.25) * extent * 1.5;
+			double n2 = n1 + random.nextDouble() * extent / 4;
+			double e2 = e1 + random.nextDouble() * extent / 4;
+
+			Set<Integer> expected = new HashSet<>();
+			for (int i = 0; i < size; i++) {
+				if (index.getNorthing(i) >= n1 && index.getNorthing(i) <= n2 && index.getEasting(i) >= e1
+					&& index.getEasting(i) <= e2) {
+					expected.add(i);
+				}
+			}
+			Set<Integer> actual = new HashSet<>();
+			for (int i : index.findInBox(n1, e1, n2, e2)) {
+				Assert.assertTrue(actual.add(i));
+			}
+			Assert.assertEquals(expected, actual);
+
+			int k = 1 + random.nextInt(10);
+			double n = n1, e = e1;
+			Comparator<Integer> byDistance = Comparator
+				.comparingDouble(i -> Math.hypot(index.getNorthing(i) - n, index.getEasting(i) - e));
+			int[] nearest = index.findNearest(n, e, k);
+			Integer[] all = IntStream.range(0, size).boxed().sorted(byDistance).toArray(Integer[]::new);
+			Assert.assertEquals(Math.min(k, size), nearest.length);
+			for (int i = 0; i < nearest.length; i++) {
+				Assert.assertEquals(0, byDistance.compare(all[i], nearest[i]));
+			}
+		}
+	}
+
+	@Test
+	public void testRandomQueries() {
+		Random random = new Random(1234);
+		for (int size : new int[] { 0, 1, 7, 1000 }) {
+			PlotStationIndex.Builder builder = new PlotStationIndex.Builder();
+			builder.command(survey("A"));
+			for (int i = 0; i < size; i++) {
+				builder.command(draw("A" + i, random.nextDouble() * 1000, random.nextDouble() * 1000));
+			}
+			PlotStationIndex index = builder.build();
+			Assert.assertEquals(size, index.size());
+			assertQueriesMatchLinearScan(index, random, 1000);
+		}
+	}
+
+	@Test
+	public void testStationsInALine() {
+		Random random = new Random(1234);
+		PlotStationIndex.Builder builder = new PlotStationIndex.Builder();
+		builder.command(survey("A"));
+		for (int i = 0; i < 1000; i++) {
+			builder.command(draw("A" + i, 5, random.nextDouble() * 1000000));
+		}
+		assertQueriesMatchLinearScan(builder.build(), random, 1000000);
+	}
+
+	@Test
+	public void testSurveys() {
+		PlotStationIndex.Builder builder = new PlotStationIndex.Builder();
+		builder.command(survey("A"));
+		builder.command(draw("A1", 0, 0));
+		builder.command(draw("A2", 0, 10));
+		builder.command(survey("B"));
+		builder.command(draw("A2", 0, 10));
+		builder.command(draw("B1", 10, 10));
+		PlotStationIndex index = builder.build();
+
+		Assert.assertEquals(3, index.size());
+		Assert.assertEquals("A", index.findSurveyAt(1, 9, 2));
+		Assert.assertEquals("B", index.findSurveyAt(9, 9, 2));
+		Assert.assertNull(index.findSurveyAt(5, 5, 2));
+		Assert.assertEquals(new LinkedHashSet<>(Arrays.asList("A", "B")), index.findSurveysInBox(0, 5, 10, 10));
+		Assert.assertEquals("B1", index.getStationName(index.findNearest(100, 100)));
+	}
+
+	@Test
+	public void testFulfords() throws IOException {
+		String text = CompassFiles.readString(getClass().getResourceAsStream("../fulford/Fulfords.plt"));
+		PlotStationIndex.Builder builder = new PlotStationIndex.Builder();
+		CompassPlotParser parser = new CompassPlotParser();
+		parser.parsePlot(new StringReader(text), "Fulfords.plt", builder);
+		PlotStationIndex index = builder.build();
+
+		Set<String> stations = new HashSet<>();
+		for (CompassPlotCommand command : new CompassPlotParser().parsePlot(new StringReader(text), "Fulfords.plt")) {
+			if (command instanceof DrawSurveyCommand) {
+				stations.add(((DrawSurveyCommand) command).getStationName());
+			}
+		}
+		Assert.assertEquals(stations.size(), index.size());
+		for (int i = 0; i < index.size(); i++) {
+			Assert.assertEquals(index.getStationName(i), parser.getStationDictionary().getName(index.getStationId(i)));
+			Assert.assertNotNull(index.getSurveyName(i));
+			int nearest = index.findNearest(index.getNorthing(i), index.getEasting(i));
+			Assert.assertEquals(index.getNorthing(i), index.getNorthing(nearest), 0);
+			Assert.assertEquals(index.getEasting(i), index.getEasting(nearest), 0);
+		}
+		Assert.assertEquals(index.size(), index.findInBox(-1e9, -1e9, 1e9, 1e9).length);
+	}
+}
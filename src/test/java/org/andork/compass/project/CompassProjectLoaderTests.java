@@ -0,0 +1,99 @@
+package org.andork.compass.project;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.andork.compass.cache.CompassParseCache;
+import org.andork.compass.survey.CompassShot;
+import org.andork.compass.survey.CompassSurveyParser;
+import org.andork.compass.survey.CompassTrip;
+import org.andork.segment.SegmentParseException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompassProjectLoaderTests {
+	@Test
+	public void testLoadFulford() throws IOException, SegmentParseException, URISyntaxException {
+		Path path = Paths.get(getClass().getResource("../fulford/Fulfords.mak").toURI());
+		CompassProject project = new CompassProjectLoader(2).load(path);
+
+		Assert.assertEquals(2, project.files.size());
+		Assert.assertEquals("FULFORD.DAT", project.files.get(0).directive.file);
+		Assert.assertEquals("Fulford.dat", project.files.get(0).path.getFileName().toString());
+		Assert.assertEquals(25, project.files.get(0).trips.size());
+		Assert.assertEquals("FULSURF.DAT", project.files.get(1).directive.file);
+		Assert.assertTrue(project.files.get(1).trips.size() > 0);
+		Assert.assertFalse(project.hasErrors());
+		Assert.assertTrue(project.directives.get(0) instanceof LocationDirective);
+	}
+
+	@Test
+	public void testSharedStationIds() throws IOException, SegmentParseException, URISyntaxException {
+		Path path = Paths.get(getClass().getResource("../fulford/Fulfords.mak").toURI());
+		CompassProject project = new CompassProjectLoader(2).load(path);
+
+		FileDirective directive = project.files.get(0).directive;
+		LinkStation a1 = directive.linkStations.get(0);
+		Assert.assertEquals("A1", a1.name);
+		Assert.assertEquals(a1.id, project.stations.getId("A1"));
+		boolean found = false;
+		for (CompassTrip trip : project.files.get(0).trips) {
+			for (CompassShot shot : trip.getShots()) {
+				Assert.assertSame(project.stations.getName(shot.getFromStationId()), shot.getFromStationName());
+				Assert.assertSame(project.stations.getName(shot.getToStationId()), shot.getToStationName());
+				found |= shot.getFromStationId() == a1.id;
+			}
+		}
+		Assert.assertTrue(found);
+	}
+
+	@Test
+	public void testMissingFile() throws IOException, SegmentParseException, URISyntaxException {
+		Path path = Paths.get(getClass().getResource("testSurveyFile.mak").toURI());
+		CompassProject project = new CompassProjectLoader().load(path);
+
+		Assert.assertEquals(1, project.files.size());
+		Assert.assertNotNull(project.files.get(0).exception);
+		Assert.assertTrue(project.hasErrors());
+	}
+
+	@Test
+	public void testRuntimeExceptionInOneFile() throws IOException, SegmentParseException, URISyntaxException {
+		Path path = Paths.get(getClass().getResource("../fulford/Fulfords.mak").toURI());
+		UncheckedIOException failure = new UncheckedIOException(new IOException("mapped read failed"));
+		Path cacheDirectory = Files.createTempDirectory("compass-parse-cache");
+		CompassProject project;
+		try {
+			CompassProjectLoader loader = new CompassProjectLoader(2);
+			loader.setParseCache(new CompassParseCache(cacheDirectory) {
+				@Override
+				public List<CompassTrip> loadSurvey(Path file, CompassSurveyParser parser) throws IOException {
+					if (file.getFileName().toString().equalsIgnoreCase("Fulford.dat")) {
+						throw failure;
+					}
+					return parser.parseCompassSurveyData(file);
+				}
+			});
+			project = loader.load(path);
+		}
+		finally {
+			try (Stream<Path> paths = Files.walk(cacheDirectory)) {
+				paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+			}
+		}
+
+		Assert.assertEquals(2, project.files.size());
+		Assert.assertSame(failure, project.files.get(0).exception);
+		Assert.assertTrue(project.files.get(0).trips.isEmpty());
+		Assert.assertNull(project.files.get(1).exception);
+		Assert.assertTrue(project.files.get(1).trips.size() > 0);
+		Assert.assertTrue(project.hasErrors());
+	}
+}
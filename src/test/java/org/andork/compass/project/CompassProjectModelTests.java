@@ -0,0 +1,112 @@
+package org.andork.compass.project;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.andork.compass.CompassFiles;
+import org.andork.compass.NEVLocation;
+import org.andork.segment.Segment;
+import org.andork.segment.SegmentParseException;
+import org.andork.unit.Angle;
+import org.andork.unit.Length;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompassProjectModelTests {
+	private static String write(CompassProjectModel model) throws IOException {
+		StringWriter out = new StringWriter();
+		model.write(out);
+		return out.toString();
+	}
+
+	private static CompassProjectModel parse(String text) throws IOException, SegmentParseException {
+		CompassProjectModel model = new CompassProjectModel();
+		new CompassProjectParser(model).parse(new Segment(text, "test.mak", 0, 0));
+		return model;
+	}
+
+	private static List<String> toStrings(CompassProjectModel model) {
+		List<String> result = new ArrayList<>();
+		for (CompassProjectDirective directive : model.getDirectives()) {
+			result.add(directive.toString());
+		}
+		return result;
+	}
+
+	@Test
+	public void testWritesLikeCompass() throws Exception {
+		String original = CompassFiles.readString(getClass().getResourceAsStream("../fulford/Fulfords.mak"));
+		CompassProjectModel model =
+			CompassProjectModel.read(getClass().getResourceAsStream("../fulford/Fulfords.mak"), "Fulfords.mak");
+		Assert.assertEquals(8, model.getDirectives().size());
+		// everything but the trailing SUB character
+		Assert.assertEquals(original.substring(0, original.length() - 1), write(model));
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		String original = CompassFiles.readString(getClass().getResourceAsStream("Lechuguilla.mak"))
+			+ "#LINKS.DAT,A[m,1.5,-2.25,3],B;\r\n/a comment\r\n!OT;\r\n";
+		CompassProjectModel model = parse(original);
+		CompassProjectModel reparsed = parse(write(model));
+		Assert.assertEquals(toStrings(model), toStrings(reparsed));
+
+		LinkStation a = reparsed.getFile("links.dat").linkStations.get(0);
+		Assert.assertEquals(Length.meters(-2.25), a.location.northing);
+		Assert.assertNull(reparsed.getFile("LINKS.DAT").linkStations.get(1).location);
+		Assert.assertEquals(Angle.degrees(-0.26), reparsed.getLocation().utmConvergence);
+	}
+
+	@Test
+	public void testEditing() throws Exception {
+		CompassProjectModel model =
+			CompassProjectModel.read(getClass().getResourceAsStream("../fulford/Fulfords.mak"), "Fulfords.mak");
+		FileDirective before = model.getFile("FULFORD.DAT");
+
+		NEVLocation location = new NEVLocation(Length.feet(1), Length.feet(2), Length.feet(3));
+		Assert.assertEquals(1, model.setLinkStationLocation("SC3", location));
+		Assert.assertEquals(0, model.setLinkStationLocation("NOPE", location));
+		FileDirective after = model.getFile("FULFORD.DAT");
+		Assert.assertNotSame(before, after);
+		Assert.assertSame(location, after.linkStations.get(1).location);
+		Assert.assertSame(before.linkStations.get(0), after.linkStations.get(0));
+		Assert.assertEquals(2, model.getFiles().size());
+
+		LocationDirective projectLocation =
+			new LocationDirective(Length.meters(1), Length.meters(2), Length.meters(3), 14, Angle.degrees(0.5));
+		model.setLocation(projectLocation);
+		Assert.assertSame(projectLocation, model.getDirectives().get(0));
+		Assert.assertEquals(8, model.getDirectives().size());
+
+		String text = write(model);
+		Assert.assertTrue(text, text.startsWith("@1.000,2.000,3.000,14,0.500;\r\n"));
+		Assert.assertTrue(text, text.contains(" SC3[f,1.000,2.000,3.000],\r\n"));
+	}
+
+	@Test
+	public void testUnwritableDirectives() throws IOException {
+		StringWriter out = new StringWriter();
+		try (CompassProjectWriter writer = new CompassProjectWriter(out)) {
+			NEVLocation infinite = new NEVLocation(Length.feet(1), Length.feet(Double.POSITIVE_INFINITY), Length.feet(3));
+			try {
+				writer.writeFile(new FileDirective("A.DAT", Arrays.asList(new LinkStation("A1", infinite))));
+				Assert.fail("expected IllegalArgumentException");
+			}
+			catch (IllegalArgumentException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().contains("A1"));
+			}
+			try {
+				writer.writeUtmConvergence(new UTMConvergenceDirective(Angle.degrees(1e300)));
+				Assert.fail("expected IllegalArgumentException");
+			}
+			catch (IllegalArgumentException e) {
+				// expected
+			}
+			writer.writeUtmZone(new UTMZoneDirective(14));
+		}
+		Assert.assertEquals("$14;\r\n", out.toString());
+	}
+}
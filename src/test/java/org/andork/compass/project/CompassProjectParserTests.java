@@ -103,4 +103,24 @@ public class CompassProjectParserTests {
 			},
 			directives.stream().map(d -> d.toString()).toArray());
 	}
+
+	@Test
+	public void testNumbers() throws IOException, SegmentParseException {
+		parser.parse(new Segment("@.5,+3.,-2,13,1.25;\r\n$7;", "test.mak", 0, 0));
+		LocationDirective location = (LocationDirective) directives.get(0);
+		Assert.assertEquals(Length.meters(0.5), location.easting);
+		Assert.assertEquals(Length.meters(3), location.northing);
+		Assert.assertEquals(Length.meters(-2), location.elevation);
+		Assert.assertEquals(7, ((UTMZoneDirective) directives.get(1)).utmZone);
+
+		for (String invalid : new String[] { "@+.5,1,2,13,0;", "@.,1,2,13,0;", "$1.5;", "@1 2;" }) {
+			try {
+				parser.parse(new Segment(invalid, "test.mak", 0, 0));
+				Assert.fail("expected " + invalid + " to be invalid");
+			}
+			catch (SegmentParseException e) {
+				// expected
+			}
+		}
+	}
 }
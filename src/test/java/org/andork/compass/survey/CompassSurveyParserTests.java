@@ -4,13 +4,27 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.math.BigDecimal;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.andork.compass.AzimuthUnit;
 import org.andork.compass.CompassParseError;
@@ -22,6 +36,7 @@ import org.andork.compass.LrudItem;
 import org.andork.segment.Segment;
 import org.andork.unit.Angle;
 import org.andork.unit.Length;
+import org.andork.unit.UnitizedDouble;
 import org.junit.Test;
 
 public class CompassSurveyParserTests {
@@ -51,6 +66,30 @@ public class CompassSurveyParserTests {
 				extract(segment, "360.0")))));
 	}
 
+	@Test
+	public void testMissingMeasurements() {
+		final CompassSurveyParser parser = new CompassSurveyParser();
+		final CompassTripHeader header = new CompassTripHeader();
+		header.setHasBacksights(false);
+
+		String text = "A3  A4    4.25  15.00 ";
+		Segment segment = new Segment(text, "test.txt", 5, 0);
+		CompassShot shot = parser.parseShot(segment, header);
+
+		assertEquals("A3", shot.getFromStationName());
+		assertEquals(Angle.degrees(15), shot.getFrontsightAzimuth());
+		assertNull(shot.getFrontsightInclination());
+		assertNull(shot.getRight());
+		// every missing measurement is reported at the end of the line
+		assertEquals(5, parser.getErrors().size());
+		assertEquals(
+			new CompassParseError(Severity.ERROR, "missing frontsight inclination", segment.substring(text.length())),
+			parser.getErrors().get(0));
+
+		// lines without a length aren't shots
+		assertNull(parser.parseShot(new Segment("A4 A5", "test.txt", 6, 0), header));
+	}
+
 	@Test
 	public void flagTests() {
 		final CompassSurveyParser parser = new CompassSurveyParser();
@@ -127,6 +166,8 @@ public class CompassSurveyParserTests {
 		assertEquals(Arrays.asList(
 				new CompassParseError(Severity.ERROR, "missing length", segment.substring(segment.length()))),
 				parser.getErrors());
+		// incomplete shots don't add their stations to the dictionary
+		assertEquals(0, parser.getStationDictionary().size());
 	}
 
 	@Test
@@ -345,6 +386,61 @@ public class CompassSurveyParserTests {
 		assertEquals(parser.getErrors().size(), 0);
 	}
 
+	@Test
+	public void testStreamingParse() throws IOException {
+		String text = "SECRET CAVE\r\n" +
+				"SURVEY NAME: A\r\n" +
+				"SURVEY DATE: 7 10 79  COMMENT:Entrance Passage\r\n" +
+				"SURVEY TEAM:\r\n" +
+				"D.SMITH,R.BROWN,S.MURRAY\r\n" +
+				"DECLINATION: 1.00  FORMAT: DDDDLUDRADLNF\r\n" +
+				"\r\n" +
+				"FROM TO  LENGTH BEARING  DIP    LEFT    UP  DOWN RIGHT\r\n" +
+				"\r\n" +
+				"A2  A1   12.00  135.00   5.00  0.00  4.00  0.50  0.00  Big Room\r\n" +
+				"A2  A3   41.17   46.00   2.00  0.00  0.00  0.00  0.00  #|PC# Room\r\n" +
+				"\f\r\n" +
+				"SECRET CAVE\r\n" +
+				"SURVEY NAME: B\r\n" +
+				"SURVEY DATE: 7 10 79  COMMENT:Big Room Survey\r\n" +
+				"SURVEY TEAM:\r\n" +
+				"D.SMITH,R.BROWN,S.MURRAY\r\n" +
+				"DECLINATION: 1.00  FORMAT: DDDDLUDRADLNT\r\n" +
+				"\r\n" +
+				"FROM TO   LEN  BEAR   INC LEFT   UP DOWN RIGHT AZM2 INC2 FLAGS COMMENTS\r\n" +
+				"\r\n" +
+				"B2  B1  13.0  35.0  15.0  0.0  2.0  1.5  1.0\r\n" +
+				"B2  B3  22.1  16.0  -95.0  6.0  1.0  0.0  2.0 #|PC#\r\n" +
+				"\f\r\n";
+
+		final CompassSurveyParser expectedParser = new CompassSurveyParser();
+		List<CompassTrip> expected = expectedParser.parseCompassSurveyData(new Segment(text, "test.txt", 0, 0));
+
+		final CompassSurveyParser parser = new CompassSurveyParser();
+		final List<String> events = new ArrayList<>();
+		parser.parseCompassSurveyData(new StringReader(text), "test.txt", new CompassSurveyVisitor() {
+			@Override
+			public void tripHeader(CompassTripHeader header) {
+				events.add("trip " + header.getSurveyName());
+			}
+
+			@Override
+			public void shot(CompassShot shot) {
+				events.add(shot.getFromStationName() + "-" + shot.getToStationName());
+			}
+
+			@Override
+			public void endTrip() {
+				events.add("end");
+			}
+		});
+
+		assertEquals(Arrays.asList("trip A", "A2-A1", "A2-A3", "end", "trip B", "B2-B1", "B2-B3", "end"), events);
+		assertEquals(2, expected.size());
+		assertEquals(1, parser.getErrors().size());
+		assertEquals(expectedParser.getErrors(), parser.getErrors());
+	}
+
 	@SuppressWarnings("deprecation")
 	@Test
 	public void testParseCorrectTripHeader() {
@@ -516,4 +612,139 @@ public class CompassSurveyParserTests {
 			assertTrue(trip.getShots().size() > 0);
 		}
 	}
+
+	@Test
+	public void testLazyTrips() throws IOException, URISyntaxException {
+		Path path = Paths.get(getClass().getResource("../fulford/Fulford.dat").toURI());
+		CompassSurveyParser parser = new CompassSurveyParser();
+		try (Stream<CompassTrip> trips = parser.trips(path)) {
+			assertEquals(
+				Arrays.asList("A", "A+", "B"),
+				trips.limit(3).map(trip -> trip.getHeader().getSurveyName()).collect(Collectors.toList()));
+		}
+
+		try (Reader reader =
+			new InputStreamReader(getClass().getResourceAsStream("../fulford/Fulford.dat"), "ASCII")) {
+			Iterator<CompassTrip> trips = new CompassSurveyParser().trips(reader, "Fulford.dat");
+			int count = 0;
+			while (trips.hasNext()) {
+				assertTrue(trips.next().getShots().size() > 0);
+				count++;
+			}
+			assertEquals(25, count);
+		}
+	}
+
+	@Test
+	public void testLazyShots() throws IOException, URISyntaxException {
+		Path path = Paths.get(getClass().getResource("../fulford/Fulford.dat").toURI());
+		List<CompassTrip> expected = new CompassSurveyParser().parseCompassSurveyData(path);
+		CompassTrip secondTrip = expected.get(1);
+
+		CompassSurveyParser parser = new CompassSurveyParser();
+		try (Stream<CompassShot> shots = parser.shots(path)) {
+			List<CompassShot> actual = shots
+				.filter(shot -> secondTrip.getHeader().getSurveyName().equals(shot.getTripHeader().getSurveyName()))
+				.collect(Collectors.toList());
+			assertEquals(secondTrip.getShots().size(), actual.size());
+			for (int i = 0; i < actual.size(); i++) {
+				assertEquals(secondTrip.getShots().get(i).toString(), actual.get(i).toString());
+			}
+		}
+		try (Stream<CompassShot> shots = parser.shots(path)) {
+			assertEquals(
+				expected.stream().mapToInt(trip -> trip.getShots().size()).sum(),
+				shots.count());
+		}
+	}
+
+	@Test
+	public void testShotColumns() throws IOException, URISyntaxException {
+		Path path = Paths.get(getClass().getResource("../fulford/Fulford.dat").toURI());
+		List<CompassTrip> expected = new CompassSurveyParser().parseCompassSurveyData(path);
+
+		CompassShotColumns columns = new CompassShotColumns();
+		new CompassSurveyParser().parseCompassSurveyData(path, columns);
+		columns.trimToSize();
+
+		assertEquals(expected.size(), columns.tripCount());
+		List<CompassShot> views = columns.asList();
+		int shot = 0;
+		for (int trip = 0; trip < expected.size(); trip++) {
+			assertEquals(shot, columns.getTripStart(trip));
+			for (CompassShot expectedShot : expected.get(trip).getShots()) {
+				assertEquals(expectedShot.toString(), views.get(shot).toString());
+				assertEquals(
+					expected.get(trip).getHeader().getSurveyName(),
+					views.get(shot).getTripHeader().getSurveyName());
+				assertEquals(
+					expectedShot.getFromStationName(),
+					columns.getStationName(columns.getFromStationId(shot)));
+				shot++;
+			}
+			assertEquals(shot, columns.getTripEnd(trip));
+		}
+		assertEquals(shot, columns.size());
+
+		double[] meters = new double[shot];
+		double[] radians = new double[shot];
+		columns.getColumnInMetersOrRadians(CompassShotColumns.LENGTH, 0, meters, 0, shot);
+		columns.getColumnInMetersOrRadians(CompassShotColumns.FRONTSIGHT_AZIMUTH, 0, radians, 0, shot);
+		for (int i = 0; i < shot; i++) {
+			assertEquals(views.get(i).getLength().get(Length.meters), meters[i], 1e-9);
+			UnitizedDouble<Angle> azimuth = views.get(i).getFrontsightAzimuth();
+			assertEquals(azimuth == null ? Double.NaN : azimuth.get(Angle.radians), radians[i], 1e-9);
+		}
+
+		CompassShotColumns.View view = columns.view(0);
+		view.setLength(Length.meters(1));
+		view.setExcludedFromPlotting(true);
+		view.setUp(null);
+		assertEquals(1 / 0.3048, columns.get(CompassShotColumns.LENGTH, 0), 1e-9);
+		assertTrue(columns.hasFlag(0, CompassShotColumns.EXCLUDED_FROM_PLOTTING));
+		assertTrue(Double.isNaN(columns.get(CompassShotColumns.UP, 0)));
+		assertNull(view.getUp());
+	}
+
+	@Test
+	public void testParallelParse() throws IOException, URISyntaxException {
+		Path path = Paths.get(getClass().getResource("../fulford/Fulford.dat").toURI());
+		String text = new String(Files.readAllBytes(path), "ASCII")
+			.replace("  13.35   303.00", "  13.35   363.00")
+			.replace("    -8.00     8.00", "  -108.00     8.00");
+
+		CompassSurveyParser sequentialParser = new CompassSurveyParser();
+		List<CompassTrip> expected = sequentialParser.parseCompassSurveyData(text, path);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			CompassSurveyParser parallelParser = new CompassSurveyParser();
+			List<CompassTrip> actual = parallelParser.parseCompassSurveyData(text, path, executor);
+
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).getHeader().getSurveyName(), actual.get(i).getHeader().getSurveyName());
+				assertEquals(
+					expected.get(i).getShots().stream().map(Object::toString).collect(Collectors.toList()),
+					actual.get(i).getShots().stream().map(Object::toString).collect(Collectors.toList()));
+				for (int j = 0; j < expected.get(i).getShots().size(); j++) {
+					CompassShot expectedShot = expected.get(i).getShots().get(j);
+					CompassShot actualShot = actual.get(i).getShots().get(j);
+					assertEquals(expectedShot.getFromStationId(), actualShot.getFromStationId());
+					assertEquals(expectedShot.getToStationId(), actualShot.getToStationId());
+					assertSame(
+						parallelParser.getStationDictionary().getName(actualShot.getFromStationId()),
+						actualShot.getFromStationName());
+				}
+			}
+			assertArrayEquals(
+				sequentialParser.getStationDictionary().getNames(),
+				parallelParser.getStationDictionary().getNames());
+			assertTrue(sequentialParser.getErrors().size() >= 2);
+			assertEquals(sequentialParser.getErrors(), parallelParser.getErrors());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
 }
@@ -0,0 +1,200 @@
+package org.andork.compass.survey;
+
+import static org.andork.compass.survey.SurveyAssertions.assertHeadersEqual;
+import static org.andork.compass.survey.SurveyAssertions.assertTripsEqual;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.andork.compass.AzimuthUnit;
+import org.andork.compass.CompassFiles;
+import org.andork.compass.InclinationUnit;
+import org.andork.compass.LengthUnit;
+import org.andork.compass.LrudAssociation;
+import org.andork.compass.LrudItem;
+import org.andork.unit.Angle;
+import org.andork.unit.Length;
+import org.junit.Test;
+
+public class CompassSurveyWriterTests {
+	private static String write(List<CompassTrip> trips) throws IOException {
+		StringWriter out = new StringWriter();
+		try (CompassSurveyWriter writer = new CompassSurveyWriter(out)) {
+			writer.writeTrips(trips);
+		}
+		return out.toString();
+	}
+
+	private static List<CompassTrip> parse(CompassSurveyParser parser, String text) throws IOException {
+		CompassTripCollector collector = new CompassTripCollector();
+		parser.parseCompassSurveyData(new StringReader(text), "written.dat", collector);
+		return collector.getTrips();
+	}
+
+	@Test
+	public void testRoundTripFulford() throws IOException {
+		CompassSurveyParser parser = new CompassSurveyParser();
+		List<CompassTrip> trips = parser
+			.parseCompassSurveyData(getClass().getResourceAsStream("../fulford/Fulford.dat"), "Fulford.dat");
+		assertTrue(parser.getErrors().isEmpty());
+
+		String text = write(trips);
+		CompassSurveyParser reparser = new CompassSurveyParser();
+		assertTripsEqual(trips, parse(reparser, text));
+		assertTrue(reparser.getErrors().isEmpty());
+
+		// writing again is stable
+		assertEquals(text, write(parse(new CompassSurveyParser(), text)));
+	}
+
+	@Test
+	public void testVisitor() throws IOException {
+		String original = CompassFiles.readString(getClass().getResourceAsStream("../fulford/Fulford.dat"));
+		StringWriter out = new StringWriter();
+		try (CompassSurveyWriter writer = new CompassSurveyWriter(out)) {
+			new CompassSurveyParser().parseCompassSurveyData(new StringReader(original), "Fulford.dat", writer);
+		}
+		assertEquals(write(parse(new CompassSurveyParser(), original)), out.toString());
+	}
+
+	@Test
+	public void testRoundTripFormatAndFlags() throws IOException {
+		CompassTripHeader header = new CompassTripHeader();
+		header.setCaveName("Test Cave");
+		header.setSurveyName("B");
+		header.setDate(new Date(2019 - 1900, 2, 7));
+		header.setComment("first\r\nsecond");
+		header.setTeam("Andy Edwards, Rob Dougherty");
+		header.setDeclination(Angle.degrees(-3.25));
+		header.setAzimuthUnit(AzimuthUnit.QUADS);
+		header.setLengthUnit(LengthUnit.METERS);
+		header.setLrudUnit(LengthUnit.FEET_AND_INCHES);
+		header.setInclinationUnit(InclinationUnit.PERCENT_GRADE);
+		LrudItem[] lrudOrder = { LrudItem.UP, LrudItem.DOWN, LrudItem.LEFT, LrudItem.RIGHT };
+		System.arraycopy(lrudOrder, 0, header.getLrudOrder(), 0, 4);
+		header.setShotMeasurementOrder(new ShotItem[] {
+			ShotItem.FRONTSIGHT_AZIMUTH,
+			ShotItem.BACKSIGHT_AZIMUTH,
+			ShotItem.LENGTH,
+			ShotItem.FRONTSIGHT_INCLINATION,
+			ShotItem.BACKSIGHT_INCLINATION, });
+		header.setHasBacksights(true);
+		header.setLrudAssociation(LrudAssociation.TO);
+		header.setLengthCorrection(Length.feet(0.5));
+		header.setFrontsightAzimuthCorrection(Angle.degrees(1.25));
+		header.setFrontsightInclinationCorrection(Angle.degrees(-0.75));
+		header.setBacksightAzimuthCorrection(Angle.degrees(2));
+		header.setBacksightInclinationCorrection(Angle.degrees(-2.5));
+
+		CompassShot shot = new CompassShot();
+		shot.setTripHeader(header);
+		shot.setFromStationName("B1");
+		shot.setToStationName("VERYLONGNAME12");
+		shot.setLength(Length.meters(10));
+		shot.setFrontsightAzimuth(Angle.degrees(359.5));
+		shot.setBacksightAzimuth(Angle.degrees(179.5));
+		shot.setBacksightInclination(Angle.degrees(-0.004));
+		shot.setLeft(Length.feet(1));
+		shot.setDown(Length.feet(0));
+		shot.setExcludedFromLength(true);
+		shot.setDoNotAdjust(true);
+		shot.setComment("squeeze\nhere");
+
+		CompassShot plain = new CompassShot();
+		plain.setTripHeader(header);
+		plain.setFromStationName("VERYLONGNAME12");
+		plain.setToStationName("B3");
+		plain.setLength(Length.feet(4.256));
+		plain.setFrontsightAzimuth(Angle.degrees(0));
+		plain.setFrontsightInclination(Angle.degrees(-90));
+
+		CompassTrip trip = new CompassTrip();
+		trip.setHeader(header);
+		trip.setShots(Arrays.asList(shot, plain));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (CompassSurveyWriter writer = new CompassSurveyWriter(bytes)) {
+			writer.writeTrip(trip);
+		}
+		String text = new String(bytes.toByteArray(), CompassFiles.CHARSET);
+		assertTrue(text, text.contains("FORMAT: QMIGUDLRAaLDdBT"));
+
+		CompassSurveyParser parser = new CompassSurveyParser();
+		List<CompassTrip> trips = parse(parser, text);
+		assertTrue(parser.getErrors().toString(), parser.getErrors().isEmpty());
+		assertEquals(1, trips.size());
+
+		// line breaks can't be written in a header comment
+		header.setComment("first  second");
+		CompassTrip actualTrip = trips.get(0);
+		assertHeadersEqual(header, actualTrip.getHeader());
+
+		CompassShot actual = actualTrip.getShots().get(0);
+		assertEquals("B1", actual.getFromStationName());
+		assertEquals("VERYLONGNAME12", actual.getToStationName());
+		assertEquals(32.81, actual.getLength().get(Length.feet), 0);
+		assertEquals(359.5, actual.getFrontsightAzimuth().get(Angle.degrees), 0);
+		assertNull(actual.getFrontsightInclination());
+		assertEquals(179.5, actual.getBacksightAzimuth().get(Angle.degrees), 0);
+		assertEquals(0, actual.getBacksightInclination().get(Angle.degrees), 0);
+		assertEquals(Length.feet(1), actual.getLeft());
+		assertNull(actual.getRight());
+		assertNull(actual.getUp());
+		assertEquals(Length.feet(0), actual.getDown());
+		assertTrue(actual.isExcludedFromLength());
+		assertFalse(actual.isExcludedFromPlotting());
+		assertFalse(actual.isExcludedFromAllProcessing());
+		assertTrue(actual.isDoNotAdjust());
+		assertEquals("squeeze here", actual.getComment());
+
+		actual = actualTrip.getShots().get(1);
+		assertEquals("VERYLONGNAME12", actual.getFromStationName());
+		assertEquals(4.26, actual.getLength().get(Length.feet), 0);
+		assertEquals(-90, actual.getFrontsightInclination().get(Angle.degrees), 0);
+		assertNull(actual.getBacksightAzimuth());
+		assertNull(actual.getComment());
+	}
+
+	@Test
+	public void testUnwritableShot() throws IOException {
+		CompassTripHeader header = new CompassTripHeader();
+		header.setCaveName("Test Cave");
+		header.setSurveyName("A");
+		CompassShot shot = new CompassShot();
+		shot.setTripHeader(header);
+		shot.setFromStationName("A1");
+		shot.setToStationName("A2");
+		shot.setLength(Length.feet(Double.POSITIVE_INFINITY));
+
+		StringWriter out = new StringWriter();
+		try (CompassSurveyWriter writer = new CompassSurveyWriter(out)) {
+			writer.writeTripHeader(header);
+			try {
+				writer.writeShot(shot);
+				fail("expected IllegalArgumentException");
+			}
+			catch (IllegalArgumentException e) {
+				// expected
+			}
+			shot.setLength(Length.feet(5));
+			writer.writeShot(shot);
+			writer.writeTripEnd();
+		}
+
+		CompassSurveyParser parser = new CompassSurveyParser();
+		List<CompassTrip> trips = parse(parser, out.toString());
+		assertTrue(parser.getErrors().toString(), parser.getErrors().isEmpty());
+		assertEquals(1, trips.get(0).getShots().size());
+		assertEquals(5, trips.get(0).getShots().get(0).getLength().get(Length.feet), 0);
+	}
+}
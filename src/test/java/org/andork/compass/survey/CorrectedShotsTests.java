@@ -0,0 +1,108 @@
+package org.andork.compass.survey;
+
+import static org.andork.compass.survey.SurveyFixtures.shot;
+import static org.andork.compass.survey.SurveyFixtures.trip;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.andork.unit.Angle;
+import org.andork.unit.Length;
+import org.junit.Test;
+
+public class CorrectedShotsTests {
+	@Test
+	public void testCorrections() {
+		CompassTripHeader header = new CompassTripHeader();
+		header.setLengthCorrection(Length.feet(1));
+		header.setDeclination(Angle.degrees(10));
+		header.setFrontsightAzimuthCorrection(Angle.degrees(2));
+		header.setBacksightAzimuthCorrection(Angle.degrees(-2));
+		header.setFrontsightInclinationCorrection(Angle.degrees(1));
+		header.setBacksightInclinationCorrection(Angle.degrees(-1));
+
+		CompassShot backsighted = shot("A", "B", 9, 357.0, 4.0);
+		backsighted.setBacksightAzimuth(Angle.degrees(181));
+		backsighted.setBacksightInclination(Angle.degrees(-2));
+		CompassShot backsightOnly = shot("A", "B", 9, Double.NaN, Double.NaN);
+		backsightOnly.setBacksightAzimuth(Angle.degrees(90));
+		backsightOnly.setBacksightInclination(Angle.degrees(10));
+
+		CorrectedShots corrected = CorrectedShots.of(
+			trip(
+				header,
+				backsighted,
+				backsightOnly,
+				shot("A", "B", 4, Double.NaN, -91.0),
+				shot("A", "B", 4, Double.NaN, 45.0)));
+
+		assertEquals(4, corrected.size());
+		assertEquals(3.048, corrected.getLength(0), 1e-9);
+		// frontsight 359, reversed backsight 359 => 359 + 10
+		assertEquals(Math.toRadians(369), corrected.getAzimuth(0), 1e-9);
+		// frontsight 5, reversed backsight 3
+		assertEquals(Math.toRadians(4), corrected.getInclination(0), 1e-9);
+
+		assertEquals(Math.toRadians(-92 + 10), corrected.getAzimuth(1), 1e-9);
+		assertEquals(Math.toRadians(-9), corrected.getInclination(1), 1e-9);
+
+		// shots that are vertical after correction may omit the azimuth
+		assertEquals(Math.toRadians(10), corrected.getAzimuth(2), 1e-9);
+		assertEquals(Math.toRadians(-90), corrected.getInclination(2), 1e-9);
+		assertTrue(Double.isNaN(corrected.getAzimuth(3)));
+	}
+
+	@Test
+	public void testColumnsMatchTrips() throws IOException, URISyntaxException {
+		Path path = Paths.get(getClass().getResource("../fulford/Fulford.dat").toURI());
+		List<CompassTrip> trips = new CompassSurveyParser().parseCompassSurveyData(path);
+		CompassShotColumns columns = new CompassShotColumns();
+		new CompassSurveyParser().parseCompassSurveyData(path, columns);
+
+		for (int trip = 0; trip < trips.size(); trip++) {
+			CorrectedShots fromTrip = CorrectedShots.of(trips.get(trip));
+			CorrectedShots fromColumns = CorrectedShots.of(columns, trip);
+			assertEquals(fromTrip.size(), fromColumns.size());
+			for (int shot = 0; shot < fromTrip.size(); shot++) {
+				assertEquals(fromTrip.getLength(shot), fromColumns.getLength(shot), 1e-9);
+				assertEquals(fromTrip.getAzimuth(shot), fromColumns.getAzimuth(shot), 1e-9);
+				assertEquals(fromTrip.getInclination(shot), fromColumns.getInclination(shot), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testCache() {
+		CompassTrip trip = trip(new CompassTripHeader(), shot("A", "B", 1, 0.0, 0.0));
+		CorrectedShots.Cache cache = new CorrectedShots.Cache();
+		CorrectedShots first = cache.get(trip);
+		assertSame(first, cache.get(trip));
+		assertEquals(1, cache.size());
+
+		List<CompassShot> shots = new ArrayList<>(trip.getShots());
+		shots.add(shot("A", "B", 2, 0.0, 0.0));
+		trip.setShots(shots);
+		CorrectedShots second = cache.get(trip);
+		assertEquals(2, second.size());
+
+		// shots added in place are noticed without invalidating
+		trip.getShots().add(shot("A", "B", 3, 0.0, 0.0));
+		CorrectedShots third = cache.get(trip);
+		assertEquals(3, third.size());
+		assertEquals(Length.feet(3).get(Length.meters), third.getLength(2), 1e-9);
+		assertSame(third, cache.get(trip));
+
+		cache.invalidate(trip);
+		assertNotSame(third, cache.get(trip));
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+}
@@ -0,0 +1,107 @@
+package org.andork.compass.survey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.andork.compass.CompassFiles;
+import org.andork.segment.Segment;
+import org.junit.Test;
+
+public class IncrementalSurveyParserTests {
+	private static void assertMatchesFullParse(IncrementalSurveyParser parser, Object source) {
+		CompassSurveyParser expectedParser = new CompassSurveyParser();
+		List<CompassTrip> expected = expectedParser
+			.parseCompassSurveyData(new Segment(parser.getText(), source, 0, 0));
+		List<CompassTrip> actual = parser.getTrips();
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getHeader().getSurveyName(), actual.get(i).getHeader().getSurveyName());
+			assertEquals(expected.get(i).getShots().size(), actual.get(i).getShots().size());
+			for (int j = 0; j < expected.get(i).getShots().size(); j++) {
+				assertEquals(
+					expected.get(i).getShots().get(j).toString(),
+					actual.get(i).getShots().get(j).toString());
+			}
+		}
+		assertEquals(expectedParser.getErrors(), parser.getErrors());
+	}
+
+	@Test
+	public void testIncrementalUpdates() throws IOException {
+		String text = CompassFiles.readString(getClass().getResourceAsStream("../fulford/Fulford.dat"));
+		IncrementalSurveyParser parser = new IncrementalSurveyParser("Fulford.dat");
+		IncrementalSurveyParser.Update update = parser.update(text);
+		assertEquals(25, update.getAddedTrips().size());
+		assertMatchesFullParse(parser, "Fulford.dat");
+		List<CompassTrip> original = parser.getTrips();
+
+		// no change
+		update = parser.update(text);
+		assertTrue(update.isEmpty());
+		assertEquals(25, update.getUnchangedTripCount());
+
+		// edit a shot length in the second trip
+		int secondTrip = text.indexOf('\f') + 1;
+		int shot = text.indexOf("\n", text.indexOf("FROM", secondTrip) + 6) + 1;
+		int length = text.indexOf('.', shot) - 1;
+		update = parser.update(length, length + 1, "9");
+		assertMatchesFullParse(parser, "Fulford.dat");
+		assertEquals(1, update.getChangedTrips().size());
+		assertSame(original.get(1), update.getReplacedTrips().get(0));
+		assertEquals(24, update.getUnchangedTripCount());
+		assertTrue(update.getAddedTrips().isEmpty());
+		assertTrue(update.getRemovedTrips().isEmpty());
+		for (int i = 0; i < original.size(); i++) {
+			if (i != 1) {
+				assertSame(original.get(i), parser.getTrips().get(i));
+			}
+		}
+
+		// remove the first trip
+		String edited = parser.getText();
+		update = parser.update(0, edited.indexOf('\f') + 1, "");
+		assertMatchesFullParse(parser, "Fulford.dat");
+		assertEquals(1, update.getRemovedTrips().size());
+		assertSame(original.get(0), update.getRemovedTrips().get(0));
+		assertEquals(24, parser.getTrips().size());
+		assertSame(original.get(2), parser.getTrips().get(1));
+
+		// add it back at the end
+		update = parser.update(edited.substring(edited.indexOf('\f') + 1) + edited.substring(0, edited.indexOf('\f') + 1));
+		assertMatchesFullParse(parser, "Fulford.dat");
+		assertEquals(1, update.getAddedTrips().size());
+		assertEquals(original.get(0).getHeader().getSurveyName(),
+			update.getAddedTrips().get(0).getHeader().getSurveyName());
+		assertEquals(24, update.getUnchangedTripCount());
+	}
+
+	@Test
+	public void testErrorsMoveWithTheirTrip() {
+		String trip = "SECRET CAVE\r\n" +
+			"SURVEY NAME: A\r\n" +
+			"SURVEY DATE: 7 10 79  COMMENT:Entrance Passage\r\n" +
+			"SURVEY TEAM:\r\n" +
+			"D.SMITH,R.BROWN,S.MURRAY\r\n" +
+			"DECLINATION: 1.00  FORMAT: DDDDLUDRADLNF\r\n" +
+			"\r\n" +
+			"FROM TO  LENGTH BEARING  DIP    LEFT    UP  DOWN RIGHT\r\n" +
+			"\r\n" +
+			"A2  A1   12.00  135.00   5.00  0.00  4.00  0.50  0.00  Big Room\r\n" +
+			"A2  A3   -41.17   46.00   2.00  0.00  0.00  0.00  0.00  #|PC# Room\r\n" +
+			"\f\r\n";
+		IncrementalSurveyParser parser = new IncrementalSurveyParser("test.dat");
+		parser.update(trip);
+		assertMatchesFullParse(parser, "test.dat");
+		assertTrue(parser.getErrors().size() > 0);
+		CompassTrip original = parser.getTrips().get(0);
+
+		IncrementalSurveyParser.Update update = parser.update(0, 0, "\r\n\r\n");
+		assertTrue(update.isEmpty());
+		assertSame(original, parser.getTrips().get(0));
+		assertMatchesFullParse(parser, "test.dat");
+	}
+}
@@ -0,0 +1,66 @@
+package org.andork.compass.survey;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+/**
+ * Assertions shared by the tests that read trips back from another
+ * representation, such as written .DAT files or the parse cache.
+ */
+public final class SurveyAssertions {
+	private SurveyAssertions() {
+
+	}
+
+	/**
+	 * Asserts that the trips have equal headers and equal shots, and that each
+	 * actual shot refers to its trip's header.
+	 */
+	public static void assertTripsEqual(List<CompassTrip> expected, List<CompassTrip> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			CompassTripHeader actualHeader = actual.get(i).getHeader();
+			assertHeadersEqual(expected.get(i).getHeader(), actualHeader);
+
+			List<CompassShot> expectedShots = expected.get(i).getShots();
+			List<CompassShot> actualShots = actual.get(i).getShots();
+			assertEquals(expectedShots.size(), actualShots.size());
+			for (int j = 0; j < expectedShots.size(); j++) {
+				assertEquals(expectedShots.get(j).toString(), actualShots.get(j).toString());
+				assertSame(actualHeader, actualShots.get(j).getTripHeader());
+			}
+		}
+	}
+
+	/**
+	 * Asserts that every field of the headers is equal.
+	 */
+	public static void assertHeadersEqual(CompassTripHeader expectedHeader, CompassTripHeader actualHeader) {
+		assertEquals(expectedHeader.getCaveName(), actualHeader.getCaveName());
+		assertEquals(expectedHeader.getSurveyName(), actualHeader.getSurveyName());
+		assertEquals(expectedHeader.getDate(), actualHeader.getDate());
+		assertEquals(expectedHeader.getComment(), actualHeader.getComment());
+		assertEquals(expectedHeader.getTeam(), actualHeader.getTeam());
+		assertEquals(expectedHeader.getDeclination(), actualHeader.getDeclination());
+		assertEquals(expectedHeader.getAzimuthUnit(), actualHeader.getAzimuthUnit());
+		assertEquals(expectedHeader.getLengthUnit(), actualHeader.getLengthUnit());
+		assertEquals(expectedHeader.getLrudUnit(), actualHeader.getLrudUnit());
+		assertEquals(expectedHeader.getInclinationUnit(), actualHeader.getInclinationUnit());
+		assertArrayEquals(expectedHeader.getLrudOrder(), actualHeader.getLrudOrder());
+		assertArrayEquals(expectedHeader.getShotMeasurementOrder(), actualHeader.getShotMeasurementOrder());
+		assertEquals(expectedHeader.hasBacksights(), actualHeader.hasBacksights());
+		assertEquals(expectedHeader.getLrudAssociation(), actualHeader.getLrudAssociation());
+		assertEquals(expectedHeader.getLengthCorrection(), actualHeader.getLengthCorrection());
+		assertEquals(expectedHeader.getFrontsightAzimuthCorrection(), actualHeader.getFrontsightAzimuthCorrection());
+		assertEquals(
+			expectedHeader.getFrontsightInclinationCorrection(),
+			actualHeader.getFrontsightInclinationCorrection());
+		assertEquals(expectedHeader.getBacksightAzimuthCorrection(), actualHeader.getBacksightAzimuthCorrection());
+		assertEquals(
+			expectedHeader.getBacksightInclinationCorrection(),
+			actualHeader.getBacksightInclinationCorrection());
+	}
+}
@@ -0,0 +1,65 @@
+package org.andork.compass.survey;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.andork.unit.Angle;
+import org.andork.unit.Length;
+import org.andork.unit.UnitizedDouble;
+
+/**
+ * Factories for the small trips and shots that tests build by hand.
+ */
+public final class SurveyFixtures {
+	private SurveyFixtures() {
+
+	}
+
+	/**
+	 * @return a trip with the given header and shots, whose trip header is set
+	 *         to the given header.
+	 */
+	public static CompassTrip trip(CompassTripHeader header, CompassShot... shots) {
+		CompassTrip trip = new CompassTrip();
+		trip.setHeader(header);
+		trip.setShots(Arrays.asList(shots));
+		for (CompassShot shot : shots) {
+			shot.setTripHeader(header);
+		}
+		return trip;
+	}
+
+	/**
+	 * @return a list of one trip with a default header and the given shots.
+	 */
+	public static List<CompassTrip> trips(CompassShot... shots) {
+		return Arrays.asList(trip(new CompassTripHeader(), shots));
+	}
+
+	/**
+	 * @return a shot with the given length in feet and frontsights in degrees,
+	 *         where <code>NaN</code> means a frontsight is missing.
+	 */
+	public static CompassShot shot(String from, String to, double length, double azimuth, double inclination) {
+		return shot(from, to, Length.feet(length), azimuth, inclination);
+	}
+
+	/**
+	 * @return a shot with the given length and frontsights in degrees, where
+	 *         <code>NaN</code> means a frontsight is missing.
+	 */
+	public static CompassShot shot(
+		String from,
+		String to,
+		UnitizedDouble<Length> length,
+		double azimuth,
+		double inclination) {
+		CompassShot shot = new CompassShot();
+		shot.setFromStationName(from);
+		shot.setToStationName(to);
+		shot.setLength(length);
+		shot.setFrontsightAzimuth(Double.isNaN(azimuth) ? null : Angle.degrees(azimuth));
+		shot.setFrontsightInclination(Double.isNaN(inclination) ? null : Angle.degrees(inclination));
+		return shot;
+	}
+}